@@ -0,0 +1,49 @@
+package com.bizo.aws.dynamock.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.dynamodb.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodb.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodb.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodb.model.Key;
+import com.amazonaws.services.dynamodb.model.KeysAndAttributes;
+
+/**
+ * Batches of TableState.BATCH_SIZE consecutive existing items from a random start.
+ * @author gregfitzgerald
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmarks {
+
+  @Benchmark
+  public BatchGetItemResult batchGetItem(final TableState table, final ThreadState thread) {
+    final int start = thread.nextIndex();
+    final List<Key> keys = new ArrayList<Key>(TableState.BATCH_SIZE);
+    for (int i = 0; i < TableState.BATCH_SIZE; i++) {
+      keys.add(table.key((start + i) % TableState.ITEM_COUNT));
+    }
+    return table.client.batchGetItem(new BatchGetItemRequest()
+        .withRequestItems(Collections.singletonMap(TableState.TABLE_NAME, new KeysAndAttributes().withKeys(keys))));
+  }
+
+  @Benchmark
+  public BatchWriteItemResult batchWriteItem(final TableState table, final ThreadState thread) {
+    return table.client.batchWriteItem(table.batchWrite(thread.nextIndex()));
+  }
+}
@@ -0,0 +1,31 @@
+package com.bizo.aws.dynamock.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks once for each thread count, writing each run's results to dynamock-threads-N.json.
+ * Thread counts are given by the dynamock.threads system property, "1,4" by default; any arguments are
+ * passed on to JMH, e.g. -p engine=hashmap,lsm to leave out the mongodb engine.
+ * @author gregfitzgerald
+ *
+ */
+public class DynamockBenchmarks {
+
+  public static void main(final String[] args) throws CommandLineOptionException, RunnerException {
+    final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+    for (String threads : System.getProperty("dynamock.threads", "1,4").split(",")) {
+      final ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions)
+        .threads(Integer.parseInt(threads.trim()));
+      if (!commandLineOptions.getResult().hasValue()) {
+        options.result("dynamock-threads-" + threads.trim() + ".json").resultFormat(ResultFormatType.JSON);
+      }
+      new Runner(options.build()).run();
+    }
+  }
+}
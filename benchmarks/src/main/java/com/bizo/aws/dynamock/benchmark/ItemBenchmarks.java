@@ -0,0 +1,53 @@
+package com.bizo.aws.dynamock.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.dynamodb.model.AttributeAction;
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.AttributeValueUpdate;
+import com.amazonaws.services.dynamodb.model.GetItemRequest;
+import com.amazonaws.services.dynamodb.model.GetItemResult;
+import com.amazonaws.services.dynamodb.model.PutItemRequest;
+import com.amazonaws.services.dynamodb.model.PutItemResult;
+import com.amazonaws.services.dynamodb.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodb.model.UpdateItemResult;
+
+/**
+ * Single item reads and writes of random existing items, so the table keeps its size.
+ * @author gregfitzgerald
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItemBenchmarks {
+
+  private static final AttributeValueUpdate INCREMENT = new AttributeValueUpdate(new AttributeValue().withN("1"), AttributeAction.ADD);
+
+  @Benchmark
+  public PutItemResult putItem(final TableState table, final ThreadState thread) {
+    return table.client.putItem(new PutItemRequest().withTableName(TableState.TABLE_NAME).withItem(table.item(thread.nextIndex())));
+  }
+
+  @Benchmark
+  public GetItemResult getItem(final TableState table, final ThreadState thread) {
+    return table.client.getItem(new GetItemRequest().withTableName(TableState.TABLE_NAME).withKey(table.key(thread.nextIndex())));
+  }
+
+  @Benchmark
+  public UpdateItemResult updateItem(final TableState table, final ThreadState thread) {
+    return table.client.updateItem(new UpdateItemRequest().withTableName(TableState.TABLE_NAME).withKey(table.key(thread.nextIndex()))
+        .withAttributeUpdates(Collections.singletonMap(TableState.COUNTER, INCREMENT)));
+  }
+}
@@ -0,0 +1,45 @@
+package com.bizo.aws.dynamock.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.ComparisonOperator;
+import com.amazonaws.services.dynamodb.model.Condition;
+import com.amazonaws.services.dynamodb.model.QueryRequest;
+import com.amazonaws.services.dynamodb.model.QueryResult;
+
+/**
+ * Queries of a random partition: all of it, and the middle half of its range keys.
+ * @author gregfitzgerald
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmarks {
+
+  @Benchmark
+  public QueryResult query(final TableState table, final ThreadState thread) {
+    return table.client.query(new QueryRequest().withTableName(TableState.TABLE_NAME)
+        .withHashKeyValue(table.hashKey(thread.nextPartition(table))));
+  }
+
+  @Benchmark
+  public QueryResult queryRange(final TableState table, final ThreadState thread) {
+    final Condition middle = new Condition().withComparisonOperator(ComparisonOperator.BETWEEN).withAttributeValueList(
+        new AttributeValue().withN(Integer.toString(table.partitionSize / 4)),
+        new AttributeValue().withN(Integer.toString(table.partitionSize * 3 / 4)));
+    return table.client.query(new QueryRequest().withTableName(TableState.TABLE_NAME)
+        .withHashKeyValue(table.hashKey(thread.nextPartition(table))).withRangeKeyCondition(middle));
+  }
+}
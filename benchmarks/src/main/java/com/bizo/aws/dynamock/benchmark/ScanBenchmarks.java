@@ -0,0 +1,48 @@
+package com.bizo.aws.dynamock.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.ComparisonOperator;
+import com.amazonaws.services.dynamodb.model.Condition;
+import com.amazonaws.services.dynamodb.model.Key;
+import com.amazonaws.services.dynamodb.model.ScanRequest;
+import com.amazonaws.services.dynamodb.model.ScanResult;
+
+/**
+ * Full table scans, following LastEvaluatedKey page by page, with a filter matching a tenth of the items.
+ * @author gregfitzgerald
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmarks {
+
+  private static final Condition FILTER = new Condition().withComparisonOperator(ComparisonOperator.EQ)
+    .withAttributeValueList(new AttributeValue().withN("3"));
+
+  @Benchmark
+  public int scanFilter(final TableState table) {
+    int count = 0;
+    Key exclusiveStartKey = null;
+    do {
+      final ScanResult result = table.client.scan(new ScanRequest().withTableName(TableState.TABLE_NAME)
+          .withScanFilter(Collections.singletonMap(TableState.NUMBER, FILTER)).withExclusiveStartKey(exclusiveStartKey));
+      count += result.getCount();
+      exclusiveStartKey = result.getLastEvaluatedKey();
+    } while (exclusiveStartKey != null);
+    return count;
+  }
+}
@@ -0,0 +1,184 @@
+package com.bizo.aws.dynamock.benchmark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodb.model.CreateTableRequest;
+import com.amazonaws.services.dynamodb.model.Key;
+import com.amazonaws.services.dynamodb.model.KeySchema;
+import com.amazonaws.services.dynamodb.model.KeySchemaElement;
+import com.amazonaws.services.dynamodb.model.PutRequest;
+import com.amazonaws.services.dynamodb.model.WriteRequest;
+import com.bizo.aws.dynamock.DynamockDBClient;
+import com.bizo.aws.dynamock.DynamockDBTableManager;
+import com.bizo.aws.dynamock.hashmap.DynamockDBTableManagerHashMapImpl;
+import com.bizo.aws.dynamock.hashmap.ItemLayout;
+import com.bizo.aws.dynamock.lsm.DynamockDBTableManagerLsmImpl;
+import com.bizo.aws.dynamock.mongodb.DynamockDBTableManagerMongoDBImpl;
+import com.bizo.aws.dynamock.offheap.DynamockDBTableManagerOffHeapImpl;
+
+/**
+ * A table of ITEM_COUNT items in one storage engine, shared by every thread of a benchmark.
+ * Items are spread over ITEM_COUNT / partitionSize hash keys, each holding partitionSize consecutive range keys,
+ * and carry a payload of itemSize characters and a small number, n, for filters.
+ *
+ * The mongodb engine needs a mongod, at localhost:27017 unless the dynamock.mongo.host and dynamock.mongo.port
+ * system properties say otherwise; it uses, and empties, the dynamock-benchmarks database.
+ * @author gregfitzgerald
+ *
+ */
+@State(Scope.Benchmark)
+public class TableState {
+
+  public static final String TABLE_NAME = "benchmark";
+  public static final String HASH_KEY = "id";
+  public static final String RANGE_KEY = "seq";
+  public static final String PAYLOAD = "payload";
+  public static final String NUMBER = "n";
+  public static final String COUNTER = "counter";
+  public static final int ITEM_COUNT = 10000;
+  // DynamoDB's limit on the writes in one batch
+  public static final int BATCH_SIZE = 25;
+
+  @Param({"hashmap", "compact", "offheap", "lsm", "mongodb"})
+  public String engine;
+
+  @Param({"100", "4000"})
+  public int itemSize;
+
+  @Param({"1", "100"})
+  public int partitionSize;
+
+  public DynamockDBClient client;
+  private DynamockDBTableManager tableManager;
+  private File dataDirectory;
+  private String payload;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    tableManager = createTableManager();
+    if (tableManager.getTable(TABLE_NAME) != null) {
+      tableManager.deleteTable(TABLE_NAME);
+    }
+    client = new DynamockDBClient(tableManager);
+    client.createTable(new CreateTableRequest().withTableName(TABLE_NAME)
+        .withKeySchema(new KeySchema(new KeySchemaElement().withAttributeName(HASH_KEY).withAttributeType("S"))
+          .withRangeKeyElement(new KeySchemaElement().withAttributeName(RANGE_KEY).withAttributeType("N"))));
+
+    final char[] chars = new char[itemSize];
+    Arrays.fill(chars, 'x');
+    payload = new String(chars);
+
+    for (int start = 0; start < ITEM_COUNT; start += BATCH_SIZE) {
+      client.batchWriteItem(batchWrite(start));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    tableManager.deleteTable(TABLE_NAME);
+    if (tableManager instanceof Closeable) {
+      ((Closeable)tableManager).close();
+    }
+    if (dataDirectory != null) {
+      delete(dataDirectory);
+    }
+  }
+
+  private DynamockDBTableManager createTableManager() throws IOException {
+    if ("hashmap".equals(engine)) {
+      return new DynamockDBTableManagerHashMapImpl();
+    } else if ("compact".equals(engine)) {
+      return new DynamockDBTableManagerHashMapImpl(ItemLayout.COMPACT);
+    } else if ("offheap".equals(engine)) {
+      return new DynamockDBTableManagerOffHeapImpl();
+    } else if ("lsm".equals(engine)) {
+      dataDirectory = File.createTempFile("dynamock-benchmark", "");
+      dataDirectory.delete();
+      return new DynamockDBTableManagerLsmImpl(dataDirectory);
+    } else if ("mongodb".equals(engine)) {
+      return new DynamockDBTableManagerMongoDBImpl(System.getProperty("dynamock.mongo.host", "localhost"),
+          Integer.getInteger("dynamock.mongo.port", 27017), "dynamock-benchmarks");
+    }
+    throw new IllegalArgumentException("Unknown engine " + engine);
+  }
+
+  /**
+   * Return the number of hash keys.
+   * @return
+   */
+  public int partitionCount() {
+    return ITEM_COUNT / partitionSize;
+  }
+
+  /**
+   * Return the hash key of the partition.
+   * @param partition
+   * @return
+   */
+  public AttributeValue hashKey(final int partition) {
+    return new AttributeValue().withS("partition-" + partition);
+  }
+
+  /**
+   * Return the key of the item with the given index, in [0, ITEM_COUNT).
+   * @param index
+   * @return
+   */
+  public Key key(final int index) {
+    return new Key(hashKey(index / partitionSize), new AttributeValue().withN(Integer.toString(index % partitionSize)));
+  }
+
+  /**
+   * Return the item with the given index.
+   * @param index
+   * @return
+   */
+  public Map<String, AttributeValue> item(final int index) {
+    final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+    item.put(HASH_KEY, hashKey(index / partitionSize));
+    item.put(RANGE_KEY, new AttributeValue().withN(Integer.toString(index % partitionSize)));
+    item.put(PAYLOAD, new AttributeValue().withS(payload));
+    item.put(NUMBER, new AttributeValue().withN(Integer.toString(index % 10)));
+    return item;
+  }
+
+  /**
+   * Return a request putting the BATCH_SIZE items from index start, wrapping around at ITEM_COUNT.
+   * @param start
+   * @return
+   */
+  public BatchWriteItemRequest batchWrite(final int start) {
+    final List<WriteRequest> writes = new ArrayList<WriteRequest>(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      writes.add(new WriteRequest().withPutRequest(new PutRequest().withItem(item((start + i) % ITEM_COUNT))));
+    }
+    return new BatchWriteItemRequest().withRequestItems(Collections.singletonMap(TABLE_NAME, writes));
+  }
+
+  private static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
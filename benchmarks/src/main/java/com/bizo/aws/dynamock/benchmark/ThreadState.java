@@ -0,0 +1,37 @@
+package com.bizo.aws.dynamock.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Each thread's source of item indexes.  Threads are seeded by the order they start in, so runs are repeatable.
+ * @author gregfitzgerald
+ *
+ */
+@State(Scope.Thread)
+public class ThreadState {
+
+  private static final AtomicInteger THREADS = new AtomicInteger();
+
+  private final Random random = new Random(31L * THREADS.incrementAndGet());
+
+  /**
+   * Return a random item index, in [0, TableState.ITEM_COUNT).
+   * @return
+   */
+  public int nextIndex() {
+    return random.nextInt(TableState.ITEM_COUNT);
+  }
+
+  /**
+   * Return a random partition of table.
+   * @param table
+   * @return
+   */
+  public int nextPartition(final TableState table) {
+    return random.nextInt(table.partitionCount());
+  }
+}
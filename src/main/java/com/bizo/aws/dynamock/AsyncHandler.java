@@ -0,0 +1,28 @@
+package com.bizo.aws.dynamock;
+
+import com.amazonaws.AmazonWebServiceRequest;
+
+/**
+ * A callback for the asynchronous operations of DynamockDBAsyncClient, in the shape of the SDK's later AsyncHandler.
+ * Exactly one method is called for each operation, on the thread that ran it, before its Future completes.
+ * @author gregfitzgerald
+ *
+ * @param <REQUEST> the type of request
+ * @param <RESULT> the type of result
+ */
+public interface AsyncHandler<REQUEST extends AmazonWebServiceRequest, RESULT> {
+
+  /**
+   * Called when the operation fails.
+   * @param exception
+   */
+  public void onError(Exception exception);
+
+  /**
+   * Called when the operation succeeds.
+   * @param request
+   * @param result
+   */
+  public void onSuccess(REQUEST request, RESULT result);
+
+}
@@ -0,0 +1,248 @@
+package com.bizo.aws.dynamock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.ComparisonOperator;
+import com.amazonaws.services.dynamodb.model.Condition;
+
+/**
+ * A Condition compiled for repeated evaluation against attribute values.
+ * The comparison operator is resolved and the operands are parsed once, when the predicate is compiled:
+ * N operands become BigDecimals, and set operands (and the IN list) become HashSets.
+ *
+ * Evaluation follows DynamoDB semantics: N values compare numerically, S values lexicographically, values of
+ * different types never match, and a missing attribute matches only NULL.
+ * @author gregfitzgerald
+ *
+ */
+public class ConditionPredicate {
+
+  private final ComparisonOperator comparisonOperator;
+  private final Object[] operands;
+  private final Set<Object> operandSet;
+  private final Object setOperand;
+
+  private ConditionPredicate(final ComparisonOperator comparisonOperator, final List<AttributeValue> targets) {
+    this.comparisonOperator = comparisonOperator;
+    this.operands = new Object[targets.size()];
+    for (int i = 0; i < operands.length; i++) {
+      operands[i] = typedValue(targets.get(i));
+    }
+
+    Set<Object> in = null;
+    if (comparisonOperator == ComparisonOperator.IN) {
+      in = new HashSet<Object>();
+      for (Object operand : operands) {
+        in.add(operand);
+      }
+    }
+    this.operandSet = in;
+
+    final boolean equality = (comparisonOperator == ComparisonOperator.EQ || comparisonOperator == ComparisonOperator.NE);
+    this.setOperand = equality ? setValue(targets.get(0)) : null;
+  }
+
+  /**
+   * Compile the given condition, validating its operand count.
+   * @param condition
+   * @return
+   * @throws AmazonServiceException if the condition has the wrong number of operands for its operator
+   */
+  public static ConditionPredicate compile(final Condition condition) throws AmazonServiceException {
+    validate(condition);
+    final List<AttributeValue> targets = condition.getAttributeValueList();
+    return new ConditionPredicate(ComparisonOperator.fromValue(condition.getComparisonOperator()),
+        (targets == null) ? new ArrayList<AttributeValue>() : targets);
+  }
+
+  /**
+   * Throw an AmazonServiceException if the given condition has the wrong number of operands for its operator.
+   * @param condition
+   * @throws AmazonServiceException
+   */
+  public static void validate(final Condition condition) throws AmazonServiceException {
+    final ComparisonOperator comparisonOperator = ComparisonOperator.fromValue(condition.getComparisonOperator());
+    final List<AttributeValue> targets = condition.getAttributeValueList();
+    final int count = (targets == null) ? 0 : targets.size();
+
+    final int required;
+    switch (comparisonOperator) {
+      case NULL:
+      case NOT_NULL:
+        required = 0;
+        break;
+      case BETWEEN:
+        required = 2;
+        break;
+      default:
+        required = 1;
+    }
+
+    if (count < required || (comparisonOperator == ComparisonOperator.BETWEEN && count != 2)) {
+      throw new AmazonServiceException("One or more parameter values were invalid: Invalid number of argument(s) for the "
+          + comparisonOperator + " ComparisonOperator");
+    }
+  }
+
+  public ComparisonOperator getComparisonOperator() {
+    return comparisonOperator;
+  }
+
+  /**
+   * Return true if the given attribute value (null when the attribute is missing) satisfies the condition.
+   * @param attributeValue
+   * @return
+   */
+  public boolean matches(final AttributeValue attributeValue) {
+    if (attributeValue == null) { // if attribute value is null, the only matching ComparisonOperator is NULL
+      return comparisonOperator == ComparisonOperator.NULL;
+    }
+
+    switch (comparisonOperator) {
+      case NULL:
+        return false;
+      case NOT_NULL:
+        return true;
+      case EQ:
+        return isEqual(attributeValue);
+      case NE:
+        return !isEqual(attributeValue);
+      case LT:
+      case LE:
+      case GT:
+      case GE:
+      case BETWEEN:
+        return inRange(typedValue(attributeValue));
+      case BEGINS_WITH:
+        final String s = attributeValue.getS();
+        return s != null && operands[0] instanceof String && s.startsWith((String)operands[0]);
+      case IN:
+        final Object value = typedValue(attributeValue);
+        return value != null && operandSet.contains(value);
+      case CONTAINS:
+        return contains(attributeValue);
+      case NOT_CONTAINS:
+        return !contains(attributeValue);
+      default:
+        throw new UnsupportedOperationException("Query or scan with " + comparisonOperator);
+    }
+  }
+
+  private boolean isEqual(final AttributeValue attributeValue) {
+    if (setOperand != null) {
+      return setOperand.equals(setValue(attributeValue));
+    }
+
+    final Object value = typedValue(attributeValue);
+    return value != null && value.equals(operands[0]);
+  }
+
+  /**
+   * Evaluate LT, LE, GT, GE and BETWEEN against a scalar value.  A value whose type differs from an operand never matches.
+   */
+  private boolean inRange(final Object value) {
+    if (!sameType(value, operands[0])) {
+      return false;
+    }
+
+    final int c = compare(value, operands[0]);
+    switch (comparisonOperator) {
+      case LT:
+        return c < 0;
+      case LE:
+        return c <= 0;
+      case GT:
+        return c > 0;
+      case GE:
+        return c >= 0;
+      default: // BETWEEN
+        return c >= 0 && sameType(value, operands[1]) && compare(value, operands[1]) <= 0;
+    }
+  }
+
+  private static boolean sameType(final Object value, final Object operand) {
+    return value != null && operand != null && value.getClass() == operand.getClass();
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static int compare(final Object value, final Object operand) {
+    return ((Comparable)value).compareTo(operand);
+  }
+
+  /**
+   * A string operand is a substring of an S attribute or a member of an SS attribute,
+   * a number operand is a member of an NS attribute.
+   */
+  private boolean contains(final AttributeValue attributeValue) {
+    final String s = attributeValue.getS();
+    final List<String> ss = attributeValue.getSS();
+    final List<String> ns = attributeValue.getNS();
+
+    for (Object operand : operands) {
+      if (operand instanceof String) {
+        final String target = (String)operand;
+        if ((s != null && s.contains(target)) || (ss != null && ss.contains(target))) {
+          return true;
+        }
+      } else if (operand instanceof BigDecimal && ns != null) {
+        for (String n : ns) {
+          if (number(n).equals(operand)) {
+            return true;
+          }
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * The scalar value of an S or N attribute value as a String or normalized BigDecimal, or null for sets.
+   * @param attributeValue
+   * @return
+   */
+  private static Object typedValue(final AttributeValue attributeValue) {
+    if (attributeValue.getS() != null) {
+      return attributeValue.getS();
+    } else if (attributeValue.getN() != null) {
+      return number(attributeValue.getN());
+    }
+
+    return null;
+  }
+
+  /**
+   * The members of an SS or NS attribute value as a set of Strings or normalized BigDecimals, or null for scalars.
+   * @param attributeValue
+   * @return
+   */
+  private static Set<Object> setValue(final AttributeValue attributeValue) {
+    final Set<Object> set = new HashSet<Object>();
+    if (attributeValue.getSS() != null) {
+      set.addAll(attributeValue.getSS());
+    } else if (attributeValue.getNS() != null) {
+      for (String n : attributeValue.getNS()) {
+        set.add(number(n));
+      }
+    } else {
+      return null;
+    }
+
+    return set;
+  }
+
+  /**
+   * Parse a number, stripping trailing zeros so that equal numbers are equal BigDecimals ("1.50" and "1.5").
+   * @param n
+   * @return
+   */
+  private static BigDecimal number(final String n) {
+    return new BigDecimal(n).stripTrailingZeros();
+  }
+}
@@ -0,0 +1,352 @@
+package com.bizo.aws.dynamock;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.dynamodb.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodb.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodb.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodb.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodb.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodb.model.CreateTableRequest;
+import com.amazonaws.services.dynamodb.model.CreateTableResult;
+import com.amazonaws.services.dynamodb.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodb.model.DeleteItemResult;
+import com.amazonaws.services.dynamodb.model.DeleteTableRequest;
+import com.amazonaws.services.dynamodb.model.DeleteTableResult;
+import com.amazonaws.services.dynamodb.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodb.model.DescribeTableResult;
+import com.amazonaws.services.dynamodb.model.GetItemRequest;
+import com.amazonaws.services.dynamodb.model.GetItemResult;
+import com.amazonaws.services.dynamodb.model.ListTablesRequest;
+import com.amazonaws.services.dynamodb.model.ListTablesResult;
+import com.amazonaws.services.dynamodb.model.PutItemRequest;
+import com.amazonaws.services.dynamodb.model.PutItemResult;
+import com.amazonaws.services.dynamodb.model.QueryRequest;
+import com.amazonaws.services.dynamodb.model.QueryResult;
+import com.amazonaws.services.dynamodb.model.ScanRequest;
+import com.amazonaws.services.dynamodb.model.ScanResult;
+import com.amazonaws.services.dynamodb.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodb.model.UpdateItemResult;
+import com.amazonaws.services.dynamodb.model.UpdateTableRequest;
+import com.amazonaws.services.dynamodb.model.UpdateTableResult;
+import com.bizo.aws.dynamock.hashmap.DynamockDBTableManagerHashMapImpl;
+
+/**
+ * An asynchronous DynamockDBClient, mocking AmazonDynamoDBAsyncClient.
+ * Each asynchronous operation runs the blocking operation on the client's executor and returns its Future.
+ * Every operation also takes an optional AsyncHandler, which is called with the outcome before the Future completes.
+ *
+ * By default operations run on a new virtual thread each where the JVM supports them, and otherwise on a cached pool
+ * of daemon threads.  Any executor may be given instead; shutdown shuts it down.
+ * @author gregfitzgerald
+ *
+ */
+public class DynamockDBAsyncClient extends DynamockDBClient implements AmazonDynamoDBAsync {
+
+  private final ExecutorService executorService;
+
+  public DynamockDBAsyncClient() {
+    this(new DynamockDBTableManagerHashMapImpl());
+  }
+
+  public DynamockDBAsyncClient(final DynamockDBTableManager tableManager) {
+    this(tableManager, defaultExecutorService());
+  }
+
+  /**
+   * Create a client whose operations run on executorService.
+   * @param tableManager
+   * @param executorService
+   */
+  public DynamockDBAsyncClient(final DynamockDBTableManager tableManager, final ExecutorService executorService) {
+    super(tableManager);
+    this.executorService = executorService;
+  }
+
+  /**
+   * Return the executor that asynchronous operations run on.
+   * @return
+   */
+  public ExecutorService getExecutorService() {
+    return executorService;
+  }
+
+  /**
+   * Shut down the executor.  Operations already submitted run to completion, but no more are accepted.
+   */
+  @Override
+  public void shutdown() {
+    executorService.shutdown();
+  }
+
+  @Override
+  public Future<BatchGetItemResult> batchGetItemAsync(final BatchGetItemRequest batchGetItemRequest)
+      throws AmazonServiceException, AmazonClientException {
+    return batchGetItemAsync(batchGetItemRequest, null);
+  }
+
+  public Future<BatchGetItemResult> batchGetItemAsync(final BatchGetItemRequest batchGetItemRequest,
+      final AsyncHandler<BatchGetItemRequest, BatchGetItemResult> asyncHandler) throws AmazonServiceException, AmazonClientException {
+    return submit(batchGetItemRequest, asyncHandler, new Callable<BatchGetItemResult>() {
+      @Override
+      public BatchGetItemResult call() {
+        return batchGetItem(batchGetItemRequest);
+      }
+    });
+  }
+
+  @Override
+  public Future<BatchWriteItemResult> batchWriteItemAsync(final BatchWriteItemRequest batchWriteItemRequest)
+      throws AmazonServiceException, AmazonClientException {
+    return batchWriteItemAsync(batchWriteItemRequest, null);
+  }
+
+  public Future<BatchWriteItemResult> batchWriteItemAsync(final BatchWriteItemRequest batchWriteItemRequest,
+      final AsyncHandler<BatchWriteItemRequest, BatchWriteItemResult> asyncHandler) throws AmazonServiceException, AmazonClientException {
+    return submit(batchWriteItemRequest, asyncHandler, new Callable<BatchWriteItemResult>() {
+      @Override
+      public BatchWriteItemResult call() {
+        return batchWriteItem(batchWriteItemRequest);
+      }
+    });
+  }
+
+  @Override
+  public Future<CreateTableResult> createTableAsync(final CreateTableRequest createTableRequest)
+      throws AmazonServiceException, AmazonClientException {
+    return createTableAsync(createTableRequest, null);
+  }
+
+  public Future<CreateTableResult> createTableAsync(final CreateTableRequest createTableRequest,
+      final AsyncHandler<CreateTableRequest, CreateTableResult> asyncHandler) throws AmazonServiceException, AmazonClientException {
+    return submit(createTableRequest, asyncHandler, new Callable<CreateTableResult>() {
+      @Override
+      public CreateTableResult call() {
+        return createTable(createTableRequest);
+      }
+    });
+  }
+
+  @Override
+  public Future<DeleteItemResult> deleteItemAsync(final DeleteItemRequest deleteItemRequest)
+      throws AmazonServiceException, AmazonClientException {
+    return deleteItemAsync(deleteItemRequest, null);
+  }
+
+  public Future<DeleteItemResult> deleteItemAsync(final DeleteItemRequest deleteItemRequest,
+      final AsyncHandler<DeleteItemRequest, DeleteItemResult> asyncHandler) throws AmazonServiceException, AmazonClientException {
+    return submit(deleteItemRequest, asyncHandler, new Callable<DeleteItemResult>() {
+      @Override
+      public DeleteItemResult call() {
+        return deleteItem(deleteItemRequest);
+      }
+    });
+  }
+
+  @Override
+  public Future<DeleteTableResult> deleteTableAsync(final DeleteTableRequest deleteTableRequest)
+      throws AmazonServiceException, AmazonClientException {
+    return deleteTableAsync(deleteTableRequest, null);
+  }
+
+  public Future<DeleteTableResult> deleteTableAsync(final DeleteTableRequest deleteTableRequest,
+      final AsyncHandler<DeleteTableRequest, DeleteTableResult> asyncHandler) throws AmazonServiceException, AmazonClientException {
+    return submit(deleteTableRequest, asyncHandler, new Callable<DeleteTableResult>() {
+      @Override
+      public DeleteTableResult call() {
+        return deleteTable(deleteTableRequest);
+      }
+    });
+  }
+
+  @Override
+  public Future<DescribeTableResult> describeTableAsync(final DescribeTableRequest describeTableRequest)
+      throws AmazonServiceException, AmazonClientException {
+    return describeTableAsync(describeTableRequest, null);
+  }
+
+  public Future<DescribeTableResult> describeTableAsync(final DescribeTableRequest describeTableRequest,
+      final AsyncHandler<DescribeTableRequest, DescribeTableResult> asyncHandler) throws AmazonServiceException, AmazonClientException {
+    return submit(describeTableRequest, asyncHandler, new Callable<DescribeTableResult>() {
+      @Override
+      public DescribeTableResult call() {
+        return describeTable(describeTableRequest);
+      }
+    });
+  }
+
+  @Override
+  public Future<GetItemResult> getItemAsync(final GetItemRequest getItemRequest)
+      throws AmazonServiceException, AmazonClientException {
+    return getItemAsync(getItemRequest, null);
+  }
+
+  public Future<GetItemResult> getItemAsync(final GetItemRequest getItemRequest,
+      final AsyncHandler<GetItemRequest, GetItemResult> asyncHandler) throws AmazonServiceException, AmazonClientException {
+    return submit(getItemRequest, asyncHandler, new Callable<GetItemResult>() {
+      @Override
+      public GetItemResult call() {
+        return getItem(getItemRequest);
+      }
+    });
+  }
+
+  @Override
+  public Future<ListTablesResult> listTablesAsync(final ListTablesRequest listTablesRequest)
+      throws AmazonServiceException, AmazonClientException {
+    return listTablesAsync(listTablesRequest, null);
+  }
+
+  public Future<ListTablesResult> listTablesAsync(final ListTablesRequest listTablesRequest,
+      final AsyncHandler<ListTablesRequest, ListTablesResult> asyncHandler) throws AmazonServiceException, AmazonClientException {
+    return submit(listTablesRequest, asyncHandler, new Callable<ListTablesResult>() {
+      @Override
+      public ListTablesResult call() {
+        return listTables(listTablesRequest);
+      }
+    });
+  }
+
+  @Override
+  public Future<PutItemResult> putItemAsync(final PutItemRequest putItemRequest)
+      throws AmazonServiceException, AmazonClientException {
+    return putItemAsync(putItemRequest, null);
+  }
+
+  public Future<PutItemResult> putItemAsync(final PutItemRequest putItemRequest,
+      final AsyncHandler<PutItemRequest, PutItemResult> asyncHandler) throws AmazonServiceException, AmazonClientException {
+    return submit(putItemRequest, asyncHandler, new Callable<PutItemResult>() {
+      @Override
+      public PutItemResult call() {
+        return putItem(putItemRequest);
+      }
+    });
+  }
+
+  @Override
+  public Future<QueryResult> queryAsync(final QueryRequest queryRequest)
+      throws AmazonServiceException, AmazonClientException {
+    return queryAsync(queryRequest, null);
+  }
+
+  public Future<QueryResult> queryAsync(final QueryRequest queryRequest,
+      final AsyncHandler<QueryRequest, QueryResult> asyncHandler) throws AmazonServiceException, AmazonClientException {
+    return submit(queryRequest, asyncHandler, new Callable<QueryResult>() {
+      @Override
+      public QueryResult call() {
+        return query(queryRequest);
+      }
+    });
+  }
+
+  @Override
+  public Future<ScanResult> scanAsync(final ScanRequest scanRequest)
+      throws AmazonServiceException, AmazonClientException {
+    return scanAsync(scanRequest, null);
+  }
+
+  public Future<ScanResult> scanAsync(final ScanRequest scanRequest,
+      final AsyncHandler<ScanRequest, ScanResult> asyncHandler) throws AmazonServiceException, AmazonClientException {
+    return submit(scanRequest, asyncHandler, new Callable<ScanResult>() {
+      @Override
+      public ScanResult call() {
+        return scan(scanRequest);
+      }
+    });
+  }
+
+  @Override
+  public Future<UpdateItemResult> updateItemAsync(final UpdateItemRequest updateItemRequest)
+      throws AmazonServiceException, AmazonClientException {
+    return updateItemAsync(updateItemRequest, null);
+  }
+
+  public Future<UpdateItemResult> updateItemAsync(final UpdateItemRequest updateItemRequest,
+      final AsyncHandler<UpdateItemRequest, UpdateItemResult> asyncHandler) throws AmazonServiceException, AmazonClientException {
+    return submit(updateItemRequest, asyncHandler, new Callable<UpdateItemResult>() {
+      @Override
+      public UpdateItemResult call() {
+        return updateItem(updateItemRequest);
+      }
+    });
+  }
+
+  @Override
+  public Future<UpdateTableResult> updateTableAsync(final UpdateTableRequest updateTableRequest)
+      throws AmazonServiceException, AmazonClientException {
+    return updateTableAsync(updateTableRequest, null);
+  }
+
+  public Future<UpdateTableResult> updateTableAsync(final UpdateTableRequest updateTableRequest,
+      final AsyncHandler<UpdateTableRequest, UpdateTableResult> asyncHandler) throws AmazonServiceException, AmazonClientException {
+    return submit(updateTableRequest, asyncHandler, new Callable<UpdateTableResult>() {
+      @Override
+      public UpdateTableResult call() {
+        return updateTable(updateTableRequest);
+      }
+    });
+  }
+
+  /**
+   * Run operation on the executor, reporting its outcome to asyncHandler if one is given.
+   * @param request
+   * @param asyncHandler
+   * @param operation
+   * @return
+   */
+  private <REQUEST extends AmazonWebServiceRequest, RESULT> Future<RESULT> submit(final REQUEST request,
+      final AsyncHandler<REQUEST, RESULT> asyncHandler, final Callable<RESULT> operation) {
+    return executorService.submit(new Callable<RESULT>() {
+      @Override
+      public RESULT call() throws Exception {
+        final RESULT result;
+        try {
+          result = operation.call();
+        } catch (Exception e) {
+          if (asyncHandler != null) {
+            asyncHandler.onError(e);
+          }
+          throw e;
+        }
+        
+        if (asyncHandler != null) {
+          asyncHandler.onSuccess(request, result);
+        }
+        return result;
+      }
+    });
+  }
+
+  /**
+   * Return a virtual thread per task executor if the JVM has virtual threads, or else a cached pool of daemon threads.
+   * Virtual threads are looked up reflectively, so the client still runs on JVMs without them.
+   * @return
+   */
+  static ExecutorService defaultExecutorService() {
+    try {
+      final Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService)newVirtualThreadPerTaskExecutor.invoke(null);
+    } catch (Exception e) {
+      // no virtual threads before Java 21
+    }
+    
+    final AtomicInteger threadCount = new AtomicInteger();
+    return Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        final Thread thread = new Thread(runnable, "dynamock-async-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+}
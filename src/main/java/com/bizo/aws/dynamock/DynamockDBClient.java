@@ -1,20 +1,26 @@
 package com.bizo.aws.dynamock;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.ResponseMetadata;
 import com.amazonaws.services.dynamodb.AmazonDynamoDB;
-import com.amazonaws.services.dynamodb.model.AttributeAction;
 import com.amazonaws.services.dynamodb.model.AttributeValue;
 import com.amazonaws.services.dynamodb.model.AttributeValueUpdate;
 import com.amazonaws.services.dynamodb.model.BatchGetItemRequest;
@@ -23,7 +29,6 @@ import com.amazonaws.services.dynamodb.model.BatchResponse;
 import com.amazonaws.services.dynamodb.model.BatchWriteItemRequest;
 import com.amazonaws.services.dynamodb.model.BatchWriteItemResult;
 import com.amazonaws.services.dynamodb.model.BatchWriteResponse;
-import com.amazonaws.services.dynamodb.model.ComparisonOperator;
 import com.amazonaws.services.dynamodb.model.Condition;
 import com.amazonaws.services.dynamodb.model.CreateTableRequest;
 import com.amazonaws.services.dynamodb.model.CreateTableResult;
@@ -56,6 +61,8 @@ import com.amazonaws.services.dynamodb.model.UpdateTableRequest;
 import com.amazonaws.services.dynamodb.model.UpdateTableResult;
 import com.amazonaws.services.dynamodb.model.WriteRequest;
 import com.bizo.aws.dynamock.hashmap.DynamockDBTableManagerHashMapImpl;
+import com.bizo.aws.dynamock.metrics.DynamockDBMetricsListener;
+import com.bizo.aws.dynamock.metrics.DynamockDBOperation;
 
 /**
  * A client for mocking AmazonDynamoDBClient locally, removing the need for a network connection during testing.
@@ -68,6 +75,8 @@ import com.bizo.aws.dynamock.hashmap.DynamockDBTableManagerHashMapImpl;
 public class DynamockDBClient implements AmazonDynamoDB {
 
   private DynamockDBTableManager tableManager;
+  private ForkJoinPool scanPool = ForkJoinPool.commonPool();
+  private volatile DynamockDBMetricsListener metricsListener;
   
   public DynamockDBClient() {
     this(new DynamockDBTableManagerHashMapImpl());
@@ -78,53 +87,167 @@ public class DynamockDBClient implements AmazonDynamoDB {
     this.tableManager = tableManager;
   }
   
+  /**
+   * Set the pool that parallelScan fans segments out over, and batch requests run tables on.  Defaults to the common fork-join pool.
+   * @param scanPool
+   */
+  public void setScanPool(final ForkJoinPool scanPool) {
+    this.scanPool = scanPool;
+  }
+  
+  /**
+   * Set the listener told of each operation this client completes or fails, or null, the default, to record nothing.
+   * Without a listener, operations are neither timed nor measured.
+   * @param metricsListener
+   */
+  public void setMetricsListener(final DynamockDBMetricsListener metricsListener) {
+    this.metricsListener = metricsListener;
+  }
+  
   @Override
   public void setEndpoint(String endpoint) throws IllegalArgumentException {
     throw new UnsupportedOperationException();
   }
 
   /**
-   * Perform the scan request on the given table
+   * Perform the scan request on the given table.
+   * Items are streamed from the table in a single pass, starting after the request's ExclusiveStartKey.
+   * The scan stops once Limit items or 1 MB of item data have been examined, and then returns a LastEvaluatedKey
+   * if the table has more items.  A table may skip items that can't match the scan filter (see DynamockDBTable.scan),
+   * in which case only the items it returns count as examined.  With AttributesToGet, only the requested attributes
+   * of each item are read, and only they count towards the 1 MB.
    */
   @Override
   public ScanResult scan(ScanRequest scanRequest)
       throws AmazonServiceException, AmazonClientException {
-
-    final DynamockDBTable table = getTable(scanRequest.getTableName());
-    final Map<String, Condition> scanFilter = scanRequest.getScanFilter();
-    
-    Collection<DynamockDBItem> itemObjs = table.getAllItems();
-    final Integer originalCount = itemObjs.size();
-    
-    // for each entry in the scan filter create a map 
-    // of AttributeValue (as identified by the key of the scanfilter) -> Item
-    // and evaluate that map against the condition
-    for (Entry<String, Condition> filter : scanFilter.entrySet()) {
-      final String attributeName = filter.getKey();
-      final Condition condition = filter.getValue();
-
-      // valueItemMap - a list of items to be scanned, keyed by the AttributeValue to be scanned
-      final Map<AttributeValue, DynamockDBItem> valueItemMap = new HashMap<AttributeValue, DynamockDBItem>();
-      for (DynamockDBItem item: itemObjs) {
-        final AttributeValue value = item.getAttributeValue(attributeName);
-        valueItemMap.put(value, item);
+    
+    return scan(scanRequest, 0, 1);
+  }
+  
+  /**
+   * Perform the scan request on one segment of the table, in the manner of DynamoDB's Segment and TotalSegments parameters.
+   * The segments of a table are disjoint and together cover every item, so they may be scanned concurrently;
+   * each is paged independently with Limit, ExclusiveStartKey and LastEvaluatedKey.
+   * @param scanRequest
+   * @param segment the zero-based segment to scan
+   * @param totalSegments the number of segments the table is split into
+   * @return
+   * @throws AmazonServiceException
+   * @throws AmazonClientException
+   */
+  public ScanResult scan(ScanRequest scanRequest, int segment, int totalSegments)
+      throws AmazonServiceException, AmazonClientException {
+    
+    final DynamockDBMetricsListener listener = metricsListener;
+    final long start = (listener == null) ? 0L : System.nanoTime();
+    try {
+      ScanSegments.validate(segment, totalSegments);
+      final DynamockDBTable table = getTable(scanRequest.getTableName());
+      final Map<String, ConditionPredicate> predicates = compileFilter(scanRequest.getScanFilter());
+      
+      final ScanPage page = scanPage(table, scanRequest.getScanFilter(), predicates, scanRequest.getAttributesToGet(),
+          scanRequest.getLimit(), scanRequest.getExclusiveStartKey(), segment, totalSegments);
+      
+      if (listener != null) {
+        recordScan(listener, table, start, scanRequest, page);
       }
-      itemObjs = filterByCondition(valueItemMap, condition);
+      return page.result;
+    } catch (RuntimeException e) {
+      recordFailure(listener, DynamockDBOperation.SCAN, scanRequest.getTableName(), start, e);
+      throw e;
     }
-
-    // convert the matching DynamockDBItems into Map<String, AttributeValue>
+  }
+  
+  /**
+   * Scan the whole table, splitting it into totalSegments segments which are scanned concurrently on the scan pool.
+   * Each segment is paged to completion (using the request's Limit as the page size) and the results are merged in
+   * segment order.  The request's ExclusiveStartKey is ignored, and the result never has a LastEvaluatedKey.
+   * @param scanRequest
+   * @param totalSegments
+   * @return
+   * @throws AmazonServiceException
+   * @throws AmazonClientException
+   */
+  public ScanResult parallelScan(ScanRequest scanRequest, int totalSegments)
+      throws AmazonServiceException, AmazonClientException {
+    
+    final DynamockDBMetricsListener listener = metricsListener;
+    final long start = (listener == null) ? 0L : System.nanoTime();
+    try {
+      ScanSegments.validate(0, totalSegments);
+      final DynamockDBTable table = getTable(scanRequest.getTableName());
+      final Map<String, ConditionPredicate> predicates = compileFilter(scanRequest.getScanFilter());
+      
+      final ScanPage page = scanPool.invoke(new SegmentScanTask(table, scanRequest.getScanFilter(), predicates,
+          scanRequest.getAttributesToGet(), scanRequest.getLimit(), 0, totalSegments, totalSegments));
+      
+      if (listener != null) {
+        recordScan(listener, table, start, scanRequest, page);
+      }
+      return page.result;
+    } catch (RuntimeException e) {
+      recordFailure(listener, DynamockDBOperation.SCAN, scanRequest.getTableName(), start, e);
+      throw e;
+    }
+  }
+  
+  /**
+   * Scan a single page of one segment of table.
+   * @param table
+   * @param scanFilter the scan filter, which the table may use to skip items
+   * @param predicates the compiled scan filter
+   * @param attributesToGet the attributes to return of each item, or null for whole items
+   * @param limit the most items to examine, or null
+   * @param exclusiveStartKey
+   * @param segment
+   * @param totalSegments
+   * @return the page, with the size of the items it returns
+   */
+  private ScanPage scanPage(final DynamockDBTable table, final Map<String, Condition> scanFilter,
+      final Map<String, ConditionPredicate> predicates, final List<String> attributesToGet,
+      final Integer limit, final Key exclusiveStartKey, final int segment, final int totalSegments) {
+    
+    final Iterator<DynamockDBItem> iterator = table.scan(exclusiveStartKey, segment, totalSegments, scanFilter, attributesToGet);
     final List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
-    for(DynamockDBItem itemObj : itemObjs) {
-      items.add(itemObj.toMap());
+    int scannedCount = 0;
+    int scannedSize = 0;
+    long returnedSize = 0;
+    DynamockDBItem lastItem = null;
+    boolean more;
+    
+    try {
+      while (iterator.hasNext()) {
+        if ((limit != null && scannedCount >= limit) || scannedSize >= ItemSizes.MAX_PAGE_SIZE) {
+          break;
+        }
+        
+        lastItem = iterator.next();
+        final Map<String, AttributeValue> attributes = ItemProjection.toMap(lastItem, attributesToGet);
+        final int size = ItemSizes.estimate(attributes, attributesToGet);
+        scannedCount++;
+        scannedSize += size;
+        
+        if (matchesAll(lastItem, predicates)) {
+          items.add(attributes);
+          returnedSize += size;
+        }
+      }
+      more = iterator.hasNext();
+    } finally {
+      close(iterator);
     }
 
     // build and return the ScanResult
     final ScanResult result = new ScanResult()
       .withItems(items)
       .withCount(items.size())
-      .withScannedCount(originalCount);
+      .withScannedCount(scannedCount);
+    
+    if (lastItem != null && more) {
+      result.setLastEvaluatedKey(keyForItem(table, lastItem));
+    }
     
-    return result;
+    return new ScanPage(result, returnedSize);
     
   }
 
@@ -132,23 +255,33 @@ public class DynamockDBClient implements AmazonDynamoDB {
   public CreateTableResult createTable(CreateTableRequest createTableRequest)
       throws AmazonServiceException, AmazonClientException {
     
-    final String tableName = createTableRequest.getTableName();
-    final KeySchema keySchema = createTableRequest.getKeySchema();
-    
+    final DynamockDBMetricsListener listener = metricsListener;
+    final long start = (listener == null) ? 0L : System.nanoTime();
+    try {
+      final String tableName = createTableRequest.getTableName();
+      final KeySchema keySchema = createTableRequest.getKeySchema();
+      
 //    try {
-      // setup table and keys
-      tableManager.createTable(tableName, keySchema);
+        // setup table and keys
+        tableManager.createTable(tableName, keySchema);
 //    } catch (Exception e) {
 //      throw new AmazonClientException(e.getMessage());
 //    }
 
-    final CreateTableResult result = new CreateTableResult();
-    final TableDescription tableDescription = new TableDescription()
-      .withItemCount(Long.valueOf(0L))
-      .withTableName(tableName)
-      .withKeySchema(keySchema);
-    
-    return result.withTableDescription(tableDescription);
+      final CreateTableResult result = new CreateTableResult();
+      final TableDescription tableDescription = new TableDescription()
+        .withItemCount(Long.valueOf(0L))
+        .withTableName(tableName)
+        .withKeySchema(keySchema);
+      
+      if (listener != null) {
+        listener.operationCompleted(DynamockDBOperation.CREATE_TABLE, tableName, System.nanoTime() - start, 0, 0, 0L, 0L);
+      }
+      return result.withTableDescription(tableDescription);
+    } catch (RuntimeException e) {
+      recordFailure(listener, DynamockDBOperation.CREATE_TABLE, createTableRequest.getTableName(), start, e);
+      throw e;
+    }
   }
 
   @Override
@@ -162,87 +295,128 @@ public class DynamockDBClient implements AmazonDynamoDB {
   public QueryResult query(final QueryRequest queryRequest)
       throws AmazonServiceException, AmazonClientException {
     
-    final DynamockDBTable table = getTable(queryRequest.getTableName());
-    final AttributeValue hashKey = queryRequest.getHashKeyValue();
-    
-    // must have a hash key to perform query
-    if (hashKey == null) {
-      throw new AmazonClientException("Hash key was null");
-    }
+    final DynamockDBMetricsListener listener = metricsListener;
+    final long start = (listener == null) ? 0L : System.nanoTime();
+    try {
+      final DynamockDBTable table = getTable(queryRequest.getTableName());
+      final AttributeValue hashKey = queryRequest.getHashKeyValue();
+      
+      // must have a hash key to perform query
+      if (hashKey == null) {
+        throw new AmazonClientException("Hash key was null");
+      }
 
-    // find all the items by range key for this query (return an empty list if none exists)
-    Map<AttributeValue, DynamockDBItem> itemsByRange = table.getItemsForHashKey(hashKey);
-    if (itemsByRange == null) {
-      itemsByRange = new HashMap<AttributeValue, DynamockDBItem>();
-    }
-    
-    // filter the list on range key by the given condition and massage it back into Map form
-    final Collection<DynamockDBItem> items = filterByCondition(itemsByRange, queryRequest.getRangeKeyCondition());
-    final List<Map<String, AttributeValue>> retItems = new ArrayList<Map<String, AttributeValue>>();
-    for(DynamockDBItem item : items) {
-      retItems.add(item.toMap());
-    }
-    
-    // sort by range key
-    Boolean scanIndexForward = queryRequest.getScanIndexForward();
-    if (scanIndexForward == null) {
-      scanIndexForward = Boolean.TRUE;
+      Boolean scanIndexForward = queryRequest.getScanIndexForward();
+      if (scanIndexForward == null) {
+        scanIndexForward = Boolean.TRUE;
+      }
+      
+      // a page resumes after the range key of the previous page's last item
+      final Key exclusiveStartKey = queryRequest.getExclusiveStartKey();
+      AttributeValue startRangeKey = null;
+      if (exclusiveStartKey != null) {
+        final AttributeValue startHashKey = exclusiveStartKey.getHashKeyElement();
+        if (startHashKey == null || !SortKey.of(startHashKey).equals(SortKey.of(hashKey))) {
+          throw new AmazonServiceException("The provided starting key is invalid");
+        }
+        startRangeKey = exclusiveStartKey.getRangeKeyElement();
+      }
+      
+      // the table hands back its items already in range key order, so no sort is needed here.
+      // conditions that select a contiguous range of keys are served by the table directly, once their operands are checked,
+      // anything else is evaluated against each item of the partition.
+      final Condition rangeKeyCondition = queryRequest.getRangeKeyCondition();
+      final String rangeKeyName = table.getRangeKeyName();
+      ConditionPredicate predicate = null;
+      Condition tableCondition = rangeKeyCondition;
+      if (rangeKeyCondition != null && !RangeKeyConditions.isNavigable(rangeKeyCondition)) {
+        predicate = ConditionPredicate.compile(rangeKeyCondition);
+        tableCondition = null;
+      } else if (rangeKeyCondition != null) {
+        ConditionPredicate.validate(rangeKeyCondition);
+      }
+      
+      // stop once Limit items have matched or 1 MB of items have been read.
+      // when every item read matches, the table need only read one more than Limit to tell whether more remain.
+      final Integer limit = queryRequest.getLimit();
+      final Integer tableLimit = (limit != null && predicate == null && limit < Integer.MAX_VALUE) ? Integer.valueOf(limit + 1) : null;
+      final List<String> attributesToGet = queryRequest.getAttributesToGet();
+      final Iterator<DynamockDBItem> iterator =
+          table.query(hashKey, tableCondition, scanIndexForward, startRangeKey, tableLimit, attributesToGet).iterator();
+      final List<Map<String, AttributeValue>> retItems = new ArrayList<Map<String, AttributeValue>>();
+      int readCount = 0;
+      int readSize = 0;
+      long returnedSize = 0;
+      DynamockDBItem lastItem = null;
+      boolean more;
+      
+      try {
+        while (iterator.hasNext()) {
+          if ((limit != null && retItems.size() >= limit) || readSize >= ItemSizes.MAX_PAGE_SIZE) {
+            break;
+          }
+        
+          lastItem = iterator.next();
+          final Map<String, AttributeValue> attributes = ItemProjection.toMap(lastItem, attributesToGet);
+          final int size = ItemSizes.estimate(attributes, attributesToGet);
+          readCount++;
+          readSize += size;
+        
+          if (predicate == null || predicate.matches(lastItem.getAttributeValue(rangeKeyName))) {
+            retItems.add(attributes);
+            returnedSize += size;
+          }
+        }
+        more = iterator.hasNext();
+      } finally {
+        close(iterator);
+      }
+      
+      // build the result
+      final QueryResult result = new QueryResult()
+        .withItems(retItems)
+        .withCount(retItems.size());
+      
+      if (lastItem != null && more) {
+        result.setLastEvaluatedKey(keyForItem(table, lastItem));
+      }
+      
+      if (listener != null) {
+        listener.operationCompleted(DynamockDBOperation.QUERY, table.getTableName(), System.nanoTime() - start,
+            retItems.size(), readCount,
+            ItemSizes.estimate(hashKey) + ItemSizes.estimate(rangeKeyCondition) + ItemSizes.estimate(exclusiveStartKey),
+            returnedSize);
+      }
+      return result;
+    } catch (RuntimeException e) {
+      recordFailure(listener, DynamockDBOperation.QUERY, queryRequest.getTableName(), start, e);
+      throw e;
     }
-    
-    sortResultList(retItems, 
-        table.getRangeKeyName(), 
-        scanIndexForward);
-    
-    // build the result
-    final QueryResult result = new QueryResult()
-      .withItems(retItems)
-      .withCount(retItems.size());
-    
-    return result;
   }
 
   @Override
   public UpdateItemResult updateItem(UpdateItemRequest updateItemRequest)
       throws AmazonServiceException, AmazonClientException {
     
-    final Map<String, AttributeValueUpdate> updates = updateItemRequest.getAttributeUpdates();
-    final DynamockDBTable table = getTable(updateItemRequest.getTableName());
-    final Key key = updateItemRequest.getKey();
-    DynamockDBItem item = table.getItem(key);
-    
-    // if item is not found, create it
-    if (item == null) {
-      final Map<String, AttributeValue> keyMap = new HashMap<String, AttributeValue>();
-      
-      // hashkey
-      keyMap.put(
-          table.getHashKeyName(), 
-          updateItemRequest.getKey().getHashKeyElement()
-      );
-      //rangekey
-      if (table.getRangeKeyName() != null) {
-        keyMap.put(
-            table.getRangeKeyName(), 
-            updateItemRequest.getKey().getRangeKeyElement()
-        );
-      }
+    final DynamockDBMetricsListener listener = metricsListener;
+    final long start = (listener == null) ? 0L : System.nanoTime();
+    try {
+      final Map<String, AttributeValueUpdate> updates = updateItemRequest.getAttributeUpdates();
+      final DynamockDBTable table = getTable(updateItemRequest.getTableName());
+      final Key key = updateItemRequest.getKey();
       
-      item = table.createItem(keyMap);
-    }
-    
-    // set the updates here
-    for (Entry<String, AttributeValueUpdate> entry : updates.entrySet()) {
-      final String attributeName = entry.getKey();
-      final AttributeValueUpdate update = entry.getValue();
+      // the table applies the updates (creating the item if it is not found) as a single operation
+      table.updateItem(key, updates);
       
-      if (update.getAction().equals(AttributeAction.PUT.toString())) {
-        item.setAttributeValue(attributeName, update.getValue());
+      if (listener != null) {
+        listener.operationCompleted(DynamockDBOperation.UPDATE_ITEM, table.getTableName(), System.nanoTime() - start, 0, 0,
+            ItemSizes.estimate(key) + ItemSizes.estimateUpdates(updates), 0L);
       }
+      return new UpdateItemResult();
+    } catch (RuntimeException e) {
+      recordFailure(listener, DynamockDBOperation.UPDATE_ITEM, updateItemRequest.getTableName(), start, e);
+      throw e;
     }
-    
-    table.putItem(key, item);
-    
-    return new UpdateItemResult();
   }
 
   @Override
@@ -259,43 +433,77 @@ public class DynamockDBClient implements AmazonDynamoDB {
   public PutItemResult putItem(PutItemRequest putItemRequest)
       throws AmazonServiceException, AmazonClientException {
     
-    final String tableName = putItemRequest.getTableName();
-    final DynamockDBTable table = getTable(tableName);
-    
-    table.createItem(putItemRequest.getItem());
-    
-    return new PutItemResult();
+    final DynamockDBMetricsListener listener = metricsListener;
+    final long start = (listener == null) ? 0L : System.nanoTime();
+    try {
+      final String tableName = putItemRequest.getTableName();
+      final DynamockDBTable table = getTable(tableName);
+      final Map<String, AttributeValue> item = putItemRequest.getItem();
+      
+      validateItemKey(table, item);
+      table.createItem(item);
+      
+      if (listener != null) {
+        listener.operationCompleted(DynamockDBOperation.PUT_ITEM, tableName, System.nanoTime() - start, 0, 0,
+            ItemSizes.estimate(item), 0L);
+      }
+      return new PutItemResult();
+    } catch (RuntimeException e) {
+      recordFailure(listener, DynamockDBOperation.PUT_ITEM, putItemRequest.getTableName(), start, e);
+      throw e;
+    }
   }
 
   @Override
   public DeleteTableResult deleteTable(DeleteTableRequest deleteTableRequest)
       throws AmazonServiceException, AmazonClientException {
     
-    final String tableName = deleteTableRequest.getTableName();
-    // trigger an exception if table doesn't exist
-    getTable(tableName);
-    tableManager.deleteTable(tableName);
-    
-    final TableDescription tableDescription = new TableDescription()
-      .withTableName(tableName)
-      .withTableStatus(TableStatus.DELETING);
-    
-    final DeleteTableResult result = new DeleteTableResult()
-      .withTableDescription(tableDescription);
-    
-    return result;
+    final DynamockDBMetricsListener listener = metricsListener;
+    final long start = (listener == null) ? 0L : System.nanoTime();
+    try {
+      final String tableName = deleteTableRequest.getTableName();
+      // trigger an exception if table doesn't exist
+      getTable(tableName);
+      tableManager.deleteTable(tableName);
+      
+      final TableDescription tableDescription = new TableDescription()
+        .withTableName(tableName)
+        .withTableStatus(TableStatus.DELETING);
+      
+      final DeleteTableResult result = new DeleteTableResult()
+        .withTableDescription(tableDescription);
+      
+      if (listener != null) {
+        listener.operationCompleted(DynamockDBOperation.DELETE_TABLE, tableName, System.nanoTime() - start, 0, 0, 0L, 0L);
+      }
+      return result;
+    } catch (RuntimeException e) {
+      recordFailure(listener, DynamockDBOperation.DELETE_TABLE, deleteTableRequest.getTableName(), start, e);
+      throw e;
+    }
   }
 
   @Override
   public DeleteItemResult deleteItem(DeleteItemRequest deleteItemRequest)
       throws AmazonServiceException, AmazonClientException {
 
-    final Key key = deleteItemRequest.getKey();
-    final DynamockDBTable table = getTable(deleteItemRequest.getTableName());
-    
-    table.deleteItem(key);
-    
-    return new DeleteItemResult();
+    final DynamockDBMetricsListener listener = metricsListener;
+    final long start = (listener == null) ? 0L : System.nanoTime();
+    try {
+      final Key key = deleteItemRequest.getKey();
+      final DynamockDBTable table = getTable(deleteItemRequest.getTableName());
+      
+      table.deleteItem(key);
+      
+      if (listener != null) {
+        listener.operationCompleted(DynamockDBOperation.DELETE_ITEM, table.getTableName(), System.nanoTime() - start, 0, 0,
+            ItemSizes.estimate(key), 0L);
+      }
+      return new DeleteItemResult();
+    } catch (RuntimeException e) {
+      recordFailure(listener, DynamockDBOperation.DELETE_ITEM, deleteItemRequest.getTableName(), start, e);
+      throw e;
+    }
   }
 
   @Override
@@ -308,115 +516,193 @@ public class DynamockDBClient implements AmazonDynamoDB {
   @Override
   public GetItemResult getItem(GetItemRequest getItemRequest)
       throws AmazonServiceException, AmazonClientException {
-    final GetItemResult result = new GetItemResult();
-    
-    final String tableName = getItemRequest.getTableName();
-    final DynamockDBTable table = getTable(tableName);
-    
-    final DynamockDBItem item = table.getItem(getItemRequest.getKey());
+    final DynamockDBMetricsListener listener = metricsListener;
+    final long start = (listener == null) ? 0L : System.nanoTime();
+    try {
+      final GetItemResult result = new GetItemResult();
+      
+      final String tableName = getItemRequest.getTableName();
+      final DynamockDBTable table = getTable(tableName);
+      
+      final Key key = getItemRequest.getKey();
+      final List<String> attributesToGet = getItemRequest.getAttributesToGet();
+      
+      // a projection is read through getItems, so that the table can fetch just the requested attributes
+      DynamockDBItem item = null;
+      if (ItemProjection.isProjection(attributesToGet)) {
+        final List<DynamockDBItem> items = table.getItems(Collections.singletonList(key), attributesToGet);
+        if (!items.isEmpty()) {
+          item = items.get(0);
+        }
+      } else {
+        item = table.getItem(key);
+      }
 
-    Map<String, AttributeValue> retItem = null;
-    if (item != null) {
-      retItem = item.toMap();
+      Map<String, AttributeValue> retItem = null;
+      if (item != null) {
+        retItem = item.toMap();
+      }
+      
+      result.setItem(retItem);
+      
+      if (listener != null) {
+        final int found = (retItem == null) ? 0 : 1;
+        listener.operationCompleted(DynamockDBOperation.GET_ITEM, tableName, System.nanoTime() - start, found, found,
+            ItemSizes.estimate(key), (retItem == null) ? 0L : ItemSizes.estimate(retItem));
+      }
+      return result;
+    } catch (RuntimeException e) {
+      recordFailure(listener, DynamockDBOperation.GET_ITEM, getItemRequest.getTableName(), start, e);
+      throw e;
     }
-    
-    result.setItem(retItem);
-    
-    return result;
   }
 
   /**
    * Get multiple tables and items by keys.
+   * Each table's keys are looked up with a single DynamockDBTable.getItems call, and the tables are read concurrently on the scan pool.
    */
   @Override
   public BatchGetItemResult batchGetItem(BatchGetItemRequest batchGetItemRequest)
       throws AmazonServiceException, AmazonClientException {
     
-    final Map<String, KeysAndAttributes> requestItems = batchGetItemRequest.getRequestItems();
-    final Map<String, BatchResponse> retMap = new HashMap<String, BatchResponse>();
-    
-    for (Entry<String, KeysAndAttributes> entry : requestItems.entrySet()) {
-      final String tableName = entry.getKey();
-      final KeysAndAttributes keysAndAttributes = entry.getValue();
-      final Collection<Key> keys = keysAndAttributes.getKeys();
+    final DynamockDBMetricsListener listener = metricsListener;
+    final long start = (listener == null) ? 0L : System.nanoTime();
+    try {
+      final Map<String, KeysAndAttributes> requestItems = batchGetItemRequest.getRequestItems();
+      final Map<String, BatchResponse> retMap = new HashMap<String, BatchResponse>();
+      final List<TableRead> tableReads = new ArrayList<TableRead>();
+      
+      for (Entry<String, KeysAndAttributes> entry : requestItems.entrySet()) {
+        final String tableName = entry.getKey();
+        final KeysAndAttributes keysAndAttributes = entry.getValue();
+        final List<Key> keys = keysAndAttributes.getKeys();
       
-      if (keys.isEmpty()) {
-        throw new AmazonServiceException("1 validation error detected: Value null at 'requestItems." + tableName + "' failed to satisfy constraint: Member must not be null");
+        if (keys == null || keys.isEmpty()) {
+          throw new AmazonServiceException("1 validation error detected: Value null at 'requestItems." + tableName + "' failed to satisfy constraint: Member must not be null");
+        }
+      
+        final TableRead tableRead = new TableRead(getTable(tableName), keys, keysAndAttributes.getAttributesToGet());
+        retMap.put(tableName, tableRead.response);
+        tableReads.add(tableRead);
       }
       
-      final DynamockDBTable table = getTable(tableName);
-      final BatchResponse batchResponse = new BatchResponse();
-      final List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+      runTableBatches(tableReads);
       
-      for (Key key : keys) {
-        final DynamockDBItem item = table.getItem(key);
-        if (item != null) {
-          items.add(item.toMap());
+      if (listener != null) {
+        final long latency = System.nanoTime() - start;
+        for (TableRead tableRead : tableReads) {
+          final List<Map<String, AttributeValue>> items = tableRead.response.getItems();
+          listener.operationCompleted(DynamockDBOperation.BATCH_GET_ITEM, tableRead.table.getTableName(), latency,
+              items.size(), tableRead.keys.size(), ItemSizes.estimateKeys(tableRead.keys), ItemSizes.estimate(items));
         }
       }
       
-      batchResponse.setItems(items);
-      retMap.put(tableName, batchResponse);
+      final BatchGetItemResult result = new BatchGetItemResult()
+        .withResponses(retMap)
+        .withUnprocessedKeys(new HashMap<String, KeysAndAttributes>());
+      
+      return result;
+    } catch (RuntimeException e) {
+      recordBatchFailure(listener, DynamockDBOperation.BATCH_GET_ITEM, batchGetItemRequest.getRequestItems(), start, e);
+      throw e;
     }
-    
-    final BatchGetItemResult result = new BatchGetItemResult()
-      .withResponses(retMap)
-      .withUnprocessedKeys(new HashMap<String, KeysAndAttributes>());
-    
-    return result;
-    
   }
   
   /**
-   * Supports batch deletes and puts 
+   * Supports batch deletes and puts.
+   * Validate the whole batch before applying any of it, then apply each table's writes with a single
+   * DynamockDBTable.batchWrite call.  The tables of a batch are written concurrently on the scan pool.
    */
   @Override
   public BatchWriteItemResult batchWriteItem(BatchWriteItemRequest batchWriteItemRequest) 
       throws AmazonServiceException, AmazonClientException {
     
-    final Map<String, List<WriteRequest>> tableRequestItemMap = batchWriteItemRequest.getRequestItems();
-    final BatchWriteItemResult result = new BatchWriteItemResult();
-    final Map<String, BatchWriteResponse> responses = new HashMap<String, BatchWriteResponse>();
-    double totalCount = 0;
-    
-    for (Entry<String, List<WriteRequest>> entry : tableRequestItemMap.entrySet()) {
-      final String tableName = entry.getKey();
-      final List<WriteRequest> writeRequests = entry.getValue();
-      final DynamockDBTable table = getTable(tableName);
-      final BatchWriteResponse response = new BatchWriteResponse();
-      double count = 0;
+    final DynamockDBMetricsListener listener = metricsListener;
+    final long start = (listener == null) ? 0L : System.nanoTime();
+    try {
+      final Map<String, List<WriteRequest>> tableRequestItemMap = batchWriteItemRequest.getRequestItems();
+      final BatchWriteItemResult result = new BatchWriteItemResult();
+      final Map<String, BatchWriteResponse> responses = new HashMap<String, BatchWriteResponse>();
+      final List<TableWrite> tableWrites = new ArrayList<TableWrite>();
+      int totalCount = 0;
+      
+      for (List<WriteRequest> writeRequests : tableRequestItemMap.values()) {
+        totalCount += writeRequests.size();
+      }
+      if (totalCount > 25) {
+        throw new AmazonServiceException("1 validation error detected: failed to satisfy constraint: Length must be between 1-25");      
+      }
       
+      for (Entry<String, List<WriteRequest>> entry : tableRequestItemMap.entrySet()) {
+        final String tableName = entry.getKey();
+        final TableWrite tableWrite = new TableWrite(getTable(tableName));
+        final Set<Key> keys = new HashSet<Key>();
       
-      for (WriteRequest writeRequest : writeRequests) {
-        final PutRequest putRequest = writeRequest.getPutRequest();
-        final DeleteRequest deleteRequest = writeRequest.getDeleteRequest();
+        for (WriteRequest writeRequest : entry.getValue()) {
+          final PutRequest putRequest = writeRequest.getPutRequest();
+          final DeleteRequest deleteRequest = writeRequest.getDeleteRequest();
         
-        //puts
-        if (putRequest != null) {
-          Map<String, AttributeValue> item = putRequest.getItem();
-          table.createItem(item);
-          count++;
-          totalCount++;
-        }
+          //puts
+          if (putRequest != null) {
+            final Map<String, AttributeValue> item = putRequest.getItem();
+            validateItemKey(tableWrite.table, item);
+            addBatchKey(keys, keyForItem(tableWrite.table, item));
+            tableWrite.puts.add(item);
+          }
         
-        //deletes
-        if (deleteRequest != null) {
-          final Key key = deleteRequest.getKey();
-          table.deleteItem(key);
-          count++;
-          totalCount++;
+          //deletes
+          if (deleteRequest != null) {
+            final Key key = deleteRequest.getKey();
+            addBatchKey(keys, key);
+            tableWrite.deletes.add(key);
+          }
         }
+      
+        final BatchWriteResponse response = new BatchWriteResponse();
+        response.setConsumedCapacityUnits((double)(tableWrite.puts.size() + tableWrite.deletes.size()));
+        responses.put(tableName, response);
+        tableWrites.add(tableWrite);
       }
       
-      response.setConsumedCapacityUnits(count);
-      responses.put(tableName, response);
+      runTableBatches(tableWrites);
+
+      if (listener != null) {
+        final long latency = System.nanoTime() - start;
+        for (TableWrite tableWrite : tableWrites) {
+          listener.operationCompleted(DynamockDBOperation.BATCH_WRITE_ITEM, tableWrite.table.getTableName(), latency, 0, 0,
+              ItemSizes.estimate(tableWrite.puts) + ItemSizes.estimateKeys(tableWrite.deletes), 0L);
+        }
+      }
+      return result.withResponses(responses);
+    } catch (RuntimeException e) {
+      recordBatchFailure(listener, DynamockDBOperation.BATCH_WRITE_ITEM, batchWriteItemRequest.getRequestItems(), start, e);
+      throw e;
+    }
+  }
+  
+  /**
+   * Run the per-table parts of a batch request, concurrently on the scan pool if there is more than one.
+   * @param tableBatches
+   */
+  private void runTableBatches(final List<? extends Runnable> tableBatches) {
+    if (tableBatches.size() == 1) {
+      tableBatches.get(0).run();
+    } else if (!tableBatches.isEmpty()) {
+      scanPool.invoke(new TableBatchTask(tableBatches, 0, tableBatches.size()));
     }
+  }
+  
+  /**
+   * Add key to the keys written by a batch, throwing an AmazonServiceException if the batch already writes it.
+   * @param keys
+   * @param key
+   */
+  private void addBatchKey(final Set<Key> keys, final Key key)
+    throws AmazonServiceException {
     
-    if (totalCount > 25) {
-      throw new AmazonServiceException("1 validation error detected: failed to satisfy constraint: Length must be between 1-25");      
+    if (!keys.add(key)) {
+      throw new AmazonServiceException("Provided list of item keys contains duplicates");
     }
-
-    return result.withResponses(responses);
   }
 
 
@@ -427,16 +713,26 @@ public class DynamockDBClient implements AmazonDynamoDB {
   public ListTablesResult listTables() throws AmazonServiceException,
       AmazonClientException {
     
-    final ListTablesResult result = new ListTablesResult();
-    final Collection<DynamockDBTable> tables = tableManager.getTables();
+    final DynamockDBMetricsListener listener = metricsListener;
+    final long start = (listener == null) ? 0L : System.nanoTime();
+    try {
+      final ListTablesResult result = new ListTablesResult();
+      final Collection<DynamockDBTable> tables = tableManager.getTables();
 
-    final List<String> tableNames = new ArrayList<String>();
-    for(DynamockDBTable table : tables) {
-      tableNames.add(table.getTableName());
+      final List<String> tableNames = new ArrayList<String>();
+      for(DynamockDBTable table : tables) {
+        tableNames.add(table.getTableName());
+      }
+      result.setTableNames(tableNames);
+      
+      if (listener != null) {
+        listener.operationCompleted(DynamockDBOperation.LIST_TABLES, null, System.nanoTime() - start, 0, 0, 0L, 0L);
+      }
+      return result;
+    } catch (RuntimeException e) {
+      recordFailure(listener, DynamockDBOperation.LIST_TABLES, null, start, e);
+      throw e;
     }
-    result.setTableNames(tableNames);
-    
-    return result;
   }
 
   @Override
@@ -451,6 +747,76 @@ public class DynamockDBClient implements AmazonDynamoDB {
     throw new UnsupportedOperationException();
   }
   
+  /**
+   * Report a scan, or a parallel scan, of table to listener.
+   * @param listener
+   * @param table
+   * @param start when the scan started, from System.nanoTime
+   * @param scanRequest
+   * @param page
+   */
+  private void recordScan(final DynamockDBMetricsListener listener, final DynamockDBTable table, final long start,
+      final ScanRequest scanRequest, final ScanPage page) {
+    
+    listener.operationCompleted(DynamockDBOperation.SCAN, table.getTableName(), System.nanoTime() - start,
+        page.result.getCount(), page.result.getScannedCount(),
+        ItemSizes.estimateConditions(scanRequest.getScanFilter()) + ItemSizes.estimate(scanRequest.getExclusiveStartKey()),
+        page.returnedSize);
+  }
+  
+  /**
+   * Report a failed operation to listener, if there is one.
+   * @param listener
+   * @param operation
+   * @param tableName
+   * @param start when the operation started, from System.nanoTime
+   * @param error
+   */
+  private void recordFailure(final DynamockDBMetricsListener listener, final DynamockDBOperation operation,
+      final String tableName, final long start, final RuntimeException error) {
+    
+    if (listener != null) {
+      listener.operationFailed(operation, tableName, System.nanoTime() - start, error);
+    }
+  }
+
+  /**
+   * Report a failed batch operation to listener, if there is one, once for each table of the batch.
+   * @param listener
+   * @param operation
+   * @param requestItems the batch's requests by table name, or null
+   * @param start when the operation started, from System.nanoTime
+   * @param error
+   */
+  private void recordBatchFailure(final DynamockDBMetricsListener listener, final DynamockDBOperation operation,
+      final Map<String, ?> requestItems, final long start, final RuntimeException error) {
+
+    if (listener != null) {
+      final long latency = System.nanoTime() - start;
+      if (requestItems == null || requestItems.isEmpty()) {
+        listener.operationFailed(operation, null, latency, error);
+      } else {
+        for (String tableName : requestItems.keySet()) {
+          listener.operationFailed(operation, tableName, latency, error);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Close iterator if it is Closeable, as table iterators holding resources are.
+   * @param iterator
+   */
+  private void close(final Iterator<DynamockDBItem> iterator) {
+    if (iterator instanceof Closeable) {
+      try {
+        ((Closeable)iterator).close();
+      } catch (IOException e) {
+        throw new AmazonClientException(e.getMessage(), e);
+      }
+    }
+  }
+  
   /**
    * Lookup the table by name, throwing an AmazonServiceException if null
    * @param tableName
@@ -461,112 +827,232 @@ public class DynamockDBClient implements AmazonDynamoDB {
     
     final DynamockDBTable table = tableManager.getTable(tableName);
     if (table == null) {
-      throw new AmazonServiceException(tableName + " does not exist");
+      final AmazonServiceException e = new AmazonServiceException(tableName + " does not exist");
+      e.setErrorCode("ResourceNotFoundException");
+      e.setStatusCode(400);
+      throw e;
     }
     
     return table;
   }
   
   /**
-   * Handle the given range condition by applying it to the given RangeKey->DynomockDBItem map.
-   * @param items
-   * @param condition
-   * @return
+   * Throw an AmazonServiceException if item is missing the table's hash key or range key.
+   * @param table
+   * @param item
    */
-  private Collection<DynamockDBItem> filterByCondition(Map<AttributeValue, DynamockDBItem> items, Condition condition) {
-    if (condition == null || items.isEmpty()) {
-      return items.values();
+  private void validateItemKey(final DynamockDBTable table, final Map<String, AttributeValue> item)
+    throws AmazonServiceException {
+    
+    final String rangeKeyName = table.getRangeKeyName();
+    if (item.get(table.getHashKeyName()) == null
+        || (rangeKeyName != null && item.get(rangeKeyName) == null)) {
+      throw new AmazonServiceException("One or more parameter values were invalid: Missing the key in the item");
     }
+  }
+  
+  /**
+   * Scans the segments [fromSegment, toSegment) to completion, splitting the range in half until a single segment remains.
+   */
+  private class SegmentScanTask extends RecursiveTask<ScanPage> {
+    private static final long serialVersionUID = 1L;
+    
+    private final DynamockDBTable table;
+    private final Map<String, Condition> scanFilter;
+    private final Map<String, ConditionPredicate> predicates;
+    private final List<String> attributesToGet;
+    private final Integer limit;
+    private final int fromSegment;
+    private final int toSegment;
+    private final int totalSegments;
     
-    final Collection<DynamockDBItem> retItems = new ArrayList<DynamockDBItem>();
+    public SegmentScanTask(final DynamockDBTable table, final Map<String, Condition> scanFilter,
+        final Map<String, ConditionPredicate> predicates, final List<String> attributesToGet,
+        final Integer limit, final int fromSegment, final int toSegment, final int totalSegments) {
+      this.table = table;
+      this.scanFilter = scanFilter;
+      this.predicates = predicates;
+      this.attributesToGet = attributesToGet;
+      this.limit = limit;
+      this.fromSegment = fromSegment;
+      this.toSegment = toSegment;
+      this.totalSegments = totalSegments;
+    }
     
-    for (Entry<AttributeValue, DynamockDBItem> entry: items.entrySet()) {
-      if (matchesCondition(entry.getKey(), condition)) {
-        retItems.add(entry.getValue());
+    @Override
+    protected ScanPage compute() {
+      if (toSegment - fromSegment > 1) {
+        final int middle = (fromSegment + toSegment) >>> 1;
+        final SegmentScanTask first =
+            new SegmentScanTask(table, scanFilter, predicates, attributesToGet, limit, fromSegment, middle, totalSegments);
+        final SegmentScanTask second =
+            new SegmentScanTask(table, scanFilter, predicates, attributesToGet, limit, middle, toSegment, totalSegments);
+        first.fork();
+        final ScanPage secondPage = second.compute();
+        return merge(first.join(), secondPage);
       }
+      
+      ScanPage segmentPage = new ScanPage(new ScanResult()
+        .withItems(new ArrayList<Map<String, AttributeValue>>())
+        .withCount(0)
+        .withScannedCount(0), 0L);
+      Key startKey = null;
+      do {
+        final ScanPage page = scanPage(table, scanFilter, predicates, attributesToGet, limit, startKey, fromSegment, totalSegments);
+        segmentPage = merge(segmentPage, page);
+        startKey = page.result.getLastEvaluatedKey();
+      } while (startKey != null);
+      
+      return segmentPage;
     }
     
-    return retItems;
+    private ScanPage merge(final ScanPage first, final ScanPage second) {
+      first.result.getItems().addAll(second.result.getItems());
+      first.result.setCount(first.result.getCount() + second.result.getCount());
+      first.result.setScannedCount(first.result.getScannedCount() + second.result.getScannedCount());
+      first.returnedSize += second.returnedSize;
+      return first;
+    }
   }
   
   /**
-   * Return true if the given attribute value is applicable for the given condition.
-   * @param attributeValue
-   * @param condition
-   * @return
+   * A page of a scan, or the merged pages of a parallel scan, with the estimated size of the items returned.
    */
-  private boolean matchesCondition(final AttributeValue attributeValue, final Condition condition) {
-    final List<AttributeValue> targets = condition.getAttributeValueList();
-    final ComparisonOperator comparisonOperator = ComparisonOperator.valueOf(condition.getComparisonOperator());
+  private static class ScanPage {
+    private final ScanResult result;
+    private long returnedSize;
     
-    if (attributeValue == null) { // if attribute value is null, the only matching ComparisonOperator is NULL
-      return comparisonOperator == ComparisonOperator.NULL;
+    public ScanPage(final ScanResult result, final long returnedSize) {
+      this.result = result;
+      this.returnedSize = returnedSize;
     }
+  }
+  
+  /**
+   * The writes of a batch to one table.
+   */
+  private static class TableWrite implements Runnable {
+    private final DynamockDBTable table;
+    private final List<Map<String, AttributeValue>> puts = new ArrayList<Map<String, AttributeValue>>();
+    private final List<Key> deletes = new ArrayList<Key>();
     
-    final String attributeValueStr = getStringForAttributeValue(attributeValue); 
+    public TableWrite(final DynamockDBTable table) {
+      this.table = table;
+    }
     
-    switch(comparisonOperator) {
-      case EQ:
-        return targets.contains(attributeValue);
-      case CONTAINS:
-        for (AttributeValue target : targets) {
-          final String targetString = target.getS();
-          if (attributeValueStr.contains(targetString)) {
-            return true;
-          }
-        }
-        return false;
-      case NOT_CONTAINS:
-        for (AttributeValue target : targets) {
-          final String targetString = target.getS();
-          if (attributeValueStr.contains(targetString)) {
-            return false;
-          }
-        }
-        return true;
-      case NOT_NULL:
-        return true; //null values are weeded out above.
-      case NULL:
-        return false; //null values are weeded out above.
-      default: 
-        throw new java.lang.UnsupportedOperationException("Query or scan with " + comparisonOperator);  
+    @Override
+    public void run() {
+      table.batchWrite(puts, deletes);
     }
   }
-
+  
   /**
-   * Convert an AttributeValue into it's string or number value.
-   * @param attributeValue
-   * @return
+   * The reads of a batch from one table, which fill in the table's BatchResponse.
    */
-  private String getStringForAttributeValue(AttributeValue attributeValue) {
-    if (attributeValue.getS() != null) {
-      return attributeValue.getS();
+  private static class TableRead implements Runnable {
+    private final DynamockDBTable table;
+    private final List<Key> keys;
+    private final List<String> attributesToGet;
+    private final BatchResponse response = new BatchResponse();
+    
+    public TableRead(final DynamockDBTable table, final List<Key> keys, final List<String> attributesToGet) {
+      this.table = table;
+      this.keys = keys;
+      this.attributesToGet = attributesToGet;
     }
     
-    return attributeValue.getN();
+    @Override
+    public void run() {
+      final List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+      for (DynamockDBItem item : table.getItems(keys, attributesToGet)) {
+        items.add(item.toMap());
+      }
+      response.setItems(items);
+    }
   }
   
   /**
-   * Sort the given list by the given field.
-   * @param retItems
-   * @param sortFieldName
-   * @param scanIndexForward
+   * Runs the table batches [from, to), splitting the range in half until a single table remains.
    */
-  private void sortResultList(final List<Map<String, AttributeValue>> retItems,
-      final String sortFieldName, final Boolean scanIndexForward) {
-    
-    Collections.sort(retItems, new Comparator<Map<String, AttributeValue>>() {
-      @Override
-      public int compare(Map<String, AttributeValue> a, Map<String, AttributeValue> b) {
-        final String aStr = getStringForAttributeValue(a.get(sortFieldName));
-        final String bStr = getStringForAttributeValue(b.get(sortFieldName));
-        
-        if (scanIndexForward) {
-          return aStr.compareTo(bStr);
-        } else {
-          return bStr.compareTo(aStr);
-        }
+  private static class TableBatchTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    
+    private final List<? extends Runnable> tableBatches;
+    private final int from;
+    private final int to;
+    
+    public TableBatchTask(final List<? extends Runnable> tableBatches, final int from, final int to) {
+      this.tableBatches = tableBatches;
+      this.from = from;
+      this.to = to;
+    }
+    
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        final int middle = (from + to) >>> 1;
+        invokeAll(new TableBatchTask(tableBatches, from, middle), new TableBatchTask(tableBatches, middle, to));
+      } else {
+        tableBatches.get(from).run();
+      }
+    }
+  }
+  
+  /**
+   * Compile each condition of a scan filter, keyed by attribute name.  A null filter compiles to no predicates.
+   * @param scanFilter
+   * @return
+   */
+  private Map<String, ConditionPredicate> compileFilter(final Map<String, Condition> scanFilter) {
+    final Map<String, ConditionPredicate> predicates = new HashMap<String, ConditionPredicate>();
+    if (scanFilter != null) {
+      for (Entry<String, Condition> filter : scanFilter.entrySet()) {
+        predicates.put(filter.getKey(), ConditionPredicate.compile(filter.getValue()));
       }
-    });
+    }
+    return predicates;
+  }
+  
+  /**
+   * Return true if item satisfies every predicate.
+   * @param item
+   * @param predicates
+   * @return
+   */
+  private boolean matchesAll(final DynamockDBItem item, final Map<String, ConditionPredicate> predicates) {
+    for (Entry<String, ConditionPredicate> entry : predicates.entrySet()) {
+      if (!entry.getValue().matches(item.getAttributeValue(entry.getKey()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Build the primary Key of the given item.
+   * @param table
+   * @param item
+   * @return
+   */
+  private Key keyForItem(final DynamockDBTable table, final DynamockDBItem item) {
+    final Key key = new Key().withHashKeyElement(item.getAttributeValue(table.getHashKeyName()));
+    if (table.getRangeKeyName() != null) {
+      key.setRangeKeyElement(item.getAttributeValue(table.getRangeKeyName()));
+    }
+    return key;
+  }
+  
+  /**
+   * Build the primary Key of the given item's attributes.
+   * @param table
+   * @param item
+   * @return
+   */
+  private Key keyForItem(final DynamockDBTable table, final Map<String, AttributeValue> item) {
+    final Key key = new Key().withHashKeyElement(item.get(table.getHashKeyName()));
+    if (table.getRangeKeyName() != null) {
+      key.setRangeKeyElement(item.get(table.getRangeKeyName()));
+    }
+    return key;
   }
 }
@@ -1,9 +1,14 @@
 package com.bizo.aws.dynamock;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.AttributeValueUpdate;
+import com.amazonaws.services.dynamodb.model.Condition;
 import com.amazonaws.services.dynamodb.model.Key;
 
 /**
@@ -29,14 +34,71 @@ public interface DynamockDBTable {
   public Map<AttributeValue, DynamockDBItem> getItemsForHashKey(
       AttributeValue hashKey);
 
+  /**
+   * Return the items under hashKey whose range key satisfies rangeKeyCondition, ordered by range key.
+   * The collection should be a lazy view where possible, since paged queries stop reading it early.
+   * Iterators holding resources should implement Closeable; the caller closes them once done.
+   * @param hashKey
+   * @param rangeKeyCondition a condition for which RangeKeyConditions.isNavigable is true, or null for the whole partition
+   * @param scanIndexForward true for ascending range key order, false for descending
+   * @param exclusiveStartRangeKey only return items after this range key in the requested order, or null for no restriction
+   * @param limit the most items the caller will read, or null if unknown; tables that fetch items in batches may use it to read no more
+   * @param attributesToGet the attributes the caller will read of each item besides its key (see ItemProjection), or null for whole items;
+   *                        tables that fetch items from elsewhere may fetch only these, but may also return whole items
+   * @return
+   */
+  public Collection<DynamockDBItem> query(AttributeValue hashKey,
+      Condition rangeKeyCondition, boolean scanIndexForward, AttributeValue exclusiveStartRangeKey, Integer limit,
+      List<String> attributesToGet);
+
   public List<DynamockDBItem> getAllItems();
 
+  /**
+   * Iterate over the items of one scan segment (see ScanSegments) in a stable scan order, without copying the table.
+   * Pass segment 0 of 1 to scan the whole table.  As for query, an iterator holding resources should implement Closeable.
+   * @param exclusiveStartKey the key of the last item returned by a previous scan of this segment, or null to start at the beginning
+   * @param segment the zero-based segment to scan
+   * @param totalSegments the number of segments the table is split into
+   * @param scanFilter the conditions items must meet, keyed by attribute name, or null; a table may skip items that can't meet them,
+   *                   but the caller still tests every item returned
+   * @param attributesToGet the attributes the caller will read of each item besides its key and the scanFilter attributes
+   *                        (see ItemProjection), or null for whole items; as for query, a table may return whole items regardless
+   * @return
+   * @throws AmazonServiceException if exclusiveStartKey does not belong to the segment
+   */
+  public Iterator<DynamockDBItem> scan(Key exclusiveStartKey, int segment, int totalSegments, Map<String, Condition> scanFilter,
+      List<String> attributesToGet);
+
   public DynamockDBItem getItem(Key key);
 
+  /**
+   * Return the items stored under keys, in no particular order, skipping keys that have no item.
+   * @param keys
+   * @param attributesToGet the attributes to return of each item (see ItemProjection), or null for whole items
+   * @return
+   */
+  public List<DynamockDBItem> getItems(List<Key> keys, List<String> attributesToGet);
+
   public void putItem(Key key, DynamockDBItem item);
   
   public DynamockDBItem createItem(Map<String, AttributeValue> item);
 
+  /**
+   * Apply the attribute updates to the item stored under key, creating the item if it doesn't exist.
+   * @param key
+   * @param updates
+   * @return the updated item
+   */
+  public DynamockDBItem updateItem(Key key, Map<String, AttributeValueUpdate> updates);
+
   public void deleteItem(Key key);
 
+  /**
+   * Apply the writes of a batch: store each item, replacing any item with the same key, and delete each key.
+   * A batch never holds two writes to the same key, so the writes may be applied in any order.
+   * @param puts the items to store
+   * @param deletes the keys to delete
+   */
+  public void batchWrite(List<Map<String, AttributeValue>> puts, List<Key> deletes);
+
 }
\ No newline at end of file
@@ -0,0 +1,191 @@
+package com.bizo.aws.dynamock;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+
+/**
+ * A compact binary encoding of items and attribute values, for engines that keep items outside the Java heap or on disk.
+ *
+ * An item is an int attribute count followed by each attribute's name and value.  A value is a type byte
+ * (S, N, SS or NS) followed by one string for S and N, or an int count and that many strings for SS and NS.
+ * Strings are an int byte length followed by their UTF-8 bytes.
+ * @author gregfitzgerald
+ *
+ */
+public final class ItemCodec {
+
+  private static final byte TYPE_S = 1;
+  private static final byte TYPE_N = 2;
+  private static final byte TYPE_SS = 3;
+  private static final byte TYPE_NS = 4;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private ItemCodec() {
+  }
+
+  /**
+   * The number of bytes encode will write for item.
+   * @param item
+   * @return
+   */
+  public static int encodedSize(final Map<String, AttributeValue> item) {
+    int size = 4;
+    for (Entry<String, AttributeValue> entry : item.entrySet()) {
+      size += stringSize(entry.getKey()) + encodedSize(entry.getValue());
+    }
+    return size;
+  }
+
+  /**
+   * Encode item at the buffer's position, advancing it.
+   * @param item
+   * @param buffer
+   */
+  public static void encode(final Map<String, AttributeValue> item, final ByteBuffer buffer) {
+    buffer.putInt(item.size());
+    for (Entry<String, AttributeValue> entry : item.entrySet()) {
+      putString(entry.getKey(), buffer);
+      encode(entry.getValue(), buffer);
+    }
+  }
+
+  /**
+   * Encode item into a new array.
+   * @param item
+   * @return
+   */
+  public static byte[] encode(final Map<String, AttributeValue> item) {
+    final ByteBuffer buffer = ByteBuffer.allocate(encodedSize(item));
+    encode(item, buffer);
+    return buffer.array();
+  }
+
+  /**
+   * Decode an item at the buffer's position, advancing it.
+   * @param buffer
+   * @return
+   */
+  public static Map<String, AttributeValue> decode(final ByteBuffer buffer) {
+    final int count = buffer.getInt();
+    final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(count * 4 / 3 + 1);
+    for (int i = 0; i < count; i++) {
+      final String name = getString(buffer);
+      item.put(name, decodeValue(buffer));
+    }
+    return item;
+  }
+
+  /**
+   * The number of bytes encode will write for value.
+   * @param value
+   * @return
+   */
+  public static int encodedSize(final AttributeValue value) {
+    if (value.getS() != null) {
+      return 1 + stringSize(value.getS());
+    } else if (value.getN() != null) {
+      return 1 + stringSize(value.getN());
+    }
+
+    final List<String> members = (value.getSS() != null) ? value.getSS() : value.getNS();
+    if (members == null) {
+      throw new IllegalArgumentException("Empty attribute value");
+    }
+    int size = 1 + 4;
+    for (String member : members) {
+      size += stringSize(member);
+    }
+    return size;
+  }
+
+  /**
+   * Encode value at the buffer's position, advancing it.
+   * @param value
+   * @param buffer
+   */
+  public static void encode(final AttributeValue value, final ByteBuffer buffer) {
+    if (value.getS() != null) {
+      buffer.put(TYPE_S);
+      putString(value.getS(), buffer);
+    } else if (value.getN() != null) {
+      buffer.put(TYPE_N);
+      putString(value.getN(), buffer);
+    } else if (value.getSS() != null) {
+      buffer.put(TYPE_SS);
+      putStrings(value.getSS(), buffer);
+    } else if (value.getNS() != null) {
+      buffer.put(TYPE_NS);
+      putStrings(value.getNS(), buffer);
+    } else {
+      throw new IllegalArgumentException("Empty attribute value");
+    }
+  }
+
+  /**
+   * Decode a value at the buffer's position, advancing it.
+   * @param buffer
+   * @return
+   */
+  public static AttributeValue decodeValue(final ByteBuffer buffer) {
+    final byte type = buffer.get();
+    switch (type) {
+      case TYPE_S:
+        return new AttributeValue().withS(getString(buffer));
+      case TYPE_N:
+        return new AttributeValue().withN(getString(buffer));
+      case TYPE_SS:
+        return new AttributeValue().withSS(getStrings(buffer));
+      case TYPE_NS:
+        return new AttributeValue().withNS(getStrings(buffer));
+      default:
+        throw new IllegalArgumentException("Unknown attribute type " + type);
+    }
+  }
+
+  private static int stringSize(final String s) {
+    return 4 + ItemSizes.utf8Length(s);
+  }
+
+  private static void putString(final String s, final ByteBuffer buffer) {
+    final byte[] bytes = s.getBytes(UTF8);
+    buffer.putInt(bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static String getString(final ByteBuffer buffer) {
+    final int length = buffer.getInt();
+    if (buffer.hasArray()) {
+      final String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF8);
+      buffer.position(buffer.position() + length);
+      return s;
+    }
+
+    final byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  private static void putStrings(final List<String> strings, final ByteBuffer buffer) {
+    buffer.putInt(strings.size());
+    for (String s : strings) {
+      putString(s, buffer);
+    }
+  }
+
+  private static List<String> getStrings(final ByteBuffer buffer) {
+    final int count = buffer.getInt();
+    final List<String> strings = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      strings.add(getString(buffer));
+    }
+    return strings;
+  }
+}
@@ -0,0 +1,64 @@
+package com.bizo.aws.dynamock;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.bizo.aws.dynamock.hashmap.DynamockDBItemHashMapImpl;
+
+/**
+ * Applies DynamoDB's AttributesToGet, which limits the items a request returns to the named attributes.
+ * A null or empty list of attribute names returns whole items.
+ * @author gregfitzgerald
+ *
+ */
+public final class ItemProjection {
+
+  private ItemProjection() {
+  }
+
+  /**
+   * Return true if attributesToGet limits the attributes returned.
+   * @param attributesToGet
+   * @return
+   */
+  public static boolean isProjection(final Collection<String> attributesToGet) {
+    return attributesToGet != null && !attributesToGet.isEmpty();
+  }
+
+  /**
+   * Return the named attributes of the given item, or the item itself if attributesToGet is not a projection.
+   * @param item
+   * @param attributesToGet
+   * @return
+   */
+  public static DynamockDBItem project(final DynamockDBItem item, final Collection<String> attributesToGet) {
+    if (!isProjection(attributesToGet)) {
+      return item;
+    }
+    return new DynamockDBItemHashMapImpl(toMap(item, attributesToGet));
+  }
+
+  /**
+   * Return the named attributes of the given item as a map, or the whole item if attributesToGet is not a projection.
+   * Only the named attributes are read from the item, so the others are never decoded or copied.
+   * @param item
+   * @param attributesToGet
+   * @return
+   */
+  public static Map<String, AttributeValue> toMap(final DynamockDBItem item, final Collection<String> attributesToGet) {
+    if (!isProjection(attributesToGet)) {
+      return item.toMap();
+    }
+
+    final Map<String, AttributeValue> projected = new HashMap<String, AttributeValue>();
+    for (String attributeName : attributesToGet) {
+      final AttributeValue value = item.getAttributeValue(attributeName);
+      if (value != null) {
+        projected.put(attributeName, value);
+      }
+    }
+    return projected;
+  }
+}
@@ -0,0 +1,211 @@
+package com.bizo.aws.dynamock;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.AttributeValueUpdate;
+import com.amazonaws.services.dynamodb.model.Condition;
+import com.amazonaws.services.dynamodb.model.Key;
+import com.bizo.aws.dynamock.hashmap.PersistentAttributeMap;
+
+/**
+ * Estimates item sizes the way DynamoDB accounts for them when applying its 1 MB page cap:
+ * attribute names and strings count as their UTF-8 length, and numbers as roughly one byte per two digits plus one.
+ * Scan and query pages estimate every item they read, so the estimates walk lists by index and stored items by their
+ * own structure rather than allocating iterators.
+ * @author gregfitzgerald
+ *
+ */
+public final class ItemSizes {
+
+  /**
+   * The most item data DynamoDB examines for a single scan or query page.
+   */
+  public static final int MAX_PAGE_SIZE = 1024 * 1024;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private ItemSizes() {
+  }
+
+  /**
+   * Estimate the size in bytes of the given item.
+   * A PersistentAttributeMap, as the hash map engines store, measures itself once and keeps the estimate.
+   * @param attributes
+   * @return
+   */
+  public static int estimate(final Map<String, AttributeValue> attributes) {
+    if (attributes instanceof PersistentAttributeMap) {
+      return ((PersistentAttributeMap)attributes).estimatedSize();
+    }
+
+    int size = 0;
+    for (Entry<String, AttributeValue> entry : attributes.entrySet()) {
+      size += estimate(entry.getKey(), entry.getValue());
+    }
+    return size;
+  }
+
+  /**
+   * Estimate the size in bytes of an item as returned by ItemProjection.toMap with the given attributesToGet.
+   * For a projection, the named attributes are measured by walking attributesToGet, which the projection walked too.
+   * @param attributes
+   * @param attributesToGet
+   * @return
+   */
+  public static int estimate(final Map<String, AttributeValue> attributes, final List<String> attributesToGet) {
+    if (!ItemProjection.isProjection(attributesToGet)) {
+      return estimate(attributes);
+    }
+
+    int size = 0;
+    for (int i = 0; i < attributesToGet.size(); i++) {
+      final String attributeName = attributesToGet.get(i);
+      // a name given twice is projected once
+      if (attributesToGet.indexOf(attributeName) == i) {
+        size += estimate(attributeName, attributes.get(attributeName));
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Estimate the size in bytes of one attribute, its name and its value, or 0 if it has no value.
+   * @param attributeName
+   * @param value
+   * @return
+   */
+  public static int estimate(final String attributeName, final AttributeValue value) {
+    return (value == null) ? 0 : utf8Length(attributeName) + estimate(value);
+  }
+
+  /**
+   * Estimate the total size in bytes of the given items.
+   * @param items
+   * @return
+   */
+  public static long estimate(final List<Map<String, AttributeValue>> items) {
+    long size = 0;
+    if (items != null) {
+      for (int i = 0; i < items.size(); i++) {
+        size += estimate(items.get(i));
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Estimate the size in bytes of the given key.
+   * @param key
+   * @return
+   */
+  public static int estimate(final Key key) {
+    return (key == null) ? 0 : estimate(key.getHashKeyElement()) + estimate(key.getRangeKeyElement());
+  }
+
+  /**
+   * Estimate the total size in bytes of the given keys.
+   * @param keys
+   * @return
+   */
+  public static long estimateKeys(final List<Key> keys) {
+    long size = 0;
+    for (int i = 0; i < keys.size(); i++) {
+      size += estimate(keys.get(i));
+    }
+    return size;
+  }
+
+  /**
+   * Estimate the size in bytes of the attribute names and values of the given updates.
+   * @param updates
+   * @return
+   */
+  public static int estimateUpdates(final Map<String, AttributeValueUpdate> updates) {
+    int size = 0;
+    if (updates != null) {
+      for (Entry<String, AttributeValueUpdate> entry : updates.entrySet()) {
+        size += utf8Length(entry.getKey()) + estimate(entry.getValue().getValue());
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Estimate the size in bytes of the values compared against by the given condition.
+   * @param condition
+   * @return
+   */
+  public static int estimate(final Condition condition) {
+    int size = 0;
+    final List<AttributeValue> values = (condition == null) ? null : condition.getAttributeValueList();
+    if (values != null) {
+      for (int i = 0; i < values.size(); i++) {
+        size += estimate(values.get(i));
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Estimate the size in bytes of the attribute names and values of the given conditions.
+   * @param conditions
+   * @return
+   */
+  public static int estimateConditions(final Map<String, Condition> conditions) {
+    int size = 0;
+    if (conditions != null) {
+      for (Entry<String, Condition> entry : conditions.entrySet()) {
+        size += utf8Length(entry.getKey()) + estimate(entry.getValue());
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Estimate the size in bytes of the given attribute value.
+   * @param value
+   * @return
+   */
+  public static int estimate(final AttributeValue value) {
+    if (value == null) {
+      return 0;
+    } else if (value.getS() != null) {
+      return utf8Length(value.getS());
+    } else if (value.getN() != null) {
+      return numberLength(value.getN());
+    }
+
+    int size = 0;
+    final List<String> ss = value.getSS();
+    if (ss != null) {
+      for (int i = 0; i < ss.size(); i++) {
+        size += utf8Length(ss.get(i));
+      }
+    }
+    final List<String> ns = value.getNS();
+    if (ns != null) {
+      for (int i = 0; i < ns.size(); i++) {
+        size += numberLength(ns.get(i));
+      }
+    }
+    return size;
+  }
+
+  private static int numberLength(final String n) {
+    return n.length() / 2 + 1;
+  }
+
+  static int utf8Length(final String s) {
+    // ASCII is by far the common case, and needs no encoding to measure
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) >= 0x80) {
+        return s.getBytes(UTF8).length;
+      }
+    }
+    return s.length();
+  }
+}
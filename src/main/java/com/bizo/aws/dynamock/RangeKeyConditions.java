@@ -0,0 +1,273 @@
+package com.bizo.aws.dynamock;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.ComparisonOperator;
+import com.amazonaws.services.dynamodb.model.Condition;
+
+/**
+ * Helpers for serving range key conditions from a partition keyed by the SortKey of each range key.
+ * A navigable condition (EQ, LT, LE, GT, GE, BETWEEN, BEGINS_WITH) always selects a contiguous run of range keys,
+ * so it can be answered with a sub map walk instead of testing every item in the partition.
+ * As with ConditionPredicate, a key never matches an operand of a different type, so the range selected by a condition
+ * holds only keys of its operands' type.
+ * @author gregfitzgerald
+ *
+ */
+public final class RangeKeyConditions {
+
+  // N keys sort before S keys, and the empty string before every other S key
+  private static final SortKey LOWEST_STRING = SortKey.of(new AttributeValue().withS(""));
+
+  private RangeKeyConditions() {
+  }
+
+  /**
+   * Return true if the condition selects a contiguous range of keys and can be handed to subMap.
+   * @param condition
+   * @return
+   */
+  public static boolean isNavigable(final Condition condition) {
+    switch (ComparisonOperator.fromValue(condition.getComparisonOperator())) {
+      case EQ:
+      case LT:
+      case LE:
+      case GT:
+      case GE:
+      case BETWEEN:
+      case BEGINS_WITH:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Return a view of the given partition restricted to the range keys matching condition, in the requested order.
+   * A null condition selects the entire partition.
+   * @param partition a partition keyed by the SortKey of each range key
+   * @param condition a navigable range key condition, or null
+   * @param scanIndexForward true for ascending order, false for descending
+   * @return
+   */
+  public static <V> NavigableMap<SortKey, V> subMap(final NavigableMap<SortKey, V> partition,
+      final Condition condition, final boolean scanIndexForward) {
+
+    return subMap(partition, condition, scanIndexForward, null);
+  }
+
+  /**
+   * Return a view of the given partition restricted to the range keys matching condition that come after
+   * exclusiveStartRangeKey in the requested order, so that a paged query resumes without revisiting earlier keys.
+   * @param partition a partition keyed by the SortKey of each range key
+   * @param condition a navigable range key condition, or null
+   * @param scanIndexForward true for ascending order, false for descending
+   * @param exclusiveStartRangeKey the range key of the last item of the previous page, or null to start at the beginning
+   * @return
+   */
+  public static <V> NavigableMap<SortKey, V> subMap(final NavigableMap<SortKey, V> partition,
+      final Condition condition, final boolean scanIndexForward, final AttributeValue exclusiveStartRangeKey) {
+
+    NavigableMap<SortKey, V> range = (condition == null) ? partition : subMap(partition, condition);
+    if (exclusiveStartRangeKey != null) {
+      range = after(range, SortKey.of(exclusiveStartRangeKey), scanIndexForward);
+    }
+    return scanIndexForward ? range : range.descendingMap();
+  }
+
+  /**
+   * Restrict an ascending range to the keys after start in the scan direction.
+   * Sub map views reject keys outside their bounds, so start is first clamped against the range's first and last keys.
+   */
+  private static <V> NavigableMap<SortKey, V> after(final NavigableMap<SortKey, V> range,
+      final SortKey start, final boolean scanIndexForward) {
+
+    final Entry<SortKey, V> first = range.firstEntry();
+    final Entry<SortKey, V> last = range.lastEntry();
+    if (first == null || last == null) {
+      return range;
+    }
+
+    if (scanIndexForward) {
+      if (start.compareTo(first.getKey()) < 0) {
+        return range;
+      } else if (start.compareTo(last.getKey()) >= 0) {
+        return emptyMap(range);
+      }
+      return range.tailMap(start, false);
+    }
+
+    if (start.compareTo(last.getKey()) > 0) {
+      return range;
+    } else if (start.compareTo(first.getKey()) <= 0) {
+      return emptyMap(range);
+    }
+    return range.headMap(start, false);
+  }
+
+  private static <V> NavigableMap<SortKey, V> subMap(final NavigableMap<SortKey, V> partition,
+      final Condition condition) {
+
+    final Bounds bounds = bounds(condition);
+    if (bounds.isEmpty()) {
+      return emptyMap(partition);
+    } else if (bounds.getLower() == null) {
+      return partition.headMap(bounds.getUpper(), bounds.isUpperInclusive());
+    } else if (bounds.getUpper() == null) {
+      return partition.tailMap(bounds.getLower(), bounds.isLowerInclusive());
+    }
+    return partition.subMap(bounds.getLower(), bounds.isLowerInclusive(), bounds.getUpper(), bounds.isUpperInclusive());
+  }
+
+  /**
+   * Return the range of keys selected by a navigable condition, for engines that search their own sorted storage.
+   * A null condition selects every key, and a condition on a set operand, or on operands of different types, selects none.
+   * @param condition a navigable range key condition, or null
+   * @return
+   * @throws AmazonServiceException if the condition has the wrong number of operands for its operator
+   */
+  public static Bounds bounds(final Condition condition) throws AmazonServiceException {
+    if (condition == null) {
+      return Bounds.ALL;
+    }
+
+    ConditionPredicate.validate(condition);
+    final List<AttributeValue> targets = condition.getAttributeValueList();
+    final ComparisonOperator comparisonOperator = ComparisonOperator.fromValue(condition.getComparisonOperator());
+    final AttributeValue value = targets.get(0);
+    if (value == null || (value.getS() == null && value.getN() == null)) {
+      return Bounds.NONE;
+    }
+    final SortKey target = SortKey.of(value);
+    final boolean number = value.getN() != null;
+
+    switch (comparisonOperator) {
+      case EQ:
+        return new Bounds(target, true, target, true);
+      case LT:
+        return number ? new Bounds(null, false, target, false) : new Bounds(LOWEST_STRING, true, target, false);
+      case LE:
+        return number ? new Bounds(null, false, target, true) : new Bounds(LOWEST_STRING, true, target, true);
+      case GT:
+        return number ? new Bounds(target, false, LOWEST_STRING, false) : new Bounds(target, false, null, false);
+      case GE:
+        return number ? new Bounds(target, true, LOWEST_STRING, false) : new Bounds(target, true, null, false);
+      case BETWEEN:
+        final AttributeValue upperValue = targets.get(1);
+        if (upperValue == null || (upperValue.getN() != null) != number || (!number && upperValue.getS() == null)) {
+          return Bounds.NONE;
+        }
+        final SortKey upper = SortKey.of(upperValue);
+        if (target.compareTo(upper) > 0) {
+          return Bounds.NONE;
+        }
+        return new Bounds(target, true, upper, true);
+      case BEGINS_WITH:
+        final String prefix = target.getValue().getS();
+        if (prefix == null) {
+          return Bounds.NONE;
+        }
+
+        final String successor = prefixSuccessor(prefix);
+        if (successor == null) {
+          return new Bounds(target, true, null, false);
+        }
+        return new Bounds(target, true, SortKey.of(new AttributeValue().withS(successor)), false);
+      default:
+        throw new IllegalArgumentException(comparisonOperator + " does not select a range of keys");
+    }
+  }
+
+  /**
+   * A range of range keys.  A null lower or upper key leaves that end of the range open.
+   */
+  public static final class Bounds {
+    public static final Bounds ALL = new Bounds(null, false, null, false);
+    public static final Bounds NONE = new Bounds(null, false, null, false);
+
+    private final SortKey lower;
+    private final boolean lowerInclusive;
+    private final SortKey upper;
+    private final boolean upperInclusive;
+
+    private Bounds(final SortKey lower, final boolean lowerInclusive, final SortKey upper, final boolean upperInclusive) {
+      this.lower = lower;
+      this.lowerInclusive = lowerInclusive;
+      this.upper = upper;
+      this.upperInclusive = upperInclusive;
+    }
+
+    public boolean isEmpty() {
+      return this == NONE;
+    }
+
+    public SortKey getLower() {
+      return lower;
+    }
+
+    public boolean isLowerInclusive() {
+      return lowerInclusive;
+    }
+
+    public SortKey getUpper() {
+      return upper;
+    }
+
+    public boolean isUpperInclusive() {
+      return upperInclusive;
+    }
+
+    /**
+     * Return true if key is not below the lower end of the range.
+     * @param key
+     * @return
+     */
+    public boolean isAboveLower(final SortKey key) {
+      if (lower == null) {
+        return !isEmpty();
+      }
+      final int c = key.compareTo(lower);
+      return c > 0 || (c == 0 && lowerInclusive);
+    }
+
+    /**
+     * Return true if key is not above the upper end of the range.
+     * @param key
+     * @return
+     */
+    public boolean isBelowUpper(final SortKey key) {
+      if (upper == null) {
+        return !isEmpty();
+      }
+      final int c = key.compareTo(upper);
+      return c < 0 || (c == 0 && upperInclusive);
+    }
+  }
+
+  /**
+   * Return the smallest string greater than every string starting with prefix, or null if there is none.
+   * @param prefix
+   * @return
+   */
+  private static String prefixSuccessor(final String prefix) {
+    int end = prefix.length();
+    while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+      end--;
+    }
+
+    if (end == 0) {
+      return null;
+    }
+
+    return prefix.substring(0, end - 1) + (char)(prefix.charAt(end - 1) + 1);
+  }
+
+  private static <V> NavigableMap<SortKey, V> emptyMap(final NavigableMap<SortKey, V> partition) {
+    return new TreeMap<SortKey, V>();
+  }
+}
@@ -0,0 +1,108 @@
+package com.bizo.aws.dynamock;
+
+import java.math.BigDecimal;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+
+/**
+ * Splits a table's key space into disjoint scan segments, in the manner of DynamoDB's Segment and TotalSegments.
+ * Every hash key has a 32 bit segment hash; segment i of n owns the unsigned hash range [i * 2^32 / n, (i + 1) * 2^32 / n),
+ * so the segments of a scan cover each item exactly once and can be scanned concurrently.
+ * @author gregfitzgerald
+ *
+ */
+public final class ScanSegments {
+
+  /**
+   * The largest TotalSegments DynamoDB accepts.
+   */
+  public static final int MAX_TOTAL_SEGMENTS = 1000000;
+
+  private static final long HASH_SPACE = 1L << 32;
+
+  private ScanSegments() {
+  }
+
+  /**
+   * Throw an AmazonServiceException unless 0 <= segment < totalSegments <= MAX_TOTAL_SEGMENTS.
+   * @param segment
+   * @param totalSegments
+   * @throws AmazonServiceException
+   */
+  public static void validate(final int segment, final int totalSegments) throws AmazonServiceException {
+    if (totalSegments < 1 || totalSegments > MAX_TOTAL_SEGMENTS) {
+      throw new AmazonServiceException("1 validation error detected: Value '" + totalSegments
+          + "' at 'totalSegments' failed to satisfy constraint: Member must have value between 1 and " + MAX_TOTAL_SEGMENTS);
+    }
+    if (segment < 0 || segment >= totalSegments) {
+      throw new AmazonServiceException("The Segment parameter is zero-based and must be less than parameter TotalSegments: Segment: "
+          + segment + " is not less than TotalSegments: " + totalSegments);
+    }
+  }
+
+  /**
+   * The segment hash of a hash key.  Numbers hash by their normalized value (so "1.50" and "1.5" agree), strings by content,
+   * and the result is mixed (murmur3 finalizer) so that similar keys spread evenly over the segments.
+   * @param hashKey
+   * @return
+   */
+  public static int hash(final AttributeValue hashKey) {
+    int h;
+    if (hashKey.getN() != null) {
+      h = new BigDecimal(hashKey.getN()).stripTrailingZeros().hashCode();
+    } else if (hashKey.getS() != null) {
+      h = hashKey.getS().hashCode();
+    } else {
+      h = hashKey.hashCode();
+    }
+
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  /**
+   * The segment hash of a hash key as an unsigned value in [0, 2^32).
+   * @param hashKey
+   * @return
+   */
+  public static long unsignedHash(final AttributeValue hashKey) {
+    return hash(hashKey) & 0xffffffffL;
+  }
+
+  /**
+   * The first unsigned hash owned by segment.
+   * @param segment
+   * @param totalSegments
+   * @return
+   */
+  public static long lowerBound(final int segment, final int totalSegments) {
+    return segment * HASH_SPACE / totalSegments;
+  }
+
+  /**
+   * The first unsigned hash past the end of segment; 2^32 for the last segment.
+   * @param segment
+   * @param totalSegments
+   * @return
+   */
+  public static long upperBound(final int segment, final int totalSegments) {
+    return (segment + 1) * HASH_SPACE / totalSegments;
+  }
+
+  /**
+   * Return true if the hash key belongs to segment.
+   * @param hashKey
+   * @param segment
+   * @param totalSegments
+   * @return
+   */
+  public static boolean contains(final AttributeValue hashKey, final int segment, final int totalSegments) {
+    final long h = unsignedHash(hashKey);
+    return h >= lowerBound(segment, totalSegments) && h < upperBound(segment, totalSegments);
+  }
+}
@@ -0,0 +1,108 @@
+package com.bizo.aws.dynamock;
+
+import java.math.BigDecimal;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+
+/**
+ * A key attribute value with its typed sort key extracted once, so that ordered indexes compare keys without
+ * re-reading or re-parsing the AttributeValue on every comparison.
+ * N values become a long when they are integers that fit one, and a BigDecimal otherwise; S values keep their String.
+ * Keys order the way DynamoDB orders range keys: numerically for N, lexicographically for S, with N before S.
+ * Numerically equal keys ("1.50" and "1.5") are equal.
+ * @author gregfitzgerald
+ *
+ */
+public final class SortKey implements Comparable<SortKey> {
+
+  private static final int NUMBER = 0;
+  private static final int STRING = 1;
+
+  private final AttributeValue value;
+  private final int type;
+  private final boolean integral;
+  private final long longValue;
+  private final BigDecimal decimalValue;
+  private final String stringValue;
+  private final int hash;
+
+  private SortKey(final AttributeValue value) {
+    this.value = value;
+
+    final String n = value.getN();
+    if (n != null) {
+      final BigDecimal decimal = new BigDecimal(n).stripTrailingZeros();
+      boolean fitsLong = false;
+      long l = 0L;
+      if (decimal.scale() <= 0 && decimal.precision() - decimal.scale() <= 18) {
+        l = decimal.longValueExact();
+        fitsLong = true;
+      }
+
+      this.type = NUMBER;
+      this.integral = fitsLong;
+      this.longValue = l;
+      this.decimalValue = fitsLong ? null : decimal;
+      this.stringValue = null;
+      this.hash = fitsLong ? (int)(l ^ (l >>> 32)) : decimal.hashCode();
+    } else {
+      // S values sort by their string, anything else (sets are never keys) by its toString
+      final String s = value.getS();
+      this.type = STRING;
+      this.integral = false;
+      this.longValue = 0L;
+      this.decimalValue = null;
+      this.stringValue = (s != null) ? s : value.toString();
+      this.hash = stringValue.hashCode();
+    }
+  }
+
+  /**
+   * Extract the sort key of the given attribute value.
+   * @param value
+   * @return
+   */
+  public static SortKey of(final AttributeValue value) {
+    return new SortKey(value);
+  }
+
+  /**
+   * The attribute value this key was extracted from.
+   * @return
+   */
+  public AttributeValue getValue() {
+    return value;
+  }
+
+  @Override
+  public int compareTo(final SortKey other) {
+    if (type != other.type) {
+      return (type < other.type) ? -1 : 1;
+    } else if (type == STRING) {
+      return stringValue.compareTo(other.stringValue);
+    } else if (integral && other.integral) {
+      return (longValue < other.longValue) ? -1 : ((longValue == other.longValue) ? 0 : 1);
+    }
+
+    return decimal().compareTo(other.decimal());
+  }
+
+  private BigDecimal decimal() {
+    return integral ? BigDecimal.valueOf(longValue) : decimalValue;
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    return (obj instanceof SortKey) && compareTo((SortKey)obj) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return (type == STRING) ? stringValue : decimal().toPlainString();
+  }
+}
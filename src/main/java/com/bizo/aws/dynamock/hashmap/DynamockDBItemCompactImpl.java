@@ -0,0 +1,156 @@
+package com.bizo.aws.dynamock.hashmap;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.bizo.aws.dynamock.DynamockDBItem;
+
+/**
+ * A DynamockDBItem laid out as a flat array: slot 0 holds the item's interned ItemShape, and slot i + 1 the value of
+ * the shape's i'th attribute.  Keeping the shape in the array lets the whole item be swapped with one volatile write.
+ *
+ * Values are stored as plain Java objects and converted to AttributeValues only when read:
+ * S as a String, N as a Long (canonical integers) or BigDecimal (when it prints back to the same string),
+ * SS as a String[], and NS as an Object[] of numbers.  Any other number keeps its original string.
+ * @author gregfitzgerald
+ *
+ */
+class DynamockDBItemCompactImpl implements DynamockDBItem {
+
+  private volatile Object[] slots;
+
+  private DynamockDBItemCompactImpl(final Object[] slots) {
+    this.slots = slots;
+  }
+
+  /**
+   * Build a compact item from attributes, interning its shape in registry.
+   * @param registry
+   * @param attributes
+   * @return
+   */
+  static DynamockDBItemCompactImpl of(final ItemShape.Registry registry, final Map<String, AttributeValue> attributes) {
+    final ItemShape shape = registry.shapeFor(attributes.keySet());
+    final Object[] slots = new Object[shape.size() + 1];
+    slots[0] = shape;
+    for (Entry<String, AttributeValue> entry : attributes.entrySet()) {
+      slots[shape.slotOf(entry.getKey()) + 1] = encode(entry.getValue());
+    }
+    return new DynamockDBItemCompactImpl(slots);
+  }
+
+  @Override
+  public Map<String, AttributeValue> toMap() {
+    final Object[] current = slots;
+    final ItemShape shape = (ItemShape)current[0];
+    final Map<String, AttributeValue> attributes = new HashMap<String, AttributeValue>(shape.size() * 4 / 3 + 1);
+    for (int i = 0; i < shape.size(); i++) {
+      attributes.put(shape.name(i), decode(current[i + 1]));
+    }
+    return attributes;
+  }
+
+  @Override
+  public AttributeValue getAttributeValue(final String attribute) {
+    final Object[] current = slots;
+    final int slot = ((ItemShape)current[0]).slotOf(attribute);
+    return (slot < 0) ? null : decode(current[slot + 1]);
+  }
+
+  @Override
+  public synchronized void setAttributeValue(final String attribute, final AttributeValue value) {
+    final Object[] current = slots;
+    final ItemShape shape = (ItemShape)current[0];
+    final int slot = shape.slotOf(attribute);
+    if (slot >= 0) {
+      final Object[] updated = current.clone();
+      updated[slot + 1] = encode(value);
+      slots = updated;
+      return;
+    }
+
+    final ItemShape newShape = shape.withAttribute(attribute);
+    final int newSlot = newShape.slotOf(attribute);
+    final Object[] updated = new Object[current.length + 1];
+    updated[0] = newShape;
+    System.arraycopy(current, 1, updated, 1, newSlot);
+    updated[newSlot + 1] = encode(value);
+    System.arraycopy(current, newSlot + 1, updated, newSlot + 2, current.length - newSlot - 1);
+    slots = updated;
+  }
+
+  private static Object encode(final AttributeValue value) {
+    if (value.getS() != null) {
+      return value.getS();
+    } else if (value.getN() != null) {
+      return encodeNumber(value.getN());
+    } else if (value.getSS() != null) {
+      return value.getSS().toArray(new String[value.getSS().size()]);
+    } else if (value.getNS() != null) {
+      final List<String> ns = value.getNS();
+      final Object[] numbers = new Object[ns.size()];
+      for (int i = 0; i < numbers.length; i++) {
+        numbers[i] = encodeNumber(ns.get(i));
+      }
+      return numbers;
+    }
+
+    throw new IllegalArgumentException("Empty attribute value");
+  }
+
+  private static Object encodeNumber(final String n) {
+    final BigDecimal decimal = new BigDecimal(n);
+    if (decimal.scale() == 0 && decimal.unscaledValue().bitLength() < 64) {
+      final long l = decimal.longValue();
+      if (Long.toString(l).equals(n)) {
+        return Long.valueOf(l);
+      }
+    }
+
+    return decimal.toString().equals(n) ? decimal : new RawNumber(n);
+  }
+
+  private static AttributeValue decode(final Object value) {
+    if (value instanceof String) {
+      return new AttributeValue().withS((String)value);
+    } else if (value instanceof String[]) {
+      final String[] ss = (String[])value;
+      final List<String> list = new ArrayList<String>(ss.length);
+      for (String s : ss) {
+        list.add(s);
+      }
+      return new AttributeValue().withSS(list);
+    } else if (value instanceof Object[]) {
+      final Object[] numbers = (Object[])value;
+      final List<String> list = new ArrayList<String>(numbers.length);
+      for (Object number : numbers) {
+        list.add(number.toString());
+      }
+      return new AttributeValue().withNS(list);
+    }
+
+    // Long, BigDecimal and RawNumber all print as the original number
+    return new AttributeValue().withN(value.toString());
+  }
+
+  /**
+   * A number whose string form is not canonical ("+5", "1e2"), kept as given.
+   */
+  private static final class RawNumber {
+    private final String n;
+
+    public RawNumber(final String n) {
+      this.n = n;
+    }
+
+    @Override
+    public String toString() {
+      return n;
+    }
+  }
+}
@@ -1,21 +1,22 @@
 package com.bizo.aws.dynamock.hashmap;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import com.amazonaws.services.dynamodb.model.AttributeValue;
 import com.bizo.aws.dynamock.DynamockDBItem;
 
 /**
- * An implementation of DynamockDBItem utilizing in-memory HashMaps as item stores.
+ * An implementation of DynamockDBItem holding its attributes in an immutable PersistentAttributeMap.
+ * The attributes are copied in when the item is built, and toMap returns the stored map itself, which can't be modified.
+ * setAttributeValue swaps in a new map that shares all other attributes with the old one.
  * @author gregfitzgerald
  *
  */
 public class DynamockDBItemHashMapImpl implements DynamockDBItem {
-  private Map<String, AttributeValue> attributes = new HashMap<String, AttributeValue>();
+  private volatile PersistentAttributeMap attributes;
 
   public DynamockDBItemHashMapImpl(Map<String, AttributeValue> attributes) {
-    this.attributes = attributes;
+    this.attributes = PersistentAttributeMap.copyOf(attributes);
   }
   
   /* (non-Javadoc)
@@ -39,6 +40,6 @@ public class DynamockDBItemHashMapImpl implements DynamockDBItem {
    */
   @Override
   public void setAttributeValue(final String attribute, final AttributeValue value) {
-    attributes.put(attribute, value);
+    attributes = attributes.plus(attribute, value);
   }
 }
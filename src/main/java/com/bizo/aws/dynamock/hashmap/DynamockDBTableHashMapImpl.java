@@ -1,28 +1,112 @@
 package com.bizo.aws.dynamock.hashmap;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodb.model.AttributeAction;
 import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.AttributeValueUpdate;
+import com.amazonaws.services.dynamodb.model.Condition;
 import com.amazonaws.services.dynamodb.model.Key;
+import com.amazonaws.services.dynamodb.model.KeySchema;
 import com.amazonaws.services.dynamodb.model.ResourceNotFoundException;
 import com.bizo.aws.dynamock.DynamockDBItem;
 import com.bizo.aws.dynamock.DynamockDBTable;
+import com.bizo.aws.dynamock.ItemProjection;
+import com.bizo.aws.dynamock.RangeKeyConditions;
+import com.bizo.aws.dynamock.ScanSegments;
+import com.bizo.aws.dynamock.SortKey;
 
 /**
  * An implementation of DynamockDBTable utilizing HashMaps as the underlying table storage.
+ * Each hash key maps to a partition sorted by range key, so queries walk only the matching sub range.
+ * The table is safe for concurrent use: reads never block, and writes lock only the stripe owning their hash key.
+ * Partitions are kept in scan order (see PartitionKey), so scans stream the table and resume in O(log n),
+ * and each scan segment is a contiguous range of partitions.
+ * A table can be forked in constant time: both tables keep reading the partitions they had, frozen, and each copies
+ * a partition into its own top layer the first time it writes to it.
  * @author gregfitzgerald
  *
  */
 public class DynamockDBTableHashMapImpl implements DynamockDBTable {
-  private AttributeValue PLACEHOLDER = new AttributeValue().withS("placeholder");
+  private static final SortKey PLACEHOLDER = SortKey.of(new AttributeValue().withS("placeholder"));
   private String tableName;
   private String hashKeyName;
   private String rangeKeyName;
+  private KeySchema keySchema;
   
-  private Map<AttributeValue, Map<AttributeValue, DynamockDBItem>> items = new HashMap<AttributeValue, Map<AttributeValue, DynamockDBItem>>();
+  private static final int LOCK_STRIPES = 64;
+  
+  private volatile Layer layer;
+  private final Lock[] locks = new Lock[LOCK_STRIPES];
+  private final ItemShape.Registry shapes;
+  
+  public DynamockDBTableHashMapImpl() {
+    this(ItemLayout.MAP);
+  }
+  
+  /**
+   * Create a table storing its items in the given layout.
+   * @param itemLayout
+   */
+  public DynamockDBTableHashMapImpl(final ItemLayout itemLayout) {
+    this((itemLayout == ItemLayout.COMPACT) ? new ItemShape.Registry() : null, new Layer(null));
+  }
+  
+  private DynamockDBTableHashMapImpl(final ItemShape.Registry shapes, final Layer layer) {
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new ReentrantLock();
+    }
+    this.shapes = shapes;
+    this.layer = layer;
+  }
+  
+  /**
+   * Create an independent copy of this table in constant time.  The partitions of this table are frozen and shared
+   * by both tables; each table copies a shared partition the first time it writes to it.
+   * Every fork of a table that has been written to since its last fork adds a layer that reads look through.
+   * @return
+   */
+  public DynamockDBTableHashMapImpl fork() {
+    for (Lock lock : locks) {
+      lock.lock();
+    }
+    try {
+      final Layer current = layer;
+      final Layer frozen;
+      if (current.partitions.isEmpty()) {
+        // nothing written since the last fork, so nothing more to freeze
+        frozen = current.base;
+      } else {
+        frozen = current;
+        layer = new Layer(current);
+      }
+      
+      final DynamockDBTableHashMapImpl fork = new DynamockDBTableHashMapImpl(shapes, new Layer(frozen));
+      fork.setTableName(tableName);
+      fork.setHashKeyName(hashKeyName);
+      fork.setRangeKeyName(rangeKeyName);
+      fork.setKeySchema(keySchema);
+      return fork;
+    } finally {
+      for (int i = locks.length - 1; i >= 0; i--) {
+        locks[i].unlock();
+      }
+    }
+  }
 
   /* (non-Javadoc)
    * @see com.bizo.comscore.aws.DynomockDBTable#getTableName()
@@ -72,12 +156,49 @@ public class DynamockDBTableHashMapImpl implements DynamockDBTable {
     this.rangeKeyName = rangeKeyName;
   }
   
+  /**
+   * The key schema the table was created with, including the key attribute types.
+   * @return
+   */
+  public KeySchema getKeySchema() {
+    return keySchema;
+  }
+  
+  public void setKeySchema(KeySchema keySchema) {
+    this.keySchema = keySchema;
+  }
+  
   /* (non-Javadoc)
    * @see com.bizo.comscore.aws.DynomockDBTable#getItemsForHashKey(com.amazonaws.services.dynamodb.model.AttributeValue)
    */
   @Override
   public Map<AttributeValue, DynamockDBItem> getItemsForHashKey(final AttributeValue hashKey) {
-    return items.get(hashKey);
+    final NavigableMap<SortKey, DynamockDBItem> itemsByRangeKey = findPartition(new PartitionKey(hashKey));
+    if (itemsByRangeKey == null) {
+      return null;
+    }
+    
+    final Map<AttributeValue, DynamockDBItem> retMap = new LinkedHashMap<AttributeValue, DynamockDBItem>();
+    for (Entry<SortKey, DynamockDBItem> entry : itemsByRangeKey.entrySet()) {
+      retMap.put(entry.getKey().getValue(), entry.getValue());
+    }
+    return retMap;
+  }
+  
+  /**
+   * Walk the sub range of the hash key's partition selected by rangeKeyCondition, starting after exclusiveStartRangeKey.
+   */
+  @Override
+  public Collection<DynamockDBItem> query(final AttributeValue hashKey, final Condition rangeKeyCondition,
+      final boolean scanIndexForward, final AttributeValue exclusiveStartRangeKey, final Integer limit,
+      final List<String> attributesToGet) {
+    
+    final NavigableMap<SortKey, DynamockDBItem> itemsByRangeKey = findPartition(new PartitionKey(hashKey));
+    if (itemsByRangeKey == null) {
+      return Collections.emptyList();
+    }
+    
+    return RangeKeyConditions.subMap(itemsByRangeKey, rangeKeyCondition, scanIndexForward, exclusiveStartRangeKey).values();
   }
   
   /* (non-Javadoc)
@@ -86,13 +207,44 @@ public class DynamockDBTableHashMapImpl implements DynamockDBTable {
   @Override
   public List<DynamockDBItem> getAllItems() {
     final List<DynamockDBItem> retList = new ArrayList<DynamockDBItem>();
-    for (Map<AttributeValue, DynamockDBItem> itemsByRanges : items.values()) {
-      retList.addAll(itemsByRanges.values());
+    final Iterator<DynamockDBItem> iterator = scan(null, 0, 1, null, null);
+    while (iterator.hasNext()) {
+      retList.add(iterator.next());
     }
     
     return retList;
   }
   
+  /**
+   * Stream the segment's partitions in scan order, starting after exclusiveStartKey if one is given.
+   */
+  @Override
+  public Iterator<DynamockDBItem> scan(final Key exclusiveStartKey, final int segment, final int totalSegments,
+      final Map<String, Condition> scanFilter, final List<String> attributesToGet) {
+    final PartitionKey upper = (segment == totalSegments - 1)
+        ? null : PartitionKey.lowest(ScanSegments.upperBound(segment, totalSegments));
+    if (exclusiveStartKey == null) {
+      final PartitionKey lower = PartitionKey.lowest(ScanSegments.lowerBound(segment, totalSegments));
+      return new ScanIterator(Collections.<DynamockDBItem>emptyList().iterator(), partitions(lower, true, upper));
+    }
+    
+    final AttributeValue startHashKey = exclusiveStartKey.getHashKeyElement();
+    if (startHashKey == null || !ScanSegments.contains(startHashKey, segment, totalSegments)) {
+      throw new AmazonServiceException("The provided starting key is invalid");
+    }
+    
+    final PartitionKey startKey = new PartitionKey(startHashKey);
+    final NavigableMap<SortKey, DynamockDBItem> startPartition = findPartition(startKey);
+    
+    Iterator<DynamockDBItem> first = Collections.<DynamockDBItem>emptyList().iterator();
+    if (startPartition != null) {
+      final SortKey startRangeKey = rangeKeyOrDefault(exclusiveStartKey.getRangeKeyElement());
+      first = startPartition.tailMap(startRangeKey, false).values().iterator();
+    }
+    
+    return new ScanIterator(first, partitions(startKey, false, upper));
+  }
+  
   /**
    * Lookup an item by hashkey and rangekey.  If range key is null, use a placeholder.
    * @param hashKey
@@ -102,25 +254,37 @@ public class DynamockDBTableHashMapImpl implements DynamockDBTable {
   @Override
   public DynamockDBItem getItem(final Key key) {
     final AttributeValue hashKey = key.getHashKeyElement();
-    AttributeValue lookupRangeKey = key.getRangeKeyElement();
+    final SortKey lookupRangeKey = rangeKeyOrDefault(key.getRangeKeyElement());
     
-    if (lookupRangeKey == null)
-      lookupRangeKey = PLACEHOLDER;
-    
-    final Map<AttributeValue, DynamockDBItem> itemsByRangeKey = items.get(hashKey);
+    final NavigableMap<SortKey, DynamockDBItem> itemsByRangeKey = findPartition(new PartitionKey(hashKey));
     if (itemsByRangeKey == null) {
       return null;
     } else{
       return itemsByRangeKey.get(lookupRangeKey);
     }
   }
+
+  /**
+   * Look the keys up one at a time.
+   */
+  @Override
+  public List<DynamockDBItem> getItems(final List<Key> keys, final List<String> attributesToGet) {
+    final List<DynamockDBItem> items = new ArrayList<DynamockDBItem>();
+    for (Key key : keys) {
+      final DynamockDBItem item = getItem(key);
+      if (item != null) {
+        items.add(ItemProjection.project(item, attributesToGet));
+      }
+    }
+    return items;
+  }
   
   /**
    * Create an item, storing it in the database and returning a DynomockDBItem instance.
    */
   @Override
   public DynamockDBItem createItem(final Map<String, AttributeValue> item) {
-    final DynamockDBItem itemObj = new DynamockDBItemHashMapImpl(item);
+    final DynamockDBItem itemObj = newItem(item);
     final Key key = new Key();
     final AttributeValue hashKey = item.get(getHashKeyName());
     key.setHashKeyElement(hashKey);
@@ -130,7 +294,7 @@ public class DynamockDBTableHashMapImpl implements DynamockDBTable {
       key.setRangeKeyElement(rangeKey);
     }
     
-    putItem(key, itemObj);
+    storeItem(key, itemObj);
     
     return itemObj;
   }
@@ -146,19 +310,71 @@ public class DynamockDBTableHashMapImpl implements DynamockDBTable {
    */
   @Override
   public void putItem(final Key key, final DynamockDBItem item) {
+    // in the MAP layout, wrapping a stored item's attributes shares them rather than copying
+    storeItem(key, newItem(item.toMap()));
+  }
+  
+  /**
+   * Store an item built by this table, replacing any item with the same key.
+   * @param key
+   * @param itemObj
+   */
+  private void storeItem(final Key key, final DynamockDBItem itemObj) {
     final AttributeValue hashKey = key.getHashKeyElement();
     final AttributeValue rangeKey = key.getRangeKeyElement();
     
-    final DynamockDBItem itemObj = new DynamockDBItemHashMapImpl(item.toMap());
-    final AttributeValue lookupRangeKey = rangeKeyOrDefault(rangeKey);
+    final SortKey lookupRangeKey = rangeKeyOrDefault(rangeKey);
+    final PartitionKey partitionKey = new PartitionKey(hashKey);
     
-    Map<AttributeValue, DynamockDBItem> rangeKeyMap = items.get(hashKey);
-    if (rangeKeyMap == null) {
-      rangeKeyMap = new HashMap<AttributeValue, DynamockDBItem>();
-      items.put(hashKey, rangeKeyMap);
+    final Lock lock = lockFor(partitionKey);
+    lock.lock();
+    try {
+      partitionFor(partitionKey).put(lookupRangeKey, itemObj);
+    } finally {
+      lock.unlock();
     }
+  }
+  
+  /**
+   * Apply the updates to the item stored under key (creating it if needed) while holding the key's stripe lock,
+   * so concurrent updates to the same item are never lost.  The stored item is replaced, never modified in place.
+   */
+  @Override
+  public DynamockDBItem updateItem(final Key key, final Map<String, AttributeValueUpdate> updates) {
+    final AttributeValue hashKey = key.getHashKeyElement();
+    final SortKey lookupRangeKey = rangeKeyOrDefault(key.getRangeKeyElement());
+    final PartitionKey partitionKey = new PartitionKey(hashKey);
     
-    rangeKeyMap.put(lookupRangeKey, itemObj);
+    final Lock lock = lockFor(partitionKey);
+    lock.lock();
+    try {
+      final ConcurrentNavigableMap<SortKey, DynamockDBItem> rangeKeyMap = partitionFor(partitionKey);
+      final DynamockDBItem found = rangeKeyMap.get(lookupRangeKey);
+      
+      // the updated item shares every untouched attribute with the stored one
+      PersistentAttributeMap attributes;
+      if (found == null) {
+        attributes = PersistentAttributeMap.EMPTY.plus(hashKeyName, hashKey);
+        if (rangeKeyName != null) {
+          attributes = attributes.plus(rangeKeyName, key.getRangeKeyElement());
+        }
+      } else {
+        attributes = PersistentAttributeMap.copyOf(found.toMap());
+      }
+      
+      for (Entry<String, AttributeValueUpdate> entry : updates.entrySet()) {
+        final AttributeValueUpdate update = entry.getValue();
+        if (update.getAction().equals(AttributeAction.PUT.toString())) {
+          attributes = attributes.plus(entry.getKey(), update.getValue());
+        }
+      }
+      
+      final DynamockDBItem itemObj = newItem(attributes);
+      rangeKeyMap.put(lookupRangeKey, itemObj);
+      return itemObj;
+    } finally {
+      lock.unlock();
+    }
   }
   
   /**
@@ -171,15 +387,235 @@ public class DynamockDBTableHashMapImpl implements DynamockDBTable {
     final AttributeValue hashKey = key.getHashKeyElement();
     final AttributeValue rangeKey = key.getRangeKeyElement();
     
-    final Map<AttributeValue, DynamockDBItem> rangeKeyMap = items.get(hashKey);
-    if (rangeKeyMap == null) {
+    final PartitionKey partitionKey = new PartitionKey(hashKey);
+    if (findPartition(partitionKey) == null) {
       throw new ResourceNotFoundException("Item not found");
     }
     
-    rangeKeyMap.remove(rangeKeyOrDefault(rangeKey));
+    final SortKey lookupRangeKey = rangeKeyOrDefault(rangeKey);
+    final Lock lock = lockFor(partitionKey);
+    lock.lock();
+    try {
+      // don't copy a shared partition just to find the item isn't there
+      if (findPartition(partitionKey).containsKey(lookupRangeKey)) {
+        partitionFor(partitionKey).remove(lookupRangeKey);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Store the items, then delete the keys, one at a time.
+   */
+  @Override
+  public void batchWrite(final List<Map<String, AttributeValue>> puts, final List<Key> deletes) {
+    for (Map<String, AttributeValue> item : puts) {
+      createItem(item);
+    }
+    for (Key key : deletes) {
+      deleteItem(key);
+    }
+  }
+  
+  /**
+   * Build an item in this table's layout.
+   * @param attributes
+   * @return
+   */
+  private DynamockDBItem newItem(final Map<String, AttributeValue> attributes) {
+    if (shapes != null) {
+      return DynamockDBItemCompactImpl.of(shapes, attributes);
+    }
+    return new DynamockDBItemHashMapImpl(attributes);
+  }
+  
+  private SortKey rangeKeyOrDefault(final AttributeValue rangeKey) {
+    return (rangeKey == null) ? PLACEHOLDER : SortKey.of(rangeKey);
+  }
+  
+  /**
+   * The partition for partitionKey in the newest layer holding it, or null.
+   * @param partitionKey
+   * @return
+   */
+  private ConcurrentNavigableMap<SortKey, DynamockDBItem> findPartition(final PartitionKey partitionKey) {
+    for (Layer l = layer; l != null; l = l.base) {
+      final ConcurrentNavigableMap<SortKey, DynamockDBItem> partition = l.partitions.get(partitionKey);
+      if (partition != null) {
+        return partition;
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Find or atomically create the writable partition for partitionKey, copying it into the top layer
+   * if it was frozen by a fork.  The caller holds the key's stripe lock, which keeps the top layer from changing.
+   * @param partitionKey
+   * @return
+   */
+  private ConcurrentNavigableMap<SortKey, DynamockDBItem> partitionFor(final PartitionKey partitionKey) {
+    final Layer top = layer;
+    ConcurrentNavigableMap<SortKey, DynamockDBItem> rangeKeyMap = top.partitions.get(partitionKey);
+    if (rangeKeyMap == null) {
+      final ConcurrentNavigableMap<SortKey, DynamockDBItem> created =
+          new ConcurrentSkipListMap<SortKey, DynamockDBItem>();
+      for (Layer l = top.base; l != null; l = l.base) {
+        final NavigableMap<SortKey, DynamockDBItem> frozen = l.partitions.get(partitionKey);
+        if (frozen != null) {
+          created.putAll(frozen);
+          break;
+        }
+      }
+      
+      rangeKeyMap = top.partitions.putIfAbsent(partitionKey, created);
+      if (rangeKeyMap == null) {
+        rangeKeyMap = created;
+      }
+    }
+    
+    return rangeKeyMap;
   }
   
-  private AttributeValue rangeKeyOrDefault(final AttributeValue rangeKey) {
-    return (rangeKey == null) ? PLACEHOLDER : rangeKey;
+  /**
+   * The partitions from the given key up to (excluding) to, or to the end when to is null, in scan order.
+   * @param from
+   * @param inclusive
+   * @param to
+   * @return
+   */
+  private Iterator<ConcurrentNavigableMap<SortKey, DynamockDBItem>> partitions(final PartitionKey from,
+      final boolean inclusive, final PartitionKey to) {
+    
+    final List<NavigableMap<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>>> views =
+        new ArrayList<NavigableMap<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>>>();
+    for (Layer l = layer; l != null; l = l.base) {
+      views.add((to == null) ? l.partitions.tailMap(from, inclusive) : l.partitions.subMap(from, inclusive, to, false));
+    }
+    
+    if (views.size() == 1) {
+      return views.get(0).values().iterator();
+    }
+    return new LayeredPartitions(views);
+  }
+  
+  /**
+   * Writes to a hash key serialize on one of LOCK_STRIPES locks, chosen by the partition key's hash.
+   * @param partitionKey
+   * @return
+   */
+  private Lock lockFor(final PartitionKey partitionKey) {
+    return locks[partitionKey.getHash() & (LOCK_STRIPES - 1)];
+  }
+  
+  /**
+   * Partitions written since the table was last forked, over the frozen layers of earlier forks.
+   */
+  private static final class Layer {
+    private final ConcurrentNavigableMap<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>> partitions =
+        new ConcurrentSkipListMap<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>>();
+    private final Layer base;
+    
+    public Layer(final Layer base) {
+      this.base = base;
+    }
+  }
+  
+  /**
+   * Merges the partitions of several layers, newest first, in scan order; a partition in a newer layer hides
+   * its frozen copies in older ones.
+   */
+  private static class LayeredPartitions implements Iterator<ConcurrentNavigableMap<SortKey, DynamockDBItem>> {
+    private final List<Iterator<Entry<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>>>> layers =
+        new ArrayList<Iterator<Entry<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>>>>();
+    private final List<Entry<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>>> heads =
+        new ArrayList<Entry<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>>>();
+    
+    public LayeredPartitions(final List<NavigableMap<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>>> views) {
+      for (NavigableMap<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>> view : views) {
+        final Iterator<Entry<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>>> iterator =
+            view.entrySet().iterator();
+        layers.add(iterator);
+        heads.add(iterator.hasNext() ? iterator.next() : null);
+      }
+    }
+    
+    @Override
+    public boolean hasNext() {
+      for (Entry<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>> head : heads) {
+        if (head != null) {
+          return true;
+        }
+      }
+      return false;
+    }
+    
+    @Override
+    public ConcurrentNavigableMap<SortKey, DynamockDBItem> next() {
+      // the lowest key, from the newest layer holding it
+      int lowest = -1;
+      for (int i = 0; i < heads.size(); i++) {
+        final Entry<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>> head = heads.get(i);
+        if (head != null && (lowest < 0 || head.getKey().compareTo(heads.get(lowest).getKey()) < 0)) {
+          lowest = i;
+        }
+      }
+      if (lowest < 0) {
+        throw new NoSuchElementException();
+      }
+      
+      final Entry<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>> next = heads.get(lowest);
+      for (int i = 0; i < heads.size(); i++) {
+        final Entry<PartitionKey, ConcurrentNavigableMap<SortKey, DynamockDBItem>> head = heads.get(i);
+        if (head != null && head.getKey().equals(next.getKey())) {
+          heads.set(i, layers.get(i).hasNext() ? layers.get(i).next() : null);
+        }
+      }
+      return next.getValue();
+    }
+    
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+  
+  /**
+   * Iterates the rest of one partition, then every item of the remaining partitions.
+   */
+  private static class ScanIterator implements Iterator<DynamockDBItem> {
+    private Iterator<DynamockDBItem> current;
+    private final Iterator<? extends Map<SortKey, DynamockDBItem>> partitions;
+    
+    public ScanIterator(final Iterator<DynamockDBItem> first,
+        final Iterator<? extends Map<SortKey, DynamockDBItem>> partitions) {
+      this.current = first;
+      this.partitions = partitions;
+    }
+    
+    @Override
+    public boolean hasNext() {
+      while (!current.hasNext()) {
+        if (!partitions.hasNext()) {
+          return false;
+        }
+        current = partitions.next().values().iterator();
+      }
+      return true;
+    }
+    
+    @Override
+    public DynamockDBItem next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return current.next();
+    }
+    
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
   }
 }
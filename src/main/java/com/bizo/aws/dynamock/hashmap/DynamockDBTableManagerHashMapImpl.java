@@ -1,8 +1,12 @@
 package com.bizo.aws.dynamock.hashmap;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.amazonaws.services.dynamodb.model.KeySchema;
 import com.amazonaws.services.dynamodb.model.KeySchemaElement;
@@ -10,12 +14,29 @@ import com.bizo.aws.dynamock.DynamockDBTable;
 import com.bizo.aws.dynamock.DynamockDBTableManager;
 
 /**
- * An implementation of DynamockDBTableManager utilizing HashMap for table storage
+ * An implementation of DynamockDBTableManager utilizing HashMap for table storage.
+ * Tables are registered in a ConcurrentHashMap, so tables may be created, listed and deleted from any thread.
+ * The manager's ItemLayout (MAP by default) decides how every table it creates stores its items.
+ * All tables can be written to a binary snapshot file and restored from one, which is much faster than rebuilding
+ * fixture tables item by item.
  * @author gregfitzgerald
  *
  */
 public class DynamockDBTableManagerHashMapImpl implements DynamockDBTableManager {
-  private final Map<String, DynamockDBTable> tables = new HashMap<String, DynamockDBTable>();
+  private final ConcurrentMap<String, DynamockDBTable> tables = new ConcurrentHashMap<String, DynamockDBTable>();
+  private final ItemLayout itemLayout;
+  
+  public DynamockDBTableManagerHashMapImpl() {
+    this(ItemLayout.MAP);
+  }
+  
+  /**
+   * Create a manager whose tables store items in the given layout.
+   * @param itemLayout
+   */
+  public DynamockDBTableManagerHashMapImpl(final ItemLayout itemLayout) {
+    this.itemLayout = itemLayout;
+  }
   
   @Override
   public DynamockDBTable getTable(String tableName) {
@@ -32,8 +53,9 @@ public class DynamockDBTableManagerHashMapImpl implements DynamockDBTableManager
     final KeySchemaElement hashKey = keySchema.getHashKeyElement();
     final KeySchemaElement rangeKey = keySchema.getRangeKeyElement();
 
-    final DynamockDBTable table = new DynamockDBTableHashMapImpl();
+    final DynamockDBTableHashMapImpl table = new DynamockDBTableHashMapImpl(itemLayout);
     table.setTableName(tableName);
+    table.setKeySchema(keySchema);
     table.setHashKeyName(hashKey.getAttributeName());
     if (rangeKey != null) {
       table.setRangeKeyName(rangeKey.getAttributeName());
@@ -48,5 +70,47 @@ public class DynamockDBTableManagerHashMapImpl implements DynamockDBTableManager
   public void deleteTable(String tableName) {
     tables.remove(tableName);
   }
+  
+  /**
+   * Create an independent manager holding a fork of every table (see DynamockDBTableHashMapImpl.fork).
+   * Forking takes time proportional to the number of tables, not their size, and the managers share the tables'
+   * data until either writes to it.  Tables created or deleted afterwards in one manager don't affect the other.
+   * @return
+   */
+  public DynamockDBTableManagerHashMapImpl fork() {
+    final DynamockDBTableManagerHashMapImpl fork = new DynamockDBTableManagerHashMapImpl(itemLayout);
+    for (DynamockDBTable table : tables.values()) {
+      fork.tables.put(table.getTableName(), ((DynamockDBTableHashMapImpl)table).fork());
+    }
+    return fork;
+  }
+  
+  /**
+   * Write every table, with its key schema and items, to a snapshot file.
+   * Writes made while the snapshot is taken may or may not be included.
+   * @param file
+   * @throws IOException
+   */
+  public void writeSnapshot(final File file) throws IOException {
+    final List<DynamockDBTableHashMapImpl> snapshotTables = new ArrayList<DynamockDBTableHashMapImpl>();
+    for (DynamockDBTable table : tables.values()) {
+      snapshotTables.add((DynamockDBTableHashMapImpl)table);
+    }
+    HashMapSnapshot.write(snapshotTables, file);
+  }
+  
+  /**
+   * Replace every table with the tables of a snapshot file, storing their items in this manager's layout.
+   * The current tables are kept if the snapshot can't be read.
+   * @param file
+   * @throws IOException
+   */
+  public void restoreSnapshot(final File file) throws IOException {
+    final List<DynamockDBTableHashMapImpl> restored = HashMapSnapshot.read(file, itemLayout);
+    tables.clear();
+    for (DynamockDBTableHashMapImpl table : restored) {
+      tables.put(table.getTableName(), table);
+    }
+  }
 
 }
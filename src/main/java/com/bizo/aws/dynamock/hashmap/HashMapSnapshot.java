@@ -0,0 +1,252 @@
+package com.bizo.aws.dynamock.hashmap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.dynamodb.model.KeySchema;
+import com.amazonaws.services.dynamodb.model.KeySchemaElement;
+import com.bizo.aws.dynamock.DynamockDBItem;
+import com.bizo.aws.dynamock.ItemCodec;
+
+/**
+ * Writes and reads binary snapshots of hash-map tables.
+ *
+ * A snapshot starts with a magic number and format version, then holds each table's items back to back
+ * (see ItemCodec), then a directory of the tables: name, key schema, and the offset, length and count of its items.
+ * A footer of the directory offset, the table count and the magic number ends the file.
+ *
+ * Restoring maps each table's items read-only and decodes the tables in parallel, one task per table.
+ * Items are written in scan order, so each table's partitions are rebuilt by appending to its sorted maps.
+ * @author gregfitzgerald
+ *
+ */
+final class HashMapSnapshot {
+
+  private static final long MAGIC = 0x64796e616d736e70L;
+  private static final int FORMAT_VERSION = 1;
+  private static final int FOOTER_SIZE = 20;
+
+  private HashMapSnapshot() {
+  }
+
+  /**
+   * Write every item of tables to file.  Writes made to the tables meanwhile may or may not be included.
+   * @param tables
+   * @param file
+   * @throws IOException
+   */
+  static void write(final Collection<DynamockDBTableHashMapImpl> tables, final File file) throws IOException {
+    final File temporary = new File(file.getPath() + ".tmp");
+    final FileOutputStream stream = new FileOutputStream(temporary);
+    try {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 256 * 1024));
+      out.writeLong(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      long offset = 12L;
+
+      final List<TableEntry> directory = new ArrayList<TableEntry>();
+      for (DynamockDBTableHashMapImpl table : tables) {
+        final TableEntry entry = new TableEntry(table);
+        entry.offset = offset;
+
+        final Iterator<DynamockDBItem> items = table.scan(null, 0, 1, null, null);
+        while (items.hasNext()) {
+          final byte[] item = ItemCodec.encode(items.next().toMap());
+          out.write(item);
+          offset += item.length;
+          entry.count++;
+        }
+        entry.length = offset - entry.offset;
+        directory.add(entry);
+      }
+
+      for (TableEntry entry : directory) {
+        entry.write(out);
+      }
+      out.writeLong(offset);
+      out.writeInt(directory.size());
+      out.writeLong(MAGIC);
+      out.flush();
+    } finally {
+      stream.close();
+    }
+
+    if ((file.exists() && !file.delete()) || !temporary.renameTo(file)) {
+      throw new IOException("Unable to replace snapshot " + file);
+    }
+  }
+
+  /**
+   * Read the tables of a snapshot, storing their items in the given layout.
+   * @param file
+   * @param itemLayout
+   * @return
+   * @throws IOException
+   */
+  static List<DynamockDBTableHashMapImpl> read(final File file, final ItemLayout itemLayout) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      final long size = channel.size();
+      if (size < 12 + FOOTER_SIZE) {
+        throw new IOException("Snapshot " + file + " is truncated");
+      }
+
+      final ByteBuffer header = ByteBuffer.allocate(12);
+      readFully(channel, header, 0L);
+      header.flip();
+      if (header.getLong() != MAGIC || header.getInt() != FORMAT_VERSION) {
+        throw new IOException(file + " is not a snapshot");
+      }
+
+      final ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+      readFully(channel, footer, size - FOOTER_SIZE);
+      footer.flip();
+      final long directoryOffset = footer.getLong();
+      final int tableCount = footer.getInt();
+      if (footer.getLong() != MAGIC) {
+        throw new IOException("Snapshot " + file + " is corrupt");
+      }
+
+      final DataInputStream in = new DataInputStream(Channels.newInputStream(channel.position(directoryOffset)));
+      final List<Callable<DynamockDBTableHashMapImpl>> tasks = new ArrayList<Callable<DynamockDBTableHashMapImpl>>();
+      for (int i = 0; i < tableCount; i++) {
+        final TableEntry entry = TableEntry.read(in);
+        if (entry.length > Integer.MAX_VALUE) {
+          throw new IOException("Table " + entry.tableName + " is too large to restore");
+        }
+        final MappedByteBuffer items = channel.map(MapMode.READ_ONLY, entry.offset, entry.length);
+        tasks.add(new Callable<DynamockDBTableHashMapImpl>() {
+          @Override
+          public DynamockDBTableHashMapImpl call() {
+            final DynamockDBTableHashMapImpl table = entry.newTable(itemLayout);
+            for (long item = 0; item < entry.count; item++) {
+              table.createItem(ItemCodec.decode(items));
+            }
+            return table;
+          }
+        });
+      }
+
+      final List<DynamockDBTableHashMapImpl> tables = new ArrayList<DynamockDBTableHashMapImpl>();
+      for (Future<DynamockDBTableHashMapImpl> table : ForkJoinPool.commonPool().invokeAll(tasks)) {
+        try {
+          tables.add(table.get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted restoring " + file, e);
+        } catch (ExecutionException e) {
+          throw new IOException("Snapshot " + file + " is corrupt", e.getCause());
+        }
+      }
+      return tables;
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+    long at = position;
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, at);
+      if (read < 0) {
+        throw new EOFException();
+      }
+      at += read;
+    }
+  }
+
+  /**
+   * A table's entry in the snapshot directory.
+   */
+  private static final class TableEntry {
+    private String tableName;
+    private KeySchema keySchema;
+    private String hashKeyName;
+    private String rangeKeyName;
+    private long offset;
+    private long length;
+    private long count;
+
+    private TableEntry() {
+    }
+
+    TableEntry(final DynamockDBTableHashMapImpl table) {
+      this.tableName = table.getTableName();
+      this.keySchema = table.getKeySchema();
+      this.hashKeyName = table.getHashKeyName();
+      this.rangeKeyName = table.getRangeKeyName();
+    }
+
+    void write(final DataOutputStream out) throws IOException {
+      out.writeUTF(tableName);
+      writeElement(out, (keySchema == null) ? new KeySchemaElement().withAttributeName(hashKeyName) : keySchema.getHashKeyElement());
+      if (rangeKeyName == null) {
+        out.writeBoolean(false);
+      } else {
+        out.writeBoolean(true);
+        writeElement(out, (keySchema == null) ? new KeySchemaElement().withAttributeName(rangeKeyName) : keySchema.getRangeKeyElement());
+      }
+      out.writeLong(offset);
+      out.writeLong(length);
+      out.writeLong(count);
+    }
+
+    static TableEntry read(final DataInputStream in) throws IOException {
+      final TableEntry entry = new TableEntry();
+      entry.tableName = in.readUTF();
+      entry.keySchema = new KeySchema(readElement(in));
+      if (in.readBoolean()) {
+        entry.keySchema.setRangeKeyElement(readElement(in));
+      }
+      entry.hashKeyName = entry.keySchema.getHashKeyElement().getAttributeName();
+      entry.rangeKeyName = (entry.keySchema.getRangeKeyElement() == null) ? null : entry.keySchema.getRangeKeyElement().getAttributeName();
+      entry.offset = in.readLong();
+      entry.length = in.readLong();
+      entry.count = in.readLong();
+      return entry;
+    }
+
+    DynamockDBTableHashMapImpl newTable(final ItemLayout itemLayout) {
+      final DynamockDBTableHashMapImpl table = new DynamockDBTableHashMapImpl(itemLayout);
+      table.setTableName(tableName);
+      table.setKeySchema(keySchema);
+      table.setHashKeyName(hashKeyName);
+      table.setRangeKeyName(rangeKeyName);
+      return table;
+    }
+
+    private static void writeElement(final DataOutputStream out, final KeySchemaElement element) throws IOException {
+      out.writeUTF(element.getAttributeName());
+      out.writeUTF((element.getAttributeType() == null) ? "" : element.getAttributeType());
+    }
+
+    private static KeySchemaElement readElement(final DataInputStream in) throws IOException {
+      final KeySchemaElement element = new KeySchemaElement().withAttributeName(in.readUTF());
+      final String type = in.readUTF();
+      if (type.length() > 0) {
+        element.setAttributeType(type);
+      }
+      return element;
+    }
+  }
+}
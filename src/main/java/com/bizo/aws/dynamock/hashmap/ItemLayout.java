@@ -0,0 +1,20 @@
+package com.bizo.aws.dynamock.hashmap;
+
+/**
+ * How DynamockDBTableHashMapImpl lays out the items it stores.
+ * @author gregfitzgerald
+ *
+ */
+public enum ItemLayout {
+  /**
+   * Each item is an immutable attribute map (see PersistentAttributeMap).  Reads return the stored map without copying.
+   */
+  MAP,
+
+  /**
+   * Each item is a flat array of values whose attribute names live in a shape shared by every item with the same
+   * attributes.  Values are kept as Strings, longs and BigDecimals rather than AttributeValues, which cuts per item
+   * overhead several fold; AttributeValues are built only when an item is read.
+   */
+  COMPACT
+}
@@ -0,0 +1,91 @@
+package com.bizo.aws.dynamock.hashmap;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The sorted attribute names of a compact item.  Shapes are interned per table, so every item with the same
+ * attributes shares one shape and one copy of each attribute name; an item stores only its values, by slot.
+ * @author gregfitzgerald
+ *
+ */
+final class ItemShape {
+
+  private final Registry registry;
+  private final String[] names;
+  private final int hash;
+
+  private ItemShape(final Registry registry, final String[] names) {
+    this.registry = registry;
+    this.names = names;
+    this.hash = Arrays.hashCode(names);
+  }
+
+  /**
+   * The slot holding attribute name, or -1 if the shape has no such attribute.
+   * @param name
+   * @return
+   */
+  int slotOf(final String name) {
+    final int slot = Arrays.binarySearch(names, name);
+    return (slot < 0) ? -1 : slot;
+  }
+
+  int size() {
+    return names.length;
+  }
+
+  String name(final int slot) {
+    return names[slot];
+  }
+
+  /**
+   * The interned shape with name added.  The new attribute's slot is returned by slotOf on the new shape.
+   * @param name
+   * @return
+   */
+  ItemShape withAttribute(final String name) {
+    final int insertion = -(Arrays.binarySearch(names, name) + 1);
+    final String[] newNames = new String[names.length + 1];
+    System.arraycopy(names, 0, newNames, 0, insertion);
+    newNames[insertion] = name;
+    System.arraycopy(names, insertion, newNames, insertion + 1, names.length - insertion);
+    return registry.intern(newNames);
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    return (obj instanceof ItemShape) && Arrays.equals(names, ((ItemShape)obj).names);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  /**
+   * The shapes of one table.
+   */
+  static final class Registry {
+    private final ConcurrentMap<ItemShape, ItemShape> shapes = new ConcurrentHashMap<ItemShape, ItemShape>();
+
+    /**
+     * The interned shape for the given attribute names.
+     * @param names
+     * @return
+     */
+    ItemShape shapeFor(final Collection<String> names) {
+      final String[] sorted = names.toArray(new String[names.size()]);
+      Arrays.sort(sorted);
+      return intern(sorted);
+    }
+
+    private ItemShape intern(final String[] sortedNames) {
+      final ItemShape candidate = new ItemShape(this, sortedNames);
+      final ItemShape existing = shapes.putIfAbsent(candidate, candidate);
+      return (existing == null) ? candidate : existing;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.bizo.aws.dynamock.hashmap;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.bizo.aws.dynamock.ScanSegments;
+import com.bizo.aws.dynamock.SortKey;
+
+/**
+ * A hash key paired with its segment hash (see ScanSegments).  Partitions are ordered by that hash first and by the
+ * hash key value second, which spreads hash keys evenly over the table's scan order, gives every scan a stable position
+ * to resume from, and makes each scan segment a contiguous range of partitions.
+ * Hash keys with equal SortKeys ("1.50" and "1.5") share a partition.
+ * @author gregfitzgerald
+ *
+ */
+final class PartitionKey implements Comparable<PartitionKey> {
+
+  private final SortKey value;
+  private final int hash;
+
+  PartitionKey(final AttributeValue value) {
+    this(SortKey.of(value), ScanSegments.hash(value));
+  }
+
+  private PartitionKey(final SortKey value, final int hash) {
+    this.value = value;
+    this.hash = hash;
+  }
+
+  /**
+   * A probe key ordered before every partition whose unsigned segment hash is at least unsignedHash.
+   * @param unsignedHash
+   * @return
+   */
+  static PartitionKey lowest(final long unsignedHash) {
+    return new PartitionKey(null, (int)unsignedHash);
+  }
+
+  AttributeValue getValue() {
+    return (value == null) ? null : value.getValue();
+  }
+
+  int getHash() {
+    return hash;
+  }
+
+  @Override
+  public int compareTo(final PartitionKey other) {
+    final int c = Integer.compareUnsigned(hash, other.hash);
+    if (c != 0) {
+      return c;
+    }
+
+    // probe keys sort before the partitions sharing their hash
+    if (value == null || other.value == null) {
+      return (value == null ? 0 : 1) - (other.value == null ? 0 : 1);
+    }
+    return value.compareTo(other.value);
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    return (obj instanceof PartitionKey) && compareTo((PartitionKey)obj) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+}
@@ -0,0 +1,595 @@
+package com.bizo.aws.dynamock.hashmap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.bizo.aws.dynamock.ItemSizes;
+
+/**
+ * An immutable attribute map stored as a hash array mapped trie.
+ * plus and minus return a new map that shares every untouched branch with the original, so updating a few attributes
+ * of a large item copies only the path to each changed attribute.  Because the map can never change, it can be handed
+ * to any number of readers without copying.  The Map mutators throw UnsupportedOperationException.
+ *
+ * Values entering the map through copyOf and plus are copied, so the caller's AttributeValues may be reused.
+ * The copies are frozen, so the values read out of the map can be shared by every reader and fork: their setters throw
+ * UnsupportedOperationException and their SS and NS lists are unmodifiable.
+ * @author gregfitzgerald
+ *
+ */
+public final class PersistentAttributeMap extends AbstractMap<String, AttributeValue> {
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  private static final int MAX_DEPTH = 8;
+
+  public static final PersistentAttributeMap EMPTY = new PersistentAttributeMap(null, 0);
+
+  private final Node root;
+  private final int size;
+  private Set<Map.Entry<String, AttributeValue>> entrySet;
+  private int estimatedSize = -1;
+
+  private PersistentAttributeMap(final Node root, final int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Return an immutable copy of attributes.  A PersistentAttributeMap is returned as is.
+   * @param attributes
+   * @return
+   */
+  public static PersistentAttributeMap copyOf(final Map<String, AttributeValue> attributes) {
+    if (attributes instanceof PersistentAttributeMap) {
+      return (PersistentAttributeMap)attributes;
+    }
+
+    PersistentAttributeMap map = EMPTY;
+    for (Map.Entry<String, AttributeValue> entry : attributes.entrySet()) {
+      map = map.plus(entry.getKey(), entry.getValue());
+    }
+    return map;
+  }
+
+  /**
+   * Return a map with attribute set to value, sharing everything else with this map.
+   * @param attribute
+   * @param value
+   * @return
+   */
+  public PersistentAttributeMap plus(final String attribute, final AttributeValue value) {
+    final Leaf leaf = new Leaf(attribute, copy(value));
+    if (root == null) {
+      return new PersistentAttributeMap(new BitmapNode(0, new Object[0]).plus(0, leaf), 1);
+    }
+
+    final Node newRoot = root.plus(0, leaf);
+    final int newSize = (root.find(0, leaf.hash, attribute) == null) ? size + 1 : size;
+    return new PersistentAttributeMap(newRoot, newSize);
+  }
+
+  /**
+   * Return a map without attribute, sharing everything else with this map.
+   * @param attribute
+   * @return
+   */
+  public PersistentAttributeMap minus(final String attribute) {
+    if (root == null || root.find(0, hash(attribute), attribute) == null) {
+      return this;
+    }
+
+    final Node newRoot = root.minus(0, hash(attribute), attribute);
+    return (newRoot == null) ? EMPTY : new PersistentAttributeMap(newRoot, size - 1);
+  }
+
+  @Override
+  public AttributeValue get(final Object key) {
+    if (root == null || !(key instanceof String)) {
+      return null;
+    }
+
+    final Leaf leaf = root.find(0, hash((String)key), (String)key);
+    return (leaf == null) ? null : leaf.value;
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    return root != null && key instanceof String && root.find(0, hash((String)key), (String)key) != null;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The size of the map's attributes as estimated by ItemSizes.  The map can't change, so the trie is walked once,
+   * on first use, and the estimate kept.
+   * @return
+   */
+  public int estimatedSize() {
+    int estimate = estimatedSize;
+    if (estimate < 0) {
+      estimate = (root == null) ? 0 : estimate(root);
+      estimatedSize = estimate;
+    }
+    return estimate;
+  }
+
+  private static int estimate(final Node node) {
+    int estimate = 0;
+    for (int i = 0; i < node.slotCount(); i++) {
+      final Object slot = node.slot(i);
+      if (slot instanceof Leaf) {
+        final Leaf leaf = (Leaf)slot;
+        estimate += ItemSizes.estimate(leaf.key, leaf.value);
+      } else {
+        estimate += estimate((Node)slot);
+      }
+    }
+    return estimate;
+  }
+
+  @Override
+  public Set<Map.Entry<String, AttributeValue>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<Map.Entry<String, AttributeValue>>() {
+        @Override
+        public Iterator<Map.Entry<String, AttributeValue>> iterator() {
+          return new EntryIterator(root);
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
+    return entrySet;
+  }
+
+  private static int hash(final String key) {
+    final int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Copy an attribute value as it enters the map, so later changes to the caller's value can't reach the stored one.
+   * A value already frozen is shared.
+   * @param value
+   * @return
+   */
+  private static AttributeValue copy(final AttributeValue value) {
+    if (value == null || value instanceof FrozenAttributeValue) {
+      return value;
+    }
+    return new FrozenAttributeValue(value);
+  }
+
+  /**
+   * An AttributeValue that can't be changed once copied.
+   */
+  private static final class FrozenAttributeValue extends AttributeValue {
+    private final List<String> ss;
+    private final List<String> ns;
+
+    public FrozenAttributeValue(final AttributeValue value) {
+      // the setters copy the lists
+      super.setS(value.getS());
+      super.setN(value.getN());
+      super.setSS(value.getSS());
+      super.setNS(value.getNS());
+      ss = (super.getSS() == null) ? null : Collections.unmodifiableList(super.getSS());
+      ns = (super.getNS() == null) ? null : Collections.unmodifiableList(super.getNS());
+    }
+
+    @Override
+    public List<String> getSS() {
+      return ss;
+    }
+
+    @Override
+    public List<String> getNS() {
+      return ns;
+    }
+
+    @Override
+    public void setS(final String s) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setN(final String n) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setSS(final Collection<String> ss) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNS(final Collection<String> ns) {
+      throw new UnsupportedOperationException();
+    }
+
+    // the withX methods assign the fields directly, rather than through the setters
+
+    @Override
+    public AttributeValue withS(final String s) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public AttributeValue withN(final String n) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public AttributeValue withSS(final String... ss) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public AttributeValue withSS(final Collection<String> ss) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public AttributeValue withNS(final String... ns) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public AttributeValue withNS(final Collection<String> ns) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * A single attribute, stored directly in a node slot.
+   */
+  private static final class Leaf implements Map.Entry<String, AttributeValue> {
+    private final String key;
+    private final AttributeValue value;
+    private final int hash;
+
+    public Leaf(final String key, final AttributeValue value) {
+      this.key = key;
+      this.value = value;
+      this.hash = hash(key);
+    }
+
+    @Override
+    public String getKey() {
+      return key;
+    }
+
+    @Override
+    public AttributeValue getValue() {
+      return value;
+    }
+
+    @Override
+    public AttributeValue setValue(final AttributeValue value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (!(obj instanceof Map.Entry)) {
+        return false;
+      }
+      final Map.Entry<?, ?> other = (Map.Entry<?, ?>)obj;
+      return key.equals(other.getKey()) && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+    }
+
+    @Override
+    public String toString() {
+      return key + "=" + value;
+    }
+  }
+
+  /**
+   * A trie node.  Nodes are never modified once built; plus and minus return new nodes, or this node if nothing changed.
+   */
+  private abstract static class Node {
+    abstract Leaf find(int shift, int hash, String key);
+
+    abstract Node plus(int shift, Leaf leaf);
+
+    /**
+     * @return the new node, or null if the node is left empty
+     */
+    abstract Node minus(int shift, int hash, String key);
+
+    /**
+     * @return the node's only entry if it holds exactly one leaf and no children, otherwise null
+     */
+    abstract Leaf singleLeaf();
+
+    abstract int slotCount();
+
+    abstract Object slot(int index);
+  }
+
+  /**
+   * A node that holds up to 32 slots, one per 5 bit hash fragment, each either a Leaf or a child Node.
+   */
+  private static final class BitmapNode extends Node {
+    private final int bitmap;
+    private final Object[] slots;
+
+    public BitmapNode(final int bitmap, final Object[] slots) {
+      this.bitmap = bitmap;
+      this.slots = slots;
+    }
+
+    @Override
+    Leaf find(final int shift, final int hash, final String key) {
+      final int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return null;
+      }
+
+      final Object slot = slots[index(bit)];
+      if (slot instanceof Leaf) {
+        final Leaf leaf = (Leaf)slot;
+        return key.equals(leaf.key) ? leaf : null;
+      }
+      return ((Node)slot).find(shift + BITS, hash, key);
+    }
+
+    @Override
+    Node plus(final int shift, final Leaf leaf) {
+      final int bit = bit(leaf.hash, shift);
+      final int index = index(bit);
+      if ((bitmap & bit) == 0) {
+        final Object[] newSlots = new Object[slots.length + 1];
+        System.arraycopy(slots, 0, newSlots, 0, index);
+        newSlots[index] = leaf;
+        System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+        return new BitmapNode(bitmap | bit, newSlots);
+      }
+
+      final Object slot = slots[index];
+      final Object newSlot;
+      if (slot instanceof Leaf) {
+        final Leaf existing = (Leaf)slot;
+        newSlot = existing.key.equals(leaf.key) ? leaf : merge(shift + BITS, existing, leaf);
+      } else {
+        newSlot = ((Node)slot).plus(shift + BITS, leaf);
+      }
+      return withSlot(index, newSlot);
+    }
+
+    @Override
+    Node minus(final int shift, final int hash, final String key) {
+      final int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+
+      final int index = index(bit);
+      final Object slot = slots[index];
+      Object newSlot;
+      if (slot instanceof Leaf) {
+        if (!key.equals(((Leaf)slot).key)) {
+          return this;
+        }
+        newSlot = null;
+      } else {
+        final Node child = ((Node)slot).minus(shift + BITS, hash, key);
+        if (child == slot) {
+          return this;
+        }
+        // pull a lone leaf back up, so that removals leave the trie as shallow as an insert would
+        final Leaf single = (child == null) ? null : child.singleLeaf();
+        newSlot = (single != null) ? single : child;
+      }
+
+      if (newSlot != null) {
+        return withSlot(index, newSlot);
+      } else if (slots.length == 1) {
+        return null;
+      }
+
+      final Object[] newSlots = new Object[slots.length - 1];
+      System.arraycopy(slots, 0, newSlots, 0, index);
+      System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+      return new BitmapNode(bitmap & ~bit, newSlots);
+    }
+
+    @Override
+    Leaf singleLeaf() {
+      return (slots.length == 1 && slots[0] instanceof Leaf) ? (Leaf)slots[0] : null;
+    }
+
+    @Override
+    int slotCount() {
+      return slots.length;
+    }
+
+    @Override
+    Object slot(final int index) {
+      return slots[index];
+    }
+
+    private BitmapNode withSlot(final int index, final Object slot) {
+      final Object[] newSlots = slots.clone();
+      newSlots[index] = slot;
+      return new BitmapNode(bitmap, newSlots);
+    }
+
+    private int index(final int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private static int bit(final int hash, final int shift) {
+      return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /**
+     * Build the node holding two leaves whose hashes agree up to shift.
+     */
+    private static Node merge(final int shift, final Leaf a, final Leaf b) {
+      if (shift >= 32) {
+        return new CollisionNode(new Leaf[] { a, b });
+      }
+
+      final int bitA = bit(a.hash, shift);
+      final int bitB = bit(b.hash, shift);
+      if (bitA == bitB) {
+        return new BitmapNode(bitA, new Object[] { merge(shift + BITS, a, b) });
+      }
+
+      final Object[] newSlots = (Integer.compareUnsigned(bitA, bitB) < 0) ? new Object[] { a, b } : new Object[] { b, a };
+      return new BitmapNode(bitA | bitB, newSlots);
+    }
+  }
+
+  /**
+   * A node for keys whose hashes are identical in every bit.
+   */
+  private static final class CollisionNode extends Node {
+    private final Leaf[] leaves;
+
+    public CollisionNode(final Leaf[] leaves) {
+      this.leaves = leaves;
+    }
+
+    @Override
+    Leaf find(final int shift, final int hash, final String key) {
+      final int index = indexOf(key);
+      return (index < 0) ? null : leaves[index];
+    }
+
+    @Override
+    Node plus(final int shift, final Leaf leaf) {
+      final int index = indexOf(leaf.key);
+      final Leaf[] newLeaves;
+      if (index < 0) {
+        newLeaves = new Leaf[leaves.length + 1];
+        System.arraycopy(leaves, 0, newLeaves, 0, leaves.length);
+        newLeaves[leaves.length] = leaf;
+      } else {
+        newLeaves = leaves.clone();
+        newLeaves[index] = leaf;
+      }
+      return new CollisionNode(newLeaves);
+    }
+
+    @Override
+    Node minus(final int shift, final int hash, final String key) {
+      final int index = indexOf(key);
+      if (index < 0) {
+        return this;
+      } else if (leaves.length == 1) {
+        return null;
+      }
+
+      final Leaf[] newLeaves = new Leaf[leaves.length - 1];
+      System.arraycopy(leaves, 0, newLeaves, 0, index);
+      System.arraycopy(leaves, index + 1, newLeaves, index, leaves.length - index - 1);
+      return new CollisionNode(newLeaves);
+    }
+
+    @Override
+    Leaf singleLeaf() {
+      return (leaves.length == 1) ? leaves[0] : null;
+    }
+
+    @Override
+    int slotCount() {
+      return leaves.length;
+    }
+
+    @Override
+    Object slot(final int index) {
+      return leaves[index];
+    }
+
+    private int indexOf(final String key) {
+      for (int i = 0; i < leaves.length; i++) {
+        if (leaves[i].key.equals(key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Depth first walk of the trie, holding one (node, position) pair per level instead of copying the entries.
+   */
+  private static final class EntryIterator implements Iterator<Map.Entry<String, AttributeValue>> {
+    private final Node[] nodes = new Node[MAX_DEPTH];
+    private final int[] positions = new int[MAX_DEPTH];
+    private int depth = -1;
+    private Leaf next;
+
+    public EntryIterator(final Node root) {
+      if (root != null) {
+        depth = 0;
+        nodes[0] = root;
+        advance();
+      }
+    }
+
+    private void advance() {
+      next = null;
+      while (depth >= 0) {
+        final Node node = nodes[depth];
+        if (positions[depth] >= node.slotCount()) {
+          nodes[depth] = null;
+          positions[depth] = 0;
+          depth--;
+          continue;
+        }
+
+        final Object slot = node.slot(positions[depth]++);
+        if (slot instanceof Leaf) {
+          next = (Leaf)slot;
+          return;
+        }
+        depth++;
+        nodes[depth] = (Node)slot;
+        positions[depth] = 0;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<String, AttributeValue> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      final Leaf current = next;
+      advance();
+      return current;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
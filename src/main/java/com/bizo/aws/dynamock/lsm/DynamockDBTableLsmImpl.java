@@ -0,0 +1,805 @@
+package com.bizo.aws.dynamock.lsm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodb.model.AttributeAction;
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.AttributeValueUpdate;
+import com.amazonaws.services.dynamodb.model.Condition;
+import com.amazonaws.services.dynamodb.model.Key;
+import com.amazonaws.services.dynamodb.model.ResourceNotFoundException;
+import com.bizo.aws.dynamock.DynamockDBItem;
+import com.bizo.aws.dynamock.DynamockDBTable;
+import com.bizo.aws.dynamock.ItemProjection;
+import com.bizo.aws.dynamock.RangeKeyConditions;
+import com.bizo.aws.dynamock.RangeKeyConditions.Bounds;
+import com.bizo.aws.dynamock.ScanSegments;
+import com.bizo.aws.dynamock.SortKey;
+import com.bizo.aws.dynamock.hashmap.DynamockDBItemHashMapImpl;
+import com.bizo.aws.dynamock.hashmap.PersistentAttributeMap;
+
+/**
+ * An implementation of DynamockDBTable persisted in a directory as a log-structured merge tree.
+ *
+ * Every write is appended to a write-ahead log (group committed, see WriteAheadLog) and then applied to the active
+ * memtable.  When the memtable outgrows memtableSize it is frozen, a new memtable and log take over, and a background
+ * thread writes the frozen memtable to a sorted segment file and deletes its log.  Once compactionThreshold segment
+ * files have accumulated, the background thread merges them into one, dropping overwritten entries and tombstones.
+ * The MANIFEST file lists the live segment files, newest first, and is replaced atomically on every change;
+ * on open the table replays any logs left behind into a new segment and ignores files the manifest doesn't list.
+ *
+ * Reads merge the memtables and segment files of the current Version, newest first.  Queries and scans read a batch
+ * at a time from whatever version is current, resuming after the last key read, so they never pin a version while
+ * their caller works.  Writes to one hash key stripe are serialized, so the log and the memtable see them in the
+ * same order.
+ * @author gregfitzgerald
+ *
+ */
+public class DynamockDBTableLsmImpl implements DynamockDBTable, Closeable {
+
+  private static final String MANIFEST = "MANIFEST";
+  private static final String LOG_PREFIX = "log-";
+  private static final String LOG_SUFFIX = ".wal";
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int BATCH_SIZE = 128;
+  private static final int STRIPES = 64;
+
+  private final File directory;
+  private final boolean syncWrites;
+  private final long memtableSize;
+  private final int compactionThreshold;
+
+  private String tableName;
+  private String hashKeyName;
+  private String rangeKeyName;
+
+  private final Object[] stripes = new Object[STRIPES];
+  private final ReadWriteLock rotationLock = new ReentrantReadWriteLock();
+  private final Object versionLock = new Object();
+  private volatile Version current;
+  private volatile boolean closed;
+  private volatile IOException backgroundFailure;
+  private final AtomicLong nextFileNumber = new AtomicLong();
+  private final ExecutorService background;
+
+  /**
+   * Open the table stored in directory, creating it if the directory is empty.
+   * @param directory
+   * @param syncWrites whether writes wait for the log to reach the disk, rather than the operating system
+   * @param memtableSize the approximate memtable size, in bytes, at which it is flushed to a segment file
+   * @param compactionThreshold the number of segment files that triggers a compaction
+   * @throws IOException
+   */
+  public DynamockDBTableLsmImpl(final File directory, final boolean syncWrites, final long memtableSize,
+      final int compactionThreshold) throws IOException {
+    this.directory = directory;
+    this.syncWrites = syncWrites;
+    this.memtableSize = memtableSize;
+    this.compactionThreshold = Math.max(2, compactionThreshold);
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Object();
+    }
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create table directory " + directory);
+    }
+    this.current = recover();
+
+    this.background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        final Thread thread = new Thread(runnable, "dynamock-lsm-" + directory.getName());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Open the segment files listed in the manifest, delete any others, and flush leftover logs into a new segment.
+   */
+  private Version recover() throws IOException {
+    final List<String> live = new ArrayList<String>();
+    final File manifest = new File(directory, MANIFEST);
+    if (manifest.exists()) {
+      for (String line : Files.readAllLines(manifest.toPath(), UTF8)) {
+        if (line.length() > 0) {
+          live.add(line);
+        }
+      }
+    }
+
+    final TreeMap<Long, File> logs = new TreeMap<Long, File>();
+    long highest = 0L;
+    for (File file : listFiles()) {
+      final String name = file.getName();
+      if (name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX)) {
+        final long number = fileNumber(name, LOG_PREFIX, LOG_SUFFIX);
+        logs.put(number, file);
+        highest = Math.max(highest, number);
+      } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+        highest = Math.max(highest, fileNumber(name, SEGMENT_PREFIX, SEGMENT_SUFFIX));
+        if (!live.contains(name)) {
+          file.delete();
+        }
+      } else if (name.endsWith(".tmp")) {
+        file.delete();
+      }
+    }
+    nextFileNumber.set(highest + 1);
+
+    final List<SegmentFile> segments = new ArrayList<SegmentFile>();
+    for (String name : live) {
+      segments.add(SegmentFile.open(new File(directory, name)));
+    }
+
+    final Memtable recovered = new Memtable(null);
+    for (File log : logs.values()) {
+      WriteAheadLog.replay(log, recovered);
+    }
+    if (!recovered.isEmpty()) {
+      segments.add(0, SegmentFile.write(newFile(SEGMENT_PREFIX, SEGMENT_SUFFIX), recovered.iterator()));
+      writeManifest(segments);
+    }
+    for (File log : logs.values()) {
+      log.delete();
+    }
+
+    final Memtable active = new Memtable(new WriteAheadLog(newFile(LOG_PREFIX, LOG_SUFFIX), syncWrites));
+    return new Version(active, Collections.<Memtable>emptyList(), segments);
+  }
+
+  private File[] listFiles() throws IOException {
+    final File[] files = directory.listFiles();
+    if (files == null) {
+      throw new IOException("Unable to list table directory " + directory);
+    }
+    return files;
+  }
+
+  private static long fileNumber(final String name, final String prefix, final String suffix) {
+    try {
+      return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    } catch (NumberFormatException e) {
+      return 0L;
+    }
+  }
+
+  private File newFile(final String prefix, final String suffix) {
+    return new File(directory, String.format("%s%08d%s", prefix, nextFileNumber.getAndIncrement(), suffix));
+  }
+
+  /**
+   * Atomically replace the manifest with the given segment files, newest first, syncing the directory so the
+   * replacement survives a crash.
+   */
+  private void writeManifest(final List<SegmentFile> segments) throws IOException {
+    final File temporary = new File(directory, MANIFEST + ".tmp");
+    final FileOutputStream stream = new FileOutputStream(temporary);
+    try {
+      final Writer writer = new OutputStreamWriter(stream, UTF8);
+      for (SegmentFile segment : segments) {
+        writer.write(segment.getFile().getName());
+        writer.write('\n');
+      }
+      writer.flush();
+      stream.getFD().sync();
+    } finally {
+      stream.close();
+    }
+
+    if (!temporary.renameTo(new File(directory, MANIFEST))) {
+      throw new IOException("Unable to replace the manifest of " + directory);
+    }
+    SegmentFile.syncDirectory(directory);
+  }
+
+  /**
+   * Return the directory the table is stored in.
+   * @return
+   */
+  File getDirectory() {
+    return directory;
+  }
+
+  @Override
+  public String getTableName() {
+    return tableName;
+  }
+
+  @Override
+  public void setTableName(String tableName) {
+    this.tableName = tableName;
+  }
+
+  @Override
+  public String getHashKeyName() {
+    return hashKeyName;
+  }
+
+  @Override
+  public void setHashKeyName(String hashKeyName) {
+    this.hashKeyName = hashKeyName;
+  }
+
+  @Override
+  public String getRangeKeyName() {
+    return rangeKeyName;
+  }
+
+  @Override
+  public void setRangeKeyName(String rangeKeyName) {
+    this.rangeKeyName = rangeKeyName;
+  }
+
+  @Override
+  public Map<AttributeValue, DynamockDBItem> getItemsForHashKey(final AttributeValue hashKey) {
+    final Map<AttributeValue, DynamockDBItem> items = new LinkedHashMap<AttributeValue, DynamockDBItem>();
+    for (DynamockDBItem item : query(hashKey, null, true, null, null, null)) {
+      final String keyName = (rangeKeyName == null) ? hashKeyName : rangeKeyName;
+      items.put(item.getAttributeValue(keyName), item);
+    }
+    return items.isEmpty() ? null : items;
+  }
+
+  /**
+   * A descending query merges the sources backwards from the top of its range, so a page reads no further than it returns.
+   */
+  @Override
+  public Collection<DynamockDBItem> query(final AttributeValue hashKey, final Condition rangeKeyCondition,
+      final boolean scanIndexForward, final AttributeValue exclusiveStartRangeKey, final Integer limit,
+      final List<String> attributesToGet) {
+
+    final LsmKey partition = new LsmKey(hashKey, null);
+    final Bounds bounds = RangeKeyConditions.bounds(rangeKeyCondition);
+    final SortKey start = (exclusiveStartRangeKey == null) ? null : SortKey.of(exclusiveStartRangeKey);
+    return new AbstractCollection<DynamockDBItem>() {
+      @Override
+      public Iterator<DynamockDBItem> iterator() {
+        if (bounds.isEmpty()) {
+          return Collections.<DynamockDBItem>emptyList().iterator();
+        } else if (scanIndexForward) {
+          return partitionIterator(partition, bounds, start);
+        }
+        return descendingPartitionIterator(partition, bounds, start);
+      }
+
+      @Override
+      public int size() {
+        int size = 0;
+        for (Iterator<DynamockDBItem> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+          size++;
+        }
+        return size;
+      }
+    };
+  }
+
+  /**
+   * The partition's items within bounds, after the range key after when given.
+   */
+  private Iterator<DynamockDBItem> partitionIterator(final LsmKey partition, final Bounds bounds, final SortKey after) {
+
+    LsmKey first = partition;
+    boolean inclusive = true;
+    if (bounds.getLower() != null) {
+      first = partition.withRangeKey(bounds.getLower());
+      inclusive = bounds.isLowerInclusive();
+    }
+    if (after != null && (bounds.getLower() == null || after.compareTo(bounds.getLower()) >= 0)) {
+      first = partition.withRangeKey(after);
+      inclusive = false;
+    }
+
+    return new RangeIterator(first, inclusive) {
+      @Override
+      protected boolean isWithin(final LsmKey key) {
+        if (!key.isSamePartition(partition)) {
+          return false;
+        }
+        final SortKey rangeKey = key.getRangeKey();
+        return rangeKey == null || bounds.isBelowUpper(rangeKey);
+      }
+    };
+  }
+
+  /**
+   * The partition's items within bounds in descending range key order, before the range key before when given.
+   */
+  private Iterator<DynamockDBItem> descendingPartitionIterator(final LsmKey partition, final Bounds bounds,
+      final SortKey before) {
+
+    LsmKey last = partition.endOf();
+    boolean inclusive = true;
+    if (bounds.getUpper() != null) {
+      last = partition.withRangeKey(bounds.getUpper());
+      inclusive = bounds.isUpperInclusive();
+    }
+    if (before != null && (bounds.getUpper() == null || before.compareTo(bounds.getUpper()) <= 0)) {
+      last = partition.withRangeKey(before);
+      inclusive = false;
+    }
+
+    return new RangeIterator(last, inclusive, false) {
+      @Override
+      protected boolean isWithin(final LsmKey key) {
+        if (!key.isSamePartition(partition)) {
+          return false;
+        }
+        final SortKey rangeKey = key.getRangeKey();
+        return rangeKey == null || bounds.isAboveLower(rangeKey);
+      }
+    };
+  }
+
+  @Override
+  public List<DynamockDBItem> getAllItems() {
+    final List<DynamockDBItem> items = new ArrayList<DynamockDBItem>();
+    final Iterator<DynamockDBItem> iterator = scan(null, 0, 1, null, null);
+    while (iterator.hasNext()) {
+      items.add(iterator.next());
+    }
+    return items;
+  }
+
+  @Override
+  public Iterator<DynamockDBItem> scan(final Key exclusiveStartKey, final int segment, final int totalSegments,
+      final Map<String, Condition> scanFilter, final List<String> attributesToGet) {
+    final long upper = ScanSegments.upperBound(segment, totalSegments);
+
+    LsmKey first = LsmKey.lowest(ScanSegments.lowerBound(segment, totalSegments));
+    boolean inclusive = true;
+    if (exclusiveStartKey != null) {
+      final AttributeValue startHashKey = exclusiveStartKey.getHashKeyElement();
+      if (startHashKey == null || !ScanSegments.contains(startHashKey, segment, totalSegments)) {
+        throw new AmazonServiceException("The provided starting key is invalid");
+      }
+      first = keyOf(startHashKey, exclusiveStartKey.getRangeKeyElement());
+      inclusive = false;
+    }
+
+    return new RangeIterator(first, inclusive) {
+      @Override
+      protected boolean isWithin(final LsmKey key) {
+        return key.getUnsignedHash() < upper;
+      }
+    };
+  }
+
+  @Override
+  public DynamockDBItem getItem(final Key key) {
+    final LsmEntry entry = find(keyOf(key.getHashKeyElement(), key.getRangeKeyElement()));
+    return (entry == null || entry.isTombstone()) ? null : new DynamockDBItemHashMapImpl(entry.getItem());
+  }
+
+  /**
+   * Look the keys up one at a time.
+   */
+  @Override
+  public List<DynamockDBItem> getItems(final List<Key> keys, final List<String> attributesToGet) {
+    final List<DynamockDBItem> items = new ArrayList<DynamockDBItem>();
+    for (Key key : keys) {
+      final DynamockDBItem item = getItem(key);
+      if (item != null) {
+        items.add(ItemProjection.project(item, attributesToGet));
+      }
+    }
+    return items;
+  }
+
+  @Override
+  public void putItem(final Key key, final DynamockDBItem item) {
+    final LsmKey lsmKey = keyOf(key.getHashKeyElement(), key.getRangeKeyElement());
+    synchronized (stripeFor(lsmKey)) {
+      write(lsmKey, item.toMap());
+    }
+  }
+
+  @Override
+  public DynamockDBItem createItem(final Map<String, AttributeValue> item) {
+    final LsmKey key = keyOf(item.get(hashKeyName), (rangeKeyName == null) ? null : item.get(rangeKeyName));
+    final PersistentAttributeMap attributes = PersistentAttributeMap.copyOf(item);
+    synchronized (stripeFor(key)) {
+      write(key, attributes);
+    }
+    return new DynamockDBItemHashMapImpl(attributes);
+  }
+
+  @Override
+  public DynamockDBItem updateItem(final Key key, final Map<String, AttributeValueUpdate> updates) {
+    final LsmKey lsmKey = keyOf(key.getHashKeyElement(), key.getRangeKeyElement());
+    synchronized (stripeFor(lsmKey)) {
+      final DynamockDBItem found = getItem(key);
+
+      PersistentAttributeMap attributes;
+      if (found == null) {
+        attributes = PersistentAttributeMap.EMPTY.plus(hashKeyName, key.getHashKeyElement());
+        if (rangeKeyName != null) {
+          attributes = attributes.plus(rangeKeyName, key.getRangeKeyElement());
+        }
+      } else {
+        attributes = PersistentAttributeMap.copyOf(found.toMap());
+      }
+
+      for (Entry<String, AttributeValueUpdate> entry : updates.entrySet()) {
+        final AttributeValueUpdate update = entry.getValue();
+        if (update.getAction().equals(AttributeAction.PUT.toString())) {
+          attributes = attributes.plus(entry.getKey(), update.getValue());
+        }
+      }
+
+      write(lsmKey, attributes);
+      return new DynamockDBItemHashMapImpl(attributes);
+    }
+  }
+
+  @Override
+  public void deleteItem(final Key key) {
+    final LsmKey lsmKey = keyOf(key.getHashKeyElement(), key.getRangeKeyElement());
+    synchronized (stripeFor(lsmKey)) {
+      final LsmEntry entry = find(lsmKey);
+      if (entry == null || entry.isTombstone()) {
+        if (!query(key.getHashKeyElement(), null, true, null, null, null).iterator().hasNext()) {
+          throw new ResourceNotFoundException("Item not found");
+        }
+        return;
+      }
+      write(lsmKey, null);
+    }
+  }
+
+  /**
+   * Store the items, then delete the keys, one at a time.
+   */
+  @Override
+  public void batchWrite(final List<Map<String, AttributeValue>> puts, final List<Key> deletes) {
+    for (Map<String, AttributeValue> item : puts) {
+      createItem(item);
+    }
+    for (Key key : deletes) {
+      deleteItem(key);
+    }
+  }
+
+  private LsmKey keyOf(final AttributeValue hashKey, final AttributeValue rangeKey) {
+    return new LsmKey(hashKey, (rangeKeyName == null) ? null : rangeKey);
+  }
+
+  private Object stripeFor(final LsmKey key) {
+    return stripes[key.getHash() & (STRIPES - 1)];
+  }
+
+  /**
+   * The newest entry stored under key, which may be a tombstone, or null.
+   */
+  private LsmEntry find(final LsmKey key) {
+    final Version version = acquire();
+    try {
+      for (EntrySource source : version.getSources()) {
+        final LsmEntry entry = source.get(key);
+        if (entry != null) {
+          return entry;
+        }
+      }
+      return null;
+    } finally {
+      version.release();
+    }
+  }
+
+  private Version acquire() {
+    while (true) {
+      if (closed) {
+        throw new AmazonClientException("Table " + tableName + " is closed");
+      }
+      final Version version = current;
+      if (version.tryRetain()) {
+        return version;
+      }
+    }
+  }
+
+  /**
+   * Log and apply a write, item being null for a delete.  The caller holds the key's stripe.
+   */
+  private void write(final LsmKey key, final Map<String, AttributeValue> item) {
+    if (backgroundFailure != null) {
+      throw new AmazonClientException("Table " + tableName + " failed to flush", backgroundFailure);
+    }
+
+    final LsmEntry entry = new LsmEntry(key, (item == null) ? null : PersistentAttributeMap.copyOf(item));
+    final byte[] record = entry.encode();
+
+    final Memtable memtable;
+    rotationLock.readLock().lock();
+    try {
+      memtable = current.getActive();
+      memtable.getLog().append(record);
+      memtable.put(entry);
+    } catch (IOException e) {
+      throw new AmazonClientException("Unable to write to table " + tableName, e);
+    } finally {
+      rotationLock.readLock().unlock();
+    }
+
+    if (memtable.getSize() > memtableSize) {
+      rotate(memtable);
+    }
+  }
+
+  /**
+   * Freeze a full memtable behind a new one and schedule its flush.  Only one memtable flushes at a time;
+   * until it is done the active memtable keeps growing.
+   */
+  private void rotate(final Memtable full) {
+    rotationLock.writeLock().lock();
+    try {
+      synchronized (versionLock) {
+        final Version version = current;
+        if (closed || version.getActive() != full || !version.getFlushing().isEmpty()) {
+          return;
+        }
+
+        final Memtable next = new Memtable(new WriteAheadLog(newFile(LOG_PREFIX, LOG_SUFFIX), syncWrites));
+        install(new Version(next, Collections.singletonList(full), version.getSegments()));
+        background.execute(new Runnable() {
+          @Override
+          public void run() {
+            flush(full);
+          }
+        });
+      }
+    } catch (IOException e) {
+      throw new AmazonClientException("Unable to start a new log for table " + tableName, e);
+    } finally {
+      rotationLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Make next the current version.  The caller holds versionLock.
+   */
+  private void install(final Version next) {
+    final Version previous = current;
+    current = next;
+    previous.release();
+  }
+
+  /**
+   * Write a frozen memtable to a segment file and drop its log.  Runs on the background thread.
+   */
+  private void flush(final Memtable memtable) {
+    try {
+      final SegmentFile segment = SegmentFile.write(newFile(SEGMENT_PREFIX, SEGMENT_SUFFIX), memtable.iterator());
+      synchronized (versionLock) {
+        final Version version = current;
+        final List<Memtable> flushing = new ArrayList<Memtable>(version.getFlushing());
+        flushing.remove(memtable);
+        final List<SegmentFile> segments = new ArrayList<SegmentFile>();
+        segments.add(segment);
+        segments.addAll(version.getSegments());
+
+        writeManifest(segments);
+        install(new Version(version.getActive(), flushing, segments));
+      }
+
+      memtable.getLog().close();
+      memtable.getLog().getFile().delete();
+      compact();
+    } catch (IOException e) {
+      backgroundFailure = e;
+    } catch (RuntimeException e) {
+      backgroundFailure = new IOException(e);
+    }
+  }
+
+  /**
+   * Merge every segment file into one once there are compactionThreshold of them.  Nothing is older than the merged
+   * segments, so tombstones are dropped.  Runs on the background thread, the only one that changes segment lists.
+   */
+  private void compact() throws IOException {
+    final List<SegmentFile> inputs = current.getSegments();
+    if (inputs.size() < compactionThreshold) {
+      return;
+    }
+
+    final List<Iterator<LsmEntry>> runs = new ArrayList<Iterator<LsmEntry>>();
+    for (SegmentFile segment : inputs) {
+      runs.add(segment.iterator());
+    }
+    final SegmentFile merged = SegmentFile.write(newFile(SEGMENT_PREFIX, SEGMENT_SUFFIX),
+        new LiveEntries(new MergeIterator(runs)));
+
+    synchronized (versionLock) {
+      final Version version = current;
+      writeManifest(Collections.singletonList(merged));
+      for (SegmentFile segment : inputs) {
+        segment.markObsolete();
+      }
+      install(new Version(version.getActive(), version.getFlushing(), Collections.singletonList(merged)));
+    }
+  }
+
+  /**
+   * Wait for pending flushes, then close the table's files.  Unflushed writes stay in the log for the next open.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (versionLock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+
+    background.shutdown();
+    try {
+      background.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    rotationLock.writeLock().lock();
+    try {
+      synchronized (versionLock) {
+        current.getActive().getLog().close();
+        for (Memtable memtable : current.getFlushing()) {
+          memtable.getLog().close();
+        }
+        current.release();
+      }
+    } finally {
+      rotationLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Skips the tombstones of a sorted run.
+   */
+  private static final class LiveEntries implements Iterator<LsmEntry> {
+    private final Iterator<LsmEntry> entries;
+    private LsmEntry next;
+
+    LiveEntries(final Iterator<LsmEntry> entries) {
+      this.entries = entries;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && entries.hasNext()) {
+        final LsmEntry entry = entries.next();
+        if (!entry.isTombstone()) {
+          next = entry;
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public LsmEntry next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final LsmEntry entry = next;
+      next = null;
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Reads the items from a key onwards, or backwards, while isWithin holds, BATCH_SIZE at a time.  Each batch merges the
+   * sources of the version current when it starts, resuming after the last key read, and releases the version before returning.
+   */
+  private abstract class RangeIterator implements Iterator<DynamockDBItem> {
+    private LsmKey position;
+    private boolean inclusive;
+    private final boolean ascending;
+    private final List<DynamockDBItem> batch = new ArrayList<DynamockDBItem>();
+    private int batchIndex;
+    private boolean exhausted;
+
+    RangeIterator(final LsmKey position, final boolean inclusive) {
+      this(position, inclusive, true);
+    }
+
+    RangeIterator(final LsmKey position, final boolean inclusive, final boolean ascending) {
+      this.position = position;
+      this.inclusive = inclusive;
+      this.ascending = ascending;
+    }
+
+    protected abstract boolean isWithin(LsmKey key);
+
+    @Override
+    public boolean hasNext() {
+      while (batchIndex >= batch.size()) {
+        if (exhausted) {
+          return false;
+        }
+        fill();
+      }
+      return true;
+    }
+
+    @Override
+    public DynamockDBItem next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return batch.get(batchIndex++);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private void fill() {
+      batch.clear();
+      batchIndex = 0;
+
+      final Version version = acquire();
+      try {
+        final MergeIterator entries = new MergeIterator(version.getSources(), position, inclusive, ascending);
+        try {
+          while (batch.size() < BATCH_SIZE) {
+            if (!entries.hasNext()) {
+              exhausted = true;
+              return;
+            }
+  
+            final LsmEntry entry = entries.next();
+            if (!isWithin(entry.getKey())) {
+              exhausted = true;
+              return;
+            }
+            position = entry.getKey();
+            inclusive = false;
+            if (!entry.isTombstone()) {
+              batch.add(new DynamockDBItemHashMapImpl(entry.getItem()));
+            }
+          }
+        } finally {
+          entries.close();
+        }
+      } finally {
+        version.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package com.bizo.aws.dynamock.lsm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodb.model.KeySchema;
+import com.amazonaws.services.dynamodb.model.KeySchemaElement;
+import com.bizo.aws.dynamock.DynamockDBTable;
+import com.bizo.aws.dynamock.DynamockDBTableManager;
+
+/**
+ * An implementation of DynamockDBTableManager storing each table in a subdirectory of a data directory,
+ * as a log-structured merge tree (see DynamockDBTableLsmImpl).  No external process is needed.
+ * Each table directory holds a table.properties file with its name and key schema; tables found in the data directory
+ * are reopened when the manager is created.  Table directories are named by the manager rather than after their
+ * tables, so no table name can reach a file outside the data directory.  Close the manager to stop the tables' background threads.
+ * @author gregfitzgerald
+ *
+ */
+public class DynamockDBTableManagerLsmImpl implements DynamockDBTableManager, Closeable {
+
+  /**
+   * The default approximate size, in bytes, at which a table's memtable is flushed to disk.
+   */
+  public static final long DEFAULT_MEMTABLE_SIZE = 8L << 20;
+
+  /**
+   * The default number of segment files that triggers a table's compaction.
+   */
+  public static final int DEFAULT_COMPACTION_THRESHOLD = 4;
+
+  private static final String SCHEMA_FILE = "table.properties";
+  private static final String DIRECTORY_PREFIX = "table-";
+
+  private final ConcurrentMap<String, DynamockDBTableLsmImpl> tables = new ConcurrentHashMap<String, DynamockDBTableLsmImpl>();
+  private final File dataDirectory;
+  private final boolean syncWrites;
+  private final long memtableSize;
+  private final int compactionThreshold;
+  private final AtomicInteger nextDirectoryNumber = new AtomicInteger();
+
+  /**
+   * Open the tables in dataDirectory, syncing every write to disk.
+   * @param dataDirectory
+   * @throws IOException
+   */
+  public DynamockDBTableManagerLsmImpl(final File dataDirectory) throws IOException {
+    this(dataDirectory, true, DEFAULT_MEMTABLE_SIZE, DEFAULT_COMPACTION_THRESHOLD);
+  }
+
+  /**
+   * Open the tables in dataDirectory.
+   * @param dataDirectory
+   * @param syncWrites whether writes wait for their log to reach the disk; if not, a crash of the operating system
+   *                   (but not of the JVM) may lose the latest writes
+   * @param memtableSize the approximate size, in bytes, at which a table's memtable is flushed to disk
+   * @param compactionThreshold the number of segment files that triggers a table's compaction
+   * @throws IOException
+   */
+  public DynamockDBTableManagerLsmImpl(final File dataDirectory, final boolean syncWrites, final long memtableSize,
+      final int compactionThreshold) throws IOException {
+    this.dataDirectory = dataDirectory;
+    this.syncWrites = syncWrites;
+    this.memtableSize = memtableSize;
+    this.compactionThreshold = compactionThreshold;
+
+    if (!dataDirectory.isDirectory() && !dataDirectory.mkdirs()) {
+      throw new IOException("Unable to create data directory " + dataDirectory);
+    }
+
+    final File[] directories = dataDirectory.listFiles();
+    if (directories != null) {
+      for (File directory : directories) {
+        final File schemaFile = new File(directory, SCHEMA_FILE);
+        if (schemaFile.isFile()) {
+          final Properties schema = new Properties();
+          final InputStream in = new FileInputStream(schemaFile);
+          try {
+            schema.load(in);
+          } finally {
+            in.close();
+          }
+          openTable(directory, schema);
+        }
+      }
+    }
+  }
+
+  private DynamockDBTableLsmImpl openTable(final File directory, final Properties schema) throws IOException {
+    final DynamockDBTableLsmImpl table = new DynamockDBTableLsmImpl(directory, syncWrites, memtableSize, compactionThreshold);
+    table.setTableName(schema.getProperty("tableName"));
+    table.setHashKeyName(schema.getProperty("hashKeyName"));
+    table.setRangeKeyName(schema.getProperty("rangeKeyName"));
+    tables.put(table.getTableName(), table);
+    return table;
+  }
+
+  @Override
+  public DynamockDBTable getTable(String tableName) {
+    return tables.get(tableName);
+  }
+
+  @Override
+  public Collection<DynamockDBTable> getTables() {
+    return Collections.<DynamockDBTable>unmodifiableCollection(tables.values());
+  }
+
+  @Override
+  public DynamockDBTable createTable(String tableName, KeySchema keySchema) {
+    final KeySchemaElement hashKey = keySchema.getHashKeyElement();
+    final KeySchemaElement rangeKey = keySchema.getRangeKeyElement();
+
+    // like the other managers, creating an existing table replaces it
+    deleteTable(tableName);
+
+    final Properties schema = new Properties();
+    schema.setProperty("tableName", tableName);
+    schema.setProperty("hashKeyName", hashKey.getAttributeName());
+    if (rangeKey != null) {
+      schema.setProperty("rangeKeyName", rangeKey.getAttributeName());
+    }
+
+    try {
+      final File directory = newTableDirectory();
+      final OutputStream out = new FileOutputStream(new File(directory, SCHEMA_FILE));
+      try {
+        schema.store(out, null);
+      } finally {
+        out.close();
+      }
+      return openTable(directory, schema);
+    } catch (IOException e) {
+      throw new AmazonClientException("Unable to create table " + tableName, e);
+    }
+  }
+
+  @Override
+  public void deleteTable(String tableName) {
+    final DynamockDBTableLsmImpl table = tables.remove(tableName);
+    if (table == null) {
+      return;
+    }
+
+    try {
+      table.close();
+    } catch (IOException e) {
+      throw new AmazonClientException("Unable to close table " + tableName, e);
+    }
+    final File directory = table.getDirectory();
+    try {
+      if (!directory.getCanonicalFile().getParentFile().equals(dataDirectory.getCanonicalFile())) {
+        throw new AmazonClientException("Table directory " + directory + " is not in " + dataDirectory);
+      }
+    } catch (IOException e) {
+      throw new AmazonClientException("Unable to delete table " + tableName, e);
+    }
+    deleteRecursively(directory);
+  }
+
+  /**
+   * Create a new, empty table directory in the data directory.
+   * @return
+   * @throws IOException
+   */
+  private File newTableDirectory() throws IOException {
+    while (true) {
+      final int number = nextDirectoryNumber.getAndIncrement();
+      if (number < 0) {
+        throw new IOException("Unable to create a table directory in " + dataDirectory);
+      }
+      final File directory = new File(dataDirectory, DIRECTORY_PREFIX + number);
+      // a directory left by an earlier manager may already have the name
+      if (directory.mkdir()) {
+        return directory;
+      }
+    }
+  }
+
+  private static void deleteRecursively(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * Close every table, waiting for pending flushes.
+   */
+  @Override
+  public void close() throws IOException {
+    for (DynamockDBTableLsmImpl table : tables.values()) {
+      table.close();
+    }
+  }
+
+}
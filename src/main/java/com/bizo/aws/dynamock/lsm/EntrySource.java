@@ -0,0 +1,34 @@
+package com.bizo.aws.dynamock.lsm;
+
+import java.util.Iterator;
+
+/**
+ * A sorted run of entries: a memtable or a segment file.
+ * @author gregfitzgerald
+ *
+ */
+interface EntrySource {
+
+  /**
+   * The entry stored under key, which may be a tombstone, or null if this source has none.
+   * @param key
+   * @return
+   */
+  LsmEntry get(LsmKey key);
+
+  /**
+   * The entries from start onwards, in key order.
+   * @param start
+   * @param inclusive whether an entry stored under start is included
+   * @return
+   */
+  Iterator<LsmEntry> from(LsmKey start, boolean inclusive);
+
+  /**
+   * The entries up to end, in descending key order.
+   * @param end
+   * @param inclusive whether an entry stored under end is included
+   * @return
+   */
+  Iterator<LsmEntry> before(LsmKey end, boolean inclusive);
+}
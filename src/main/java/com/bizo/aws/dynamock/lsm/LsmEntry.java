@@ -0,0 +1,95 @@
+package com.bizo.aws.dynamock.lsm;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.bizo.aws.dynamock.ItemCodec;
+import com.bizo.aws.dynamock.ItemSizes;
+import com.bizo.aws.dynamock.SortKey;
+
+/**
+ * A write to a log-structured table: an item stored under a key, or a tombstone (a null item) deleting it.
+ * Entries are encoded the same way in the write-ahead log and in segment files:
+ * a kind byte, the key (segment hash, hash key, a range key flag and range key) and, for puts, the item (see ItemCodec).
+ * @author gregfitzgerald
+ *
+ */
+final class LsmEntry {
+
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+
+  private final LsmKey key;
+  private final Map<String, AttributeValue> item;
+
+  LsmEntry(final LsmKey key, final Map<String, AttributeValue> item) {
+    this.key = key;
+    this.item = item;
+  }
+
+  LsmKey getKey() {
+    return key;
+  }
+
+  /**
+   * The stored item, or null for a tombstone.
+   * @return
+   */
+  Map<String, AttributeValue> getItem() {
+    return item;
+  }
+
+  boolean isTombstone() {
+    return item == null;
+  }
+
+  /**
+   * The approximate memory used by the entry, for sizing memtables.
+   * @return
+   */
+  int estimateSize() {
+    return 64 + ((item == null) ? 0 : ItemSizes.estimate(item));
+  }
+
+  byte[] encode() {
+    final int size = 1 + encodedKeySize(key) + ((item == null) ? 0 : ItemCodec.encodedSize(item));
+    final ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.put(item == null ? DELETE : PUT);
+    encodeKey(key, buffer);
+    if (item != null) {
+      ItemCodec.encode(item, buffer);
+    }
+    return buffer.array();
+  }
+
+  static LsmEntry decode(final ByteBuffer buffer) {
+    final byte kind = buffer.get();
+    final LsmKey key = decodeKey(buffer);
+    return new LsmEntry(key, (kind == PUT) ? ItemCodec.decode(buffer) : null);
+  }
+
+  static int encodedKeySize(final LsmKey key) {
+    final SortKey rangeKey = key.getRangeKey();
+    return 4 + ItemCodec.encodedSize(key.getHashKey().getValue()) + 1
+        + ((rangeKey == null) ? 0 : ItemCodec.encodedSize(rangeKey.getValue()));
+  }
+
+  static void encodeKey(final LsmKey key, final ByteBuffer buffer) {
+    buffer.putInt(key.getHash());
+    ItemCodec.encode(key.getHashKey().getValue(), buffer);
+    if (key.getRangeKey() == null) {
+      buffer.put((byte)0);
+    } else {
+      buffer.put((byte)1);
+      ItemCodec.encode(key.getRangeKey().getValue(), buffer);
+    }
+  }
+
+  static LsmKey decodeKey(final ByteBuffer buffer) {
+    final int hash = buffer.getInt();
+    final SortKey hashKey = SortKey.of(ItemCodec.decodeValue(buffer));
+    final SortKey rangeKey = (buffer.get() == 0) ? null : SortKey.of(ItemCodec.decodeValue(buffer));
+    return new LsmKey(hash, hashKey, rangeKey);
+  }
+}
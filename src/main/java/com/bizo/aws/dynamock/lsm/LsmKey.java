@@ -0,0 +1,117 @@
+package com.bizo.aws.dynamock.lsm;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.bizo.aws.dynamock.ScanSegments;
+import com.bizo.aws.dynamock.SortKey;
+
+/**
+ * The key of an entry in a log-structured table: the hash key's segment hash (see ScanSegments), the hash key and the
+ * range key.  Keys order by unsigned segment hash, then hash key, then range key, which is the scan order of the
+ * table and keeps each partition, and each scan segment, contiguous in memtables and segment files.
+ * A null hash key or range key is a probe that sorts before every key sharing the rest of its fields, and the key
+ * returned by endOf a probe that sorts after every key of its partition.
+ * @author gregfitzgerald
+ *
+ */
+final class LsmKey implements Comparable<LsmKey> {
+
+  // compared by identity, so it sorts after every real range key
+  private static final SortKey END = SortKey.of(new AttributeValue().withS(""));
+
+  private final int hash;
+  private final SortKey hashKey;
+  private final SortKey rangeKey;
+
+  LsmKey(final AttributeValue hashKey, final AttributeValue rangeKey) {
+    this(ScanSegments.hash(hashKey), SortKey.of(hashKey), (rangeKey == null) ? null : SortKey.of(rangeKey));
+  }
+
+  LsmKey(final int hash, final SortKey hashKey, final SortKey rangeKey) {
+    this.hash = hash;
+    this.hashKey = hashKey;
+    this.rangeKey = rangeKey;
+  }
+
+  /**
+   * A probe key ordered before every key whose unsigned segment hash is at least unsignedHash.
+   * @param unsignedHash
+   * @return
+   */
+  static LsmKey lowest(final long unsignedHash) {
+    return new LsmKey((int)unsignedHash, null, null);
+  }
+
+  /**
+   * The key of rangeKey in this key's partition.
+   * @param rangeKey
+   * @return
+   */
+  LsmKey withRangeKey(final SortKey rangeKey) {
+    return new LsmKey(hash, hashKey, rangeKey);
+  }
+
+  /**
+   * A probe key ordered after every key in this key's partition.
+   * @return
+   */
+  LsmKey endOf() {
+    return new LsmKey(hash, hashKey, END);
+  }
+
+  int getHash() {
+    return hash;
+  }
+
+  long getUnsignedHash() {
+    return hash & 0xffffffffL;
+  }
+
+  SortKey getHashKey() {
+    return hashKey;
+  }
+
+  SortKey getRangeKey() {
+    return rangeKey;
+  }
+
+  boolean isSamePartition(final LsmKey other) {
+    return hash == other.hash && hashKey.equals(other.hashKey);
+  }
+
+  @Override
+  public int compareTo(final LsmKey other) {
+    final int c = Integer.compareUnsigned(hash, other.hash);
+    if (c != 0) {
+      return c;
+    }
+
+    final int h = compare(hashKey, other.hashKey);
+    return (h != 0) ? h : compare(rangeKey, other.rangeKey);
+  }
+
+  private static int compare(final SortKey a, final SortKey b) {
+    if (a == null || b == null || a == END || b == END) {
+      return rank(a) - rank(b);
+    }
+    return a.compareTo(b);
+  }
+
+  private static int rank(final SortKey key) {
+    return (key == null) ? 0 : (key == END) ? 2 : 1;
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    return (obj instanceof LsmKey) && compareTo((LsmKey)obj) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return "LsmKey[" + hashKey + ", " + rangeKey + "]";
+  }
+}
@@ -0,0 +1,66 @@
+package com.bizo.aws.dynamock.lsm;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The in-memory, sorted part of a log-structured table.  Writes land here after reaching the write-ahead log;
+ * once the memtable is large enough it is frozen and flushed to a segment file, after which its log is deleted.
+ * @author gregfitzgerald
+ *
+ */
+final class Memtable implements EntrySource {
+
+  private final ConcurrentNavigableMap<LsmKey, LsmEntry> entries = new ConcurrentSkipListMap<LsmKey, LsmEntry>();
+  private final AtomicLong size = new AtomicLong();
+  private final WriteAheadLog log;
+
+  /**
+   * @param log the log holding this memtable's writes, or null when it is rebuilt from logs during recovery
+   */
+  Memtable(final WriteAheadLog log) {
+    this.log = log;
+  }
+
+  WriteAheadLog getLog() {
+    return log;
+  }
+
+  void put(final LsmEntry entry) {
+    entries.put(entry.getKey(), entry);
+    size.addAndGet(entry.estimateSize());
+  }
+
+  @Override
+  public LsmEntry get(final LsmKey key) {
+    return entries.get(key);
+  }
+
+  @Override
+  public Iterator<LsmEntry> from(final LsmKey start, final boolean inclusive) {
+    return entries.tailMap(start, inclusive).values().iterator();
+  }
+
+  @Override
+  public Iterator<LsmEntry> before(final LsmKey end, final boolean inclusive) {
+    return entries.headMap(end, inclusive).descendingMap().values().iterator();
+  }
+
+  Iterator<LsmEntry> iterator() {
+    return entries.values().iterator();
+  }
+
+  /**
+   * The approximate memory held by the memtable's writes, including overwritten ones.
+   * @return
+   */
+  long getSize() {
+    return size.get();
+  }
+
+  boolean isEmpty() {
+    return entries.isEmpty();
+  }
+}
@@ -0,0 +1,128 @@
+package com.bizo.aws.dynamock.lsm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the entries of several sources, newest first, into one sorted run in which each key appears once,
+ * with the entry from the newest source holding it.  Tombstones are returned like any other entry.
+ * Sources can be merged in descending key order as well.
+ * @author gregfitzgerald
+ *
+ */
+final class MergeIterator implements Iterator<LsmEntry> {
+
+  private final PriorityQueue<Head> heads = new PriorityQueue<Head>();
+  private final int direction;
+
+  /**
+   * @param sources the sources to merge, newest first
+   * @param start
+   * @param inclusive
+   */
+  MergeIterator(final List<? extends EntrySource> sources, final LsmKey start, final boolean inclusive) {
+    this(sources, start, inclusive, true);
+  }
+
+  /**
+   * @param sources the sources to merge, newest first
+   * @param start
+   * @param inclusive
+   * @param ascending true to merge the entries from start onwards, false for the entries up to start in descending order
+   */
+  MergeIterator(final List<? extends EntrySource> sources, final LsmKey start, final boolean inclusive,
+      final boolean ascending) {
+    direction = ascending ? 1 : -1;
+    for (int i = 0; i < sources.size(); i++) {
+      final EntrySource source = sources.get(i);
+      add(new Head(ascending ? source.from(start, inclusive) : source.before(start, inclusive), i));
+    }
+  }
+
+  /**
+   * @param runs whole sorted runs to merge, newest first
+   */
+  MergeIterator(final List<Iterator<LsmEntry>> runs) {
+    direction = 1;
+    for (int i = 0; i < runs.size(); i++) {
+      add(new Head(runs.get(i), i));
+    }
+  }
+
+  private void add(final Head head) {
+    if (head.advance()) {
+      heads.add(head);
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    return !heads.isEmpty();
+  }
+
+  @Override
+  public LsmEntry next() {
+    final Head head = heads.poll();
+    if (head == null) {
+      throw new NoSuchElementException();
+    }
+
+    final LsmEntry entry = head.entry;
+    add(head);
+    // drop older versions of the same key
+    while (!heads.isEmpty() && heads.peek().entry.getKey().equals(entry.getKey())) {
+      add(heads.poll());
+    }
+    return entry;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Close the sources not yet exhausted, giving back any read buffers they hold, and end the merge.
+   */
+  void close() {
+    for (Head head : heads) {
+      if (head.source instanceof Closeable) {
+        try {
+          ((Closeable)head.source).close();
+        } catch (IOException e) {
+          // nothing further to release
+        }
+      }
+    }
+    heads.clear();
+  }
+
+  private final class Head implements Comparable<Head> {
+    private final Iterator<LsmEntry> source;
+    private final int age;
+    private LsmEntry entry;
+
+    Head(final Iterator<LsmEntry> source, final int age) {
+      this.source = source;
+      this.age = age;
+    }
+
+    boolean advance() {
+      if (!source.hasNext()) {
+        return false;
+      }
+      entry = source.next();
+      return true;
+    }
+
+    @Override
+    public int compareTo(final Head other) {
+      final int c = direction * entry.getKey().compareTo(other.entry.getKey());
+      return (c != 0) ? c : age - other.age;
+    }
+  }
+}
@@ -0,0 +1,508 @@
+package com.bizo.aws.dynamock.lsm;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonClientException;
+
+/**
+ * An immutable, sorted file of entries written from a memtable or by compaction.
+ *
+ * The file holds length prefixed entries (see LsmEntry) in key order, then a sparse index of every
+ * INDEX_INTERVAL'th key and its offset, then a footer of the index offset, the index size and a magic number.
+ * The sparse index is kept in memory; a lookup binary searches it and reads forward from the nearest indexed entry
+ * with positional reads, so any number of readers share the file's channel.  The first read is sized to the run of
+ * entries up to the next indexed key, so a point lookup reads no more than that run.  Reading backwards walks the index
+ * backwards, reading one indexed run of entries at a time.
+ *
+ * Read buffers are pooled per thread.  A cursor takes one on its first read and gives it back once it is exhausted or
+ * closed; a cursor dropped part way through simply leaves its buffer to the garbage collector.
+ *
+ * Segments are reference counted by the table versions using them; the last release closes the file,
+ * and deletes it once compaction has replaced it.
+ * @author gregfitzgerald
+ *
+ */
+final class SegmentFile implements EntrySource {
+
+  private static final long MAGIC = 0x64796e616d6f636bL;
+  private static final int FOOTER_SIZE = 20;
+  private static final int INDEX_INTERVAL = 32;
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+  private static final int POOLED_READ_BUFFERS = 8;
+
+  private static final ThreadLocal<ArrayDeque<ByteBuffer>> READ_BUFFERS = new ThreadLocal<ArrayDeque<ByteBuffer>>() {
+    @Override
+    protected ArrayDeque<ByteBuffer> initialValue() {
+      return new ArrayDeque<ByteBuffer>(POOLED_READ_BUFFERS);
+    }
+  };
+
+  private final File file;
+  private final FileChannel channel;
+  private final long dataEnd;
+  private final LsmKey[] indexKeys;
+  private final long[] indexOffsets;
+
+  private final AtomicInteger references = new AtomicInteger();
+  private volatile boolean obsolete;
+
+  private SegmentFile(final File file, final FileChannel channel, final long dataEnd,
+      final LsmKey[] indexKeys, final long[] indexOffsets) {
+    this.file = file;
+    this.channel = channel;
+    this.dataEnd = dataEnd;
+    this.indexKeys = indexKeys;
+    this.indexOffsets = indexOffsets;
+  }
+
+  /**
+   * Write entries, which must be in key order, to a new segment file and open it.
+   * The file is written under a temporary name and renamed into place once forced to disk, and the rename is forced
+   * to disk in turn by syncing the directory.
+   * @param file
+   * @param entries
+   * @return
+   * @throws IOException
+   */
+  static SegmentFile write(final File file, final Iterator<LsmEntry> entries) throws IOException {
+    final File temporary = new File(file.getPath() + ".tmp");
+    final FileOutputStream stream = new FileOutputStream(temporary);
+    try {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+      final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+      final DataOutputStream index = new DataOutputStream(indexBytes);
+
+      long offset = 0L;
+      int count = 0;
+      int indexCount = 0;
+      while (entries.hasNext()) {
+        final LsmEntry entry = entries.next();
+        if (count % INDEX_INTERVAL == 0) {
+          final ByteBuffer key = ByteBuffer.allocate(LsmEntry.encodedKeySize(entry.getKey()));
+          LsmEntry.encodeKey(entry.getKey(), key);
+          index.writeInt(key.capacity());
+          index.write(key.array());
+          index.writeLong(offset);
+          indexCount++;
+        }
+
+        final byte[] record = entry.encode();
+        out.writeInt(record.length);
+        out.write(record);
+        offset += 4 + record.length;
+        count++;
+      }
+
+      indexBytes.writeTo(out);
+      out.writeLong(offset);
+      out.writeInt(indexCount);
+      out.writeLong(MAGIC);
+      out.flush();
+      stream.getFD().sync();
+    } finally {
+      stream.close();
+    }
+
+    if (!temporary.renameTo(file)) {
+      throw new IOException("Unable to rename " + temporary + " to " + file);
+    }
+    syncDirectory(file.getParentFile());
+    return open(file);
+  }
+
+  /**
+   * Force the entries of a directory to disk, so a file created or renamed in it survives a crash.
+   * Platforms that can't open a directory for reading are left to sync it themselves.
+   * @param directory
+   * @throws IOException
+   */
+  static void syncDirectory(final File directory) throws IOException {
+    final FileChannel channel;
+    try {
+      channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+    } catch (IOException e) {
+      return;
+    }
+    try {
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Open an existing segment file, reading its sparse index.
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  static SegmentFile open(final File file) throws IOException {
+    final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+    try {
+      final long size = channel.size();
+      if (size < FOOTER_SIZE) {
+        throw new IOException("Segment file " + file + " is truncated");
+      }
+
+      final ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+      readFully(channel, footer, size - FOOTER_SIZE);
+      footer.flip();
+      final long dataEnd = footer.getLong();
+      final int indexCount = footer.getInt();
+      if (footer.getLong() != MAGIC) {
+        throw new IOException("Segment file " + file + " is corrupt");
+      }
+
+      final ByteBuffer index = ByteBuffer.allocate((int)(size - FOOTER_SIZE - dataEnd));
+      readFully(channel, index, dataEnd);
+      index.flip();
+      final LsmKey[] indexKeys = new LsmKey[indexCount];
+      final long[] indexOffsets = new long[indexCount];
+      for (int i = 0; i < indexCount; i++) {
+        final int keyLength = index.getInt();
+        final ByteBuffer key = index.slice();
+        key.limit(keyLength);
+        indexKeys[i] = LsmEntry.decodeKey(key);
+        index.position(index.position() + keyLength);
+        indexOffsets[i] = index.getLong();
+      }
+      return new SegmentFile(file, channel, dataEnd, indexKeys, indexOffsets);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    } catch (RuntimeException e) {
+      channel.close();
+      throw new IOException("Segment file " + file + " is corrupt", e);
+    }
+  }
+
+  private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+    long at = position;
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, at);
+      if (read < 0) {
+        throw new EOFException();
+      }
+      at += read;
+    }
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  @Override
+  public LsmEntry get(final LsmKey key) {
+    final int found = indexAtOrBefore(key);
+    if (found < 0) {
+      return null;
+    }
+
+    final Cursor cursor = new Cursor(indexOffsets[found], runEnd(found));
+    try {
+      cursor.skipTo(key, true);
+      if (cursor.hasNext()) {
+        final LsmEntry entry = cursor.next();
+        if (entry.getKey().equals(key)) {
+          return entry;
+        }
+      }
+      return null;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  @Override
+  public Iterator<LsmEntry> from(final LsmKey start, final boolean inclusive) {
+    final int found = indexAtOrBefore(start);
+    final Cursor cursor = (found < 0) ? new Cursor(0L, 0L) : new Cursor(indexOffsets[found], runEnd(found));
+    cursor.skipTo(start, inclusive);
+    return cursor;
+  }
+
+  @Override
+  public Iterator<LsmEntry> before(final LsmKey end, final boolean inclusive) {
+    return new ReverseCursor(indexAtOrBefore(end), end, inclusive);
+  }
+
+  /**
+   * The position in the sparse index of the last indexed key at or before key, or -1 if key is before them all.
+   * @param key
+   * @return
+   */
+  private int indexAtOrBefore(final LsmKey key) {
+    int low = 0;
+    int high = indexKeys.length - 1;
+    int found = -1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      if (indexKeys[middle].compareTo(key) <= 0) {
+        found = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * The offset just past the run of entries starting at the given position in the sparse index.
+   * @param index
+   * @return
+   */
+  private long runEnd(final int index) {
+    return (index + 1 < indexOffsets.length) ? indexOffsets[index + 1] : dataEnd;
+  }
+
+  /**
+   * All the entries of the segment, in key order.
+   * @return
+   */
+  Iterator<LsmEntry> iterator() {
+    return new Cursor(0L, 0L);
+  }
+
+  void retain() {
+    references.incrementAndGet();
+  }
+
+  /**
+   * Drop a reference; the last one closes the file, deleting it if compaction replaced it.
+   */
+  void release() {
+    if (references.decrementAndGet() == 0) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // nothing further to release
+      }
+      if (obsolete) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Mark the segment as replaced, so its file is deleted once no version uses it.
+   */
+  void markObsolete() {
+    obsolete = true;
+  }
+
+  /**
+   * Reads entries forward from an offset through a small buffer of positional reads.
+   */
+  private class Cursor implements Iterator<LsmEntry>, Closeable {
+    private ByteBuffer buffer;
+    private long offset;
+    private long readPosition;
+    private long firstReadEnd;
+    private LsmEntry next;
+
+    /**
+     * @param offset
+     * @param firstReadEnd where the first read stops, unless an entry runs past it; later reads fill the buffer
+     */
+    Cursor(final long offset, final long firstReadEnd) {
+      seek(offset, firstReadEnd);
+    }
+
+    /**
+     * Continue reading from offset, which must be the start of an entry.
+     * @param offset
+     * @param firstReadEnd where the first read stops, unless an entry runs past it; later reads fill the buffer
+     */
+    void seek(final long offset, final long firstReadEnd) {
+      this.offset = offset;
+      this.readPosition = offset;
+      this.firstReadEnd = firstReadEnd;
+      this.next = null;
+      if (buffer != null) {
+        buffer.clear();
+        buffer.flip();
+      }
+    }
+
+    /**
+     * Give the read buffer back to this thread's pool.  Reading on afterwards takes another.
+     */
+    @Override
+    public void close() {
+      if (buffer != null) {
+        final ArrayDeque<ByteBuffer> pool = READ_BUFFERS.get();
+        if (pool.size() < POOLED_READ_BUFFERS && buffer.capacity() == READ_BUFFER_SIZE) {
+          pool.push(buffer);
+        }
+        buffer = null;
+      }
+    }
+
+    void skipTo(final LsmKey start, final boolean inclusive) {
+      while (hasNext()) {
+        final int c = next.getKey().compareTo(start);
+        if (c > 0 || (c == 0 && inclusive)) {
+          return;
+        }
+        next = null;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && offset < dataEnd) {
+        try {
+          ensure(4);
+          final int length = buffer.getInt();
+          ensure(length);
+          final ByteBuffer record = buffer.slice();
+          record.limit(length);
+          buffer.position(buffer.position() + length);
+          offset += 4 + length;
+          next = LsmEntry.decode(record);
+        } catch (IOException e) {
+          throw new AmazonClientException("Unable to read segment file " + file, e);
+        }
+        if (offset >= dataEnd) {
+          close();
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public LsmEntry next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final LsmEntry entry = next;
+      next = null;
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private void ensure(final int bytes) throws IOException {
+      if (buffer == null) {
+        buffer = READ_BUFFERS.get().poll();
+        if (buffer == null) {
+          buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        }
+        buffer.clear();
+        buffer.flip();
+      }
+      if (buffer.remaining() >= bytes) {
+        return;
+      }
+
+      buffer.compact();
+      if (buffer.capacity() < bytes) {
+        final ByteBuffer grown = ByteBuffer.allocate(bytes);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+      }
+      // read up to the end of the first run, or else as much as fits, but never into the index
+      final long readEnd = (readPosition < firstReadEnd) ? firstReadEnd : dataEnd;
+      final long wanted = Math.max(bytes - buffer.position(), readEnd - readPosition);
+      buffer.limit((int)Math.min(buffer.capacity(), buffer.position() + wanted));
+      while (buffer.position() < bytes) {
+        final int read = channel.read(buffer, readPosition);
+        if (read < 0) {
+          throw new EOFException("Segment file " + file + " is truncated");
+        }
+        readPosition += read;
+      }
+      buffer.flip();
+    }
+  }
+
+  /**
+   * Reads entries backwards from a key, reading the run of entries after each indexed key forward and returning it reversed.
+   */
+  private class ReverseCursor implements Iterator<LsmEntry>, Closeable {
+    private final LsmKey end;
+    private final boolean inclusive;
+    private final Cursor cursor = new Cursor(0L, 0L);
+    private final List<LsmEntry> run = new ArrayList<LsmEntry>(INDEX_INTERVAL);
+    private int index;
+    private int remaining;
+
+    /**
+     * @param index the position in the sparse index of the run holding end, or -1 if there is none
+     * @param end
+     * @param inclusive
+     */
+    ReverseCursor(final int index, final LsmKey end, final boolean inclusive) {
+      this.index = index;
+      this.end = end;
+      this.inclusive = inclusive;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (remaining == 0 && index >= 0) {
+        readRun();
+      }
+      return remaining > 0;
+    }
+
+    @Override
+    public LsmEntry next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return run.get(--remaining);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+      cursor.close();
+    }
+
+    private void readRun() {
+      final long runEnd = runEnd(index);
+      run.clear();
+      cursor.seek(indexOffsets[index], runEnd);
+      while (cursor.offset < runEnd) {
+        final LsmEntry entry = cursor.next();
+        final int c = entry.getKey().compareTo(end);
+        if (c > 0 || (c == 0 && !inclusive)) {
+          break;
+        }
+        run.add(entry);
+      }
+      remaining = run.size();
+      index--;
+      if (index < 0) {
+        cursor.close();
+      }
+    }
+  }
+}
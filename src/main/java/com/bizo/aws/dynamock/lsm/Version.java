@@ -0,0 +1,82 @@
+package com.bizo.aws.dynamock.lsm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable view of a log-structured table's sources: the active memtable, memtables waiting to be flushed and
+ * segment files, newest first.  A table replaces its version whenever one of these changes.
+ * Readers hold a reference to the version they read from, which keeps its segment files open until they finish.
+ * @author gregfitzgerald
+ *
+ */
+final class Version {
+
+  private final Memtable active;
+  private final List<Memtable> flushing;
+  private final List<SegmentFile> segments;
+  private final List<EntrySource> sources;
+  private final AtomicInteger references = new AtomicInteger(1);
+
+  Version(final Memtable active, final List<Memtable> flushing, final List<SegmentFile> segments) {
+    this.active = active;
+    this.flushing = Collections.unmodifiableList(new ArrayList<Memtable>(flushing));
+    this.segments = Collections.unmodifiableList(new ArrayList<SegmentFile>(segments));
+
+    final List<EntrySource> sources = new ArrayList<EntrySource>();
+    sources.add(active);
+    sources.addAll(flushing);
+    sources.addAll(segments);
+    this.sources = Collections.unmodifiableList(sources);
+
+    for (SegmentFile segment : segments) {
+      segment.retain();
+    }
+  }
+
+  Memtable getActive() {
+    return active;
+  }
+
+  List<Memtable> getFlushing() {
+    return flushing;
+  }
+
+  List<SegmentFile> getSegments() {
+    return segments;
+  }
+
+  /**
+   * Every source, newest first.
+   * @return
+   */
+  List<EntrySource> getSources() {
+    return sources;
+  }
+
+  /**
+   * Take a reference, unless the version has already been released by everyone.
+   * @return
+   */
+  boolean tryRetain() {
+    while (true) {
+      final int count = references.get();
+      if (count == 0) {
+        return false;
+      }
+      if (references.compareAndSet(count, count + 1)) {
+        return true;
+      }
+    }
+  }
+
+  void release() {
+    if (references.decrementAndGet() == 0) {
+      for (SegmentFile segment : segments) {
+        segment.release();
+      }
+    }
+  }
+}
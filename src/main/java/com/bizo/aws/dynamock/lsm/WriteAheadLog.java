@@ -0,0 +1,181 @@
+package com.bizo.aws.dynamock.lsm;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of a table's writes, so writes not yet flushed to a segment file survive a crash.
+ * Records are an int length, a CRC32 of the record and the record bytes.
+ *
+ * Appends are group committed: a writer adds its record to the pending buffer and, unless another writer is already
+ * writing, writes (and forces, when syncing) everything pending in one call; writers arriving meanwhile wait for
+ * the next such write to cover them.  Many concurrent writers thus share each force instead of paying one each.
+ * @author gregfitzgerald
+ *
+ */
+final class WriteAheadLog implements Closeable {
+
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+  private final File file;
+  private final FileChannel channel;
+  private final boolean sync;
+
+  private final Object monitor = new Object();
+  private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+  private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+  private long appendedCount;
+  private long durableCount;
+  private boolean writing;
+  private IOException failure;
+
+  /**
+   * Create a new, empty log.
+   * @param file
+   * @param sync whether appends wait for the log to reach the disk, rather than the operating system
+   * @throws IOException
+   */
+  WriteAheadLog(final File file, final boolean sync) throws IOException {
+    this.file = file;
+    this.channel = new RandomAccessFile(file, "rw").getChannel();
+    this.channel.truncate(0);
+    this.sync = sync;
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  /**
+   * Append a record, returning once it, and every record appended before it, is durable.
+   * @param record
+   * @throws IOException
+   */
+  void append(final byte[] record) throws IOException {
+    final long sequence;
+    synchronized (monitor) {
+      checkFailure();
+      if (pending.remaining() < record.length + 8) {
+        final ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + record.length + 8));
+        pending.flip();
+        grown.put(pending);
+        pending = grown;
+      }
+
+      final CRC32 crc = new CRC32();
+      crc.update(record, 0, record.length);
+      pending.putInt(record.length);
+      pending.putInt((int)crc.getValue());
+      pending.put(record);
+      sequence = ++appendedCount;
+    }
+
+    while (true) {
+      final ByteBuffer batch;
+      final long batchCount;
+      synchronized (monitor) {
+        while (writing && durableCount < sequence && failure == null) {
+          try {
+            monitor.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the write-ahead log");
+          }
+        }
+        checkFailure();
+        if (durableCount >= sequence) {
+          return;
+        }
+
+        // lead the next group commit
+        writing = true;
+        batch = pending;
+        batchCount = appendedCount;
+        pending = spare;
+        spare = null;
+      }
+
+      IOException error = null;
+      try {
+        batch.flip();
+        while (batch.hasRemaining()) {
+          channel.write(batch);
+        }
+        if (sync) {
+          channel.force(false);
+        }
+      } catch (IOException e) {
+        error = e;
+      }
+
+      synchronized (monitor) {
+        batch.clear();
+        spare = batch;
+        writing = false;
+        if (error == null) {
+          durableCount = batchCount;
+        } else {
+          failure = error;
+        }
+        monitor.notifyAll();
+      }
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw new IOException("Write-ahead log " + file + " failed", failure);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Replay the records of a log into a memtable, stopping at the first torn or corrupt record.
+   * @param file
+   * @param memtable
+   * @throws IOException
+   */
+  static void replay(final File file, final Memtable memtable) throws IOException {
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), INITIAL_BUFFER_SIZE));
+    try {
+      while (true) {
+        final byte[] record;
+        final int checksum;
+        try {
+          final int length = in.readInt();
+          checksum = in.readInt();
+          if (length < 0) {
+            return;
+          }
+          record = new byte[length];
+          in.readFully(record);
+        } catch (EOFException e) {
+          return;
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        if ((int)crc.getValue() != checksum) {
+          return;
+        }
+        memtable.put(LsmEntry.decode(ByteBuffer.wrap(record)));
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
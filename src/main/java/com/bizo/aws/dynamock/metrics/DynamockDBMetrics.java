@@ -0,0 +1,129 @@
+package com.bizo.aws.dynamock.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A DynamockDBMetricsListener keeping, per table and operation, counts of operations, failures, items and bytes,
+ * and a histogram of the latencies of completed operations.  Once an operation has been seen on a table, recording it again allocates nothing.
+ *
+ *    DynamockDBMetrics metrics = new DynamockDBMetrics()
+ *    client.setMetricsListener(metrics)
+ *    ...
+ *    System.out.println(metrics)
+ *
+ * @author gregfitzgerald
+ *
+ */
+public class DynamockDBMetrics implements DynamockDBMetricsListener {
+
+  private static final DynamockDBOperation[] OPERATIONS = DynamockDBOperation.values();
+  // ListTables has no table, and ConcurrentHashMap can't hold a null key
+  private static final String NO_TABLE = "";
+
+  private final ConcurrentMap<String, AtomicReferenceArray<OperationMetrics>> tables =
+      new ConcurrentHashMap<String, AtomicReferenceArray<OperationMetrics>>();
+
+  @Override
+  public void operationCompleted(final DynamockDBOperation operation, final String tableName, final long latencyNanos,
+      final int itemsReturned, final int itemsScanned, final long bytesIn, final long bytesOut) {
+
+    final OperationMetrics metrics = metricsFor(operation, (tableName == null) ? NO_TABLE : tableName);
+    metrics.latency.record(latencyNanos);
+    if (itemsReturned != 0) {
+      metrics.itemsReturned.add(itemsReturned);
+    }
+    if (itemsScanned != 0) {
+      metrics.itemsScanned.add(itemsScanned);
+    }
+    if (bytesIn != 0) {
+      metrics.bytesIn.add(bytesIn);
+    }
+    if (bytesOut != 0) {
+      metrics.bytesOut.add(bytesOut);
+    }
+  }
+
+  @Override
+  public void operationFailed(final DynamockDBOperation operation, final String tableName, final long latencyNanos,
+      final RuntimeException error) {
+
+    metricsFor(operation, (tableName == null) ? NO_TABLE : tableName).errors.increment();
+  }
+
+  /**
+   * Return the metrics of every operation seen so far, ordered by table name and then operation.
+   * The counts of operations completing during the snapshot may be only partly included.
+   * @return
+   */
+  public List<OperationSnapshot> snapshot() {
+    final List<String> tableNames = new ArrayList<String>(tables.keySet());
+    Collections.sort(tableNames);
+
+    final List<OperationSnapshot> snapshots = new ArrayList<OperationSnapshot>();
+    for (String tableName : tableNames) {
+      final AtomicReferenceArray<OperationMetrics> operations = tables.get(tableName);
+      for (int i = 0; i < OPERATIONS.length; i++) {
+        final OperationMetrics metrics = operations.get(i);
+        if (metrics != null) {
+          snapshots.add(new OperationSnapshot(OPERATIONS[i], NO_TABLE.equals(tableName) ? null : tableName,
+              metrics.errors.sum(), metrics.itemsReturned.sum(), metrics.itemsScanned.sum(), metrics.bytesIn.sum(),
+              metrics.bytesOut.sum(), metrics.latency.snapshot()));
+        }
+      }
+    }
+    return snapshots;
+  }
+
+  /**
+   * Forget everything recorded so far.
+   */
+  public void reset() {
+    tables.clear();
+  }
+
+  /**
+   * Return the snapshot, one operation per line.
+   */
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder();
+    for (OperationSnapshot snapshot : snapshot()) {
+      builder.append(snapshot).append('\n');
+    }
+    return builder.toString();
+  }
+
+  private OperationMetrics metricsFor(final DynamockDBOperation operation, final String tableName) {
+    AtomicReferenceArray<OperationMetrics> operations = tables.get(tableName);
+    if (operations == null) {
+      final AtomicReferenceArray<OperationMetrics> created = new AtomicReferenceArray<OperationMetrics>(OPERATIONS.length);
+      operations = tables.putIfAbsent(tableName, created);
+      if (operations == null) {
+        operations = created;
+      }
+    }
+
+    final int index = operation.ordinal();
+    OperationMetrics metrics = operations.get(index);
+    if (metrics == null) {
+      operations.compareAndSet(index, null, new OperationMetrics());
+      metrics = operations.get(index);
+    }
+    return metrics;
+  }
+
+  private static final class OperationMetrics {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder itemsReturned = new LongAdder();
+    private final LongAdder itemsScanned = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+  }
+}
@@ -0,0 +1,33 @@
+package com.bizo.aws.dynamock.metrics;
+
+/**
+ * Receives a call for each operation DynamockDBClient completes or fails, on the thread that ran it.
+ * Batch operations are reported once per table they touch, each with the latency of the whole batch.
+ * Sizes are estimated as by ItemSizes.  Implementations must be thread safe, and should be quick.
+ * @author gregfitzgerald
+ *
+ */
+public interface DynamockDBMetricsListener {
+
+  /**
+   * Record a completed operation.
+   * @param operation
+   * @param tableName the table operated on, or null for ListTables
+   * @param latencyNanos
+   * @param itemsReturned the number of items returned
+   * @param itemsScanned the number of items read to find them
+   * @param bytesIn the size of the keys and items in the request
+   * @param bytesOut the size of the items returned
+   */
+  public void operationCompleted(DynamockDBOperation operation, String tableName, long latencyNanos,
+      int itemsReturned, int itemsScanned, long bytesIn, long bytesOut);
+
+  /**
+   * Record an operation that threw error.
+   * @param operation
+   * @param tableName the table named by the request, or null for ListTables and for batches naming no tables
+   * @param latencyNanos
+   * @param error
+   */
+  public void operationFailed(DynamockDBOperation operation, String tableName, long latencyNanos, RuntimeException error);
+}
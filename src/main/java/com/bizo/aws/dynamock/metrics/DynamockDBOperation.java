@@ -0,0 +1,20 @@
+package com.bizo.aws.dynamock.metrics;
+
+/**
+ * The operations of DynamockDBClient reported to a DynamockDBMetricsListener.
+ * @author gregfitzgerald
+ *
+ */
+public enum DynamockDBOperation {
+  CREATE_TABLE,
+  DELETE_TABLE,
+  LIST_TABLES,
+  PUT_ITEM,
+  GET_ITEM,
+  UPDATE_ITEM,
+  DELETE_ITEM,
+  QUERY,
+  SCAN,
+  BATCH_GET_ITEM,
+  BATCH_WRITE_ITEM
+}
@@ -0,0 +1,79 @@
+package com.bizo.aws.dynamock.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of latencies in nanoseconds, with log-linear buckets in the manner of HdrHistogram.
+ * Values below 128 have a bucket each; above that, every power of two is split into 64 buckets, so a value is
+ * known to within 1/64 of itself.  Values above MAX_VALUE, about 18 minutes, are recorded as MAX_VALUE.
+ * Recording a value is a few atomic increments and allocates nothing.
+ * @author gregfitzgerald
+ *
+ */
+final class LatencyHistogram {
+
+  static final long MAX_VALUE = (1L << 40) - 1;
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+  static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder total = new LongAdder();
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+  void record(final long nanos) {
+    final long value = (nanos < 0) ? 0 : Math.min(nanos, MAX_VALUE);
+    counts.incrementAndGet(indexOf(value));
+    total.add(value);
+
+    long current;
+    while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+      // retry
+    }
+    while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+      // retry
+    }
+  }
+
+  /**
+   * Copy the histogram.  Values recorded during the copy may be only partly included.
+   * @return
+   */
+  LatencySnapshot snapshot() {
+    final long[] copy = new long[BUCKET_COUNT];
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      copy[i] = counts.get(i);
+      count += copy[i];
+    }
+    return new LatencySnapshot(copy, count, total.sum(), (count == 0) ? 0 : min.get(), (count == 0) ? 0 : max.get());
+  }
+
+  static int indexOf(final long value) {
+    if (value < LINEAR_LIMIT) {
+      return (int)value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int shift = exponent - SUB_BUCKET_BITS;
+    return (shift * SUB_BUCKET_COUNT) + (int)(value >>> shift);
+  }
+
+  /**
+   * Return the largest value recorded in the bucket at index.
+   * @param index
+   * @return
+   */
+  static long highestValueAt(final int index) {
+    if (index < LINEAR_LIMIT) {
+      return index;
+    }
+    final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+    final long subBucket = (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,72 @@
+package com.bizo.aws.dynamock.metrics;
+
+import java.util.Locale;
+
+/**
+ * A point-in-time copy of a latency histogram.  Values are in nanoseconds, and percentiles are accurate to 1/64 of their value.
+ * @author gregfitzgerald
+ *
+ */
+public final class LatencySnapshot {
+
+  private final long[] counts;
+  private final long count;
+  private final long total;
+  private final long min;
+  private final long max;
+
+  LatencySnapshot(final long[] counts, final long count, final long total, final long min, final long max) {
+    this.counts = counts;
+    this.count = count;
+    this.total = total;
+    this.min = min;
+    this.max = max;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getMin() {
+    return min;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  public double getMean() {
+    return (count == 0) ? 0 : (double)total / count;
+  }
+
+  /**
+   * Return the value that percentile percent of the recorded values are at or below.
+   * @param percentile between 0 and 100
+   * @return
+   */
+  public long getValueAtPercentile(final double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long)Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.max(min, Math.min(max, LatencyHistogram.highestValueAt(i)));
+      }
+    }
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return "p50=" + micros(getValueAtPercentile(50)) + " p90=" + micros(getValueAtPercentile(90))
+        + " p99=" + micros(getValueAtPercentile(99)) + " p99.9=" + micros(getValueAtPercentile(99.9))
+        + " max=" + micros(max);
+  }
+
+  private static String micros(final long nanos) {
+    return String.format(Locale.ROOT, "%.1fus", nanos / 1000.0);
+  }
+}
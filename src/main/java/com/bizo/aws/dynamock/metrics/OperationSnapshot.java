@@ -0,0 +1,82 @@
+package com.bizo.aws.dynamock.metrics;
+
+/**
+ * A point-in-time copy of the metrics of one operation on one table.
+ * @author gregfitzgerald
+ *
+ */
+public final class OperationSnapshot {
+
+  private final DynamockDBOperation operation;
+  private final String tableName;
+  private final long errors;
+  private final long itemsReturned;
+  private final long itemsScanned;
+  private final long bytesIn;
+  private final long bytesOut;
+  private final LatencySnapshot latency;
+
+  OperationSnapshot(final DynamockDBOperation operation, final String tableName, final long errors,
+      final long itemsReturned, final long itemsScanned, final long bytesIn, final long bytesOut,
+      final LatencySnapshot latency) {
+    this.operation = operation;
+    this.tableName = tableName;
+    this.errors = errors;
+    this.itemsReturned = itemsReturned;
+    this.itemsScanned = itemsScanned;
+    this.bytesIn = bytesIn;
+    this.bytesOut = bytesOut;
+    this.latency = latency;
+  }
+
+  public DynamockDBOperation getOperation() {
+    return operation;
+  }
+
+  /**
+   * Return the table operated on, or null for ListTables.
+   * @return
+   */
+  public String getTableName() {
+    return tableName;
+  }
+
+  /**
+   * Return the number of operations completed.  Failed operations are counted only by getErrors.
+   * @return
+   */
+  public long getCount() {
+    return latency.getCount();
+  }
+
+  public long getErrors() {
+    return errors;
+  }
+
+  public long getItemsReturned() {
+    return itemsReturned;
+  }
+
+  public long getItemsScanned() {
+    return itemsScanned;
+  }
+
+  public long getBytesIn() {
+    return bytesIn;
+  }
+
+  public long getBytesOut() {
+    return bytesOut;
+  }
+
+  public LatencySnapshot getLatency() {
+    return latency;
+  }
+
+  @Override
+  public String toString() {
+    return operation + " " + ((tableName == null) ? "-" : tableName) + " count=" + getCount() + " errors=" + errors
+        + " itemsReturned=" + itemsReturned + " itemsScanned=" + itemsScanned
+        + " bytesIn=" + bytesIn + " bytesOut=" + bytesOut + " " + latency;
+  }
+}
@@ -1,10 +1,8 @@
 package com.bizo.aws.dynamock.mongodb;
 
-import java.text.NumberFormat;
-import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 
 import com.amazonaws.services.dynamodb.model.AttributeValue;
@@ -12,21 +10,32 @@ import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 
 /**
- * An object that serializes AttributeValues as native Strings, Numbers, List<String> and List<Number>
+ * An object that serializes AttributeValues as native Strings and List<String>.
+ * Numbers are stored encoded by NumberCodec, so that Mongo sorts and compares them numerically, and the text of each number
+ * attribute is kept in the NUMBERS_FIELD sub-document, so that numbers read back exactly as written.
+ * Attributes are decoded when first read, and the decoded value is kept for later reads.
+ * Documents written with numbers stored as native Numbers are still read.
  * @author gregfitzgerald
  *
  */
 public class AttributeValueDBObject extends BasicDBObject implements DBObject {
 
   /**
-   * 
+   *
    */
   private static final long serialVersionUID = -2066373879400118033L;
 
+  /**
+   * The sub-document holding the text of each N (a String) and NS (a List<String>) attribute, keyed by attribute name.
+   */
+  static final String NUMBERS_FIELD = "_numbers";
+
+  private transient Map<String, AttributeValue> decoded;
+
   public AttributeValueDBObject() {
     super();
   }
-  
+
   @SuppressWarnings("rawtypes")
   public AttributeValueDBObject(Map attributes) {
     for (Object key : attributes.keySet()) {
@@ -35,66 +44,131 @@ public class AttributeValueDBObject extends BasicDBObject implements DBObject {
       this.put(keyStr, av);
     }
   }
-  
+
+  /**
+   * Store the encoded value, recording the text of a number in the numbers sub-document.
+   * @param key
+   * @param val
+   * @return
+   */
   public Object put(String key, AttributeValue val) {
-    final NumberFormat format = NumberFormat.getInstance(Locale.US);    
+    final Object text = numberText(val);
+    final Object numbers = super.get(NUMBERS_FIELD);
+    if (text != null) {
+      if (numbers instanceof DBObject) {
+        ((DBObject)numbers).put(key, text);
+      } else {
+        super.put(NUMBERS_FIELD, new BasicDBObject(key, text));
+      }
+    } else if (numbers instanceof DBObject) {
+      ((DBObject)numbers).removeField(key);
+    }
+
+    decoded().put(key, val);
+    return super.put(key, encode(val));
+  }
+
+  @Override
+  public Object put(String key, Object val) {
+    if (decoded != null) {
+      decoded.remove(key);
+    }
+    return super.put(key, val);
+  }
+
+  /**
+   * Convert an AttributeValue to the native value stored for it, for use in queries as well as documents.
+   * @param val
+   * @return
+   */
+  public static Object encode(AttributeValue val) {
     final String s = val.getS();
     final String n = val.getN();
     final List<String> ss = val.getSS();
     final List<String> ns = val.getNS();
-    
+
     if (s != null) {
-      return super.put(key, s);
+      return s;
     } else if (n != null) {
-      
-      try {
-        final Number number = format.parse(n);
-        return super.put(key, number);
-      } catch (ParseException e) {
-        throw new IllegalArgumentException(e);
-      }
+      return NumberCodec.encode(n);
     } else if (ss != null) {
-      return super.put(key, ss);
+      return ss;
     } else if (ns != null) {
-      final List<Number> numberList = new ArrayList<Number>();
+      final List<String> numberList = new ArrayList<String>(ns.size());
       for (String numberStr : ns) {
-        try {
-          final Number number = format.parse(numberStr);
-          numberList.add(number);
-        } catch (ParseException e) {
-          throw new IllegalArgumentException(e);
-        }
+        numberList.add(NumberCodec.encode(numberStr));
       }
-      
-      return super.put(key, numberList);
+
+      return numberList;
     }
-    
+
     throw new IllegalArgumentException();
   }
-  
+
+  /**
+   * The text stored in the numbers sub-document for an N or NS value, or null for other values.
+   * @param val
+   * @return
+   */
+  static Object numberText(AttributeValue val) {
+    return (val.getN() != null) ? val.getN() : val.getNS();
+  }
+
   @SuppressWarnings({ "unchecked", "rawtypes" })
   @Override
   public Object get(String key) {
+    if (decoded != null) {
+      final AttributeValue cached = decoded.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
     final Object val = super.get(key);
     final AttributeValue av = new AttributeValue();
-    
+
     if (val instanceof String) {
-      return av.withS((String)val);
-    } else if (val instanceof Number) {
-      return av.withN(val.toString());
-    } else if (val instanceof List) { // it's an SS or NS
-      Object first = ((List)val).get(0);
-      if (first instanceof String) { // it's an SS, add as list
-        return av.withSS((List)val);
-      } else if (first instanceof Number) { // it's an NS, convert numbers to strings
+      final Object text = storedNumberText(key);
+      if (text instanceof String) {
+        av.setN((String)text);
+      } else {
+        av.setS((String)val);
+      }
+    } else if (val instanceof Number) { // written before numbers were encoded
+      av.setN(val.toString());
+    } else if (val instanceof List && !((List)val).isEmpty()) { // it's an SS or NS
+      final Object text = storedNumberText(key);
+      final Object first = ((List)val).get(0);
+      if (text instanceof List) {
+        av.setNS((List)text);
+      } else if (first instanceof String) {
+        av.setSS((List)val);
+      } else if (first instanceof Number) { // written before numbers were encoded
         final List<String> numberStrings = new ArrayList<String>();
         for (Object number : (List)val) {
           numberStrings.add(number.toString());
         }
-        return av.withNS(numberStrings);
+        av.setNS(numberStrings);
+      } else {
+        return val;
       }
+    } else {
+      return val;
+    }
+
+    decoded().put(key, av);
+    return av;
+  }
+
+  private Object storedNumberText(final String key) {
+    final Object numbers = super.get(NUMBERS_FIELD);
+    return (numbers instanceof DBObject) ? ((DBObject)numbers).get(key) : null;
+  }
+
+  private Map<String, AttributeValue> decoded() {
+    if (decoded == null) {
+      decoded = new HashMap<String, AttributeValue>();
     }
-    
-    return val;
+    return decoded;
   }
 }
@@ -0,0 +1,53 @@
+package com.bizo.aws.dynamock.mongodb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.bizo.aws.dynamock.DynamockDBItem;
+
+/**
+ * An implementation of DynamockDBItem reading its attributes straight from the document it was fetched as.
+ * Each attribute is decoded the first time it is read (see AttributeValueDBObject), so an item that is only filtered on
+ * or projected decodes just the attributes used, and toMap builds a map only when it is asked for.
+ * The document is the item's own, so its values may be changed freely.
+ * @author gregfitzgerald
+ *
+ */
+class DynamockDBItemMongoDBImpl implements DynamockDBItem {
+  private final AttributeValueDBObject document;
+
+  public DynamockDBItemMongoDBImpl(final AttributeValueDBObject document) {
+    this.document = document;
+  }
+
+  @Override
+  public Map<String, AttributeValue> toMap() {
+    final Map<String, AttributeValue> attributes = new HashMap<String, AttributeValue>();
+    for (String attribute : document.keySet()) {
+      final AttributeValue value = getAttributeValue(attribute);
+      if (value != null) {
+        attributes.put(attribute, value);
+      }
+    }
+    return attributes;
+  }
+
+  /**
+   * Return the decoded attribute, or null if the document has no such attribute.
+   * The fields Dynamock keeps alongside the attributes are never returned.
+   */
+  @Override
+  public AttributeValue getAttributeValue(final String attribute) {
+    if (DynamockDBTableMongoDBImpl.SEGMENT_HASH_FIELD.equals(attribute) || AttributeValueDBObject.NUMBERS_FIELD.equals(attribute)) {
+      return null;
+    }
+    final Object value = document.get(attribute);
+    return (value instanceof AttributeValue) ? (AttributeValue)value : null;
+  }
+
+  @Override
+  public void setAttributeValue(final String attribute, final AttributeValue value) {
+    document.put(attribute, value);
+  }
+}
@@ -3,7 +3,11 @@ package com.bizo.aws.dynamock.mongodb;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.amazonaws.services.dynamodb.model.KeySchema;
 import com.amazonaws.services.dynamodb.model.KeySchemaElement;
@@ -16,10 +20,15 @@ import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.Mongo;
 import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
 
 /**
  * An implementation of DynamockDBTableManager that uses MongoDB for a persistent data store.
- * Tables are mapped to collections.  Hash and range keys are created as indexes.
+ * Tables are mapped to collections.  Hash and range keys are created as a unique index, and the scan segment hash as an index.
+ * Tables are opened (see DynamockDBTableMongoDBImpl.open) when created or first looked up, which also builds the indexes of
+ * collections created by earlier versions and brings their documents up to date.
+ * Table objects are cached once looked up, so operations don't query schema_info; the cache is kept current by
+ * createTable and deleteTable.  If other processes change the schema, call clearTableCache.
  * @author gregfitzgerald
  *
  */
@@ -31,6 +40,7 @@ public class DynamockDBTableManagerMongoDBImpl  implements DynamockDBTableManage
   private Mongo connection;
   DB mongoDB;
   DBCollection schemaInfo;
+  private final ConcurrentMap<String, DynamockDBTable> tables = new ConcurrentHashMap<String, DynamockDBTable>();
   
   /**
    * Create a connection to the Mongo db using the default host and port.
@@ -43,7 +53,10 @@ public class DynamockDBTableManagerMongoDBImpl  implements DynamockDBTableManage
   }
   
   /**
-   * Create a connection to the mongo db and create or find the schema_info collection.
+   * Create a connection to the mongo db and create or find the schema_info collection, which a unique index on the table name backs.
+   * schema_info written before the index existed may hold several entries for one table, on which building the index fails;
+   * all but the first, which is the one lookups used to find, are removed first.  schema_info holds one small entry per table,
+   * so this is cheap.
    * @param host
    * @param port
    * @param dbName
@@ -56,6 +69,8 @@ public class DynamockDBTableManagerMongoDBImpl  implements DynamockDBTableManage
     
     final String schemaInfoName = "schema_info";
     findOrCreateCollection(schemaInfoName);
+    removeDuplicateSchemaInfo();
+    schemaInfo.ensureIndex(new BasicDBObject(SCHEMA_INFO_TABLE_NAME, 1), "tableName_unique", true);
   }
 
   /**
@@ -66,47 +81,64 @@ public class DynamockDBTableManagerMongoDBImpl  implements DynamockDBTableManage
   }
   
   /**
-   * Lookup a table in the schema_info and return a DynamockDBTable representation of it.
+   * Return the cached table, or lookup the table in the schema_info and cache a DynamockDBTable representation of it.
    */
   @Override
   public DynamockDBTable getTable(final String tableName) {
-    final DBObject schemaObj = getTableSchemaInfo(tableName);
+    final DynamockDBTable cached = tables.get(tableName);
+    if (cached != null) {
+      return cached;
+    }
     
+    final DBObject schemaObj = getTableSchemaInfo(tableName);
     if (schemaObj == null) {
       return null;
     }
     
-    final DBCollection collection = mongoDB.getCollection(tableName);
-    final DynamockDBTable table = new DynamockDBTableMongoDBImpl(collection);
-    table.setTableName((String)schemaObj.get(SCHEMA_INFO_TABLE_NAME));
-    table.setHashKeyName((String)schemaObj.get(SCHEMA_INFO_HASH_KEY_NAME));
-    table.setRangeKeyName((String)schemaObj.get(SCHEMA_INFO_RANGE_KEY_NAME));
-    
-    return table;
+    return cacheTable(schemaObj);
   }
 
 
   /**
-   * Lookup all tables in schema_info and return a collection of DynamockDBTables
+   * Lookup all tables in schema_info with one query and return a collection of DynamockDBTables
    */
   @Override
   public Collection<DynamockDBTable> getTables() {
-    final Collection<String> tableNames = new ArrayList<String>();
+    final Collection<DynamockDBTable> allTables = new ArrayList<DynamockDBTable>();
     final DBCursor cursor = schemaInfo.find();
     final Iterator<DBObject> iterator = cursor.iterator();
     
     while (iterator.hasNext()) {
       final DBObject schemaObj = iterator.next();
-      final String tableName = (String)schemaObj.get(SCHEMA_INFO_TABLE_NAME);
-      tableNames.add(tableName);
+      final DynamockDBTable cached = tables.get((String)schemaObj.get(SCHEMA_INFO_TABLE_NAME));
+      allTables.add((cached != null) ? cached : cacheTable(schemaObj));
     }
     
-    final Collection<DynamockDBTable> tables = new ArrayList<DynamockDBTable>();
-    for(String tableName : tableNames) {
-      tables.add(getTable(tableName));
-    }
+    return allTables;
+  }
+  
+  /**
+   * Forget every cached table, so the next lookups read schema_info again.
+   */
+  public void clearTableCache() {
+    tables.clear();
+  }
+  
+  /**
+   * Build a table from its schema_info entry, open it, and cache it, returning the cached table if another thread won the race.
+   * @param schemaObj
+   * @return
+   */
+  private DynamockDBTable cacheTable(final DBObject schemaObj) {
+    final String tableName = (String)schemaObj.get(SCHEMA_INFO_TABLE_NAME);
+    final DynamockDBTableMongoDBImpl table = new DynamockDBTableMongoDBImpl(mongoDB.getCollection(tableName));
+    table.setTableName(tableName);
+    table.setHashKeyName((String)schemaObj.get(SCHEMA_INFO_HASH_KEY_NAME));
+    table.setRangeKeyName((String)schemaObj.get(SCHEMA_INFO_RANGE_KEY_NAME));
+    table.open();
     
-    return tables;
+    final DynamockDBTable existing = tables.putIfAbsent(tableName, table);
+    return (existing != null) ? existing : table;
   }
 
   /**
@@ -118,29 +150,27 @@ public class DynamockDBTableManagerMongoDBImpl  implements DynamockDBTableManage
   public DynamockDBTable createTable(final String tableName, final KeySchema keySchema) {
     final DBCollection collection = mongoDB.createCollection(tableName, new BasicDBObject());
 
-    final DynamockDBTable table = new DynamockDBTableMongoDBImpl(collection);
+    final DynamockDBTableMongoDBImpl table = new DynamockDBTableMongoDBImpl(collection);
     final KeySchemaElement hashKey = keySchema.getHashKeyElement();
     final KeySchemaElement rangeKey = keySchema.getRangeKeyElement();
     
-    final DBObject indexObj = new BasicDBObject();
     final DBObject schemaObj = new BasicDBObject();
     
     schemaObj.put(SCHEMA_INFO_TABLE_NAME, tableName);
     schemaObj.put(SCHEMA_INFO_HASH_KEY_NAME, hashKey.getAttributeName());
-    indexObj.put(hashKey.getAttributeName(), 1);
 
     table.setTableName(tableName);
     table.setHashKeyName(hashKey.getAttributeName());
 
     if (rangeKey != null) {
       schemaObj.put(SCHEMA_INFO_RANGE_KEY_NAME, rangeKey.getAttributeName());
-      indexObj.put(rangeKey.getAttributeName(), 1);
       table.setRangeKeyName(rangeKey.getAttributeName());
     }
     
     schemaInfo.insert(schemaObj);
-    collection.createIndex(indexObj);
+    table.open();
     
+    tables.put(tableName, table);
     return table;
   }
 
@@ -150,14 +180,33 @@ public class DynamockDBTableManagerMongoDBImpl  implements DynamockDBTableManage
    */
   @Override
   public void deleteTable(final String tableName) {
-    final DBObject schemaObj = getTableSchemaInfo(tableName);
-    schemaObj.removeField("_id");
-    schemaInfo.remove(schemaObj);
+    tables.remove(tableName);
+    schemaInfo.remove(new BasicDBObject(SCHEMA_INFO_TABLE_NAME, tableName));
     mongoDB.getCollection(tableName).drop();
+    // drop anything cached by a lookup that raced with the delete
+    tables.remove(tableName);
   }
 
   
 
+  /**
+   * Remove every schema_info entry for a table after its first, in natural order.
+   */
+  private void removeDuplicateSchemaInfo() {
+    final Set<String> tableNames = new HashSet<String>();
+    final DBCursor cursor = schemaInfo.find(new BasicDBObject(), new BasicDBObject(SCHEMA_INFO_TABLE_NAME, 1));
+    try {
+      while (cursor.hasNext()) {
+        final DBObject schemaObj = cursor.next();
+        if (!tableNames.add((String)schemaObj.get(SCHEMA_INFO_TABLE_NAME))) {
+          schemaInfo.remove(new BasicDBObject("_id", schemaObj.get("_id")), WriteConcern.SAFE);
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+  
   /**
    * Lookup a the schema info for tableName as a DBObject.
    * @param tableName
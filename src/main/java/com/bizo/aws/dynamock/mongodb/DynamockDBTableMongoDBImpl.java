@@ -1,28 +1,58 @@
 package com.bizo.aws.dynamock.mongodb;
 
+import java.io.Closeable;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodb.model.AttributeAction;
 import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.AttributeValueUpdate;
+import com.amazonaws.services.dynamodb.model.ComparisonOperator;
+import com.amazonaws.services.dynamodb.model.Condition;
 import com.amazonaws.services.dynamodb.model.Key;
 import com.bizo.aws.dynamock.DynamockDBItem;
 import com.bizo.aws.dynamock.DynamockDBTable;
+import com.bizo.aws.dynamock.ItemProjection;
+import com.bizo.aws.dynamock.RangeKeyConditions;
+import com.bizo.aws.dynamock.RangeKeyConditions.Bounds;
+import com.bizo.aws.dynamock.ScanSegments;
+import com.bizo.aws.dynamock.SortKey;
 import com.bizo.aws.dynamock.hashmap.DynamockDBItemHashMapImpl;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.QueryOperators;
+import com.mongodb.WriteConcern;
 
 /**
  * An implementation of DynamockDBTable with uses MongoDB as a data store. 
- * Handles the serialization to and from DynamoDBItem's
+ * Handles the serialization to and from DynamoDBItem's.
+ * Each document also stores the segment hash of its hash key (see ScanSegments).  Scans read documents in the order of an index on
+ * the segment hash then the keys, the order the hash map tables scan in, so a scan segment is a single index range that needs no sort.
+ * Every write is a single upsert keyed on the hash and range key, which a unique index on the keys backs.
+ * Attribute values are stored as described by AttributeValueDBObject, so numbers compare numerically within Mongo.
  * @author gregfitzgerald
  *
  */
 public class DynamockDBTableMongoDBImpl implements DynamockDBTable {
   
+  static final String SEGMENT_HASH_FIELD = "_segmentHash";
+  
   private DBCollection collection;
   private String tableName;
   private String hashKeyName;
@@ -68,12 +98,100 @@ public class DynamockDBTableMongoDBImpl implements DynamockDBTable {
     this.rangeKeyName = rangeKeyName;
   }
 
+  /**
+   * Prepare the collection for use, once the key names are set: ensure the unique key index and the scan index,
+   * and bring documents written by earlier versions up to date.  Once that is done, opening again costs a single indexed query.
+   */
+  void open() {
+    try {
+      ensureKeyIndex();
+    } catch (MongoException e) {
+      // documents written before the index existed may share a key
+      removeDuplicateKeys();
+      ensureKeyIndex();
+    }
+    collection.ensureIndex(scanOrder(), "scan");
+    addSegmentHashes();
+  }
+  
+  /**
+   * The order scans read documents in, which the scan index serves: by segment hash, then hash key, then range key.
+   * @return
+   */
+  private DBObject scanOrder() {
+    final DBObject order = new BasicDBObject(SEGMENT_HASH_FIELD, 1);
+    for (String name : keyNames()) {
+      order.put(name, 1);
+    }
+    return order;
+  }
+  
+  private void ensureKeyIndex() {
+    final DBObject keys = new BasicDBObject();
+    for (String name : keyNames()) {
+      keys.put(name, 1);
+    }
+    collection.ensureIndex(keys, "key_unique", true);
+  }
+  
+  /**
+   * Remove every document after the first stored under each key, in natural order, which is the one reads found.
+   */
+  private void removeDuplicateKeys() {
+    final DBObject fields = new BasicDBObject();
+    for (String name : keyNames()) {
+      fields.put(name, 1);
+      fields.put(AttributeValueDBObject.NUMBERS_FIELD + "." + name, 1);
+    }
+    
+    final Set<Key> keys = new HashSet<Key>();
+    final DBCursor cursor = collection.find(new BasicDBObject(), fields);
+    try {
+      while (cursor.hasNext()) {
+        final DBObject document = cursor.next();
+        final Key key = new Key((AttributeValue)document.get(hashKeyName));
+        if (rangeKeyName != null) {
+          key.setRangeKeyElement((AttributeValue)document.get(rangeKeyName));
+        }
+        if (!keys.add(key)) {
+          collection.remove(new BasicDBObject("_id", document.get("_id")), WriteConcern.SAFE);
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+  
+  /**
+   * Give a segment hash to documents written before documents carried one, since segmented scans select documents by it
+   * and would otherwise never see them.
+   */
+  private void addSegmentHashes() {
+    final DBObject missing = new BasicDBObject(SEGMENT_HASH_FIELD, new BasicDBObject(QueryOperators.EXISTS, false));
+    final DBObject fields = new BasicDBObject(hashKeyName, 1)
+      .append(AttributeValueDBObject.NUMBERS_FIELD + "." + hashKeyName, 1);
+    
+    final DBCursor cursor = collection.find(missing, fields);
+    try {
+      while (cursor.hasNext()) {
+        final DBObject document = cursor.next();
+        final AttributeValue hashKey = (AttributeValue)document.get(hashKeyName);
+        if (hashKey != null) {
+          collection.update(new BasicDBObject("_id", document.get("_id")),
+              new BasicDBObject("$set", new BasicDBObject(SEGMENT_HASH_FIELD, ScanSegments.unsignedHash(hashKey))));
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+  
   @Override
   public Map<AttributeValue, DynamockDBItem> getItemsForHashKey(final AttributeValue hashKey) {
     final Key key = new Key();
     key.setHashKeyElement(hashKey);
     
-    final AttributeValueDBObject query = queryObjForKey(key);
+    final DBObject query = queryObjForKey(key);
 
     final Map<AttributeValue, DynamockDBItem> items = new HashMap<AttributeValue, DynamockDBItem>();
     final DBCursor cursor = collection.find(query);
@@ -89,6 +207,128 @@ public class DynamockDBTableMongoDBImpl implements DynamockDBTable {
     return items;
   }
 
+  /**
+   * Translate rangeKeyCondition and exclusiveStartRangeKey into a native query on the partition, sorted on the range key
+   * in the requested direction and limited to limit documents, so that the key index serves just the matching documents.
+   * Only the keys and attributesToGet are fetched.  The cursor is opened each time the collection is iterated, and closed by closing the iterator.
+   */
+  @Override
+  public Collection<DynamockDBItem> query(final AttributeValue hashKey, final Condition rangeKeyCondition,
+      final boolean scanIndexForward, final AttributeValue exclusiveStartRangeKey, final Integer limit,
+      final List<String> attributesToGet) {
+
+    final DBObject query = new BasicDBObject(hashKeyName, AttributeValueDBObject.encode(hashKey));
+    final DBObject order = new BasicDBObject();
+    if (rangeKeyName != null) {
+      final DBObject rangeQuery = rangeQueryObj(rangeKeyCondition, scanIndexForward, exclusiveStartRangeKey);
+      if (rangeQuery == null) {
+        return Collections.emptyList();
+      } else if (!rangeQuery.keySet().isEmpty()) {
+        query.put(rangeKeyName, rangeQuery);
+      }
+      if (rangeKeyCondition != null) {
+        // numbers and strings are both stored as strings, so only the numbers sub-document tells a number range key apart.
+        // null matches a missing field, even when the whole sub-document is missing
+        query.put(AttributeValueDBObject.NUMBERS_FIELD + "." + rangeKeyName,
+            isNumber(rangeKeyCondition.getAttributeValueList().get(0)) ? new BasicDBObject(QueryOperators.EXISTS, true) : null);
+      }
+      order.put(rangeKeyName, scanIndexForward ? 1 : -1);
+    }
+    
+    final DBObject fields = fieldsObj(attributesToGet, keyNames());
+    return new AbstractCollection<DynamockDBItem>() {
+      @Override
+      public Iterator<DynamockDBItem> iterator() {
+        final DBCursor cursor = collection.find(query, fields).sort(order);
+        if (limit != null) {
+          cursor.limit(limit);
+        }
+        return new ItemIterator(cursor);
+      }
+
+      @Override
+      public int size() {
+        final ItemIterator iterator = (ItemIterator)iterator();
+        try {
+          int size = 0;
+          for (; iterator.hasNext(); iterator.next()) {
+            size++;
+          }
+          return size;
+        } finally {
+          iterator.close();
+        }
+      }
+    };
+  }
+  
+  /**
+   * Translate a navigable range key condition, narrowed to the range keys after exclusiveStartRangeKey in the scan direction,
+   * into query operators on the range key.  BEGINS_WITH becomes a prefix regex, which the index serves as a range.
+   * A bound of another type than the condition's operands (see RangeKeyConditions.bounds) is left to the caller's type check.
+   * Returns null if no range key can match.
+   * @param rangeKeyCondition
+   * @param scanIndexForward
+   * @param exclusiveStartRangeKey
+   * @return
+   */
+  private DBObject rangeQueryObj(final Condition rangeKeyCondition, final boolean scanIndexForward,
+      final AttributeValue exclusiveStartRangeKey) {
+    
+    final Bounds bounds = RangeKeyConditions.bounds(rangeKeyCondition);
+    if (bounds.isEmpty()) {
+      return null;
+    }
+    
+    SortKey lower = bounds.getLower();
+    boolean lowerInclusive = bounds.isLowerInclusive();
+    SortKey upper = bounds.getUpper();
+    boolean upperInclusive = bounds.isUpperInclusive();
+    String prefix = null;
+    if (rangeKeyCondition != null
+        && ComparisonOperator.fromValue(rangeKeyCondition.getComparisonOperator()) == ComparisonOperator.BEGINS_WITH) {
+      prefix = lower.getValue().getS();
+      upper = null;
+    }
+    
+    if (exclusiveStartRangeKey != null) {
+      final SortKey start = SortKey.of(exclusiveStartRangeKey);
+      if (scanIndexForward && (lower == null || start.compareTo(lower) >= 0)) {
+        lower = start;
+        lowerInclusive = false;
+      } else if (!scanIndexForward && (upper == null || start.compareTo(upper) <= 0)) {
+        upper = start;
+        upperInclusive = false;
+      }
+    }
+    
+    if (rangeKeyCondition != null) {
+      final boolean number = isNumber(rangeKeyCondition.getAttributeValueList().get(0));
+      if (lower != null && isNumber(lower.getValue()) != number) {
+        lower = null;
+      }
+      if (upper != null && isNumber(upper.getValue()) != number) {
+        upper = null;
+      }
+    }
+    
+    final DBObject rangeQuery = new BasicDBObject();
+    if (lower != null) {
+      rangeQuery.put(lowerInclusive ? QueryOperators.GTE : QueryOperators.GT, AttributeValueDBObject.encode(lower.getValue()));
+    }
+    if (upper != null) {
+      rangeQuery.put(upperInclusive ? QueryOperators.LTE : QueryOperators.LT, AttributeValueDBObject.encode(upper.getValue()));
+    }
+    if (prefix != null) {
+      rangeQuery.put("$regex", "^" + MongoConditions.escapeRegex(prefix));
+    }
+    return rangeQuery;
+  }
+
+  private static boolean isNumber(final AttributeValue value) {
+    return value.getN() != null;
+  }
+
   @Override
   public List<DynamockDBItem> getAllItems() {
     final List<DynamockDBItem> items = new ArrayList<DynamockDBItem>();
@@ -103,9 +343,64 @@ public class DynamockDBTableMongoDBImpl implements DynamockDBTable {
     return items;
   }
 
+  /**
+   * Stream the segment's documents in scan index order, resuming after exclusiveStartKey if one is given.
+   * The scan filter is translated into the query where possible (see MongoConditions), so only documents that may match are read,
+   * and only the keys, the scan filter attributes and attributesToGet are fetched.
+   */
+  @Override
+  public Iterator<DynamockDBItem> scan(final Key exclusiveStartKey, final int segment, final int totalSegments,
+      final Map<String, Condition> scanFilter, final List<String> attributesToGet) {
+    final DBObject query = new BasicDBObject();
+    if (totalSegments > 1) {
+      query.put(SEGMENT_HASH_FIELD, new BasicDBObject(QueryOperators.GTE, ScanSegments.lowerBound(segment, totalSegments))
+        .append(QueryOperators.LT, ScanSegments.upperBound(segment, totalSegments)));
+    }
+    
+    if (exclusiveStartKey != null) {
+      final AttributeValue startHashKey = exclusiveStartKey.getHashKeyElement();
+      if (startHashKey == null || !ScanSegments.contains(startHashKey, segment, totalSegments)) {
+        throw new AmazonServiceException("The provided starting key is invalid");
+      }
+      
+      // resume with the documents after the start key in scan index order
+      final long segmentHash = ScanSegments.unsignedHash(startHashKey);
+      final Object hashKey = AttributeValueDBObject.encode(startHashKey);
+      final BasicDBList or = new BasicDBList();
+      or.add(new BasicDBObject(SEGMENT_HASH_FIELD, new BasicDBObject(QueryOperators.GT, segmentHash)));
+      or.add(new BasicDBObject(SEGMENT_HASH_FIELD, segmentHash)
+        .append(hashKeyName, new BasicDBObject(QueryOperators.GT, hashKey)));
+      if (rangeKeyName != null && exclusiveStartKey.getRangeKeyElement() != null) {
+        final Object rangeKey = AttributeValueDBObject.encode(exclusiveStartKey.getRangeKeyElement());
+        or.add(new BasicDBObject(SEGMENT_HASH_FIELD, segmentHash)
+          .append(hashKeyName, hashKey)
+          .append(rangeKeyName, new BasicDBObject(QueryOperators.GT, rangeKey)));
+      }
+      query.put("$or", or);
+    }
+    
+    final DBObject order = scanOrder();
+    
+    final List<String> neededNames = keyNames();
+    if (scanFilter != null) {
+      neededNames.addAll(scanFilter.keySet());
+    }
+    final DBObject fields = fieldsObj(attributesToGet, neededNames);
+    
+    final DBObject filterQuery = MongoConditions.scanFilterQuery(scanFilter);
+    if (filterQuery == null) {
+      return new ItemIterator(collection.find(query, fields).sort(order));
+    }
+    
+    final BasicDBList and = new BasicDBList();
+    and.add(query);
+    and.add(filterQuery);
+    return new ItemIterator(collection.find(new BasicDBObject("$and", and), fields).sort(order));
+  }
+
   @Override
   public DynamockDBItem getItem(final Key key) {
-    final AttributeValueDBObject query = queryObjForKey(key);
+    final DBObject query = queryObjForKey(key);
     
     final AttributeValueDBObject found = (AttributeValueDBObject)collection.findOne(query);
     
@@ -116,30 +411,189 @@ public class DynamockDBTableMongoDBImpl implements DynamockDBTable {
     return dynamockItemForDBObject(found);
   }
 
+  /**
+   * Find the documents of every key with one query, fetching only attributesToGet if given.
+   */
   @Override
-  public void putItem(final Key key, final DynamockDBItem item) {
-    final DBObject obj = new AttributeValueDBObject(item.toMap());
-    final DynamockDBItem foundItem = getItem(key);
-    
-    if (foundItem == null) {
-      collection.insert(obj);
-    } else {
-      collection.update(queryObjForKey(key), obj);
+  public List<DynamockDBItem> getItems(final List<Key> keys, final List<String> attributesToGet) {
+    final DBObject fields = fieldsObj(attributesToGet, Collections.<String>emptyList());
+    final List<DynamockDBItem> items = new ArrayList<DynamockDBItem>();
+    final Iterator<DBObject> iterator = collection.find(queryObjForKeys(keys), fields).iterator();
+    while (iterator.hasNext()) {
+      items.add(dynamockItemForDBObject((AttributeValueDBObject)iterator.next()));
     }
+    return items;
   }
 
+  /**
+   * Replace the document stored under key, or insert it, in one upsert.
+   */
+  @Override
+  public void putItem(final Key key, final DynamockDBItem item) {
+    collection.update(queryObjForKey(key), dbObjectForItem(item.toMap()), true, false);
+  }
+
+  /**
+   * Replace the document with the item's key, or insert it, in one upsert.
+   */
   @Override
   public DynamockDBItem createItem(Map<String, AttributeValue> item) {
-    final DBObject obj = new AttributeValueDBObject(item);
-    collection.insert(obj);
+    collection.update(queryObjForKey(keyForItem(item)), dbObjectForItem(item), true, false);
 
     return new DynamockDBItemHashMapImpl(item);
   }
 
+  /**
+   * Apply the updates with a single $set upsert, which creates the item from its key if it is not found,
+   * and return the updated document.
+   */
+  @Override
+  public DynamockDBItem updateItem(final Key key, final Map<String, AttributeValueUpdate> updates) {
+    final DBObject set = new BasicDBObject();
+    final DBObject unset = new BasicDBObject();
+    for (Entry<String, AttributeValueUpdate> entry : updates.entrySet()) {
+      final AttributeValueUpdate update = entry.getValue();
+      if (update.getAction().equals(AttributeAction.PUT.toString())) {
+        setAttribute(set, unset, entry.getKey(), update.getValue());
+      }
+    }
+    // the key attributes are set too, so that an inserted document records the text of numeric keys
+    setAttribute(set, unset, hashKeyName, key.getHashKeyElement());
+    if (key.getRangeKeyElement() != null) {
+      setAttribute(set, unset, rangeKeyName, key.getRangeKeyElement());
+    }
+    set.put(SEGMENT_HASH_FIELD, ScanSegments.unsignedHash(key.getHashKeyElement()));
+    
+    final DBObject update = new BasicDBObject("$set", set);
+    if (!unset.keySet().isEmpty()) {
+      update.put("$unset", unset);
+    }
+    final DBObject updated = collection.findAndModify(queryObjForKey(key), null, null, false, update, true, true);
+    
+    // command results aren't decoded with the collection's object class
+    final AttributeValueDBObject document = new AttributeValueDBObject();
+    document.putAll(updated);
+    return dynamockItemForDBObject(document);
+  }
+
+  /**
+   * Add the operators that store value under attributeName to an update: the encoded value and, for numbers,
+   * its text in the numbers sub-document, which is cleared for other values.
+   * @param set
+   * @param unset
+   * @param attributeName
+   * @param value
+   */
+  private static void setAttribute(final DBObject set, final DBObject unset, final String attributeName, final AttributeValue value) {
+    final String numberField = AttributeValueDBObject.NUMBERS_FIELD + "." + attributeName;
+    final Object text = AttributeValueDBObject.numberText(value);
+    set.put(attributeName, AttributeValueDBObject.encode(value));
+    if (text != null) {
+      set.put(numberField, text);
+    } else {
+      unset.put(numberField, 1);
+    }
+  }
+
   @Override
   public void deleteItem(final Key key) {
-    AttributeValueDBObject query = queryObjForKey(key);
-    collection.remove(query);
+    collection.remove(queryObjForKey(key));
+  }
+
+  /**
+   * Store each item with an upsert keyed on its key, as putItem does, so a concurrent write to the same key can't make
+   * it fail or go missing, then remove every deleted key with one remove.
+   * The 2.7 driver has no bulk upsert, so the writes are pipelined instead: all of them go out unacknowledged over one
+   * connection, and only the last is confirmed. The server applies a connection's writes in order, so that single
+   * getLastError round trip waits for the whole batch. Like getLastError itself, it reports only the last write's error.
+   */
+  @Override
+  public void batchWrite(final List<Map<String, AttributeValue>> puts, final List<Key> deletes) {
+    if (puts.isEmpty() && deletes.isEmpty()) {
+      return;
+    }
+    
+    final DB db = collection.getDB();
+    db.requestStart();
+    try {
+      for (Map<String, AttributeValue> item : puts) {
+        collection.update(queryObjForKey(keyForItem(item)), dbObjectForItem(item), true, false, WriteConcern.NORMAL);
+      }
+      
+      if (!deletes.isEmpty()) {
+        collection.remove(queryObjForKeys(deletes), WriteConcern.NORMAL);
+      }
+      db.getLastError(WriteConcern.SAFE).throwOnError();
+    } finally {
+      db.requestDone();
+    }
+  }
+  
+  /**
+   * Generate a DBObject matching any of the given Dynamo Keys: an $in on the hash key for hash-only tables, or else an $or.
+   * @param keys
+   * @return
+   */
+  private DBObject queryObjForKeys(final List<Key> keys) {
+    final BasicDBList matches = new BasicDBList();
+    for (Key key : keys) {
+      matches.add((rangeKeyName == null) ? AttributeValueDBObject.encode(key.getHashKeyElement()) : queryObjForKey(key));
+    }
+    
+    if (rangeKeyName == null) {
+      return new BasicDBObject(hashKeyName, new BasicDBObject(QueryOperators.IN, matches));
+    }
+    return new BasicDBObject("$or", matches);
+  }
+  
+  /**
+   * Build the Dynamo Key of the given item.
+   * @param item
+   * @return
+   */
+  private Key keyForItem(final Map<String, AttributeValue> item) {
+    final Key key = new Key(item.get(hashKeyName));
+    if (rangeKeyName != null) {
+      key.setRangeKeyElement(item.get(rangeKeyName));
+    }
+    return key;
+  }
+  
+  /**
+   * The names of the key attributes.
+   * @return
+   */
+  private List<String> keyNames() {
+    final List<String> names = new ArrayList<String>();
+    names.add(hashKeyName);
+    if (rangeKeyName != null) {
+      names.add(rangeKeyName);
+    }
+    return names;
+  }
+  
+  /**
+   * Build a field selector that fetches attributesToGet and neededNames, with the text of any numbers among them,
+   * or return null to fetch whole documents if attributesToGet is not a projection.
+   * @param attributesToGet
+   * @param neededNames
+   * @return
+   */
+  private static DBObject fieldsObj(final List<String> attributesToGet, final List<String> neededNames) {
+    if (!ItemProjection.isProjection(attributesToGet)) {
+      return null;
+    }
+    
+    final DBObject fields = new BasicDBObject("_id", 0);
+    for (String attributeName : attributesToGet) {
+      fields.put(attributeName, 1);
+      fields.put(AttributeValueDBObject.NUMBERS_FIELD + "." + attributeName, 1);
+    }
+    for (String attributeName : neededNames) {
+      fields.put(attributeName, 1);
+      fields.put(AttributeValueDBObject.NUMBERS_FIELD + "." + attributeName, 1);
+    }
+    return fields;
   }
   
   /**
@@ -147,33 +601,69 @@ public class DynamockDBTableMongoDBImpl implements DynamockDBTable {
    * @param key
    * @return
    */
-  private AttributeValueDBObject queryObjForKey(final Key key) {
-    final AttributeValueDBObject query = new AttributeValueDBObject();
+  private DBObject queryObjForKey(final Key key) {
+    final DBObject query = new BasicDBObject();
     final AttributeValue rangeKey = key.getRangeKeyElement();
-    query.put(hashKeyName, key.getHashKeyElement());
+    query.put(hashKeyName, AttributeValueDBObject.encode(key.getHashKeyElement()));
     if (rangeKey != null) {
-      query.put(rangeKeyName, key.getRangeKeyElement());
+      query.put(rangeKeyName, AttributeValueDBObject.encode(rangeKey));
     }
     return query;
   }
   
   /**
-   * Generate a DyamockDBItem from the given DBObject
+   * Generate the document stored for the given item attributes
+   * @param attributes
+   * @return
+   */
+  private DBObject dbObjectForItem(final Map<String, AttributeValue> attributes) {
+    final DBObject obj = new AttributeValueDBObject(attributes);
+    obj.put(SEGMENT_HASH_FIELD, ScanSegments.unsignedHash(attributes.get(hashKeyName)));
+    return obj;
+  }
+  
+  /**
+   * Generate a DyamockDBItem from the given DBObject, which decodes its attributes as they are read.
    * @param dbObject
    * @return
    */
-  private DynamockDBItem dynamockItemForDBObject(
-      final AttributeValueDBObject dbObject) {
+  private DynamockDBItem dynamockItemForDBObject(final AttributeValueDBObject dbObject) {
+    return new DynamockDBItemMongoDBImpl(dbObject);
+  }
+  
+  /**
+   * Converts the documents of a cursor to items.
+   * Callers that stop before the end must close it, or the server keeps the cursor open until it times out.
+   */
+  private class ItemIterator implements Iterator<DynamockDBItem>, Closeable {
+    private final DBCursor cursor;
     
-    final Map<String, AttributeValue> attributeMap = new HashMap<String, AttributeValue>();
-    for(String objKey: dbObject.keySet()) {
-      Object val = dbObject.get(objKey);
-      if (val instanceof AttributeValue) {
-        attributeMap.put(objKey, (AttributeValue)val);
-      }
+    public ItemIterator(final DBCursor cursor) {
+      this.cursor = cursor;
     }
     
-    return new DynamockDBItemHashMapImpl(attributeMap);
+    @Override
+    public boolean hasNext() {
+      return cursor.hasNext();
+    }
+
+    @Override
+    public DynamockDBItem next() {
+      if (!cursor.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return dynamockItemForDBObject((AttributeValueDBObject)cursor.next());
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+      cursor.close();
+    }
   }
 
 }
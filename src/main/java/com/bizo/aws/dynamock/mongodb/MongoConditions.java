@@ -0,0 +1,195 @@
+package com.bizo.aws.dynamock.mongodb;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.ComparisonOperator;
+import com.amazonaws.services.dynamodb.model.Condition;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.QueryOperators;
+
+/**
+ * Translates scan filter conditions into Mongo query clauses, so that a scan reads only the documents that may match.
+ *
+ * A translated clause matches every document the condition matches, and possibly more; the client still tests each item.
+ * Mongo matches a scalar against each member of an array, so a clause may match sets that the condition doesn't.
+ * Numbers are stored as strings (see NumberCodec), so a clause may also match strings that the condition doesn't.
+ * Mongo compares strings by code point rather than UTF-16 unit, so comparisons with strings holding characters
+ * from U+D800 up aren't translated.
+ * NOT_CONTAINS, and conditions whose operands the client would reject, aren't translated at all.
+ * @author gregfitzgerald
+ *
+ */
+final class MongoConditions {
+
+  private MongoConditions() {
+  }
+
+  /**
+   * Translate a scan filter into a query clause, or return null if none of its conditions can be translated.
+   * @param scanFilter
+   * @return
+   */
+  static DBObject scanFilterQuery(final Map<String, Condition> scanFilter) {
+    if (scanFilter == null) {
+      return null;
+    }
+
+    final BasicDBList clauses = new BasicDBList();
+    for (Entry<String, Condition> entry : scanFilter.entrySet()) {
+      final DBObject clause = conditionQuery(entry.getKey(), entry.getValue());
+      if (clause != null) {
+        clauses.add(clause);
+      }
+    }
+
+    if (clauses.isEmpty()) {
+      return null;
+    } else if (clauses.size() == 1) {
+      return (DBObject)clauses.get(0);
+    }
+    return new BasicDBObject("$and", clauses);
+  }
+
+  /**
+   * Translate a single condition on attributeName into a query clause, or return null if it can't be translated.
+   * @param attributeName
+   * @param condition
+   * @return
+   */
+  static DBObject conditionQuery(final String attributeName, final Condition condition) {
+    final ComparisonOperator comparisonOperator = ComparisonOperator.fromValue(condition.getComparisonOperator());
+    final List<AttributeValue> targets = condition.getAttributeValueList();
+    final int count = (targets == null) ? 0 : targets.size();
+
+    switch (comparisonOperator) {
+      case NULL:
+        return new BasicDBObject(attributeName, new BasicDBObject("$exists", false));
+      case NOT_NULL:
+        return new BasicDBObject(attributeName, new BasicDBObject("$exists", true));
+      case EQ:
+        if (count < 1) {
+          return null;
+        } else if (isSet(targets.get(0))) {
+          return new BasicDBObject(attributeName, new BasicDBObject("$all", AttributeValueDBObject.encode(targets.get(0))));
+        }
+        return new BasicDBObject(attributeName, AttributeValueDBObject.encode(targets.get(0)));
+      case NE:
+        if (count < 1 || isSet(targets.get(0))) {
+          return null;
+        }
+        // a set, or a value of the other scalar type, is never equal to the operand, though $ne rejects
+        // sets holding the operand's encoding and values of the other type that share it
+        final BasicDBList notEqual = new BasicDBList();
+        notEqual.add(new BasicDBObject(attributeName, new BasicDBObject(QueryOperators.NE, AttributeValueDBObject.encode(targets.get(0)))));
+        notEqual.add(new BasicDBObject(attributeName + ".0", new BasicDBObject("$exists", true)));
+        notEqual.add(new BasicDBObject(AttributeValueDBObject.NUMBERS_FIELD + "." + attributeName,
+            new BasicDBObject("$exists", targets.get(0).getN() == null)));
+        return new BasicDBObject("$or", notEqual);
+      case LT:
+      case LE:
+        return rangeQuery(attributeName, null, (count < 1) ? null : targets.get(0), comparisonOperator == ComparisonOperator.LE);
+      case GT:
+      case GE:
+        return rangeQuery(attributeName, (count < 1) ? null : targets.get(0), null, comparisonOperator == ComparisonOperator.GE);
+      case BETWEEN:
+        if (count != 2) {
+          return null;
+        }
+        return rangeQuery(attributeName, targets.get(0), targets.get(1), true);
+      case BEGINS_WITH:
+        if (count < 1 || targets.get(0).getS() == null) {
+          return null;
+        }
+        return new BasicDBObject(attributeName, new BasicDBObject("$regex", "^" + escapeRegex(targets.get(0).getS())));
+      case CONTAINS:
+        if (count != 1) {
+          return null;
+        } else if (targets.get(0).getS() != null) {
+          // a substring of a string, or of a member of a string set, which includes whole members
+          return new BasicDBObject(attributeName, new BasicDBObject("$regex", escapeRegex(targets.get(0).getS())));
+        } else if (targets.get(0).getN() != null) {
+          return new BasicDBObject(attributeName, AttributeValueDBObject.encode(targets.get(0)));
+        }
+        return null;
+      case IN:
+        final BasicDBList in = new BasicDBList();
+        for (int i = 0; i < count; i++) {
+          if (!isSet(targets.get(i))) {
+            in.add(AttributeValueDBObject.encode(targets.get(i)));
+          }
+        }
+        return (count < 1) ? null : new BasicDBObject(attributeName, new BasicDBObject(QueryOperators.IN, in));
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * A range clause on a scalar attribute, with a null lower or upper operand leaving that end open.
+   */
+  private static DBObject rangeQuery(final String attributeName, final AttributeValue lower, final AttributeValue upper,
+      final boolean inclusive) {
+
+    if ((lower == null && upper == null) || !isOrdered(lower) || !isOrdered(upper)) {
+      return null;
+    }
+
+    final DBObject range = new BasicDBObject();
+    if (lower != null) {
+      range.put(inclusive ? QueryOperators.GTE : QueryOperators.GT, AttributeValueDBObject.encode(lower));
+    }
+    if (upper != null) {
+      range.put(inclusive ? QueryOperators.LTE : QueryOperators.LT, AttributeValueDBObject.encode(upper));
+    }
+    return new BasicDBObject(attributeName, range);
+  }
+
+  /**
+   * Return true if Mongo orders the operand the way the client does: any number, or a string whose characters are all below U+D800,
+   * whose order against any other string is the same by code point as by UTF-16 unit.
+   * A null operand is an open end of a range.
+   */
+  private static boolean isOrdered(final AttributeValue operand) {
+    if (operand == null || operand.getN() != null) {
+      return true;
+    }
+
+    final String s = operand.getS();
+    if (s == null) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) >= Character.MIN_SURROGATE) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSet(final AttributeValue value) {
+    return value.getSS() != null || value.getNS() != null;
+  }
+
+  /**
+   * Escape every character of s that isn't a letter or digit, so that a regex matches s literally
+   * and Mongo recognizes an anchored one as a simple prefix.
+   * @param s
+   * @return
+   */
+  static String escapeRegex(final String s) {
+    final StringBuilder regex = new StringBuilder();
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      if (!Character.isLetterOrDigit(c)) {
+        regex.append('\\');
+      }
+      regex.append(c);
+    }
+    return regex.toString();
+  }
+}
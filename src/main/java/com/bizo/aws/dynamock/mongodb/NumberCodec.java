@@ -0,0 +1,120 @@
+package com.bizo.aws.dynamock.mongodb;
+
+/**
+ * Encodes DynamoDB numbers as strings whose lexicographic order is their numeric order, without loss of precision.
+ * Equal numbers in different formats ("1.50", "1.5", "15E-1") encode to the same string.
+ *
+ * Zero encodes as "1".  A positive number 0.d1d2...dn x 10^e (d1 nonzero, dn nonzero) encodes as "2", the three digit
+ * exponent e + 500, and the digits d1..dn.  A negative number encodes as "0", the exponent 999 - (e + 500), the nines'
+ * complement of each digit, and a "~", which sorts above every digit so that longer complemented digits sort lower.
+ * @author gregfitzgerald
+ *
+ */
+final class NumberCodec {
+
+  private static final int EXPONENT_BIAS = 500;
+
+  private NumberCodec() {
+  }
+
+  /**
+   * Encode the text of a number.
+   * @param n
+   * @return
+   * @throws IllegalArgumentException if n is not a number, or its exponent is beyond +/-499
+   */
+  static String encode(final String n) {
+    final int length = n.length();
+    int i = 0;
+    boolean negative = false;
+    if (i < length && (n.charAt(i) == '-' || n.charAt(i) == '+')) {
+      negative = n.charAt(i) == '-';
+      i++;
+    }
+
+    // the significant digits, and the exponent of the value read as 0.digits
+    final char[] digits = new char[length];
+    int digitCount = 0;
+    int exponent = 0;
+    boolean sawDigit = false;
+    boolean sawPoint = false;
+    for (; i < length; i++) {
+      final char c = n.charAt(i);
+      if (c >= '0' && c <= '9') {
+        sawDigit = true;
+        if (digitCount == 0 && c == '0') {
+          // a leading zero is dropped, shrinking the exponent if it follows the point
+          if (sawPoint) {
+            exponent--;
+          }
+          continue;
+        }
+        digits[digitCount++] = c;
+        if (!sawPoint) {
+          exponent++;
+        }
+      } else if (c == '.' && !sawPoint) {
+        sawPoint = true;
+      } else {
+        break;
+      }
+    }
+    if (!sawDigit) {
+      throw new IllegalArgumentException(n + " is not a number");
+    }
+
+    if (i < length) {
+      final char e = n.charAt(i);
+      if ((e != 'e' && e != 'E') || i + 1 == length) {
+        throw new IllegalArgumentException(n + " is not a number");
+      }
+      exponent += parseExponent(n, i + 1);
+    }
+
+    while (digitCount > 0 && digits[digitCount - 1] == '0') {
+      digitCount--;
+    }
+    if (digitCount == 0) {
+      return "1";
+    }
+    if (exponent < -EXPONENT_BIAS + 1 || exponent > EXPONENT_BIAS - 1) {
+      throw new IllegalArgumentException(n + " is out of range");
+    }
+
+    final StringBuilder encoded = new StringBuilder(digitCount + 5);
+    final int biased = negative ? (999 - (exponent + EXPONENT_BIAS)) : (exponent + EXPONENT_BIAS);
+    encoded.append(negative ? '0' : '2');
+    encoded.append((char)('0' + biased / 100)).append((char)('0' + biased / 10 % 10)).append((char)('0' + biased % 10));
+    for (int d = 0; d < digitCount; d++) {
+      encoded.append(negative ? (char)('9' - digits[d] + '0') : digits[d]);
+    }
+    if (negative) {
+      encoded.append('~');
+    }
+    return encoded.toString();
+  }
+
+  private static int parseExponent(final String n, final int start) {
+    final int length = n.length();
+    int i = start;
+    boolean negative = false;
+    if (n.charAt(i) == '-' || n.charAt(i) == '+') {
+      negative = n.charAt(i) == '-';
+      i++;
+    }
+    if (i == length) {
+      throw new IllegalArgumentException(n + " is not a number");
+    }
+
+    int exponent = 0;
+    for (; i < length; i++) {
+      final char c = n.charAt(i);
+      if (c < '0' || c > '9') {
+        throw new IllegalArgumentException(n + " is not a number");
+      }
+      // clamp, leaving the range check to reject it
+      exponent = Math.min(exponent * 10 + (c - '0'), 10000);
+    }
+    return negative ? -exponent : exponent;
+  }
+}
@@ -0,0 +1,74 @@
+package com.bizo.aws.dynamock.offheap;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.amazonaws.services.dynamodb.model.KeySchema;
+import com.amazonaws.services.dynamodb.model.KeySchemaElement;
+import com.bizo.aws.dynamock.DynamockDBTable;
+import com.bizo.aws.dynamock.DynamockDBTableManager;
+
+/**
+ * An implementation of DynamockDBTableManager whose tables keep their items in direct memory (see DynamockDBTableOffHeapImpl).
+ * Tables are registered in a ConcurrentHashMap, so tables may be created, listed and deleted from any thread.
+ * A deleted table's memory is released when its buffers are garbage collected.
+ * @author gregfitzgerald
+ *
+ */
+public class DynamockDBTableManagerOffHeapImpl implements DynamockDBTableManager {
+  /**
+   * The default size of the direct buffers each table allocates its items from.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+  private final ConcurrentMap<String, DynamockDBTable> tables = new ConcurrentHashMap<String, DynamockDBTable>();
+  private final int chunkSize;
+
+  public DynamockDBTableManagerOffHeapImpl() {
+    this(DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Create a manager whose tables allocate direct buffers of chunkSize bytes.
+   * @param chunkSize
+   */
+  public DynamockDBTableManagerOffHeapImpl(final int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunkSize must be positive");
+    }
+    this.chunkSize = chunkSize;
+  }
+
+  @Override
+  public DynamockDBTable getTable(String tableName) {
+    return tables.get(tableName);
+  }
+
+  @Override
+  public Collection<DynamockDBTable> getTables() {
+    return tables.values();
+  }
+
+  @Override
+  public DynamockDBTable createTable(String tableName, KeySchema keySchema) {
+    final KeySchemaElement hashKey = keySchema.getHashKeyElement();
+    final KeySchemaElement rangeKey = keySchema.getRangeKeyElement();
+
+    final DynamockDBTable table = new DynamockDBTableOffHeapImpl(chunkSize);
+    table.setTableName(tableName);
+    table.setHashKeyName(hashKey.getAttributeName());
+    if (rangeKey != null) {
+      table.setRangeKeyName(rangeKey.getAttributeName());
+    }
+
+    tables.put(tableName, table);
+    return table;
+  }
+
+  @Override
+  public void deleteTable(String tableName) {
+    tables.remove(tableName);
+  }
+
+}
@@ -0,0 +1,842 @@
+package com.bizo.aws.dynamock.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodb.model.AttributeAction;
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.AttributeValueUpdate;
+import com.amazonaws.services.dynamodb.model.Condition;
+import com.amazonaws.services.dynamodb.model.Key;
+import com.amazonaws.services.dynamodb.model.ResourceNotFoundException;
+import com.bizo.aws.dynamock.DynamockDBItem;
+import com.bizo.aws.dynamock.DynamockDBTable;
+import com.bizo.aws.dynamock.ItemCodec;
+import com.bizo.aws.dynamock.ItemProjection;
+import com.bizo.aws.dynamock.RangeKeyConditions;
+import com.bizo.aws.dynamock.RangeKeyConditions.Bounds;
+import com.bizo.aws.dynamock.ScanSegments;
+import com.bizo.aws.dynamock.SortKey;
+import com.bizo.aws.dynamock.hashmap.DynamockDBItemHashMapImpl;
+
+/**
+ * An implementation of DynamockDBTable that keeps every item, and the indexes over them, outside the Java heap.
+ * The heap holds only a handful of objects per table no matter how many items it stores, so GC time stays flat.
+ *
+ * Items are serialized with ItemCodec into records allocated from an OffHeapArena of direct ByteBuffers.
+ * A partition (all items of one hash key) is an arena block holding the hash key and the addresses of its records,
+ * sorted by range key.  Partitions are found through a directory: an open addressing (linear probing) table in a
+ * direct buffer, whose slots hold the partition's segment hash (see ScanSegments) and block address.
+ * A partition's home slot is the top bits of its segment hash, so a range of hashes maps to a run of slots and
+ * scans and scan segments walk the directory a window at a time, in (segment hash, hash key, range key) order.
+ *
+ * Writes are serialized by the table's write lock; reads share the read lock and copy items onto the heap in small
+ * batches, so no reader holds the lock while its caller works.  Space of replaced and deleted records is reclaimed by
+ * copying the live data into a new arena once more than half of the arena is garbage.
+ * @author gregfitzgerald
+ *
+ */
+public class DynamockDBTableOffHeapImpl implements DynamockDBTable {
+
+  private static final int EMPTY = 0;
+  private static final int USED = 1;
+  private static final int DELETED = 2;
+
+  private static final int SLOT_SIZE = 16;
+  private static final int INITIAL_DIRECTORY_CAPACITY = 1024;
+  private static final int INITIAL_BLOCK_CAPACITY = 4;
+  private static final int BLOCK_HEADER_SIZE = 12;
+  private static final int BATCH_SIZE = 128;
+  private static final int WINDOW_SLOTS = 64;
+
+  /**
+   * The range key of every item in a table without range keys.
+   */
+  private static final SortKey NO_RANGE_KEY = SortKey.of(new AttributeValue().withS(""));
+
+  private String tableName;
+  private String hashKeyName;
+  private String rangeKeyName;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private OffHeapArena arena;
+  private ByteBuffer directory;
+  private int capacity;
+  private int used;
+  private int deleted;
+
+  /**
+   * Create an empty table whose arena allocates direct buffers of chunkSize bytes.
+   * @param chunkSize
+   */
+  public DynamockDBTableOffHeapImpl(final int chunkSize) {
+    this.arena = new OffHeapArena(chunkSize);
+    this.capacity = INITIAL_DIRECTORY_CAPACITY;
+    this.directory = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+  }
+
+  @Override
+  public String getTableName() {
+    return tableName;
+  }
+
+  @Override
+  public void setTableName(String tableName) {
+    this.tableName = tableName;
+  }
+
+  @Override
+  public String getHashKeyName() {
+    return hashKeyName;
+  }
+
+  @Override
+  public void setHashKeyName(String hashKeyName) {
+    this.hashKeyName = hashKeyName;
+  }
+
+  @Override
+  public String getRangeKeyName() {
+    return rangeKeyName;
+  }
+
+  @Override
+  public void setRangeKeyName(String rangeKeyName) {
+    this.rangeKeyName = rangeKeyName;
+  }
+
+  @Override
+  public Map<AttributeValue, DynamockDBItem> getItemsForHashKey(final AttributeValue hashKey) {
+    final Map<AttributeValue, DynamockDBItem> items = new LinkedHashMap<AttributeValue, DynamockDBItem>();
+    for (DynamockDBItem item : query(hashKey, null, true, null, null, null)) {
+      final String keyName = (rangeKeyName == null) ? hashKeyName : rangeKeyName;
+      items.put(item.getAttributeValue(keyName), item);
+    }
+    return items.isEmpty() ? null : items;
+  }
+
+  /**
+   * Walk the partition's sorted record addresses from the bounds of rangeKeyCondition, reading items in batches.
+   */
+  @Override
+  public Collection<DynamockDBItem> query(final AttributeValue hashKey, final Condition rangeKeyCondition,
+      final boolean scanIndexForward, final AttributeValue exclusiveStartRangeKey, final Integer limit,
+      final List<String> attributesToGet) {
+
+    final Bounds bounds = RangeKeyConditions.bounds(rangeKeyCondition);
+    final SortKey start = (exclusiveStartRangeKey == null) ? null : SortKey.of(exclusiveStartRangeKey);
+    return new AbstractCollection<DynamockDBItem>() {
+      @Override
+      public Iterator<DynamockDBItem> iterator() {
+        return new PartitionIterator(hashKey, bounds, scanIndexForward, start);
+      }
+
+      @Override
+      public int size() {
+        int size = 0;
+        for (Iterator<DynamockDBItem> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+          size++;
+        }
+        return size;
+      }
+    };
+  }
+
+  @Override
+  public List<DynamockDBItem> getAllItems() {
+    final List<DynamockDBItem> items = new ArrayList<DynamockDBItem>();
+    final Iterator<DynamockDBItem> iterator = scan(null, 0, 1, null, null);
+    while (iterator.hasNext()) {
+      items.add(iterator.next());
+    }
+    return items;
+  }
+
+  @Override
+  public Iterator<DynamockDBItem> scan(final Key exclusiveStartKey, final int segment, final int totalSegments,
+      final Map<String, Condition> scanFilter, final List<String> attributesToGet) {
+    return new ScanIterator(exclusiveStartKey, segment, totalSegments);
+  }
+
+  @Override
+  public DynamockDBItem getItem(final Key key) {
+    final AttributeValue hashKey = key.getHashKeyElement();
+    final SortKey rangeKey = rangeSortKey(key.getRangeKeyElement());
+
+    lock.readLock().lock();
+    try {
+      final int slot = findSlot(SortKey.of(hashKey), ScanSegments.hash(hashKey));
+      if (slot < 0) {
+        return null;
+      }
+
+      final long block = slotBlock(slot);
+      final int index = indexOf(block, rangeKey);
+      return (index < 0) ? null : new DynamockDBItemHashMapImpl(recordItem(entry(block, index)));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Look the keys up one at a time.
+   */
+  @Override
+  public List<DynamockDBItem> getItems(final List<Key> keys, final List<String> attributesToGet) {
+    final List<DynamockDBItem> items = new ArrayList<DynamockDBItem>();
+    for (Key key : keys) {
+      final DynamockDBItem item = getItem(key);
+      if (item != null) {
+        items.add(ItemProjection.project(item, attributesToGet));
+      }
+    }
+    return items;
+  }
+
+  @Override
+  public void putItem(final Key key, final DynamockDBItem item) {
+    lock.writeLock().lock();
+    try {
+      store(key.getHashKeyElement(), key.getRangeKeyElement(), item.toMap());
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public DynamockDBItem createItem(final Map<String, AttributeValue> item) {
+    final AttributeValue rangeKey = (rangeKeyName == null) ? null : item.get(rangeKeyName);
+
+    lock.writeLock().lock();
+    try {
+      store(item.get(hashKeyName), rangeKey, item);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return new DynamockDBItemHashMapImpl(item);
+  }
+
+  /**
+   * Read, update and rewrite the item under the write lock, so concurrent updates to it are never lost.
+   */
+  @Override
+  public DynamockDBItem updateItem(final Key key, final Map<String, AttributeValueUpdate> updates) {
+    lock.writeLock().lock();
+    try {
+      final DynamockDBItem found = getItem(key);
+
+      final Map<String, AttributeValue> attributes = new HashMap<String, AttributeValue>();
+      if (found == null) {
+        attributes.put(hashKeyName, key.getHashKeyElement());
+        if (rangeKeyName != null) {
+          attributes.put(rangeKeyName, key.getRangeKeyElement());
+        }
+      } else {
+        attributes.putAll(found.toMap());
+      }
+
+      for (Entry<String, AttributeValueUpdate> entry : updates.entrySet()) {
+        final AttributeValueUpdate update = entry.getValue();
+        if (update.getAction().equals(AttributeAction.PUT.toString())) {
+          attributes.put(entry.getKey(), update.getValue());
+        }
+      }
+
+      store(key.getHashKeyElement(), key.getRangeKeyElement(), attributes);
+      return new DynamockDBItemHashMapImpl(attributes);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void deleteItem(final Key key) {
+    final AttributeValue hashKey = key.getHashKeyElement();
+
+    lock.writeLock().lock();
+    try {
+      final int slot = findSlot(SortKey.of(hashKey), ScanSegments.hash(hashKey));
+      if (slot < 0) {
+        throw new ResourceNotFoundException("Item not found");
+      }
+
+      final long block = slotBlock(slot);
+      final int index = indexOf(block, rangeSortKey(key.getRangeKeyElement()));
+      if (index < 0) {
+        return;
+      }
+
+      arena.free(recordSize(entry(block, index)));
+      final int count = blockCount(block);
+      for (int i = index; i < count - 1; i++) {
+        setEntry(block, i, entry(block, i + 1));
+      }
+      setBlockCount(block, count - 1);
+
+      if (count == 1) {
+        arena.free(blockSize(block));
+        directory.putInt(slot * SLOT_SIZE + 12, DELETED);
+        used--;
+        deleted++;
+      }
+      maybeCompact();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Store the items, then delete the keys, holding the write lock for the whole batch.
+   */
+  @Override
+  public void batchWrite(final List<Map<String, AttributeValue>> puts, final List<Key> deletes) {
+    lock.writeLock().lock();
+    try {
+      for (Map<String, AttributeValue> item : puts) {
+        createItem(item);
+      }
+      for (Key key : deletes) {
+        deleteItem(key);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Write a record for item and link it into its partition, replacing any record with the same range key.
+   * The caller holds the write lock.
+   */
+  private void store(final AttributeValue hashKey, final AttributeValue rangeKey, final Map<String, AttributeValue> item) {
+    final SortKey rangeSortKey = rangeSortKey(rangeKey);
+    final int hash = ScanSegments.hash(hashKey);
+    final long record = writeRecord(rangeKey, item);
+
+    int slot = findSlot(SortKey.of(hashKey), hash);
+    if (slot < 0) {
+      slot = addSlot(hash, newBlock(hashKey, INITIAL_BLOCK_CAPACITY));
+    }
+
+    long block = slotBlock(slot);
+    final int count = blockCount(block);
+    final int index = firstIndex(block, rangeSortKey, true);
+    if (index < count && recordRangeKey(entry(block, index)).equals(rangeSortKey)) {
+      arena.free(recordSize(entry(block, index)));
+      setEntry(block, index, record);
+    } else {
+      if (count == blockCapacity(block)) {
+        block = growBlock(slot, block);
+      }
+      for (int i = count; i > index; i--) {
+        setEntry(block, i, entry(block, i - 1));
+      }
+      setEntry(block, index, record);
+      setBlockCount(block, count + 1);
+    }
+
+    maybeCompact();
+  }
+
+  private SortKey rangeSortKey(final AttributeValue rangeKey) {
+    return (rangeKeyName == null || rangeKey == null) ? NO_RANGE_KEY : SortKey.of(rangeKey);
+  }
+
+  // ---- directory ----
+
+  private int home(final long unsignedHash) {
+    return (int)((unsignedHash * capacity) >>> 32);
+  }
+
+  private int slotState(final int slot) {
+    return directory.getInt(slot * SLOT_SIZE + 12);
+  }
+
+  private int slotHash(final int slot) {
+    return directory.getInt(slot * SLOT_SIZE + 8);
+  }
+
+  private long slotBlock(final int slot) {
+    return directory.getLong(slot * SLOT_SIZE);
+  }
+
+  private void setSlotBlock(final int slot, final long block) {
+    directory.putLong(slot * SLOT_SIZE, block);
+  }
+
+  /**
+   * The directory slot of the partition for hashKey, or -1.
+   */
+  private int findSlot(final SortKey hashKey, final int hash) {
+    int slot = home(hash & 0xffffffffL);
+    for (int probes = 0; probes < capacity; probes++) {
+      final int state = slotState(slot);
+      if (state == EMPTY) {
+        return -1;
+      } else if (state == USED && slotHash(slot) == hash && blockHashKey(slotBlock(slot)).equals(hashKey)) {
+        return slot;
+      }
+      slot = (slot + 1) & (capacity - 1);
+    }
+    return -1;
+  }
+
+  /**
+   * Insert a new partition into the directory, growing it first if it is half full.
+   */
+  private int addSlot(final int hash, final long block) {
+    if ((used + deleted + 1) * 2 > capacity) {
+      rehash((used + 1) * 4 > capacity ? capacity * 2 : capacity);
+    }
+
+    int slot = home(hash & 0xffffffffL);
+    while (slotState(slot) == USED) {
+      slot = (slot + 1) & (capacity - 1);
+    }
+
+    if (slotState(slot) == DELETED) {
+      deleted--;
+    }
+    used++;
+    directory.putLong(slot * SLOT_SIZE, block);
+    directory.putInt(slot * SLOT_SIZE + 8, hash);
+    directory.putInt(slot * SLOT_SIZE + 12, USED);
+    return slot;
+  }
+
+  /**
+   * Rebuild the directory with newCapacity slots, dropping deleted slots.
+   */
+  private void rehash(final int newCapacity) {
+    final ByteBuffer oldDirectory = directory;
+    final int oldCapacity = capacity;
+
+    directory = ByteBuffer.allocateDirect(newCapacity * SLOT_SIZE);
+    capacity = newCapacity;
+    deleted = 0;
+
+    for (int i = 0; i < oldCapacity; i++) {
+      if (oldDirectory.getInt(i * SLOT_SIZE + 12) != USED) {
+        continue;
+      }
+
+      final int hash = oldDirectory.getInt(i * SLOT_SIZE + 8);
+      int slot = home(hash & 0xffffffffL);
+      while (slotState(slot) != EMPTY) {
+        slot = (slot + 1) & (capacity - 1);
+      }
+      directory.putLong(slot * SLOT_SIZE, oldDirectory.getLong(i * SLOT_SIZE));
+      directory.putInt(slot * SLOT_SIZE + 8, hash);
+      directory.putInt(slot * SLOT_SIZE + 12, USED);
+    }
+  }
+
+  /**
+   * Add every partition whose segment hash is in [lower, upper), and which comes after (afterHash, afterKey) if given,
+   * to window.  Partitions homed in the range sit between the range's first home slot and the first empty slot after
+   * its last home slot, so only that run of slots is read.  The caller holds the read lock.
+   */
+  private void collectWindow(final long lower, final long upper, final long afterHash, final SortKey afterKey,
+      final List<PartitionRef> window) {
+
+    final int lastHome = home(upper - 1);
+    int slot = home(lower);
+    boolean pastLastHome = false;
+    for (int probes = 0; probes < capacity; probes++) {
+      final int state = slotState(slot);
+      if (state == EMPTY && pastLastHome) {
+        break;
+      }
+
+      if (state == USED) {
+        final long hash = slotHash(slot) & 0xffffffffL;
+        if (hash >= lower && hash < upper) {
+          final AttributeValue hashKey = blockHashKeyValue(slotBlock(slot));
+          final PartitionRef ref = new PartitionRef(hash, hashKey);
+          if (afterKey == null || hash > afterHash || (hash == afterHash && ref.sortKey.compareTo(afterKey) > 0)) {
+            window.add(ref);
+          }
+        }
+      }
+
+      if (slot == lastHome) {
+        pastLastHome = true;
+      }
+      slot = (slot + 1) & (capacity - 1);
+    }
+  }
+
+  // ---- partition blocks: [int capacity][int count][int key length][hash key][long record address...] ----
+
+  private long newBlock(final AttributeValue hashKey, final int blockCapacity) {
+    final int keyLength = ItemCodec.encodedSize(hashKey);
+    final long block = arena.allocate(entriesOffset(keyLength) + blockCapacity * 8);
+    arena.putInt(block, blockCapacity);
+    arena.putInt(block + 4, 0);
+    arena.putInt(block + 8, keyLength);
+    ItemCodec.encode(hashKey, arena.view(block + BLOCK_HEADER_SIZE, keyLength));
+    return block;
+  }
+
+  /**
+   * Move a full block to one twice its size, and point the directory slot at it.
+   */
+  private long growBlock(final int slot, final long block) {
+    final int blockBytes = entriesOffset(arena.getInt(block + 8)) + blockCount(block) * 8;
+    final long grown = arena.allocate(entriesOffset(arena.getInt(block + 8)) + blockCapacity(block) * 16);
+    arena.view(grown, blockBytes).put(arena.view(block, blockBytes));
+    arena.putInt(grown, blockCapacity(block) * 2);
+
+    arena.free(blockSize(block));
+    setSlotBlock(slot, grown);
+    return grown;
+  }
+
+  private static int entriesOffset(final int keyLength) {
+    return (BLOCK_HEADER_SIZE + keyLength + 7) & ~7;
+  }
+
+  private int blockCapacity(final long block) {
+    return arena.getInt(block);
+  }
+
+  private int blockCount(final long block) {
+    return arena.getInt(block + 4);
+  }
+
+  private void setBlockCount(final long block, final int count) {
+    arena.putInt(block + 4, count);
+  }
+
+  private int blockSize(final long block) {
+    return entriesOffset(arena.getInt(block + 8)) + blockCapacity(block) * 8;
+  }
+
+  private AttributeValue blockHashKeyValue(final long block) {
+    return ItemCodec.decodeValue(arena.view(block + BLOCK_HEADER_SIZE, arena.getInt(block + 8)));
+  }
+
+  private SortKey blockHashKey(final long block) {
+    return SortKey.of(blockHashKeyValue(block));
+  }
+
+  private long entry(final long block, final int index) {
+    return arena.getLong(block + entriesOffset(arena.getInt(block + 8)) + index * 8L);
+  }
+
+  private void setEntry(final long block, final int index, final long record) {
+    arena.putLong(block + entriesOffset(arena.getInt(block + 8)) + index * 8L, record);
+  }
+
+  /**
+   * The first index of block whose range key is greater than key, or greater than or equal to it when inclusive.
+   */
+  private int firstIndex(final long block, final SortKey key, final boolean inclusive) {
+    int low = 0;
+    int high = blockCount(block);
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      final int c = recordRangeKey(entry(block, middle)).compareTo(key);
+      if (c < 0 || (c == 0 && !inclusive)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private int indexOf(final long block, final SortKey key) {
+    final int index = firstIndex(block, key, true);
+    return (index < blockCount(block) && recordRangeKey(entry(block, index)).equals(key)) ? index : -1;
+  }
+
+  // ---- item records: [int range key length][range key][int item length][item] ----
+
+  private long writeRecord(final AttributeValue rangeKey, final Map<String, AttributeValue> item) {
+    final int rangeKeyLength = (rangeKeyName == null || rangeKey == null) ? 0 : ItemCodec.encodedSize(rangeKey);
+    final int itemLength = ItemCodec.encodedSize(item);
+    final int size = 8 + rangeKeyLength + itemLength;
+
+    final long record = arena.allocate(size);
+    final ByteBuffer view = arena.view(record, size);
+    view.putInt(rangeKeyLength);
+    if (rangeKeyLength > 0) {
+      ItemCodec.encode(rangeKey, view);
+    }
+    view.putInt(itemLength);
+    ItemCodec.encode(item, view);
+    return record;
+  }
+
+  private SortKey recordRangeKey(final long record) {
+    final int rangeKeyLength = arena.getInt(record);
+    if (rangeKeyLength == 0) {
+      return NO_RANGE_KEY;
+    }
+    return SortKey.of(ItemCodec.decodeValue(arena.view(record + 4, rangeKeyLength)));
+  }
+
+  private Map<String, AttributeValue> recordItem(final long record) {
+    final int rangeKeyLength = arena.getInt(record);
+    final int itemLength = arena.getInt(record + 4 + rangeKeyLength);
+    return ItemCodec.decode(arena.view(record + 8 + rangeKeyLength, itemLength));
+  }
+
+  private int recordSize(final long record) {
+    final int rangeKeyLength = arena.getInt(record);
+    return 8 + rangeKeyLength + arena.getInt(record + 4 + rangeKeyLength);
+  }
+
+  /**
+   * Copy the live blocks and records into a new arena once garbage outweighs live data.  The caller holds the write lock.
+   */
+  private void maybeCompact() {
+    if (arena.getFreedBytes() <= arena.getLiveBytes() || arena.getFreedBytes() <= arena.getChunkSize()) {
+      return;
+    }
+
+    final OffHeapArena compacted = new OffHeapArena(arena.getChunkSize());
+    for (int slot = 0; slot < capacity; slot++) {
+      if (slotState(slot) != USED) {
+        continue;
+      }
+
+      final long block = slotBlock(slot);
+      final long entries = entriesOffset(arena.getInt(block + 8));
+      final long copy = compacted.copyFrom(arena, block, blockSize(block));
+      for (int i = 0; i < blockCount(block); i++) {
+        final long record = entry(block, i);
+        compacted.putLong(copy + entries + i * 8L, compacted.copyFrom(arena, record, recordSize(record)));
+      }
+      setSlotBlock(slot, copy);
+    }
+    arena = compacted;
+  }
+
+  /**
+   * A partition found in a scan window.
+   */
+  private static final class PartitionRef {
+    private final long hash;
+    private final AttributeValue hashKey;
+    private final SortKey sortKey;
+
+    public PartitionRef(final long hash, final AttributeValue hashKey) {
+      this.hash = hash;
+      this.hashKey = hashKey;
+      this.sortKey = SortKey.of(hashKey);
+    }
+  }
+
+  private static final Comparator<PartitionRef> SCAN_ORDER = new Comparator<PartitionRef>() {
+    @Override
+    public int compare(final PartitionRef a, final PartitionRef b) {
+      if (a.hash != b.hash) {
+        return (a.hash < b.hash) ? -1 : 1;
+      }
+      return a.sortKey.compareTo(b.sortKey);
+    }
+  };
+
+  /**
+   * Reads one partition's items within bounds, BATCH_SIZE at a time.  Between batches no lock is held;
+   * each batch finds its place again by the last range key read, so concurrent writes can't derail the walk.
+   */
+  private class PartitionIterator implements Iterator<DynamockDBItem> {
+    private final SortKey hashKey;
+    private final int hash;
+    private final Bounds bounds;
+    private final boolean forward;
+    private SortKey last;
+    private final List<DynamockDBItem> batch = new ArrayList<DynamockDBItem>();
+    private int batchIndex;
+    private boolean exhausted;
+
+    public PartitionIterator(final AttributeValue hashKey, final Bounds bounds, final boolean forward, final SortKey start) {
+      this.hashKey = SortKey.of(hashKey);
+      this.hash = ScanSegments.hash(hashKey);
+      this.bounds = bounds;
+      this.forward = forward;
+      this.last = start;
+      this.exhausted = bounds.isEmpty();
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (batchIndex >= batch.size()) {
+        if (exhausted) {
+          return false;
+        }
+        fill();
+      }
+      return true;
+    }
+
+    @Override
+    public DynamockDBItem next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return batch.get(batchIndex++);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private void fill() {
+      batch.clear();
+      batchIndex = 0;
+
+      lock.readLock().lock();
+      try {
+        final int slot = findSlot(hashKey, hash);
+        if (slot < 0) {
+          exhausted = true;
+          return;
+        }
+
+        final long block = slotBlock(slot);
+        final int count = blockCount(block);
+        if (forward) {
+          int index = (bounds.getLower() == null) ? 0 : firstIndex(block, bounds.getLower(), bounds.isLowerInclusive());
+          if (last != null) {
+            index = Math.max(index, firstIndex(block, last, false));
+          }
+          while (index < count && batch.size() < BATCH_SIZE) {
+            final long record = entry(block, index);
+            final SortKey rangeKey = recordRangeKey(record);
+            if (!bounds.isBelowUpper(rangeKey)) {
+              exhausted = true;
+              return;
+            }
+            batch.add(new DynamockDBItemHashMapImpl(recordItem(record)));
+            last = rangeKey;
+            index++;
+          }
+          exhausted = (index >= count);
+        } else {
+          int index = (bounds.getUpper() == null) ? count : firstIndex(block, bounds.getUpper(), !bounds.isUpperInclusive());
+          if (last != null) {
+            index = Math.min(index, firstIndex(block, last, true));
+          }
+          index--;
+          while (index >= 0 && batch.size() < BATCH_SIZE) {
+            final long record = entry(block, index);
+            final SortKey rangeKey = recordRangeKey(record);
+            if (!bounds.isAboveLower(rangeKey)) {
+              exhausted = true;
+              return;
+            }
+            batch.add(new DynamockDBItemHashMapImpl(recordItem(record)));
+            last = rangeKey;
+            index--;
+          }
+          exhausted = (index < 0);
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Walks one scan segment a directory window at a time, and each partition of a window with a PartitionIterator.
+   */
+  private class ScanIterator implements Iterator<DynamockDBItem> {
+    private final long segmentUpper;
+    private long windowLower;
+    private long lastHash;
+    private SortKey lastHashKey;
+    private final List<PartitionRef> window = new ArrayList<PartitionRef>();
+    private int windowIndex;
+    private PartitionIterator current;
+
+    public ScanIterator(final Key exclusiveStartKey, final int segment, final int totalSegments) {
+      this.windowLower = ScanSegments.lowerBound(segment, totalSegments);
+      this.segmentUpper = ScanSegments.upperBound(segment, totalSegments);
+
+      if (exclusiveStartKey != null) {
+        final AttributeValue startHashKey = exclusiveStartKey.getHashKeyElement();
+        if (startHashKey == null || !ScanSegments.contains(startHashKey, segment, totalSegments)) {
+          throw new AmazonServiceException("The provided starting key is invalid");
+        }
+
+        lastHash = ScanSegments.unsignedHash(startHashKey);
+        lastHashKey = SortKey.of(startHashKey);
+        windowLower = lastHash;
+        current = new PartitionIterator(startHashKey, Bounds.ALL, true, rangeSortKey(exclusiveStartKey.getRangeKeyElement()));
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (current == null || !current.hasNext()) {
+        if (windowIndex >= window.size() && !nextWindow()) {
+          return false;
+        }
+
+        final PartitionRef ref = window.get(windowIndex++);
+        lastHash = ref.hash;
+        lastHashKey = ref.sortKey;
+        current = new PartitionIterator(ref.hashKey, Bounds.ALL, true, null);
+      }
+      return true;
+    }
+
+    @Override
+    public DynamockDBItem next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return current.next();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Load the partitions of the next non-empty window of the segment, in scan order.
+     */
+    private boolean nextWindow() {
+      window.clear();
+      windowIndex = 0;
+      while (window.isEmpty()) {
+        if (windowLower >= segmentUpper) {
+          return false;
+        }
+
+        final long windowUpper;
+        lock.readLock().lock();
+        try {
+          final long span = Math.max(1L, ((1L << 32) / capacity) * WINDOW_SLOTS);
+          windowUpper = Math.min(segmentUpper, windowLower + span);
+          collectWindow(windowLower, windowUpper, lastHash, lastHashKey, window);
+        } finally {
+          lock.readLock().unlock();
+        }
+        windowLower = windowUpper;
+      }
+
+      Collections.sort(window, SCAN_ORDER);
+      return true;
+    }
+  }
+}
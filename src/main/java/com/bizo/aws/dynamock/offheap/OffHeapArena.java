@@ -0,0 +1,135 @@
+package com.bizo.aws.dynamock.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bump-pointer allocation of 8 byte aligned blocks from a list of direct ByteBuffer chunks.
+ * An address packs the chunk index into the high 32 bits and the offset within the chunk into the low 32 bits.
+ * Freed blocks are only counted; their space is reclaimed by copying the live blocks into a new arena.
+ *
+ * The arena is not thread safe; the owning table serializes writes and lets reads use absolute gets.
+ * @author gregfitzgerald
+ *
+ */
+final class OffHeapArena {
+
+  private final int chunkSize;
+  private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+  private ByteBuffer current;
+  private int currentIndex = -1;
+  private long allocatedBytes;
+  private long freedBytes;
+
+  OffHeapArena(final int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Allocate size bytes and return their address.  Blocks larger than the chunk size get a chunk of their own.
+   * @param size
+   * @return
+   */
+  long allocate(final int size) {
+    final int aligned = (size + 7) & ~7;
+    if (current == null || current.remaining() < aligned) {
+      current = ByteBuffer.allocateDirect(Math.max(chunkSize, aligned));
+      chunks.add(current);
+      currentIndex = chunks.size() - 1;
+    }
+
+    final int offset = current.position();
+    current.position(offset + aligned);
+    allocatedBytes += aligned;
+    return ((long)currentIndex << 32) | offset;
+  }
+
+  /**
+   * Record that the size byte block at an address is no longer used.
+   * @param size
+   */
+  void free(final int size) {
+    freedBytes += (size + 7) & ~7;
+  }
+
+  /**
+   * The chunk holding address.  Callers must use absolute gets and puts, or a duplicate.
+   * @param address
+   * @return
+   */
+  ByteBuffer chunk(final long address) {
+    return chunks.get((int)(address >>> 32));
+  }
+
+  static int offset(final long address) {
+    return (int)address;
+  }
+
+  /**
+   * A buffer positioned at address and limited to length bytes, for relative reads and writes.
+   * @param address
+   * @param length
+   * @return
+   */
+  ByteBuffer view(final long address, final int length) {
+    final ByteBuffer view = chunk(address).duplicate();
+    final int offset = offset(address);
+    view.limit(offset + length);
+    view.position(offset);
+    return view;
+  }
+
+  int getInt(final long address) {
+    return chunk(address).getInt(offset(address));
+  }
+
+  void putInt(final long address, final int value) {
+    chunk(address).putInt(offset(address), value);
+  }
+
+  long getLong(final long address) {
+    return chunk(address).getLong(offset(address));
+  }
+
+  void putLong(final long address, final long value) {
+    chunk(address).putLong(offset(address), value);
+  }
+
+  /**
+   * Copy length bytes from an address in another arena into a new block of this arena.
+   * @param source
+   * @param address
+   * @param length
+   * @return the new address
+   */
+  long copyFrom(final OffHeapArena source, final long address, final int length) {
+    final long copy = allocate(length);
+    view(copy, length).put(source.view(address, length));
+    return copy;
+  }
+
+  int getChunkSize() {
+    return chunkSize;
+  }
+
+  long getLiveBytes() {
+    return allocatedBytes - freedBytes;
+  }
+
+  long getFreedBytes() {
+    return freedBytes;
+  }
+
+  /**
+   * Total off-heap bytes reserved by the arena's chunks.
+   * @return
+   */
+  long getReservedBytes() {
+    long reserved = 0L;
+    for (ByteBuffer chunk : chunks) {
+      reserved += chunk.capacity();
+    }
+    return reserved;
+  }
+}
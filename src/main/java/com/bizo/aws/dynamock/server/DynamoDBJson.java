@@ -0,0 +1,1052 @@
+package com.bizo.aws.dynamock.server;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.amazonaws.services.dynamodb.AmazonDynamoDB;
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.AttributeValueUpdate;
+import com.amazonaws.services.dynamodb.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodb.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodb.model.BatchResponse;
+import com.amazonaws.services.dynamodb.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodb.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodb.model.BatchWriteResponse;
+import com.amazonaws.services.dynamodb.model.Condition;
+import com.amazonaws.services.dynamodb.model.CreateTableRequest;
+import com.amazonaws.services.dynamodb.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodb.model.DeleteItemResult;
+import com.amazonaws.services.dynamodb.model.DeleteRequest;
+import com.amazonaws.services.dynamodb.model.DeleteTableRequest;
+import com.amazonaws.services.dynamodb.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodb.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodb.model.GetItemRequest;
+import com.amazonaws.services.dynamodb.model.GetItemResult;
+import com.amazonaws.services.dynamodb.model.Key;
+import com.amazonaws.services.dynamodb.model.KeySchema;
+import com.amazonaws.services.dynamodb.model.KeySchemaElement;
+import com.amazonaws.services.dynamodb.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodb.model.ListTablesRequest;
+import com.amazonaws.services.dynamodb.model.ListTablesResult;
+import com.amazonaws.services.dynamodb.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodb.model.ProvisionedThroughputDescription;
+import com.amazonaws.services.dynamodb.model.PutItemRequest;
+import com.amazonaws.services.dynamodb.model.PutItemResult;
+import com.amazonaws.services.dynamodb.model.PutRequest;
+import com.amazonaws.services.dynamodb.model.QueryRequest;
+import com.amazonaws.services.dynamodb.model.QueryResult;
+import com.amazonaws.services.dynamodb.model.ScanRequest;
+import com.amazonaws.services.dynamodb.model.ScanResult;
+import com.amazonaws.services.dynamodb.model.TableDescription;
+import com.amazonaws.services.dynamodb.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodb.model.UpdateItemResult;
+import com.amazonaws.services.dynamodb.model.UpdateTableRequest;
+import com.amazonaws.services.dynamodb.model.WriteRequest;
+
+/**
+ * Maps the operations of DynamoDB's 2011-12-05 JSON protocol between the wire and the SDK's request and result objects.
+ * Each operation reads its request with a JsonReader, runs it against an AmazonDynamoDB, and writes the result with a JsonWriter.
+ * Unknown members are skipped and null members are treated as absent, as the SDK's own unmarshallers do.
+ * @author gregfitzgerald
+ *
+ */
+final class DynamoDBJson {
+
+  /**
+   * The prefix of every X-Amz-Target this protocol serves.
+   */
+  static final String TARGET_PREFIX = "DynamoDB_20111205.";
+
+  private static final Map<String, Operation<?>> OPERATIONS = new HashMap<String, Operation<?>>();
+
+  private DynamoDBJson() {
+  }
+
+  /**
+   * One operation of the protocol.
+   * @param <REQUEST>
+   */
+  abstract static class Operation<REQUEST> {
+
+    /**
+     * Read the operation's request.
+     * @param in
+     * @return
+     */
+    abstract REQUEST read(JsonReader in);
+
+    /**
+     * Run request against client and write its result.
+     * @param client
+     * @param request
+     * @param out
+     */
+    abstract void invoke(AmazonDynamoDB client, REQUEST request, JsonWriter out);
+
+    /**
+     * Read the request from in, run it and write its result to out.
+     * @param client
+     * @param in
+     * @param out
+     */
+    void invoke(final AmazonDynamoDB client, final JsonReader in, final JsonWriter out) {
+      final REQUEST request = read(in);
+      in.endDocument();
+      invoke(client, request, out);
+    }
+  }
+
+  /**
+   * Return the operation named by an X-Amz-Target header, or null if there is none.
+   * @param target
+   * @return
+   */
+  static Operation<?> operation(final String target) {
+    if (target == null || !target.startsWith(TARGET_PREFIX)) {
+      return null;
+    }
+    return OPERATIONS.get(target.substring(TARGET_PREFIX.length()));
+  }
+
+  static {
+    OPERATIONS.put("CreateTable", new Operation<CreateTableRequest>() {
+      @Override
+      CreateTableRequest read(final JsonReader in) {
+        final CreateTableRequest request = new CreateTableRequest();
+        in.beginObject();
+        while (in.hasNext()) {
+          final String name = in.nextName();
+          if (in.nextIfNull()) {
+            continue;
+          } else if ("TableName".equals(name)) {
+            request.setTableName(in.nextString());
+          } else if ("KeySchema".equals(name)) {
+            request.setKeySchema(readKeySchema(in));
+          } else if ("ProvisionedThroughput".equals(name)) {
+            request.setProvisionedThroughput(readProvisionedThroughput(in));
+          } else {
+            in.skipValue();
+          }
+        }
+        in.endObject();
+        return request;
+      }
+
+      @Override
+      void invoke(final AmazonDynamoDB client, final CreateTableRequest request, final JsonWriter out) {
+        out.beginObject();
+        writeTableDescription(out, "TableDescription", client.createTable(request).getTableDescription());
+        out.endObject();
+      }
+    });
+
+    OPERATIONS.put("DeleteTable", new Operation<DeleteTableRequest>() {
+      @Override
+      DeleteTableRequest read(final JsonReader in) {
+        return new DeleteTableRequest().withTableName(readTableName(in));
+      }
+
+      @Override
+      void invoke(final AmazonDynamoDB client, final DeleteTableRequest request, final JsonWriter out) {
+        out.beginObject();
+        writeTableDescription(out, "TableDescription", client.deleteTable(request).getTableDescription());
+        out.endObject();
+      }
+    });
+
+    OPERATIONS.put("DescribeTable", new Operation<DescribeTableRequest>() {
+      @Override
+      DescribeTableRequest read(final JsonReader in) {
+        return new DescribeTableRequest().withTableName(readTableName(in));
+      }
+
+      @Override
+      void invoke(final AmazonDynamoDB client, final DescribeTableRequest request, final JsonWriter out) {
+        out.beginObject();
+        writeTableDescription(out, "Table", client.describeTable(request).getTable());
+        out.endObject();
+      }
+    });
+
+    OPERATIONS.put("UpdateTable", new Operation<UpdateTableRequest>() {
+      @Override
+      UpdateTableRequest read(final JsonReader in) {
+        final UpdateTableRequest request = new UpdateTableRequest();
+        in.beginObject();
+        while (in.hasNext()) {
+          final String name = in.nextName();
+          if (in.nextIfNull()) {
+            continue;
+          } else if ("TableName".equals(name)) {
+            request.setTableName(in.nextString());
+          } else if ("ProvisionedThroughput".equals(name)) {
+            request.setProvisionedThroughput(readProvisionedThroughput(in));
+          } else {
+            in.skipValue();
+          }
+        }
+        in.endObject();
+        return request;
+      }
+
+      @Override
+      void invoke(final AmazonDynamoDB client, final UpdateTableRequest request, final JsonWriter out) {
+        out.beginObject();
+        writeTableDescription(out, "TableDescription", client.updateTable(request).getTableDescription());
+        out.endObject();
+      }
+    });
+
+    OPERATIONS.put("ListTables", new Operation<ListTablesRequest>() {
+      @Override
+      ListTablesRequest read(final JsonReader in) {
+        final ListTablesRequest request = new ListTablesRequest();
+        in.beginObject();
+        while (in.hasNext()) {
+          final String name = in.nextName();
+          if (in.nextIfNull()) {
+            continue;
+          } else if ("ExclusiveStartTableName".equals(name)) {
+            request.setExclusiveStartTableName(in.nextString());
+          } else if ("Limit".equals(name)) {
+            request.setLimit(in.nextInt());
+          } else {
+            in.skipValue();
+          }
+        }
+        in.endObject();
+        return request;
+      }
+
+      @Override
+      void invoke(final AmazonDynamoDB client, final ListTablesRequest request, final JsonWriter out) {
+        final ListTablesResult result = client.listTables(request);
+        out.beginObject();
+        if (result.getTableNames() != null) {
+          out.name("TableNames").value(result.getTableNames());
+        }
+        if (result.getLastEvaluatedTableName() != null) {
+          out.name("LastEvaluatedTableName").value(result.getLastEvaluatedTableName());
+        }
+        out.endObject();
+      }
+    });
+
+    OPERATIONS.put("PutItem", new Operation<PutItemRequest>() {
+      @Override
+      PutItemRequest read(final JsonReader in) {
+        final PutItemRequest request = new PutItemRequest();
+        in.beginObject();
+        while (in.hasNext()) {
+          final String name = in.nextName();
+          if (in.nextIfNull()) {
+            continue;
+          } else if ("TableName".equals(name)) {
+            request.setTableName(in.nextString());
+          } else if ("Item".equals(name)) {
+            request.setItem(readItem(in));
+          } else if ("Expected".equals(name)) {
+            request.setExpected(readExpected(in));
+          } else if ("ReturnValues".equals(name)) {
+            request.setReturnValues(in.nextString());
+          } else {
+            in.skipValue();
+          }
+        }
+        in.endObject();
+        return request;
+      }
+
+      @Override
+      void invoke(final AmazonDynamoDB client, final PutItemRequest request, final JsonWriter out) {
+        final PutItemResult result = client.putItem(request);
+        writeItemResult(out, "Attributes", result.getAttributes(), result.getConsumedCapacityUnits());
+      }
+    });
+
+    OPERATIONS.put("GetItem", new Operation<GetItemRequest>() {
+      @Override
+      GetItemRequest read(final JsonReader in) {
+        final GetItemRequest request = new GetItemRequest();
+        in.beginObject();
+        while (in.hasNext()) {
+          final String name = in.nextName();
+          if (in.nextIfNull()) {
+            continue;
+          } else if ("TableName".equals(name)) {
+            request.setTableName(in.nextString());
+          } else if ("Key".equals(name)) {
+            request.setKey(readKey(in));
+          } else if ("AttributesToGet".equals(name)) {
+            request.setAttributesToGet(in.nextStringList());
+          } else if ("ConsistentRead".equals(name)) {
+            request.setConsistentRead(in.nextBoolean());
+          } else {
+            in.skipValue();
+          }
+        }
+        in.endObject();
+        return request;
+      }
+
+      @Override
+      void invoke(final AmazonDynamoDB client, final GetItemRequest request, final JsonWriter out) {
+        final GetItemResult result = client.getItem(request);
+        writeItemResult(out, "Item", result.getItem(), result.getConsumedCapacityUnits());
+      }
+    });
+
+    OPERATIONS.put("UpdateItem", new Operation<UpdateItemRequest>() {
+      @Override
+      UpdateItemRequest read(final JsonReader in) {
+        final UpdateItemRequest request = new UpdateItemRequest();
+        in.beginObject();
+        while (in.hasNext()) {
+          final String name = in.nextName();
+          if (in.nextIfNull()) {
+            continue;
+          } else if ("TableName".equals(name)) {
+            request.setTableName(in.nextString());
+          } else if ("Key".equals(name)) {
+            request.setKey(readKey(in));
+          } else if ("AttributeUpdates".equals(name)) {
+            request.setAttributeUpdates(readAttributeUpdates(in));
+          } else if ("Expected".equals(name)) {
+            request.setExpected(readExpected(in));
+          } else if ("ReturnValues".equals(name)) {
+            request.setReturnValues(in.nextString());
+          } else {
+            in.skipValue();
+          }
+        }
+        in.endObject();
+        return request;
+      }
+
+      @Override
+      void invoke(final AmazonDynamoDB client, final UpdateItemRequest request, final JsonWriter out) {
+        final UpdateItemResult result = client.updateItem(request);
+        writeItemResult(out, "Attributes", result.getAttributes(), result.getConsumedCapacityUnits());
+      }
+    });
+
+    OPERATIONS.put("DeleteItem", new Operation<DeleteItemRequest>() {
+      @Override
+      DeleteItemRequest read(final JsonReader in) {
+        final DeleteItemRequest request = new DeleteItemRequest();
+        in.beginObject();
+        while (in.hasNext()) {
+          final String name = in.nextName();
+          if (in.nextIfNull()) {
+            continue;
+          } else if ("TableName".equals(name)) {
+            request.setTableName(in.nextString());
+          } else if ("Key".equals(name)) {
+            request.setKey(readKey(in));
+          } else if ("Expected".equals(name)) {
+            request.setExpected(readExpected(in));
+          } else if ("ReturnValues".equals(name)) {
+            request.setReturnValues(in.nextString());
+          } else {
+            in.skipValue();
+          }
+        }
+        in.endObject();
+        return request;
+      }
+
+      @Override
+      void invoke(final AmazonDynamoDB client, final DeleteItemRequest request, final JsonWriter out) {
+        final DeleteItemResult result = client.deleteItem(request);
+        writeItemResult(out, "Attributes", result.getAttributes(), result.getConsumedCapacityUnits());
+      }
+    });
+
+    OPERATIONS.put("Query", new Operation<QueryRequest>() {
+      @Override
+      QueryRequest read(final JsonReader in) {
+        final QueryRequest request = new QueryRequest();
+        in.beginObject();
+        while (in.hasNext()) {
+          final String name = in.nextName();
+          if (in.nextIfNull()) {
+            continue;
+          } else if ("TableName".equals(name)) {
+            request.setTableName(in.nextString());
+          } else if ("AttributesToGet".equals(name)) {
+            request.setAttributesToGet(in.nextStringList());
+          } else if ("Limit".equals(name)) {
+            request.setLimit(in.nextInt());
+          } else if ("ConsistentRead".equals(name)) {
+            request.setConsistentRead(in.nextBoolean());
+          } else if ("Count".equals(name)) {
+            request.setCount(in.nextBoolean());
+          } else if ("HashKeyValue".equals(name)) {
+            request.setHashKeyValue(readAttributeValue(in));
+          } else if ("RangeKeyCondition".equals(name)) {
+            request.setRangeKeyCondition(readCondition(in));
+          } else if ("ScanIndexForward".equals(name)) {
+            request.setScanIndexForward(in.nextBoolean());
+          } else if ("ExclusiveStartKey".equals(name)) {
+            request.setExclusiveStartKey(readKey(in));
+          } else {
+            in.skipValue();
+          }
+        }
+        in.endObject();
+        return request;
+      }
+
+      @Override
+      void invoke(final AmazonDynamoDB client, final QueryRequest request, final JsonWriter out) {
+        final QueryResult result = client.query(request);
+        out.beginObject();
+        writeItems(out, result.getItems(), request.getCount());
+        writeCount(out, "Count", result.getCount());
+        writeKey(out, "LastEvaluatedKey", result.getLastEvaluatedKey());
+        writeConsumedCapacityUnits(out, result.getConsumedCapacityUnits());
+        out.endObject();
+      }
+    });
+
+    OPERATIONS.put("Scan", new Operation<ScanRequest>() {
+      @Override
+      ScanRequest read(final JsonReader in) {
+        final ScanRequest request = new ScanRequest();
+        in.beginObject();
+        while (in.hasNext()) {
+          final String name = in.nextName();
+          if (in.nextIfNull()) {
+            continue;
+          } else if ("TableName".equals(name)) {
+            request.setTableName(in.nextString());
+          } else if ("AttributesToGet".equals(name)) {
+            request.setAttributesToGet(in.nextStringList());
+          } else if ("Limit".equals(name)) {
+            request.setLimit(in.nextInt());
+          } else if ("Count".equals(name)) {
+            request.setCount(in.nextBoolean());
+          } else if ("ScanFilter".equals(name)) {
+            request.setScanFilter(readConditions(in));
+          } else if ("ExclusiveStartKey".equals(name)) {
+            request.setExclusiveStartKey(readKey(in));
+          } else {
+            in.skipValue();
+          }
+        }
+        in.endObject();
+        return request;
+      }
+
+      @Override
+      void invoke(final AmazonDynamoDB client, final ScanRequest request, final JsonWriter out) {
+        final ScanResult result = client.scan(request);
+        out.beginObject();
+        writeItems(out, result.getItems(), request.getCount());
+        writeCount(out, "Count", result.getCount());
+        writeCount(out, "ScannedCount", result.getScannedCount());
+        writeKey(out, "LastEvaluatedKey", result.getLastEvaluatedKey());
+        writeConsumedCapacityUnits(out, result.getConsumedCapacityUnits());
+        out.endObject();
+      }
+    });
+
+    OPERATIONS.put("BatchGetItem", new Operation<BatchGetItemRequest>() {
+      @Override
+      BatchGetItemRequest read(final JsonReader in) {
+        final BatchGetItemRequest request = new BatchGetItemRequest();
+        in.beginObject();
+        while (in.hasNext()) {
+          final String name = in.nextName();
+          if (in.nextIfNull()) {
+            continue;
+          } else if ("RequestItems".equals(name)) {
+            final Map<String, KeysAndAttributes> requestItems = new LinkedHashMap<String, KeysAndAttributes>();
+            in.beginObject();
+            while (in.hasNext()) {
+              final String tableName = in.nextName();
+              requestItems.put(tableName, in.nextIfNull() ? null : readKeysAndAttributes(in));
+            }
+            in.endObject();
+            request.setRequestItems(requestItems);
+          } else {
+            in.skipValue();
+          }
+        }
+        in.endObject();
+        return request;
+      }
+
+      @Override
+      void invoke(final AmazonDynamoDB client, final BatchGetItemRequest request, final JsonWriter out) {
+        final BatchGetItemResult result = client.batchGetItem(request);
+        out.beginObject();
+        out.name("Responses").beginObject();
+        if (result.getResponses() != null) {
+          for (Entry<String, BatchResponse> entry : result.getResponses().entrySet()) {
+            out.name(entry.getKey()).beginObject();
+            writeItems(out, entry.getValue().getItems(), null);
+            writeConsumedCapacityUnits(out, entry.getValue().getConsumedCapacityUnits());
+            out.endObject();
+          }
+        }
+        out.endObject();
+        out.name("UnprocessedKeys").beginObject();
+        if (result.getUnprocessedKeys() != null) {
+          for (Entry<String, KeysAndAttributes> entry : result.getUnprocessedKeys().entrySet()) {
+            out.name(entry.getKey());
+            writeKeysAndAttributes(out, entry.getValue());
+          }
+        }
+        out.endObject();
+        out.endObject();
+      }
+    });
+
+    OPERATIONS.put("BatchWriteItem", new Operation<BatchWriteItemRequest>() {
+      @Override
+      BatchWriteItemRequest read(final JsonReader in) {
+        final BatchWriteItemRequest request = new BatchWriteItemRequest();
+        in.beginObject();
+        while (in.hasNext()) {
+          final String name = in.nextName();
+          if (in.nextIfNull()) {
+            continue;
+          } else if ("RequestItems".equals(name)) {
+            final Map<String, List<WriteRequest>> requestItems = new LinkedHashMap<String, List<WriteRequest>>();
+            in.beginObject();
+            while (in.hasNext()) {
+              final String tableName = in.nextName();
+              if (in.nextIfNull()) {
+                requestItems.put(tableName, null);
+                continue;
+              }
+              final List<WriteRequest> writeRequests = new ArrayList<WriteRequest>();
+              in.beginArray();
+              while (in.hasNext()) {
+                writeRequests.add(readWriteRequest(in));
+              }
+              in.endArray();
+              requestItems.put(tableName, writeRequests);
+            }
+            in.endObject();
+            request.setRequestItems(requestItems);
+          } else {
+            in.skipValue();
+          }
+        }
+        in.endObject();
+        return request;
+      }
+
+      @Override
+      void invoke(final AmazonDynamoDB client, final BatchWriteItemRequest request, final JsonWriter out) {
+        final BatchWriteItemResult result = client.batchWriteItem(request);
+        out.beginObject();
+        out.name("Responses").beginObject();
+        if (result.getResponses() != null) {
+          for (Entry<String, BatchWriteResponse> entry : result.getResponses().entrySet()) {
+            out.name(entry.getKey()).beginObject();
+            writeConsumedCapacityUnits(out, entry.getValue().getConsumedCapacityUnits());
+            out.endObject();
+          }
+        }
+        out.endObject();
+        out.name("UnprocessedItems").beginObject();
+        if (result.getUnprocessedItems() != null) {
+          for (Entry<String, List<WriteRequest>> entry : result.getUnprocessedItems().entrySet()) {
+            out.name(entry.getKey()).beginArray();
+            for (WriteRequest writeRequest : entry.getValue()) {
+              writeWriteRequest(out, writeRequest);
+            }
+            out.endArray();
+          }
+        }
+        out.endObject();
+        out.endObject();
+      }
+    });
+  }
+
+  private static String readTableName(final JsonReader in) {
+    String tableName = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      final String name = in.nextName();
+      if (in.nextIfNull()) {
+        continue;
+      } else if ("TableName".equals(name)) {
+        tableName = in.nextString();
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    return tableName;
+  }
+
+  static AttributeValue readAttributeValue(final JsonReader in) {
+    final AttributeValue value = new AttributeValue();
+    in.beginObject();
+    while (in.hasNext()) {
+      final String name = in.nextName();
+      if (in.nextIfNull()) {
+        continue;
+      } else if ("S".equals(name)) {
+        value.setS(in.nextString());
+      } else if ("N".equals(name)) {
+        value.setN(in.nextString());
+      } else if ("SS".equals(name)) {
+        value.setSS(in.nextStringList());
+      } else if ("NS".equals(name)) {
+        value.setNS(in.nextStringList());
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    return value;
+  }
+
+  static Map<String, AttributeValue> readItem(final JsonReader in) {
+    final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+    in.beginObject();
+    while (in.hasNext()) {
+      final String name = in.nextName();
+      if (!in.nextIfNull()) {
+        item.put(name, readAttributeValue(in));
+      }
+    }
+    in.endObject();
+    return item;
+  }
+
+  static Key readKey(final JsonReader in) {
+    final Key key = new Key();
+    in.beginObject();
+    while (in.hasNext()) {
+      final String name = in.nextName();
+      if (in.nextIfNull()) {
+        continue;
+      } else if ("HashKeyElement".equals(name)) {
+        key.setHashKeyElement(readAttributeValue(in));
+      } else if ("RangeKeyElement".equals(name)) {
+        key.setRangeKeyElement(readAttributeValue(in));
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    return key;
+  }
+
+  private static Condition readCondition(final JsonReader in) {
+    final Condition condition = new Condition();
+    in.beginObject();
+    while (in.hasNext()) {
+      final String name = in.nextName();
+      if (in.nextIfNull()) {
+        continue;
+      } else if ("AttributeValueList".equals(name)) {
+        final List<AttributeValue> values = new ArrayList<AttributeValue>();
+        in.beginArray();
+        while (in.hasNext()) {
+          values.add(readAttributeValue(in));
+        }
+        in.endArray();
+        condition.setAttributeValueList(values);
+      } else if ("ComparisonOperator".equals(name)) {
+        condition.setComparisonOperator(in.nextString());
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    return condition;
+  }
+
+  private static Map<String, Condition> readConditions(final JsonReader in) {
+    final Map<String, Condition> conditions = new HashMap<String, Condition>();
+    in.beginObject();
+    while (in.hasNext()) {
+      final String name = in.nextName();
+      if (!in.nextIfNull()) {
+        conditions.put(name, readCondition(in));
+      }
+    }
+    in.endObject();
+    return conditions;
+  }
+
+  private static Map<String, ExpectedAttributeValue> readExpected(final JsonReader in) {
+    final Map<String, ExpectedAttributeValue> expected = new HashMap<String, ExpectedAttributeValue>();
+    in.beginObject();
+    while (in.hasNext()) {
+      final String attributeName = in.nextName();
+      if (in.nextIfNull()) {
+        continue;
+      }
+      final ExpectedAttributeValue value = new ExpectedAttributeValue();
+      in.beginObject();
+      while (in.hasNext()) {
+        final String name = in.nextName();
+        if (in.nextIfNull()) {
+          continue;
+        } else if ("Value".equals(name)) {
+          value.setValue(readAttributeValue(in));
+        } else if ("Exists".equals(name)) {
+          value.setExists(in.nextBoolean());
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+      expected.put(attributeName, value);
+    }
+    in.endObject();
+    return expected;
+  }
+
+  private static Map<String, AttributeValueUpdate> readAttributeUpdates(final JsonReader in) {
+    final Map<String, AttributeValueUpdate> updates = new HashMap<String, AttributeValueUpdate>();
+    in.beginObject();
+    while (in.hasNext()) {
+      final String attributeName = in.nextName();
+      if (in.nextIfNull()) {
+        continue;
+      }
+      final AttributeValueUpdate update = new AttributeValueUpdate();
+      in.beginObject();
+      while (in.hasNext()) {
+        final String name = in.nextName();
+        if (in.nextIfNull()) {
+          continue;
+        } else if ("Value".equals(name)) {
+          update.setValue(readAttributeValue(in));
+        } else if ("Action".equals(name)) {
+          update.setAction(in.nextString());
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+      updates.put(attributeName, update);
+    }
+    in.endObject();
+    return updates;
+  }
+
+  private static KeySchema readKeySchema(final JsonReader in) {
+    final KeySchema keySchema = new KeySchema();
+    in.beginObject();
+    while (in.hasNext()) {
+      final String name = in.nextName();
+      if (in.nextIfNull()) {
+        continue;
+      } else if ("HashKeyElement".equals(name)) {
+        keySchema.setHashKeyElement(readKeySchemaElement(in));
+      } else if ("RangeKeyElement".equals(name)) {
+        keySchema.setRangeKeyElement(readKeySchemaElement(in));
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    return keySchema;
+  }
+
+  private static KeySchemaElement readKeySchemaElement(final JsonReader in) {
+    final KeySchemaElement element = new KeySchemaElement();
+    in.beginObject();
+    while (in.hasNext()) {
+      final String name = in.nextName();
+      if (in.nextIfNull()) {
+        continue;
+      } else if ("AttributeName".equals(name)) {
+        element.setAttributeName(in.nextString());
+      } else if ("AttributeType".equals(name)) {
+        element.setAttributeType(in.nextString());
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    return element;
+  }
+
+  private static ProvisionedThroughput readProvisionedThroughput(final JsonReader in) {
+    final ProvisionedThroughput throughput = new ProvisionedThroughput();
+    in.beginObject();
+    while (in.hasNext()) {
+      final String name = in.nextName();
+      if (in.nextIfNull()) {
+        continue;
+      } else if ("ReadCapacityUnits".equals(name)) {
+        throughput.setReadCapacityUnits(in.nextLong());
+      } else if ("WriteCapacityUnits".equals(name)) {
+        throughput.setWriteCapacityUnits(in.nextLong());
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    return throughput;
+  }
+
+  private static KeysAndAttributes readKeysAndAttributes(final JsonReader in) {
+    final KeysAndAttributes keysAndAttributes = new KeysAndAttributes();
+    in.beginObject();
+    while (in.hasNext()) {
+      final String name = in.nextName();
+      if (in.nextIfNull()) {
+        continue;
+      } else if ("Keys".equals(name)) {
+        final List<Key> keys = new ArrayList<Key>();
+        in.beginArray();
+        while (in.hasNext()) {
+          keys.add(readKey(in));
+        }
+        in.endArray();
+        keysAndAttributes.setKeys(keys);
+      } else if ("AttributesToGet".equals(name)) {
+        keysAndAttributes.setAttributesToGet(in.nextStringList());
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    return keysAndAttributes;
+  }
+
+  private static WriteRequest readWriteRequest(final JsonReader in) {
+    final WriteRequest writeRequest = new WriteRequest();
+    in.beginObject();
+    while (in.hasNext()) {
+      final String name = in.nextName();
+      if (in.nextIfNull()) {
+        continue;
+      } else if ("PutRequest".equals(name)) {
+        final PutRequest putRequest = new PutRequest();
+        in.beginObject();
+        while (in.hasNext()) {
+          final String member = in.nextName();
+          if (in.nextIfNull()) {
+            continue;
+          } else if ("Item".equals(member)) {
+            putRequest.setItem(readItem(in));
+          } else {
+            in.skipValue();
+          }
+        }
+        in.endObject();
+        writeRequest.setPutRequest(putRequest);
+      } else if ("DeleteRequest".equals(name)) {
+        final DeleteRequest deleteRequest = new DeleteRequest();
+        in.beginObject();
+        while (in.hasNext()) {
+          final String member = in.nextName();
+          if (in.nextIfNull()) {
+            continue;
+          } else if ("Key".equals(member)) {
+            deleteRequest.setKey(readKey(in));
+          } else {
+            in.skipValue();
+          }
+        }
+        in.endObject();
+        writeRequest.setDeleteRequest(deleteRequest);
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    return writeRequest;
+  }
+
+  static void writeAttributeValue(final JsonWriter out, final AttributeValue value) {
+    out.beginObject();
+    if (value.getS() != null) {
+      out.name("S").value(value.getS());
+    }
+    if (value.getN() != null) {
+      out.name("N").value(value.getN());
+    }
+    if (value.getSS() != null) {
+      out.name("SS").value(value.getSS());
+    }
+    if (value.getNS() != null) {
+      out.name("NS").value(value.getNS());
+    }
+    out.endObject();
+  }
+
+  static void writeItem(final JsonWriter out, final Map<String, AttributeValue> item) {
+    out.beginObject();
+    for (Entry<String, AttributeValue> entry : item.entrySet()) {
+      out.name(entry.getKey());
+      writeAttributeValue(out, entry.getValue());
+    }
+    out.endObject();
+  }
+
+  /**
+   * Write the Items of a query, scan or batch response, unless only the count was asked for.
+   * @param out
+   * @param items
+   * @param count
+   */
+  private static void writeItems(final JsonWriter out, final List<Map<String, AttributeValue>> items, final Boolean count) {
+    if (items == null || Boolean.TRUE.equals(count)) {
+      return;
+    }
+    out.name("Items").beginArray();
+    for (Map<String, AttributeValue> item : items) {
+      writeItem(out, item);
+    }
+    out.endArray();
+  }
+
+  private static void writeItemResult(final JsonWriter out, final String itemName, final Map<String, AttributeValue> item,
+      final Double consumedCapacityUnits) {
+    out.beginObject();
+    if (item != null) {
+      out.name(itemName);
+      writeItem(out, item);
+    }
+    writeConsumedCapacityUnits(out, consumedCapacityUnits);
+    out.endObject();
+  }
+
+  private static void writeKey(final JsonWriter out, final String name, final Key key) {
+    if (key != null) {
+      out.name(name);
+      writeKey(out, key);
+    }
+  }
+
+  private static void writeKey(final JsonWriter out, final Key key) {
+    out.beginObject();
+    if (key.getHashKeyElement() != null) {
+      out.name("HashKeyElement");
+      writeAttributeValue(out, key.getHashKeyElement());
+    }
+    if (key.getRangeKeyElement() != null) {
+      out.name("RangeKeyElement");
+      writeAttributeValue(out, key.getRangeKeyElement());
+    }
+    out.endObject();
+  }
+
+  private static void writeCount(final JsonWriter out, final String name, final Integer count) {
+    if (count != null) {
+      out.name(name).value(count.longValue());
+    }
+  }
+
+  private static void writeConsumedCapacityUnits(final JsonWriter out, final Double consumedCapacityUnits) {
+    if (consumedCapacityUnits != null && !consumedCapacityUnits.isNaN() && !consumedCapacityUnits.isInfinite()) {
+      out.name("ConsumedCapacityUnits").value(consumedCapacityUnits);
+    }
+  }
+
+  private static void writeKeysAndAttributes(final JsonWriter out, final KeysAndAttributes keysAndAttributes) {
+    out.beginObject();
+    if (keysAndAttributes.getKeys() != null) {
+      out.name("Keys").beginArray();
+      for (Key key : keysAndAttributes.getKeys()) {
+        writeKey(out, key);
+      }
+      out.endArray();
+    }
+    if (keysAndAttributes.getAttributesToGet() != null) {
+      out.name("AttributesToGet").value(keysAndAttributes.getAttributesToGet());
+    }
+    out.endObject();
+  }
+
+  private static void writeWriteRequest(final JsonWriter out, final WriteRequest writeRequest) {
+    out.beginObject();
+    if (writeRequest.getPutRequest() != null) {
+      out.name("PutRequest").beginObject().name("Item");
+      writeItem(out, writeRequest.getPutRequest().getItem());
+      out.endObject();
+    }
+    if (writeRequest.getDeleteRequest() != null) {
+      out.name("DeleteRequest").beginObject();
+      writeKey(out, "Key", writeRequest.getDeleteRequest().getKey());
+      out.endObject();
+    }
+    out.endObject();
+  }
+
+  private static void writeTableDescription(final JsonWriter out, final String name, final TableDescription table) {
+    if (table == null) {
+      return;
+    }
+    out.name(name).beginObject();
+    if (table.getTableName() != null) {
+      out.name("TableName").value(table.getTableName());
+    }
+    if (table.getKeySchema() != null) {
+      out.name("KeySchema").beginObject();
+      writeKeySchemaElement(out, "HashKeyElement", table.getKeySchema().getHashKeyElement());
+      writeKeySchemaElement(out, "RangeKeyElement", table.getKeySchema().getRangeKeyElement());
+      out.endObject();
+    }
+    if (table.getTableStatus() != null) {
+      out.name("TableStatus").value(table.getTableStatus());
+    }
+    writeDate(out, "CreationDateTime", table.getCreationDateTime());
+    final ProvisionedThroughputDescription throughput = table.getProvisionedThroughput();
+    if (throughput != null) {
+      out.name("ProvisionedThroughput").beginObject();
+      writeDate(out, "LastIncreaseDateTime", throughput.getLastIncreaseDateTime());
+      writeDate(out, "LastDecreaseDateTime", throughput.getLastDecreaseDateTime());
+      if (throughput.getReadCapacityUnits() != null) {
+        out.name("ReadCapacityUnits").value(throughput.getReadCapacityUnits());
+      }
+      if (throughput.getWriteCapacityUnits() != null) {
+        out.name("WriteCapacityUnits").value(throughput.getWriteCapacityUnits());
+      }
+      out.endObject();
+    }
+    if (table.getTableSizeBytes() != null) {
+      out.name("TableSizeBytes").value(table.getTableSizeBytes());
+    }
+    if (table.getItemCount() != null) {
+      out.name("ItemCount").value(table.getItemCount());
+    }
+    out.endObject();
+  }
+
+  private static void writeKeySchemaElement(final JsonWriter out, final String name, final KeySchemaElement element) {
+    if (element == null) {
+      return;
+    }
+    out.name(name).beginObject();
+    if (element.getAttributeName() != null) {
+      out.name("AttributeName").value(element.getAttributeName());
+    }
+    if (element.getAttributeType() != null) {
+      out.name("AttributeType").value(element.getAttributeType());
+    }
+    out.endObject();
+  }
+
+  /**
+   * Write a date as whole seconds since the epoch; the SDK reads dates with a NumberFormat, which would stop at an exponent.
+   * @param out
+   * @param name
+   * @param date
+   */
+  private static void writeDate(final JsonWriter out, final String name, final Date date) {
+    if (date != null) {
+      out.name(name).value(date.getTime() / 1000);
+    }
+  }
+}
@@ -0,0 +1,564 @@
+package com.bizo.aws.dynamock.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodb.AmazonDynamoDB;
+import com.bizo.aws.dynamock.DynamockDBClient;
+import com.bizo.aws.dynamock.DynamockDBTableManager;
+import com.bizo.aws.dynamock.hashmap.DynamockDBTableManagerHashMapImpl;
+
+/**
+ * Serves an AmazonDynamoDB, normally a DynamockDBClient, over DynamoDB's JSON-over-HTTP protocol, so that the SDK's own
+ * AmazonDynamoDBClient (pointed at the server with setEndpoint) and clients in other languages can share one store.
+ *
+ * A single thread runs a non-blocking accept and I/O loop.  Each POST is dispatched on its X-Amz-Target header
+ * (see DynamoDBJson) and run on the executor, and its response is queued behind the connection's earlier responses,
+ * so connections may be kept alive and requests pipelined.  Requests aren't signed or authorized.
+ * @author gregfitzgerald
+ *
+ */
+public class DynamockDBServer implements Closeable {
+
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+  private static final int MAX_HEADER_SIZE = 64 * 1024;
+  private static final int MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+  private static final int MAX_PIPELINED_REQUESTS = 64;
+  private static final String ERROR_TYPE_PREFIX = "com.amazonaws.dynamodb.v20111205#";
+
+  private final AmazonDynamoDB client;
+  private final InetSocketAddress address;
+  private final Executor executor;
+  private final ConcurrentLinkedQueue<Connection> completed = new ConcurrentLinkedQueue<Connection>();
+  private final AtomicLong requestIds = new AtomicLong();
+  private final ThreadLocal<JsonWriter> writers = new ThreadLocal<JsonWriter>() {
+    @Override
+    protected JsonWriter initialValue() {
+      return new JsonWriter(8192);
+    }
+  };
+
+  private Selector selector;
+  private ServerSocketChannel serverChannel;
+  private Thread loop;
+  private volatile boolean running;
+
+  /**
+   * Serve the tables of tableManager on the loopback address, running requests on the common fork-join pool.
+   * @param tableManager
+   * @param port the port to listen on, or 0 for any free port
+   */
+  public DynamockDBServer(final DynamockDBTableManager tableManager, final int port) {
+    this(new DynamockDBClient(tableManager), new InetSocketAddress(InetAddress.getLoopbackAddress(), port), ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Serve client on address, running requests on executor.
+   * @param client
+   * @param address
+   * @param executor
+   */
+  public DynamockDBServer(final AmazonDynamoDB client, final InetSocketAddress address, final Executor executor) {
+    this.client = client;
+    this.address = address;
+    this.executor = executor;
+  }
+
+  /**
+   * Bind the server socket and start the I/O loop.
+   * @throws IOException
+   */
+  public synchronized void start() throws IOException {
+    if (running) {
+      throw new IllegalStateException("The server is already running");
+    }
+
+    selector = Selector.open();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.configureBlocking(false);
+    serverChannel.socket().setReuseAddress(true);
+    serverChannel.socket().bind(address, 1024);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+    running = true;
+    loop = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runLoop();
+      }
+    }, "dynamock-server-" + getPort());
+    loop.start();
+  }
+
+  /**
+   * Return the port the server is bound to.
+   * @return
+   */
+  public int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * Stop the I/O loop and close every connection.  Requests still running complete, but their responses are dropped.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (!running) {
+      return;
+    }
+    running = false;
+    selector.wakeup();
+    try {
+      loop.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void runLoop() {
+    try {
+      while (running) {
+        selector.select();
+
+        Connection connection;
+        while ((connection = completed.poll()) != null) {
+          connection.flushQuietly();
+        }
+
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+
+          if (key.isAcceptable()) {
+            try {
+              accept();
+            } catch (IOException e) {
+              // such as running out of file descriptors; the connection is refused but the server carries on
+            }
+            continue;
+          }
+
+          connection = (Connection)key.attachment();
+          try {
+            if (key.isReadable()) {
+              connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+              connection.flush();
+            }
+          } catch (IOException e) {
+            connection.close();
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("The server loop failed", e);
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        closeQuietly(key.channel());
+      }
+      closeQuietly(selector);
+    }
+  }
+
+  private void accept() throws IOException {
+    final SocketChannel channel = serverChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      final Connection connection = new Connection(channel);
+      connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    } catch (IOException e) {
+      closeQuietly(channel);
+      throw e;
+    }
+  }
+
+  /**
+   * Run the operation named by target on body and build the HTTP response.
+   * @param target
+   * @param body
+   * @param close
+   * @return
+   */
+  private ByteBuffer handle(final String target, final byte[] body, final boolean close) {
+    final JsonWriter out = writers.get();
+    out.reset();
+
+    final DynamoDBJson.Operation<?> operation = DynamoDBJson.operation(target);
+    if (operation == null) {
+      return errorResponse(out, 400, "UnknownOperationException", null, close);
+    }
+
+    try {
+      // an empty body is an empty request, as the SDK sends for ListTables
+      final JsonReader in = (body.length == 0) ? new JsonReader(new byte[] {'{', '}'}, 0, 2) : new JsonReader(body, 0, body.length);
+      operation.invoke(client, in, out);
+      return response(200, out, close);
+    } catch (JsonReader.SyntaxException e) {
+      return errorResponse(out, 400, "SerializationException", e.getMessage(), close);
+    } catch (AmazonServiceException e) {
+      final int status = (e.getStatusCode() >= 400) ? e.getStatusCode() : 400;
+      final String errorCode = (e.getErrorCode() != null) ? e.getErrorCode() : "ValidationException";
+      return errorResponse(out, status, errorCode, e.getMessage(), close);
+    } catch (AmazonClientException e) {
+      return errorResponse(out, 400, "ValidationException", e.getMessage(), close);
+    } catch (IllegalArgumentException e) {
+      return errorResponse(out, 400, "ValidationException", e.getMessage(), close);
+    } catch (UnsupportedOperationException e) {
+      return errorResponse(out, 400, "UnknownOperationException", target + " is not supported", close);
+    } catch (RuntimeException e) {
+      return errorResponse(out, 500, "InternalServerError", e.toString(), close);
+    }
+  }
+
+  private ByteBuffer errorResponse(final JsonWriter out, final int status, final String errorCode, final String message,
+      final boolean close) {
+    out.reset();
+    out.beginObject().name("__type").value(ERROR_TYPE_PREFIX + errorCode);
+    if (message != null) {
+      out.name("message").value(message);
+    }
+    out.endObject();
+    return response(status, out, close);
+  }
+
+  private ByteBuffer response(final int status, final JsonWriter body, final boolean close) {
+    final CRC32 crc = new CRC32();
+    crc.update(body.buffer(), 0, body.size());
+
+    final StringBuilder head = new StringBuilder(256)
+      .append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n")
+      .append("x-amzn-RequestId: ").append(Long.toHexString(requestIds.incrementAndGet())).append("\r\n")
+      .append("x-amz-crc32: ").append(crc.getValue()).append("\r\n")
+      .append("Content-Type: application/x-amz-json-1.0\r\n")
+      .append("Content-Length: ").append(body.size()).append("\r\n");
+    if (close) {
+      head.append("Connection: close\r\n");
+    }
+    head.append("\r\n");
+
+    final byte[] headBytes = head.toString().getBytes(ISO_8859_1);
+    final ByteBuffer response = ByteBuffer.allocate(headBytes.length + body.size());
+    response.put(headBytes).put(body.buffer(), 0, body.size());
+    response.flip();
+    return response;
+  }
+
+  private static ByteBuffer statusResponse(final int status, final boolean close) {
+    final String response = "HTTP/1.1 " + status + " " + reason(status) + "\r\n"
+        + ((status >= 200) ? "Content-Length: 0\r\n" : "") + (close ? "Connection: close\r\n" : "") + "\r\n";
+    return ByteBuffer.wrap(response.getBytes(ISO_8859_1));
+  }
+
+  private static String reason(final int status) {
+    switch (status) {
+      case 100:
+        return "Continue";
+      case 200:
+        return "OK";
+      case 400:
+        return "Bad Request";
+      case 411:
+        return "Length Required";
+      case 413:
+        return "Request Entity Too Large";
+      case 431:
+        return "Request Header Fields Too Large";
+      case 500:
+        return "Internal Server Error";
+      default:
+        return "Unknown";
+    }
+  }
+
+  private static void closeQuietly(final Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // nothing more to do
+    }
+  }
+
+  /**
+   * A request whose response is awaited, in the order the requests arrived on a connection.
+   */
+  private static final class Exchange {
+    private final boolean close;
+    private volatile ByteBuffer response;
+
+    Exchange(final boolean close) {
+      this.close = close;
+    }
+  }
+
+  /**
+   * The state of one client connection.  Everything but the responses of exchanges is touched only by the I/O loop.
+   */
+  private final class Connection {
+    private final SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer in = ByteBuffer.allocate(8192);
+    private final ArrayDeque<Exchange> exchanges = new ArrayDeque<Exchange>();
+    private ByteBuffer out;
+    // set once a request asks to close the connection, or the client shuts down its side
+    private boolean inputClosed;
+    private boolean continueSent;
+
+    Connection(final SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    void read() throws IOException {
+      if (!in.hasRemaining()) {
+        in = grow(in.capacity() * 2);
+      }
+
+      final int read = channel.read(in);
+      if (read < 0) {
+        inputClosed = true;
+      } else {
+        parse();
+      }
+      flush();
+    }
+
+    private ByteBuffer grow(final int capacity) {
+      final ByteBuffer grown = ByteBuffer.allocate(capacity);
+      in.flip();
+      grown.put(in);
+      return grown;
+    }
+
+    /**
+     * Dispatch every complete request in the input buffer, up to the pipelining limit.
+     */
+    private void parse() {
+      while (!inputClosed && exchanges.size() < MAX_PIPELINED_REQUESTS) {
+        final byte[] buf = in.array();
+        final int length = in.position();
+        final int headerEnd = indexOfHeaderEnd(buf, length);
+        if (headerEnd < 0) {
+          if (length >= MAX_HEADER_SIZE) {
+            reject(431);
+          }
+          return;
+        }
+
+        final String[] lines = new String(buf, 0, headerEnd, ISO_8859_1).split("\r\n");
+        final String[] requestLine = lines[0].split(" ");
+        boolean keepAlive = requestLine.length > 2 && "HTTP/1.1".equals(requestLine[2]);
+        long contentLength = -1;
+        String target = null;
+        boolean expectContinue = false;
+        boolean chunked = false;
+        for (int i = 1; i < lines.length; i++) {
+          final int colon = lines[i].indexOf(':');
+          if (colon < 0) {
+            continue;
+          }
+          final String name = lines[i].substring(0, colon).trim();
+          final String value = lines[i].substring(colon + 1).trim();
+          if ("Content-Length".equalsIgnoreCase(name)) {
+            try {
+              contentLength = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+              reject(400);
+              return;
+            }
+          } else if ("X-Amz-Target".equalsIgnoreCase(name)) {
+            target = value;
+          } else if ("Connection".equalsIgnoreCase(name)) {
+            if ("close".equalsIgnoreCase(value)) {
+              keepAlive = false;
+            } else if ("keep-alive".equalsIgnoreCase(value)) {
+              keepAlive = true;
+            }
+          } else if ("Expect".equalsIgnoreCase(name)) {
+            expectContinue = "100-continue".equalsIgnoreCase(value);
+          } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+            chunked = !"identity".equalsIgnoreCase(value);
+          }
+        }
+
+        if (chunked || (contentLength < 0 && "POST".equals(requestLine[0]))) {
+          reject(411);
+          return;
+        }
+        if (contentLength < 0) {
+          contentLength = 0;
+        }
+
+        final int bodyStart = headerEnd + 4;
+        if (bodyStart + contentLength > MAX_REQUEST_SIZE) {
+          reject(413);
+          return;
+        }
+        final int requestEnd = bodyStart + (int)contentLength;
+        if (requestEnd > length) {
+          if (requestEnd > in.capacity()) {
+            in = grow(requestEnd);
+          }
+          if (expectContinue && !continueSent) {
+            final Exchange interim = new Exchange(false);
+            interim.response = statusResponse(100, false);
+            exchanges.add(interim);
+            continueSent = true;
+          }
+          return;
+        }
+
+        final byte[] body = Arrays.copyOfRange(buf, bodyStart, requestEnd);
+        System.arraycopy(buf, requestEnd, buf, 0, length - requestEnd);
+        in.position(length - requestEnd);
+        continueSent = false;
+
+        final boolean close = !keepAlive;
+        if (close) {
+          inputClosed = true;
+        }
+        dispatch(target, body, close);
+      }
+    }
+
+    private void dispatch(final String target, final byte[] body, final boolean close) {
+      final Exchange exchange = new Exchange(close);
+      exchanges.add(exchange);
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              exchange.response = handle(target, body, close);
+            } catch (Throwable e) {
+              // an Error, such as a StackOverflowError on deeply nested JSON, must still be answered,
+              // or the connection waits on this exchange forever
+              exchange.response = statusResponse(500, close);
+            } finally {
+              completed.add(Connection.this);
+              selector.wakeup();
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        exchange.response = errorResponse(writers.get(), 500, "InternalServerError", "The server is shutting down", close);
+      }
+    }
+
+    /**
+     * Answer with an error status and close the connection once the earlier responses are written.
+     * @param status
+     */
+    private void reject(final int status) {
+      final Exchange exchange = new Exchange(true);
+      exchange.response = statusResponse(status, true);
+      exchanges.add(exchange);
+      inputClosed = true;
+    }
+
+    /**
+     * Write the completed responses at the head of the queue, in order, until one is still running or the socket is full.
+     * @throws IOException
+     */
+    void flush() throws IOException {
+      while (true) {
+        if (out == null) {
+          final Exchange head = exchanges.peek();
+          if (head == null || head.response == null) {
+            break;
+          }
+          out = head.response;
+        }
+
+        channel.write(out);
+        if (out.hasRemaining()) {
+          break;
+        }
+        out = null;
+        if (exchanges.poll().close) {
+          close();
+          return;
+        }
+        // a request held back by the pipelining limit may now be dispatched
+        parse();
+      }
+
+      if (inputClosed && exchanges.isEmpty()) {
+        close();
+        return;
+      }
+
+      int interestOps = 0;
+      if (!inputClosed && exchanges.size() < MAX_PIPELINED_REQUESTS) {
+        interestOps |= SelectionKey.OP_READ;
+      }
+      if (out != null) {
+        interestOps |= SelectionKey.OP_WRITE;
+      }
+      key.interestOps(interestOps);
+    }
+
+    void flushQuietly() {
+      if (!channel.isOpen()) {
+        return;
+      }
+      try {
+        flush();
+      } catch (IOException e) {
+        close();
+      }
+    }
+
+    void close() {
+      key.cancel();
+      closeQuietly(channel);
+    }
+  }
+
+  private static int indexOfHeaderEnd(final byte[] buf, final int length) {
+    for (int i = 0; i + 3 < length; i++) {
+      if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Serve an in-memory store.  The optional argument is the port, 8000 by default.
+   * @param args
+   * @throws IOException
+   */
+  public static void main(final String[] args) throws IOException {
+    final int port = (args.length > 0) ? Integer.parseInt(args[0]) : 8000;
+    final DynamockDBServer server = new DynamockDBServer(new DynamockDBTableManagerHashMapImpl(), port);
+    server.start();
+    System.out.println("Serving dynamock on port " + server.getPort());
+  }
+}
@@ -0,0 +1,389 @@
+package com.bizo.aws.dynamock.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pull parser reading JSON straight from UTF-8 bytes, one value at a time, without building a tree.
+ * Callers walk the document with beginObject/nextName/endObject and beginArray/hasNext/endArray,
+ * reading scalars with nextString, nextLong and nextBoolean, and skipping anything they don't know with skipValue.
+ * Commas are consumed after each value, so hasNext only has to look for the end of the enclosing object or array.
+ * @author gregfitzgerald
+ *
+ */
+final class JsonReader {
+
+  private final byte[] buf;
+  private final int limit;
+  private int pos;
+
+  /**
+   * Create a reader over buf[offset, offset + length).
+   * @param buf
+   * @param offset
+   * @param length
+   */
+  JsonReader(final byte[] buf, final int offset, final int length) {
+    this.buf = buf;
+    this.pos = offset;
+    this.limit = offset + length;
+  }
+
+  void beginObject() {
+    expect('{');
+  }
+
+  void endObject() {
+    expect('}');
+    afterValue();
+  }
+
+  void beginArray() {
+    expect('[');
+  }
+
+  void endArray() {
+    expect(']');
+    afterValue();
+  }
+
+  /**
+   * Return true if the enclosing object or array has another member.
+   * @return
+   */
+  boolean hasNext() {
+    skipWhitespace();
+    if (pos == limit) {
+      throw syntaxError("Unexpected end of input");
+    }
+    final byte b = buf[pos];
+    return b != '}' && b != ']';
+  }
+
+  /**
+   * Read the name of the next member of an object, and the colon after it.
+   * @return
+   */
+  String nextName() {
+    skipWhitespace();
+    final String name = readString();
+    expect(':');
+    return name;
+  }
+
+  String nextString() {
+    skipWhitespace();
+    final String value = readString();
+    afterValue();
+    return value;
+  }
+
+  long nextLong() {
+    final String number = readNumber();
+    try {
+      return Long.parseLong(number);
+    } catch (NumberFormatException e) {
+      throw syntaxError("Expected an integer but was " + number);
+    }
+  }
+
+  int nextInt() {
+    final long value = nextLong();
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw syntaxError(value + " is out of range");
+    }
+    return (int)value;
+  }
+
+  boolean nextBoolean() {
+    skipWhitespace();
+    if (matchLiteral("true")) {
+      afterValue();
+      return true;
+    } else if (matchLiteral("false")) {
+      afterValue();
+      return false;
+    }
+    throw syntaxError("Expected a boolean");
+  }
+
+  /**
+   * Consume the next value and return true if it is null, or return false and leave it to be read.
+   * @return
+   */
+  boolean nextIfNull() {
+    skipWhitespace();
+    if (matchLiteral("null")) {
+      afterValue();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Read an array of strings.
+   * @return
+   */
+  List<String> nextStringList() {
+    final List<String> values = new ArrayList<String>();
+    beginArray();
+    while (hasNext()) {
+      values.add(nextString());
+    }
+    endArray();
+    return values;
+  }
+
+  /**
+   * Skip the next value, whatever its type.
+   */
+  void skipValue() {
+    skipWhitespace();
+    if (pos == limit) {
+      throw syntaxError("Unexpected end of input");
+    }
+
+    switch (buf[pos]) {
+      case '{':
+        beginObject();
+        while (hasNext()) {
+          nextName();
+          skipValue();
+        }
+        endObject();
+        break;
+      case '[':
+        beginArray();
+        while (hasNext()) {
+          skipValue();
+        }
+        endArray();
+        break;
+      case '"':
+        nextString();
+        break;
+      case 't':
+      case 'f':
+        nextBoolean();
+        break;
+      case 'n':
+        if (!nextIfNull()) {
+          throw syntaxError("Unexpected character");
+        }
+        break;
+      default:
+        readNumber();
+    }
+  }
+
+  /**
+   * Throw unless only whitespace remains.
+   */
+  void endDocument() {
+    skipWhitespace();
+    if (pos != limit) {
+      throw syntaxError("Unexpected data after the end of the document");
+    }
+  }
+
+  private String readNumber() {
+    skipWhitespace();
+    final int start = pos;
+    while (pos < limit) {
+      final byte b = buf[pos];
+      if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+        pos++;
+      } else {
+        break;
+      }
+    }
+    if (pos == start) {
+      throw syntaxError("Expected a number");
+    }
+
+    final char[] chars = new char[pos - start];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = (char)buf[start + i];
+    }
+    afterValue();
+    return new String(chars);
+  }
+
+  /**
+   * Read a string, decoding the common case of unescaped ASCII without a StringBuilder.
+   * @return
+   */
+  private String readString() {
+    if (pos == limit || buf[pos] != '"') {
+      throw syntaxError("Expected a string");
+    }
+    pos++;
+
+    final int start = pos;
+    while (pos < limit) {
+      final byte b = buf[pos];
+      if (b == '"') {
+        final char[] chars = new char[pos - start];
+        for (int i = 0; i < chars.length; i++) {
+          chars[i] = (char)buf[start + i];
+        }
+        pos++;
+        return new String(chars);
+      } else if (b == '\\' || b < 0x20) {
+        break;
+      }
+      pos++;
+    }
+
+    // escapes or multi-byte characters: decode from the start of the string
+    final StringBuilder builder = new StringBuilder(pos - start + 16);
+    pos = start;
+    while (pos < limit) {
+      final int b = buf[pos++] & 0xff;
+      if (b == '"') {
+        return builder.toString();
+      } else if (b == '\\') {
+        readEscape(builder);
+      } else if (b < 0x20) {
+        throw syntaxError("Unescaped control character in string");
+      } else if (b < 0x80) {
+        builder.append((char)b);
+      } else {
+        readMultiByte(builder, b);
+      }
+    }
+    throw syntaxError("Unterminated string");
+  }
+
+  private void readEscape(final StringBuilder builder) {
+    if (pos == limit) {
+      throw syntaxError("Unterminated string");
+    }
+    final byte escaped = buf[pos++];
+    switch (escaped) {
+      case '"':
+      case '\\':
+      case '/':
+        builder.append((char)escaped);
+        break;
+      case 'b':
+        builder.append('\b');
+        break;
+      case 'f':
+        builder.append('\f');
+        break;
+      case 'n':
+        builder.append('\n');
+        break;
+      case 'r':
+        builder.append('\r');
+        break;
+      case 't':
+        builder.append('\t');
+        break;
+      case 'u':
+        if (pos + 4 > limit) {
+          throw syntaxError("Unterminated escape");
+        }
+        int c = 0;
+        for (int i = 0; i < 4; i++) {
+          final int digit = Character.digit((char)buf[pos++], 16);
+          if (digit < 0) {
+            throw syntaxError("Invalid escape");
+          }
+          c = (c << 4) | digit;
+        }
+        builder.append((char)c);
+        break;
+      default:
+        throw syntaxError("Invalid escape");
+    }
+  }
+
+  private void readMultiByte(final StringBuilder builder, final int first) {
+    final int extra;
+    int codePoint;
+    if ((first & 0xe0) == 0xc0) {
+      extra = 1;
+      codePoint = first & 0x1f;
+    } else if ((first & 0xf0) == 0xe0) {
+      extra = 2;
+      codePoint = first & 0x0f;
+    } else if ((first & 0xf8) == 0xf0) {
+      extra = 3;
+      codePoint = first & 0x07;
+    } else {
+      throw syntaxError("Invalid UTF-8");
+    }
+
+    if (pos + extra > limit) {
+      throw syntaxError("Invalid UTF-8");
+    }
+    for (int i = 0; i < extra; i++) {
+      final int b = buf[pos++] & 0xff;
+      if ((b & 0xc0) != 0x80) {
+        throw syntaxError("Invalid UTF-8");
+      }
+      codePoint = (codePoint << 6) | (b & 0x3f);
+    }
+    builder.appendCodePoint(codePoint);
+  }
+
+  private boolean matchLiteral(final String literal) {
+    final int length = literal.length();
+    if (pos + length > limit) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (buf[pos + i] != literal.charAt(i)) {
+        return false;
+      }
+    }
+    pos += length;
+    return true;
+  }
+
+  private void expect(final char c) {
+    skipWhitespace();
+    if (pos == limit || buf[pos] != c) {
+      throw syntaxError("Expected '" + c + "'");
+    }
+    pos++;
+  }
+
+  /**
+   * Consume the comma, if any, that separates a value from the next member.
+   */
+  private void afterValue() {
+    skipWhitespace();
+    if (pos < limit && buf[pos] == ',') {
+      pos++;
+    }
+  }
+
+  private void skipWhitespace() {
+    while (pos < limit) {
+      final byte b = buf[pos];
+      if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+        pos++;
+      } else {
+        return;
+      }
+    }
+  }
+
+  private SyntaxException syntaxError(final String message) {
+    return new SyntaxException(message + " at offset " + pos);
+  }
+
+  /**
+   * Thrown when the input is not well formed JSON, or not of the type the caller asked for.
+   */
+  static final class SyntaxException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    SyntaxException(final String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package com.bizo.aws.dynamock.server;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes JSON as UTF-8 bytes straight into a growable buffer, one value at a time.
+ * Commas are written as needed, so callers only pair beginObject/endObject and beginArray/endArray,
+ * and precede each member of an object with name.  A writer may be reset and reused.
+ * @author gregfitzgerald
+ *
+ */
+final class JsonWriter {
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+  private byte[] buf;
+  private int size;
+
+  // whether the object or array at each depth has a member yet
+  private boolean[] nonEmpty = new boolean[16];
+  private int depth;
+  private boolean afterName;
+
+  JsonWriter(final int initialCapacity) {
+    buf = new byte[initialCapacity];
+  }
+
+  /**
+   * Discard everything written.
+   */
+  void reset() {
+    size = 0;
+    depth = 0;
+    afterName = false;
+  }
+
+  byte[] buffer() {
+    return buf;
+  }
+
+  int size() {
+    return size;
+  }
+
+  JsonWriter beginObject() {
+    beforeValue();
+    push();
+    write((byte)'{');
+    return this;
+  }
+
+  JsonWriter endObject() {
+    depth--;
+    write((byte)'}');
+    return this;
+  }
+
+  JsonWriter beginArray() {
+    beforeValue();
+    push();
+    write((byte)'[');
+    return this;
+  }
+
+  JsonWriter endArray() {
+    depth--;
+    write((byte)']');
+    return this;
+  }
+
+  JsonWriter name(final String name) {
+    beforeValue();
+    writeString(name);
+    write((byte)':');
+    afterName = true;
+    return this;
+  }
+
+  JsonWriter value(final String value) {
+    beforeValue();
+    writeString(value);
+    return this;
+  }
+
+  JsonWriter value(final long value) {
+    beforeValue();
+    writeAscii(Long.toString(value));
+    return this;
+  }
+
+  JsonWriter value(final boolean value) {
+    beforeValue();
+    writeAscii(value ? "true" : "false");
+    return this;
+  }
+
+  /**
+   * Write a number, which must be finite.
+   * @param value
+   * @return
+   */
+  JsonWriter value(final Number value) {
+    beforeValue();
+    writeAscii(value.toString());
+    return this;
+  }
+
+  JsonWriter value(final List<String> values) {
+    beginArray();
+    for (String value : values) {
+      value(value);
+    }
+    return endArray();
+  }
+
+  private void push() {
+    if (depth == nonEmpty.length) {
+      nonEmpty = Arrays.copyOf(nonEmpty, depth * 2);
+    }
+    nonEmpty[depth++] = false;
+  }
+
+  private void beforeValue() {
+    if (afterName) {
+      afterName = false;
+      return;
+    }
+    if (depth > 0) {
+      if (nonEmpty[depth - 1]) {
+        write((byte)',');
+      }
+      nonEmpty[depth - 1] = true;
+    }
+  }
+
+  private void writeAscii(final String ascii) {
+    final int length = ascii.length();
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      buf[size++] = (byte)ascii.charAt(i);
+    }
+  }
+
+  private void writeString(final String s) {
+    final int length = s.length();
+    // the worst case is six bytes per char, for an escaped control character
+    ensureCapacity(length * 6 + 2);
+    buf[size++] = '"';
+    for (int i = 0; i < length; i++) {
+      final char c = s.charAt(i);
+      if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+        buf[size++] = (byte)c;
+      } else if (c == '"' || c == '\\') {
+        buf[size++] = '\\';
+        buf[size++] = (byte)c;
+      } else if (c < 0x20) {
+        buf[size++] = '\\';
+        buf[size++] = 'u';
+        buf[size++] = '0';
+        buf[size++] = '0';
+        buf[size++] = HEX[c >> 4];
+        buf[size++] = HEX[c & 0xf];
+      } else if (c < 0x800) {
+        buf[size++] = (byte)(0xc0 | (c >> 6));
+        buf[size++] = (byte)(0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+        final int codePoint = Character.toCodePoint(c, s.charAt(++i));
+        buf[size++] = (byte)(0xf0 | (codePoint >> 18));
+        buf[size++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+        buf[size++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+        buf[size++] = (byte)(0x80 | (codePoint & 0x3f));
+      } else {
+        buf[size++] = (byte)(0xe0 | (c >> 12));
+        buf[size++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+        buf[size++] = (byte)(0x80 | (c & 0x3f));
+      }
+    }
+    buf[size++] = '"';
+  }
+
+  private void write(final byte b) {
+    ensureCapacity(1);
+    buf[size++] = b;
+  }
+
+  private void ensureCapacity(final int extra) {
+    if (size + extra > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+    }
+  }
+}
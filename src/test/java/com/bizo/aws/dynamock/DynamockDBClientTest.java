@@ -5,14 +5,20 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -56,6 +62,10 @@ import com.amazonaws.services.dynamodb.model.TableDescription;
 import com.amazonaws.services.dynamodb.model.UpdateItemRequest;
 import com.amazonaws.services.dynamodb.model.UpdateItemResult;
 import com.amazonaws.services.dynamodb.model.WriteRequest;
+import com.bizo.aws.dynamock.metrics.DynamockDBMetrics;
+import com.bizo.aws.dynamock.metrics.DynamockDBOperation;
+import com.bizo.aws.dynamock.metrics.LatencySnapshot;
+import com.bizo.aws.dynamock.metrics.OperationSnapshot;
 
 public abstract class DynamockDBClientTest {
 
@@ -104,6 +114,14 @@ public abstract class DynamockDBClientTest {
   
   protected abstract void initializeDB();
   
+  /**
+   * Return the DynamockDBClient behind db, for the tests of its extensions to the AmazonDynamoDB interface.
+   * @return
+   */
+  protected DynamockDBClient dynamockClient() {
+    return (DynamockDBClient)db;
+  }
+  
   /**
    * Test that create table returns a valid result.
    */
@@ -226,6 +244,66 @@ public abstract class DynamockDBClientTest {
     assertEquals(newValue, updatedItem.get(itemStringAttributeName));
   }
   
+  @Test
+  public void testStoredItemIsolation() {
+    final AttributeValue stringValue = new AttributeValue().withS(itemStringAttributeValue);
+    final Map<String, AttributeValue> requestItem = new HashMap<String, AttributeValue>();
+    requestItem.put(hashKeyName, new AttributeValue().withS(itemHashKeyValue));
+    requestItem.put(itemStringAttributeName, stringValue);
+    putItem(hashKeyOnlyTableName, requestItem);
+
+    // reusing the request map and its values must not change the stored item
+    requestItem.put(itemNumberAttributeName, new AttributeValue().withN("1"));
+    stringValue.setS("changed");
+
+    final Map<String, AttributeValue> stored = getItem(itemHashKeyValue).getItem();
+    assertEquals(itemStringAttributeValue, stored.get(itemStringAttributeName).getS());
+    assertFalse(stored.containsKey(itemNumberAttributeName));
+
+    try {
+      stored.put(itemNumberAttributeName, new AttributeValue().withN("1"));
+    } catch (UnsupportedOperationException e) {
+      // returned items are read-only views of the stored item
+    }
+    assertFalse(getItem(itemHashKeyValue).getItem().containsKey(itemNumberAttributeName));
+
+    // nor may changing a returned value
+    try {
+      stored.get(itemStringAttributeName).withS("changed");
+    } catch (UnsupportedOperationException e) {
+      // returned values may be the stored ones, and then are read-only
+    }
+    assertEquals(itemStringAttributeValue, getItem(itemHashKeyValue).getItem().get(itemStringAttributeName).getS());
+  }
+
+  @Test
+  public void testUpdateItemManyAttributes() {
+    // "Aa" and "BB" share a hashCode, as do all their concatenations
+    final String[] collidingNames = {"Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB"};
+    final Map<String, AttributeValue> wideItem = new HashMap<String, AttributeValue>();
+    wideItem.put(hashKeyName, new AttributeValue().withS(itemHashKeyValue));
+    for (int i = 0; i < 200; i++) {
+      wideItem.put("attribute " + i, new AttributeValue().withN(Integer.toString(i)));
+    }
+    for (String name : collidingNames) {
+      wideItem.put(name, new AttributeValue().withS(name));
+    }
+    putItem(hashKeyOnlyTableName, wideItem);
+
+    final Map<String, AttributeValueUpdate> attributeUpdates = new HashMap<String, AttributeValueUpdate>();
+    final AttributeValue newValue = new AttributeValue().withS("some new value");
+    attributeUpdates.put("attribute 7", new AttributeValueUpdate().withAction(AttributeAction.PUT).withValue(newValue));
+    attributeUpdates.put("BBAa", new AttributeValueUpdate().withAction(AttributeAction.PUT).withValue(newValue));
+    db.updateItem(new UpdateItemRequest()
+      .withTableName(hashKeyOnlyTableName)
+      .withKey(new Key().withHashKeyElement(new AttributeValue().withS(itemHashKeyValue)))
+      .withAttributeUpdates(attributeUpdates));
+
+    wideItem.put("attribute 7", newValue);
+    wideItem.put("BBAa", newValue);
+    assertEquals(wideItem, getItem(itemHashKeyValue).getItem());
+  }
+
   @Test
   public void testGetItemHashKeyOnly() {
     putItem(hashKeyOnlyTableName, item);
@@ -257,6 +335,26 @@ public abstract class DynamockDBClientTest {
     assertEquals(item, result.getItem());
   }
   
+  @Test
+  public void testGetItemAttributesToGet() {
+    putItem(hashKeyOnlyTableName, item);
+    
+    final GetItemResult result = db.getItem(new GetItemRequest()
+      .withTableName(hashKeyOnlyTableName)
+      .withKey(new Key(new AttributeValue().withS(itemHashKeyValue)))
+      .withAttributesToGet(itemNumberAttributeName, itemStringSetAttributeName, "missing attribute"));
+    
+    final Map<String, AttributeValue> expected = new HashMap<String, AttributeValue>();
+    expected.put(itemNumberAttributeName, item.get(itemNumberAttributeName));
+    expected.put(itemStringSetAttributeName, item.get(itemStringSetAttributeName));
+    assertEquals(expected, result.getItem());
+    
+    assertNull(db.getItem(new GetItemRequest()
+      .withTableName(hashKeyOnlyTableName)
+      .withKey(new Key(new AttributeValue().withS("missing hash key")))
+      .withAttributesToGet(itemNumberAttributeName)).getItem());
+  }
+  
   public void testBatchGetItem() {
     final List<Map<String, AttributeValue>> expectedItems = setupQueryItems();
     final Map<String, AttributeValue> item1 = expectedItems.get(0);
@@ -289,6 +387,34 @@ public abstract class DynamockDBClientTest {
     assertTrue(result.getUnprocessedKeys().isEmpty());
   }
   
+  @Test
+  public void testBatchGetItemAttributesToGet() {
+    final List<Map<String, AttributeValue>> expectedItems = setupQueryItems();
+    final Map<String, AttributeValue> item1 = expectedItems.get(0);
+    final Map<String, AttributeValue> item2 = expectedItems.get(1);
+    putItem(hashKeyOnlyTableName, item);
+    
+    final Map<String, KeysAndAttributes> requestItems = new HashMap<String, KeysAndAttributes>();
+    requestItems.put(hashAndRangeTableName, new KeysAndAttributes()
+      .withKeys(new Key(item1.get(hashKeyName), item1.get(rangeKeyName)),
+          new Key(item2.get(hashKeyName), item2.get(rangeKeyName)),
+          new Key(item1.get(hashKeyName), new AttributeValue().withS("missing range key")))
+      .withAttributesToGet(rangeKeyName, itemStringAttributeName, "missing attribute"));
+    requestItems.put(hashKeyOnlyTableName, new KeysAndAttributes()
+      .withKeys(new Key(item.get(hashKeyName))));
+    
+    final BatchGetItemResult result = db.batchGetItem(new BatchGetItemRequest().withRequestItems(requestItems));
+    final List<Map<String, AttributeValue>> items = result.getResponses().get(hashAndRangeTableName).getItems();
+    
+    assertEquals(2, items.size());
+    for (Map<String, AttributeValue> found : items) {
+      assertEquals(2, found.size());
+      final Map<String, AttributeValue> expected = found.get(rangeKeyName).equals(item1.get(rangeKeyName)) ? item1 : item2;
+      assertEquals(expected.get(itemStringAttributeName), found.get(itemStringAttributeName));
+    }
+    assertEquals(Collections.singletonList(item), result.getResponses().get(hashKeyOnlyTableName).getItems());
+  }
+  
   @Test(expected=AmazonServiceException.class)
   public void testBatchGetItemNoKeys() {
     final BatchGetItemRequest request = new BatchGetItemRequest();
@@ -373,6 +499,69 @@ public abstract class DynamockDBClientTest {
     db.batchWriteItem(request);
   }
   
+  @Test
+  public void testBatchWriteItemLengthConstraintWritesNothing() {
+    final List<WriteRequest> writeRequests = new ArrayList<WriteRequest>();
+    for(int i = 0; i<26; i++) {
+      final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+      item.put(hashKeyName, new AttributeValue().withS("batch item " + i));
+      writeRequests.add(new WriteRequest().withPutRequest(new PutRequest().withItem(item)));
+    }
+    
+    final Map<String, List<WriteRequest>> writeItems = new HashMap<String, List<WriteRequest>>();
+    writeItems.put(hashKeyOnlyTableName, writeRequests);
+    
+    try {
+      db.batchWriteItem(new BatchWriteItemRequest().withRequestItems(writeItems));
+      fail();
+    } catch (AmazonServiceException e) {
+      // expected
+    }
+    
+    assertNull(getItem("batch item 0").getItem());
+  }
+  
+  @Test
+  public void testBatchWriteItemMultipleTables() {
+    final List<Map<String, AttributeValue>> items = setupQueryItems();
+    final Map<String, AttributeValue> hashOnlyItem = new HashMap<String, AttributeValue>();
+    hashOnlyItem.put(hashKeyName, new AttributeValue().withS("batch hash only item"));
+    
+    final Map<String, AttributeValue> replacement = new HashMap<String, AttributeValue>(items.get(1));
+    replacement.put(itemStringAttributeName, new AttributeValue().withS("replaced"));
+    
+    final List<WriteRequest> rangeRequests = new ArrayList<WriteRequest>();
+    rangeRequests.add(new WriteRequest().withPutRequest(new PutRequest().withItem(replacement)));
+    rangeRequests.add(new WriteRequest().withDeleteRequest(new DeleteRequest().withKey(new Key()
+      .withHashKeyElement(items.get(2).get(hashKeyName))
+      .withRangeKeyElement(items.get(2).get(rangeKeyName)))));
+    
+    final Map<String, List<WriteRequest>> writeItems = new HashMap<String, List<WriteRequest>>();
+    writeItems.put(hashAndRangeTableName, rangeRequests);
+    writeItems.put(hashKeyOnlyTableName, Collections.singletonList(new WriteRequest().withPutRequest(new PutRequest().withItem(hashOnlyItem))));
+    
+    final BatchWriteItemResult result = db.batchWriteItem(new BatchWriteItemRequest().withRequestItems(writeItems));
+    assertEquals(Double.valueOf(2), result.getResponses().get(hashAndRangeTableName).getConsumedCapacityUnits());
+    assertEquals(Double.valueOf(1), result.getResponses().get(hashKeyOnlyTableName).getConsumedCapacityUnits());
+    
+    assertEquals(hashOnlyItem, getItem("batch hash only item").getItem());
+    assertEquals(items.get(0), getItem(items.get(0).get(hashKeyName).getS(), items.get(0).get(rangeKeyName).getS()).getItem());
+    assertEquals(replacement, getItem(replacement.get(hashKeyName).getS(), replacement.get(rangeKeyName).getS()).getItem());
+    assertNull(getItem(items.get(2).get(hashKeyName).getS(), items.get(2).get(rangeKeyName).getS()).getItem());
+  }
+  
+  @Test(expected=AmazonServiceException.class)
+  public void testBatchWriteItemDuplicateKeys() {
+    final List<WriteRequest> writeRequests = new ArrayList<WriteRequest>();
+    writeRequests.add(new WriteRequest().withPutRequest(new PutRequest().withItem(item)));
+    writeRequests.add(new WriteRequest().withDeleteRequest(new DeleteRequest().withKey(new Key(item.get(hashKeyName)))));
+    
+    final Map<String, List<WriteRequest>> writeItems = new HashMap<String, List<WriteRequest>>();
+    writeItems.put(hashKeyOnlyTableName, writeRequests);
+    
+    db.batchWriteItem(new BatchWriteItemRequest().withRequestItems(writeItems));
+  }
+  
   @Test
   public void testQueryNoRangeCondition() {
     List<Map<String, AttributeValue>> expectedItems = setupQueryItems();
@@ -421,6 +610,261 @@ public abstract class DynamockDBClientTest {
     assertEquals(Integer.valueOf(1), result.getCount());
   }
   
+  @Test
+  public void testQueryBeginsWithRangeCondition() {
+    List<Map<String, AttributeValue>> expectedItems = setupQueryItems();
+    Map<String, AttributeValue> notFoundItem = expectedItems.get(0);
+    Map<String, AttributeValue> foundItem = expectedItems.get(1);
+
+    final QueryRequest request = new QueryRequest();
+    final Condition condition = new Condition()
+      .withAttributeValueList(new AttributeValue().withS("item 2"))
+      .withComparisonOperator(ComparisonOperator.BEGINS_WITH);
+
+    request
+      .withTableName(hashAndRangeTableName)
+      .withHashKeyValue(item.get(hashKeyName))
+      .withRangeKeyCondition(condition);
+
+    final QueryResult result = db.query(request);
+
+    final List<Map<String, AttributeValue>> items = result.getItems();
+    assertTrue(items.contains(foundItem));
+    assertFalse(items.contains(notFoundItem));
+    assertEquals(Integer.valueOf(1), result.getCount());
+  }
+
+  @Test
+  public void testQueryNumericRangeKeyOrder() {
+    final String tableName = "numeric range table";
+    createTable(tableName, hashKeyName, rangeKeyName, ScalarAttributeType.N);
+
+    for (String rangeKey : new String[] {"9", "100", "10", "-1", "2.5"}) {
+      final Map<String, AttributeValue> numericItem = new HashMap<String, AttributeValue>();
+      numericItem.put(hashKeyName, new AttributeValue().withS(itemHashKeyValue));
+      numericItem.put(rangeKeyName, new AttributeValue().withN(rangeKey));
+      putItem(tableName, numericItem);
+    }
+
+    final QueryRequest request = new QueryRequest()
+      .withTableName(tableName)
+      .withHashKeyValue(new AttributeValue().withS(itemHashKeyValue))
+      .withRangeKeyCondition(new Condition()
+        .withAttributeValueList(new AttributeValue().withN("2.5"), new AttributeValue().withN("10"))
+        .withComparisonOperator(ComparisonOperator.BETWEEN))
+      .withScanIndexForward(false);
+
+    final QueryResult result = db.query(request);
+
+    final List<String> rangeKeys = new ArrayList<String>();
+    for (Map<String, AttributeValue> found : result.getItems()) {
+      rangeKeys.add(found.get(rangeKeyName).getN());
+    }
+
+    assertEquals(Arrays.asList("10", "9", "2.5"), rangeKeys);
+  }
+
+  @Test
+  public void testQueryRangeConditionOperandCount() {
+    final Condition[] conditions = {
+      new Condition()
+        .withAttributeValueList(new AttributeValue().withS("a"))
+        .withComparisonOperator(ComparisonOperator.BETWEEN),
+      new Condition()
+        .withComparisonOperator(ComparisonOperator.LT),
+    };
+
+    for (Condition condition : conditions) {
+      try {
+        db.query(new QueryRequest()
+          .withTableName(hashAndRangeTableName)
+          .withHashKeyValue(new AttributeValue().withS(itemHashKeyValue))
+          .withRangeKeyCondition(condition));
+        fail("expected AmazonServiceException for " + condition);
+      } catch (AmazonServiceException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testQueryRangeConditionOfAnotherType() {
+    final String tableName = "numeric range table";
+    createTable(tableName, hashKeyName, rangeKeyName, ScalarAttributeType.N);
+
+    for (String rangeKey : new String[] {"-1", "2.5", "10"}) {
+      final Map<String, AttributeValue> numericItem = new HashMap<String, AttributeValue>();
+      numericItem.put(hashKeyName, new AttributeValue().withS(itemHashKeyValue));
+      numericItem.put(rangeKeyName, new AttributeValue().withN(rangeKey));
+      putItem(tableName, numericItem);
+    }
+
+    // as in scan filters, a number never compares with a string
+    final Condition[] conditions = {
+      new Condition()
+        .withAttributeValueList(new AttributeValue().withS("a"))
+        .withComparisonOperator(ComparisonOperator.LT),
+      new Condition()
+        .withAttributeValueList(new AttributeValue().withS(""))
+        .withComparisonOperator(ComparisonOperator.GE),
+      new Condition()
+        .withAttributeValueList(new AttributeValue().withN("0"), new AttributeValue().withS("z"))
+        .withComparisonOperator(ComparisonOperator.BETWEEN),
+    };
+    for (Condition condition : conditions) {
+      for (boolean scanIndexForward : new boolean[] {true, false}) {
+        final QueryResult result = db.query(new QueryRequest()
+          .withTableName(tableName)
+          .withHashKeyValue(new AttributeValue().withS(itemHashKeyValue))
+          .withRangeKeyCondition(condition)
+          .withScanIndexForward(scanIndexForward));
+        assertEquals(condition.toString(), Integer.valueOf(0), result.getCount());
+      }
+    }
+
+    final QueryResult greater = db.query(new QueryRequest()
+      .withTableName(tableName)
+      .withHashKeyValue(new AttributeValue().withS(itemHashKeyValue))
+      .withRangeKeyCondition(new Condition()
+        .withAttributeValueList(new AttributeValue().withN("0"))
+        .withComparisonOperator(ComparisonOperator.GT)));
+    assertEquals(Integer.valueOf(2), greater.getCount());
+  }
+
+  @Test
+  public void testQueryNumericRangeKeyFormats() {
+    final String tableName = "numeric range table";
+    createTable(tableName, hashKeyName, rangeKeyName, ScalarAttributeType.N);
+
+    for (String rangeKey : new String[] {"12345678901234567890123", "1E+2", "-3", "99.5", "0.001"}) {
+      final Map<String, AttributeValue> numericItem = new HashMap<String, AttributeValue>();
+      numericItem.put(hashKeyName, new AttributeValue().withS(itemHashKeyValue));
+      numericItem.put(rangeKeyName, new AttributeValue().withN(rangeKey));
+      putItem(tableName, numericItem);
+    }
+
+    final QueryResult result = db.query(new QueryRequest()
+      .withTableName(tableName)
+      .withHashKeyValue(new AttributeValue().withS(itemHashKeyValue)));
+
+    final List<String> rangeKeys = new ArrayList<String>();
+    for (Map<String, AttributeValue> found : result.getItems()) {
+      rangeKeys.add(found.get(rangeKeyName).getN());
+    }
+
+    assertEquals(Arrays.asList("-3", "0.001", "99.5", "1E+2", "12345678901234567890123"), rangeKeys);
+  }
+
+  @Test
+  public void testQueryPagination() {
+    for (int i = 0; i < 10; i++) {
+      final Map<String, AttributeValue> pageItem = new HashMap<String, AttributeValue>();
+      pageItem.put(hashKeyName, new AttributeValue().withS(itemHashKeyValue));
+      pageItem.put(rangeKeyName, new AttributeValue().withS("range " + i));
+      putItem(hashAndRangeTableName, pageItem);
+    }
+
+    // ascending over the whole partition
+    assertEquals(Arrays.asList("range 0", "range 1", "range 2", "range 3", "range 4",
+        "range 5", "range 6", "range 7", "range 8", "range 9"), queryPages(null, true, 4));
+
+    // descending over range 2 .. range 8
+    final Condition between = new Condition()
+      .withAttributeValueList(new AttributeValue().withS("range 2"), new AttributeValue().withS("range 8"))
+      .withComparisonOperator(ComparisonOperator.BETWEEN);
+    assertEquals(Arrays.asList("range 8", "range 7", "range 6", "range 5", "range 4", "range 3", "range 2"),
+        queryPages(between, false, 3));
+  }
+
+  /**
+   * A Limit of Integer.MAX_VALUE reads the whole partition in one page; enough items that a store fetching them in
+   * batches needs more than one.
+   */
+  @Test
+  public void testQueryMaximumLimit() {
+    final List<String> rangeKeys = new ArrayList<String>();
+    for (int i = 100; i < 250; i++) {
+      final Map<String, AttributeValue> pageItem = new HashMap<String, AttributeValue>();
+      pageItem.put(hashKeyName, new AttributeValue().withS(itemHashKeyValue));
+      pageItem.put(rangeKeyName, new AttributeValue().withS("range " + i));
+      putItem(hashAndRangeTableName, pageItem);
+      rangeKeys.add("range " + i);
+    }
+
+    assertEquals(rangeKeys, queryPages(null, true, Integer.MAX_VALUE));
+    Collections.reverse(rangeKeys);
+    assertEquals(rangeKeys, queryPages(null, false, Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void testQueryPaginationBeginsWith() {
+    for (String rangeKey : Arrays.asList("a.b 1", "a.b 2", "axb 3", "a.b 4", "a.c 5", "a.b 6")) {
+      final Map<String, AttributeValue> pageItem = new HashMap<String, AttributeValue>();
+      pageItem.put(hashKeyName, new AttributeValue().withS(itemHashKeyValue));
+      pageItem.put(rangeKeyName, new AttributeValue().withS(rangeKey));
+      putItem(hashAndRangeTableName, pageItem);
+    }
+
+    // the prefix is matched literally
+    final Condition beginsWith = new Condition()
+      .withAttributeValueList(new AttributeValue().withS("a.b"))
+      .withComparisonOperator(ComparisonOperator.BEGINS_WITH);
+    assertEquals(Arrays.asList("a.b 1", "a.b 2", "a.b 4", "a.b 6"), queryPages(beginsWith, true, 3));
+    assertEquals(Arrays.asList("a.b 6", "a.b 4", "a.b 2", "a.b 1"), queryPages(beginsWith, false, 1));
+  }
+
+  @Test
+  public void testQueryAttributesToGet() {
+    for (int i = 0; i < 5; i++) {
+      final Map<String, AttributeValue> pageItem = new HashMap<String, AttributeValue>();
+      pageItem.put(hashKeyName, new AttributeValue().withS(itemHashKeyValue));
+      pageItem.put(rangeKeyName, new AttributeValue().withS("range " + i));
+      pageItem.put(itemNumberAttributeName, new AttributeValue().withN("1" + i));
+      pageItem.put(itemStringAttributeName, new AttributeValue().withS("large value " + i));
+      putItem(hashAndRangeTableName, pageItem);
+    }
+    
+    // pages resume from the key of the last item even though the key isn't returned
+    final List<String> numbers = new ArrayList<String>();
+    Key startKey = null;
+    do {
+      final QueryResult result = db.query(new QueryRequest()
+        .withTableName(hashAndRangeTableName)
+        .withHashKeyValue(new AttributeValue().withS(itemHashKeyValue))
+        .withAttributesToGet(itemNumberAttributeName)
+        .withLimit(2)
+        .withExclusiveStartKey(startKey));
+      for (Map<String, AttributeValue> found : result.getItems()) {
+        assertEquals(Collections.singleton(itemNumberAttributeName), found.keySet());
+        numbers.add(found.get(itemNumberAttributeName).getN());
+      }
+      startKey = result.getLastEvaluatedKey();
+    } while (startKey != null);
+    
+    assertEquals(Arrays.asList("10", "11", "12", "13", "14"), numbers);
+  }
+  
+  @Test
+  public void testScanAttributesToGet() {
+    setupQueryItems();
+    
+    // the filter attribute is tested even though it isn't returned
+    final Map<String, Condition> scanFilter = new HashMap<String, Condition>();
+    scanFilter.put(itemStringAttributeName, new Condition()
+      .withAttributeValueList(new AttributeValue().withS("findthisstring"))
+      .withComparisonOperator(ComparisonOperator.CONTAINS));
+    
+    final ScanResult result = db.scan(new ScanRequest()
+      .withTableName(hashAndRangeTableName)
+      .withScanFilter(scanFilter)
+      .withAttributesToGet(rangeKeyName, itemNumberAttributeName));
+    
+    final Map<String, AttributeValue> expected = new HashMap<String, AttributeValue>();
+    expected.put(rangeKeyName, new AttributeValue().withS("item 2 range key"));
+    expected.put(itemNumberAttributeName, item.get(itemNumberAttributeName));
+    assertEquals(Collections.singletonList(expected), result.getItems());
+  }
+
   @Test
   public void testScanNoCondition() {
     List<Map<String, AttributeValue>> expectedItems = setupQueryItems();
@@ -444,6 +888,26 @@ public abstract class DynamockDBClientTest {
     assertEquals(Integer.valueOf(3), result.getScannedCount());
   }
   
+  /**
+   * Putting an item twice replaces it, so a scan finds it once.
+   */
+  @Test
+  public void testScanAfterRepeatedPut() {
+    final Map<String, AttributeValue> first = new HashMap<String, AttributeValue>();
+    first.put(hashKeyName, new AttributeValue().withS(itemHashKeyValue));
+    first.put(rangeKeyName, new AttributeValue().withS(itemRangeKeyValue));
+    first.put(itemStringAttributeName, new AttributeValue().withS("first"));
+    putItem(hashAndRangeTableName, first);
+    
+    final Map<String, AttributeValue> second = new HashMap<String, AttributeValue>(first);
+    second.put(itemStringAttributeName, new AttributeValue().withS("second"));
+    putItem(hashAndRangeTableName, second);
+    
+    final ScanResult result = db.scan(new ScanRequest().withTableName(hashAndRangeTableName));
+    assertEquals(Integer.valueOf(1), result.getCount());
+    assertEquals(second, result.getItems().get(0));
+  }
+  
   @Test
   public void testScanContains() {
     final List<Map<String, AttributeValue>> expectedItems = setupQueryItems();
@@ -565,6 +1029,286 @@ public abstract class DynamockDBClientTest {
     assertEquals(Integer.valueOf(3), result.getScannedCount());
   }
   
+  @Test
+  public void testScanNumericComparison() {
+    setupQueryItems();
+
+    final Map<String, Condition> scanFilter = new HashMap<String, Condition>();
+    scanFilter.put(
+        itemNumberAttributeName,
+        new Condition()
+          .withAttributeValueList(new AttributeValue().withN("10"))
+          .withComparisonOperator(ComparisonOperator.GT)
+    );
+
+    final ScanRequest request = new ScanRequest()
+      .withTableName(hashAndRangeTableName)
+      .withScanFilter(scanFilter);
+
+    // "2" > "10" as strings, but not as numbers
+    assertEquals(Integer.valueOf(0), db.scan(request).getCount());
+  }
+
+  @Test
+  public void testScanIn() {
+    final List<Map<String, AttributeValue>> expectedItems = setupQueryItems();
+    final Map<String, AttributeValue> item1 = expectedItems.get(0);
+    final Map<String, AttributeValue> item2 = expectedItems.get(1);
+    final Map<String, AttributeValue> item3 = expectedItems.get(2);
+
+    final Map<String, Condition> scanFilter = new HashMap<String, Condition>();
+    scanFilter.put(
+        rangeKeyName,
+        new Condition()
+          .withAttributeValueList(item1.get(rangeKeyName), item3.get(rangeKeyName), new AttributeValue().withS("unknown"))
+          .withComparisonOperator(ComparisonOperator.IN)
+    );
+
+    final ScanResult result = db.scan(new ScanRequest()
+      .withTableName(hashAndRangeTableName)
+      .withScanFilter(scanFilter));
+
+    final List<Map<String, AttributeValue>> items = result.getItems();
+    assertTrue(items.contains(item1));
+    assertFalse(items.contains(item2));
+    assertTrue(items.contains(item3));
+    assertEquals(Integer.valueOf(2), result.getCount());
+  }
+
+  @Test
+  public void testScanNotEqual() {
+    final List<Map<String, AttributeValue>> expectedItems = setupQueryItems();
+    final Map<String, AttributeValue> item1 = expectedItems.get(0);
+    final Map<String, AttributeValue> item2 = expectedItems.get(1);
+
+    // a set is never equal to a scalar, even one of its members, and a missing attribute never matches NE
+    final Map<String, Condition> scanFilter = new HashMap<String, Condition>();
+    scanFilter.put(
+        itemStringSetAttributeName,
+        new Condition()
+          .withAttributeValueList(new AttributeValue().withS(itemStringSetElementAttributeValue))
+          .withComparisonOperator(ComparisonOperator.NE)
+    );
+    scanFilter.put(
+        itemStringAttributeName,
+        new Condition()
+          .withAttributeValueList(item1.get(itemStringAttributeName))
+          .withComparisonOperator(ComparisonOperator.NE)
+    );
+
+    final ScanResult result = db.scan(new ScanRequest()
+      .withTableName(hashAndRangeTableName)
+      .withScanFilter(scanFilter));
+
+    assertEquals(Collections.singletonList(item2), result.getItems());
+  }
+
+  @Test
+  public void testScanItemsSharingFilterValue() {
+    final List<Map<String, AttributeValue>> expectedItems = setupQueryItems();
+    final Map<String, AttributeValue> item1 = expectedItems.get(0);
+    final Map<String, AttributeValue> item2 = expectedItems.get(1);
+
+    final Map<String, Condition> scanFilter = new HashMap<String, Condition>();
+    scanFilter.put(
+        itemNumberAttributeName,
+        new Condition()
+          .withAttributeValueList(new AttributeValue().withN(itemNumberAttributeValue))
+          .withComparisonOperator(ComparisonOperator.EQ)
+    );
+
+    final ScanResult result = db.scan(new ScanRequest()
+      .withTableName(hashAndRangeTableName)
+      .withScanFilter(scanFilter));
+
+    // both items carry the same number attribute, and both must be returned
+    final List<Map<String, AttributeValue>> items = result.getItems();
+    assertTrue(items.contains(item1));
+    assertTrue(items.contains(item2));
+    assertEquals(Integer.valueOf(2), result.getCount());
+  }
+
+  @Test
+  public void testScanPagination() {
+    final Set<String> expectedHashKeys = putHashKeyOnlyItems(10);
+
+    final Set<String> scannedHashKeys = new HashSet<String>();
+    Key startKey = null;
+    int pages = 0;
+    do {
+      final ScanResult result = db.scan(new ScanRequest()
+        .withTableName(hashKeyOnlyTableName)
+        .withLimit(3)
+        .withExclusiveStartKey(startKey));
+
+      assertTrue(result.getScannedCount() <= 3);
+      for (Map<String, AttributeValue> scanned : result.getItems()) {
+        assertTrue(scannedHashKeys.add(scanned.get(hashKeyName).getS()));
+      }
+      startKey = result.getLastEvaluatedKey();
+      pages++;
+    } while (startKey != null);
+
+    assertEquals(4, pages);
+    assertEquals(expectedHashKeys, scannedHashKeys);
+  }
+
+  @Test
+  public void testScanSegments() {
+    final Set<String> expectedHashKeys = putHashKeyOnlyItems(50);
+    final int totalSegments = 4;
+
+    final Set<String> scannedHashKeys = new HashSet<String>();
+    for (int segment = 0; segment < totalSegments; segment++) {
+      Key startKey = null;
+      do {
+        final ScanResult result = dynamockClient().scan(new ScanRequest()
+          .withTableName(hashKeyOnlyTableName)
+          .withLimit(5)
+          .withExclusiveStartKey(startKey), segment, totalSegments);
+
+        for (Map<String, AttributeValue> scanned : result.getItems()) {
+          // segments are disjoint
+          assertTrue(scannedHashKeys.add(scanned.get(hashKeyName).getS()));
+        }
+        startKey = result.getLastEvaluatedKey();
+      } while (startKey != null);
+    }
+
+    assertEquals(expectedHashKeys, scannedHashKeys);
+  }
+
+  @Test(expected = AmazonServiceException.class)
+  public void testScanSegmentOutOfRange() {
+    dynamockClient().scan(new ScanRequest().withTableName(hashKeyOnlyTableName), 4, 4);
+  }
+
+  @Test
+  public void testParallelScan() {
+    final Set<String> expectedHashKeys = putHashKeyOnlyItems(50);
+
+    final ScanResult result = dynamockClient().parallelScan(new ScanRequest()
+      .withTableName(hashKeyOnlyTableName)
+      .withLimit(7), 8);
+
+    final Set<String> scannedHashKeys = new HashSet<String>();
+    for (Map<String, AttributeValue> scanned : result.getItems()) {
+      assertTrue(scannedHashKeys.add(scanned.get(hashKeyName).getS()));
+    }
+    assertEquals(expectedHashKeys, scannedHashKeys);
+    assertEquals(Integer.valueOf(50), result.getCount());
+    assertEquals(Integer.valueOf(50), result.getScannedCount());
+    assertNull(result.getLastEvaluatedKey());
+  }
+
+  @Test
+  public void testMetrics() {
+    final DynamockDBMetrics metrics = new DynamockDBMetrics();
+    dynamockClient().setMetricsListener(metrics);
+    putHashKeyOnlyItems(10);
+    getItem("item 3");
+    getItem("no such item");
+    db.scan(new ScanRequest()
+      .withTableName(hashKeyOnlyTableName)
+      .withScanFilter(Collections.singletonMap(hashKeyName, new Condition()
+        .withComparisonOperator(ComparisonOperator.EQ)
+        .withAttributeValueList(new AttributeValue().withS("item 3")))));
+    try {
+      db.getItem(new GetItemRequest()
+        .withTableName("no such table")
+        .withKey(new Key().withHashKeyElement(new AttributeValue().withS("item 3"))));
+      fail("expected AmazonServiceException");
+    } catch (AmazonServiceException e) {
+      // expected
+    }
+    
+    // nothing is recorded once the listener is removed
+    dynamockClient().setMetricsListener(null);
+    getItem("item 4");
+    
+    final Map<DynamockDBOperation, OperationSnapshot> snapshots = new HashMap<DynamockDBOperation, OperationSnapshot>();
+    OperationSnapshot failedGets = null;
+    for (OperationSnapshot snapshot : metrics.snapshot()) {
+      if ("no such table".equals(snapshot.getTableName())) {
+        failedGets = snapshot;
+      } else {
+        assertEquals(hashKeyOnlyTableName, snapshot.getTableName());
+        snapshots.put(snapshot.getOperation(), snapshot);
+      }
+    }
+    assertEquals(3, snapshots.size());
+    
+    // failed operations are counted, but not timed
+    assertEquals(DynamockDBOperation.GET_ITEM, failedGets.getOperation());
+    assertEquals(1, failedGets.getErrors());
+    assertEquals(0, failedGets.getCount());
+    
+    final OperationSnapshot puts = snapshots.get(DynamockDBOperation.PUT_ITEM);
+    assertEquals(10, puts.getCount());
+    assertTrue(puts.getBytesIn() > 0);
+    
+    final OperationSnapshot gets = snapshots.get(DynamockDBOperation.GET_ITEM);
+    assertEquals(2, gets.getCount());
+    assertEquals(0, gets.getErrors());
+    assertEquals(1, gets.getItemsReturned());
+    assertTrue(gets.getBytesOut() > 0);
+    
+    final OperationSnapshot scans = snapshots.get(DynamockDBOperation.SCAN);
+    assertEquals(1, scans.getCount());
+    assertEquals(0, scans.getErrors());
+    assertEquals(1, scans.getItemsReturned());
+    // a table may skip items that can't match the scan filter
+    assertTrue(scans.getItemsScanned() >= 1 && scans.getItemsScanned() <= 10);
+    assertTrue(scans.getBytesIn() > 0);
+    assertTrue(scans.getBytesOut() > 0);
+    
+    final LatencySnapshot latency = puts.getLatency();
+    assertEquals(10, latency.getCount());
+    assertTrue(latency.getMin() <= latency.getValueAtPercentile(50));
+    assertTrue(latency.getValueAtPercentile(50) <= latency.getValueAtPercentile(99));
+    assertTrue(latency.getValueAtPercentile(99) <= latency.getMax());
+  }
+
+  @Test
+  public void testConcurrentPutAndQuery() throws Exception {
+    final int threads = 8;
+    final int itemsPerThread = 100;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      futures.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < itemsPerThread; i++) {
+            final Map<String, AttributeValue> concurrentItem = new HashMap<String, AttributeValue>();
+            concurrentItem.put(hashKeyName, new AttributeValue().withS(itemHashKeyValue));
+            concurrentItem.put(rangeKeyName, new AttributeValue().withS(thread + "-" + i));
+            putItem(hashAndRangeTableName, concurrentItem);
+
+            db.query(new QueryRequest()
+              .withTableName(hashAndRangeTableName)
+              .withHashKeyValue(new AttributeValue().withS(itemHashKeyValue)));
+            db.scan(new ScanRequest()
+              .withTableName(hashAndRangeTableName)
+              .withScanFilter(new HashMap<String, Condition>()));
+          }
+        }
+      }));
+    }
+
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    final QueryResult result = db.query(new QueryRequest()
+      .withTableName(hashAndRangeTableName)
+      .withHashKeyValue(new AttributeValue().withS(itemHashKeyValue)));
+    assertEquals(Integer.valueOf(threads * itemsPerThread), result.getCount());
+  }
+
   @Test
   public void testDeleteItem() {
     putItem(hashKeyOnlyTableName, item);
@@ -596,6 +1340,11 @@ public abstract class DynamockDBClientTest {
    * @return
    */
   private CreateTableResult createTable(final String tableName, final String hashKeyName, final String rangeKeyName) {
+    return createTable(tableName, hashKeyName, rangeKeyName, ScalarAttributeType.S);
+  }
+
+  private CreateTableResult createTable(final String tableName, final String hashKeyName, final String rangeKeyName,
+      final ScalarAttributeType rangeKeyType) {
     final CreateTableRequest request = new CreateTableRequest();
     final KeySchemaElement hashKey = new KeySchemaElement()
       .withAttributeName(hashKeyName)
@@ -607,7 +1356,7 @@ public abstract class DynamockDBClientTest {
     if (rangeKeyName != null) {
       final KeySchemaElement rangeKey = new KeySchemaElement()
         .withAttributeName(rangeKeyName)
-        .withAttributeType(ScalarAttributeType.S);
+        .withAttributeType(rangeKeyType);
       
       keySchema.setRangeKeyElement(rangeKey);
     }
@@ -629,6 +1378,41 @@ public abstract class DynamockDBClientTest {
     return db.putItem(request);
   }
   
+  /**
+   * Page through the itemHashKeyValue partition of the hash and range table, returning the range keys in order.
+   */
+  private List<String> queryPages(final Condition rangeKeyCondition, final boolean scanIndexForward, final int limit) {
+    final List<String> rangeKeys = new ArrayList<String>();
+    Key startKey = null;
+    do {
+      final QueryResult result = db.query(new QueryRequest()
+        .withTableName(hashAndRangeTableName)
+        .withHashKeyValue(new AttributeValue().withS(itemHashKeyValue))
+        .withRangeKeyCondition(rangeKeyCondition)
+        .withScanIndexForward(scanIndexForward)
+        .withLimit(limit)
+        .withExclusiveStartKey(startKey));
+
+      assertTrue(result.getCount() <= limit);
+      for (Map<String, AttributeValue> found : result.getItems()) {
+        rangeKeys.add(found.get(rangeKeyName).getS());
+      }
+      startKey = result.getLastEvaluatedKey();
+    } while (startKey != null);
+    return rangeKeys;
+  }
+  
+  private Set<String> putHashKeyOnlyItems(final int count) {
+    final Set<String> hashKeys = new HashSet<String>();
+    for (int i = 0; i < count; i++) {
+      final Map<String, AttributeValue> newItem = new HashMap<String, AttributeValue>();
+      newItem.put(hashKeyName, new AttributeValue().withS("item " + i));
+      putItem(hashKeyOnlyTableName, newItem);
+      hashKeys.add("item " + i);
+    }
+    return hashKeys;
+  }
+  
   private List<Map<String, AttributeValue>> setupQueryItems() {
     return setupQueryItems(true);
   }
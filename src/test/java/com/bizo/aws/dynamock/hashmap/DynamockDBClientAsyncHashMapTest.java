@@ -0,0 +1,121 @@
+package com.bizo.aws.dynamock.hashmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.CreateTableRequest;
+import com.amazonaws.services.dynamodb.model.GetItemRequest;
+import com.amazonaws.services.dynamodb.model.GetItemResult;
+import com.amazonaws.services.dynamodb.model.Key;
+import com.amazonaws.services.dynamodb.model.KeySchema;
+import com.amazonaws.services.dynamodb.model.KeySchemaElement;
+import com.amazonaws.services.dynamodb.model.ListTablesRequest;
+import com.amazonaws.services.dynamodb.model.PutItemRequest;
+import com.amazonaws.services.dynamodb.model.PutItemResult;
+import com.bizo.aws.dynamock.AsyncHandler;
+import com.bizo.aws.dynamock.DynamockDBAsyncClient;
+import com.bizo.aws.dynamock.DynamockDBClientTest;
+
+public class DynamockDBClientAsyncHashMapTest extends DynamockDBClientTest {
+
+  @Override
+  protected void initializeDB() {
+    db = new DynamockDBAsyncClient(new DynamockDBTableManagerHashMapImpl());
+  }
+
+  @After
+  public void shutdown() {
+    db.shutdown();
+  }
+
+  @Test
+  public void testAsyncPutAndGet() throws Exception {
+    final DynamockDBAsyncClient client = (DynamockDBAsyncClient)db;
+    client.createTable(new CreateTableRequest().withTableName("async")
+        .withKeySchema(new KeySchema(new KeySchemaElement().withAttributeName("id"))));
+
+    final List<Future<PutItemResult>> puts = new ArrayList<Future<PutItemResult>>();
+    for (int i = 0; i < 100; i++) {
+      final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+      item.put("id", new AttributeValue().withS("id" + i));
+      item.put("n", new AttributeValue().withN(Integer.toString(i)));
+      puts.add(client.putItemAsync(new PutItemRequest().withTableName("async").withItem(item)));
+    }
+    for (Future<PutItemResult> put : puts) {
+      put.get();
+    }
+
+    final AtomicReference<GetItemResult> handled = new AtomicReference<GetItemResult>();
+    final GetItemRequest request = new GetItemRequest().withTableName("async").withKey(new Key(new AttributeValue().withS("id42")));
+    final GetItemResult result = client.getItemAsync(request, new AsyncHandler<GetItemRequest, GetItemResult>() {
+      @Override
+      public void onError(final Exception exception) {
+        fail(exception.toString());
+      }
+
+      @Override
+      public void onSuccess(final GetItemRequest handledRequest, final GetItemResult handledResult) {
+        assertSame(request, handledRequest);
+        handled.set(handledResult);
+      }
+    }).get();
+
+    assertEquals("42", result.getItem().get("n").getN());
+    assertSame(result, handled.get());
+  }
+
+  @Test
+  public void testAsyncError() throws Exception {
+    final AtomicReference<Exception> handled = new AtomicReference<Exception>();
+    final Future<GetItemResult> future = ((DynamockDBAsyncClient)db).getItemAsync(
+        new GetItemRequest().withTableName("missing table").withKey(new Key(new AttributeValue().withS("id"))),
+        new AsyncHandler<GetItemRequest, GetItemResult>() {
+          @Override
+          public void onError(final Exception exception) {
+            handled.set(exception);
+          }
+
+          @Override
+          public void onSuccess(final GetItemRequest request, final GetItemResult result) {
+            fail("table should not be found");
+          }
+        });
+
+    try {
+      future.get();
+      fail("expected an ExecutionException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof AmazonServiceException);
+      assertSame(e.getCause(), handled.get());
+    }
+  }
+
+  @Test
+  public void testExecutorService() throws Exception {
+    final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    final DynamockDBAsyncClient client = new DynamockDBAsyncClient(new DynamockDBTableManagerHashMapImpl(), executorService);
+    assertSame(executorService, client.getExecutorService());
+    assertTrue(client.listTablesAsync(new ListTablesRequest()).get().getTableNames().isEmpty());
+
+    client.shutdown();
+    assertTrue(executorService.isShutdown());
+  }
+
+}
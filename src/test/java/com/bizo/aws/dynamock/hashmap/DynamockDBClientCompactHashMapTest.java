@@ -0,0 +1,13 @@
+package com.bizo.aws.dynamock.hashmap;
+
+import com.bizo.aws.dynamock.DynamockDBClient;
+import com.bizo.aws.dynamock.DynamockDBClientTest;
+
+public class DynamockDBClientCompactHashMapTest extends DynamockDBClientTest {
+
+  @Override
+  protected void initializeDB() {
+    db = new DynamockDBClient(new DynamockDBTableManagerHashMapImpl(ItemLayout.COMPACT));
+  }
+
+}
@@ -1,7 +1,26 @@
 package com.bizo.aws.dynamock.hashmap;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.Key;
+import com.amazonaws.services.dynamodb.model.KeySchema;
+import com.amazonaws.services.dynamodb.model.KeySchemaElement;
+import com.amazonaws.services.dynamodb.model.ScalarAttributeType;
 import com.bizo.aws.dynamock.DynamockDBClient;
 import com.bizo.aws.dynamock.DynamockDBClientTest;
+import com.bizo.aws.dynamock.DynamockDBTable;
+import com.bizo.aws.dynamock.ItemSizes;
 
 public class DynamockDBClientHashMapTest extends DynamockDBClientTest {
 
@@ -10,4 +29,156 @@ public class DynamockDBClientHashMapTest extends DynamockDBClientTest {
     db = new DynamockDBClient(new DynamockDBTableManagerHashMapImpl());
   }
 
+  @Test
+  public void testSnapshotRestore() throws IOException {
+    final DynamockDBTableManagerHashMapImpl manager = new DynamockDBTableManagerHashMapImpl();
+    final KeySchema rangeSchema = new KeySchema(new KeySchemaElement().withAttributeName("id").withAttributeType(ScalarAttributeType.S))
+        .withRangeKeyElement(new KeySchemaElement().withAttributeName("seq").withAttributeType(ScalarAttributeType.N));
+    final DynamockDBTable ranged = manager.createTable("ranged", rangeSchema);
+    final DynamockDBTable hashed = manager.createTable("hashed", new KeySchema(new KeySchemaElement().withAttributeName("id")));
+
+    for (int i = 0; i < 1000; i++) {
+      final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+      item.put("id", new AttributeValue().withS("id" + (i % 10)));
+      item.put("seq", new AttributeValue().withN(Integer.toString(i)));
+      ranged.createItem(item);
+      item.put("id", new AttributeValue().withS("id" + i));
+      hashed.createItem(item);
+    }
+
+    final File file = File.createTempFile("dynamock", ".snapshot");
+    try {
+      manager.writeSnapshot(file);
+
+      final DynamockDBTableManagerHashMapImpl restored = new DynamockDBTableManagerHashMapImpl(ItemLayout.COMPACT);
+      restored.restoreSnapshot(file);
+      assertEquals(2, restored.getTables().size());
+
+      final DynamockDBTableHashMapImpl restoredRanged = (DynamockDBTableHashMapImpl)restored.getTable("ranged");
+      assertEquals("seq", restoredRanged.getRangeKeyName());
+      assertEquals("N", restoredRanged.getKeySchema().getRangeKeyElement().getAttributeType());
+      assertEquals(1000, restoredRanged.getAllItems().size());
+      assertEquals(100, restoredRanged.query(new AttributeValue().withS("id3"), null, true, null, null, null).size());
+
+      final DynamockDBTable restoredHashed = restored.getTable("hashed");
+      assertNull(restoredHashed.getRangeKeyName());
+      assertEquals("999", restoredHashed.getItem(new Key(new AttributeValue().withS("id999"))).getAttributeValue("seq").getN());
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testFork() {
+    final DynamockDBTableManagerHashMapImpl base = new DynamockDBTableManagerHashMapImpl();
+    final DynamockDBTable table = base.createTable("forked", new KeySchema(new KeySchemaElement().withAttributeName("id"))
+        .withRangeKeyElement(new KeySchemaElement().withAttributeName("seq")));
+    for (int i = 0; i < 100; i++) {
+      table.createItem(forkItem(i % 10, i, "base"));
+    }
+
+    final DynamockDBTableManagerHashMapImpl fork = base.fork();
+    final DynamockDBTable forked = fork.getTable("forked");
+    forked.createItem(forkItem(1, 1, "fork"));
+    forked.createItem(forkItem(100, 1000, "fork"));
+    forked.deleteItem(new Key(new AttributeValue().withS("id2"), new AttributeValue().withN("2")));
+    table.createItem(forkItem(3, 3, "base after fork"));
+
+    assertEquals("base", table.getItem(forkKey(1, 1)).getAttributeValue("v").getS());
+    assertEquals("fork", forked.getItem(forkKey(1, 1)).getAttributeValue("v").getS());
+    assertEquals("base", forked.getItem(forkKey(3, 3)).getAttributeValue("v").getS());
+    assertNull(forked.getItem(forkKey(2, 2)));
+    assertEquals(100, table.getAllItems().size());
+    assertEquals(100, forked.getAllItems().size());
+    assertEquals(9, forked.query(new AttributeValue().withS("id2"), null, true, null, null, null).size());
+
+    // a fork of a fork sees the first fork's writes, and neither sees the other's later writes
+    final DynamockDBTable second = fork.fork().getTable("forked");
+    second.deleteItem(forkKey(100, 1000));
+    assertNull(second.getItem(forkKey(100, 1000)));
+    assertEquals("fork", forked.getItem(forkKey(100, 1000)).getAttributeValue("v").getS());
+    assertEquals("fork", second.getItem(forkKey(1, 1)).getAttributeValue("v").getS());
+    assertEquals(99, second.getAllItems().size());
+  }
+
+  /**
+   * Values read from a table are shared with the stored item and every fork, so they can't be changed.
+   */
+  @Test
+  public void testStoredValuesAreImmutable() {
+    final DynamockDBTableManagerHashMapImpl base = new DynamockDBTableManagerHashMapImpl();
+    final DynamockDBTable table = base.createTable("frozen", new KeySchema(new KeySchemaElement().withAttributeName("id")));
+    final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+    item.put("id", new AttributeValue().withS("id1"));
+    item.put("tags", new AttributeValue().withSS("a", "b"));
+    table.createItem(item);
+
+    // the caller's value isn't stored
+    item.get("tags").getSS().add("c");
+
+    final DynamockDBTable forked = base.fork().getTable("frozen");
+    final Key key = new Key(new AttributeValue().withS("id1"));
+    final AttributeValue tags = forked.getItem(key).getAttributeValue("tags");
+    try {
+      tags.getSS().add("d");
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      tags.setS("e");
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      tags.withSS("f");
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+
+    assertEquals(Arrays.asList("a", "b"), table.getItem(key).getAttributeValue("tags").getSS());
+    assertNull(table.getItem(key).getAttributeValue("tags").getS());
+    assertEquals(Arrays.asList("a", "b"), forked.getItem(key).getAttributeValue("tags").getSS());
+  }
+
+  /**
+   * Stored items measure themselves by walking the trie, which must agree with measuring a plain map.
+   */
+  @Test
+  public void testItemSizeEstimates() {
+    final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+    for (int i = 0; i < 100; i++) {
+      item.put("attribute" + i, new AttributeValue().withS("value " + i));
+    }
+    item.put("numbers", new AttributeValue().withNS("1", "22", "333"));
+    item.put("strings", new AttributeValue().withSS("a", "\u00e9t\u00e9"));
+
+    final int expected = ItemSizes.estimate(item);
+    final PersistentAttributeMap stored = PersistentAttributeMap.copyOf(item);
+    assertEquals(expected, stored.estimatedSize());
+    assertEquals(expected, ItemSizes.estimate(stored));
+    assertEquals(expected - ItemSizes.estimate("numbers", item.get("numbers")), stored.minus("numbers").estimatedSize());
+    assertEquals(0, PersistentAttributeMap.EMPTY.estimatedSize());
+
+    // a projection measures each named attribute that the item has, once
+    final Map<String, AttributeValue> projected = new HashMap<String, AttributeValue>();
+    projected.put("attribute1", item.get("attribute1"));
+    assertEquals(ItemSizes.estimate(projected),
+        ItemSizes.estimate(projected, Arrays.asList("attribute1", "missing", "attribute1")));
+  }
+
+  private static Map<String, AttributeValue> forkItem(final int id, final int seq, final String value) {
+    final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+    item.put("id", new AttributeValue().withS("id" + id));
+    item.put("seq", new AttributeValue().withN(Integer.toString(seq)));
+    item.put("v", new AttributeValue().withS(value));
+    return item;
+  }
+
+  private static Key forkKey(final int id, final int seq) {
+    return new Key(new AttributeValue().withS("id" + id), new AttributeValue().withN(Integer.toString(seq)));
+  }
+
 }
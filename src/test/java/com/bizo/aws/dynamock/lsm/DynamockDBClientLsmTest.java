@@ -0,0 +1,181 @@
+package com.bizo.aws.dynamock.lsm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.ComparisonOperator;
+import com.amazonaws.services.dynamodb.model.Condition;
+import com.amazonaws.services.dynamodb.model.Key;
+import com.amazonaws.services.dynamodb.model.KeySchema;
+import com.amazonaws.services.dynamodb.model.KeySchemaElement;
+import com.bizo.aws.dynamock.DynamockDBClient;
+import com.bizo.aws.dynamock.DynamockDBClientTest;
+import com.bizo.aws.dynamock.DynamockDBItem;
+import com.bizo.aws.dynamock.DynamockDBTable;
+
+public class DynamockDBClientLsmTest extends DynamockDBClientTest {
+
+  private File dataDirectory;
+  private DynamockDBTableManagerLsmImpl manager;
+
+  @Override
+  protected void initializeDB() {
+    try {
+      dataDirectory = File.createTempFile("dynamock", "");
+      dataDirectory.delete();
+      manager = new DynamockDBTableManagerLsmImpl(dataDirectory, false, 64 * 1024, 3);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    db = new DynamockDBClient(manager);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    manager.close();
+    deleteRecursively(dataDirectory);
+  }
+
+  /**
+   * Enough writes to flush and compact a small memtable several times, some left only in the log, then a reopen.
+   */
+  @Test
+  public void testReopen() throws IOException {
+    final DynamockDBTable table = manager.createTable("reopen", new KeySchema(new KeySchemaElement().withAttributeName("id"))
+        .withRangeKeyElement(new KeySchemaElement().withAttributeName("seq")));
+
+    final int count = 3000;
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < count; i++) {
+        final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+        item.put("id", new AttributeValue().withS("id" + (i % 100)));
+        item.put("seq", new AttributeValue().withN(Integer.toString(i)));
+        item.put("round", new AttributeValue().withN(Integer.toString(round)));
+        table.createItem(item);
+      }
+    }
+    for (int i = 0; i < count; i += 3) {
+      table.deleteItem(key(i));
+    }
+
+    manager.close();
+    manager = new DynamockDBTableManagerLsmImpl(dataDirectory, false, 64 * 1024, 3);
+    final DynamockDBTable reopened = manager.getTable("reopen");
+    assertEquals("seq", reopened.getRangeKeyName());
+
+    for (int i = 0; i < count; i++) {
+      if (i % 3 == 0) {
+        assertNull(reopened.getItem(key(i)));
+      } else {
+        assertNotNull(reopened.getItem(key(i)));
+      }
+    }
+    assertEquals("1", reopened.getItem(key(count - 1)).getAttributeValue("round").getN());
+    assertEquals(count - count / 3, reopened.getAllItems().size());
+    assertEquals(20, reopened.query(new AttributeValue().withS("id1"), null, true, null, null, null).size());
+  }
+
+  /**
+   * Descending queries read segments and memtables backwards, so compare them with ascending ones reversed.
+   */
+  @Test
+  public void testDescendingQuery() {
+    final DynamockDBTable table = manager.createTable("descending", new KeySchema(new KeySchemaElement().withAttributeName("id"))
+        .withRangeKeyElement(new KeySchemaElement().withAttributeName("seq")));
+
+    final int count = 3000;
+    for (int i = 0; i < count; i++) {
+      final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+      item.put("id", new AttributeValue().withS("id" + (i % 3)));
+      item.put("seq", new AttributeValue().withN(Integer.toString(i)));
+      table.createItem(item);
+    }
+    for (int i = 0; i < count; i += 7) {
+      table.deleteItem(key3(i));
+    }
+
+    final AttributeValue hashKey = new AttributeValue().withS("id1");
+    final Condition between = new Condition().withComparisonOperator(ComparisonOperator.BETWEEN)
+        .withAttributeValueList(new AttributeValue().withN("100"), new AttributeValue().withN("2000"));
+    final Condition lessThan = new Condition().withComparisonOperator(ComparisonOperator.LT)
+        .withAttributeValueList(new AttributeValue().withN("2500"));
+    final AttributeValue start = new AttributeValue().withN("1501");
+    assertDescending(table.query(hashKey, null, true, null, null, null), table.query(hashKey, null, false, null, null, null));
+    assertDescending(table.query(hashKey, between, true, null, null, null), table.query(hashKey, between, false, null, null, null));
+    assertDescending(table.query(hashKey, lessThan, true, null, null, null), table.query(hashKey, lessThan, false, null, null, null));
+
+    final List<String> below = seqs(table.query(hashKey, between, false, start, null, null));
+    // 1498 was deleted
+    assertEquals("1495", below.get(0));
+    assertEquals("100", below.get(below.size() - 1));
+  }
+
+  /**
+   * Table names never become paths, so a name pointing outside the data directory must not touch what is there.
+   */
+  @Test
+  public void testTableNameOutsideDataDirectory() throws IOException {
+    final File victim = new File(dataDirectory.getParentFile(), dataDirectory.getName() + "-victim");
+    assertTrue(victim.mkdir());
+    try {
+      final String tableName = "../" + victim.getName();
+      manager.createTable(tableName, new KeySchema(new KeySchemaElement().withAttributeName("id")));
+      assertEquals(tableName, manager.getTable(tableName).getTableName());
+      assertEquals(0, victim.list().length);
+
+      manager.deleteTable(tableName);
+      assertNull(manager.getTable(tableName));
+      assertTrue(victim.isDirectory());
+    } finally {
+      deleteRecursively(victim);
+    }
+  }
+
+  private static void assertDescending(final Collection<DynamockDBItem> ascending, final Collection<DynamockDBItem> descending) {
+    final List<String> expected = seqs(ascending);
+    Collections.reverse(expected);
+    assertEquals(expected, seqs(descending));
+  }
+
+  private static List<String> seqs(final Collection<DynamockDBItem> items) {
+    final List<String> seqs = new ArrayList<String>();
+    for (DynamockDBItem item : items) {
+      seqs.add(item.getAttributeValue("seq").getN());
+    }
+    return seqs;
+  }
+
+  private static Key key3(final int i) {
+    return new Key(new AttributeValue().withS("id" + (i % 3)), new AttributeValue().withN(Integer.toString(i)));
+  }
+
+  private static Key key(final int i) {
+    return new Key(new AttributeValue().withS("id" + (i % 100)), new AttributeValue().withN(Integer.toString(i)));
+  }
+
+  private static void deleteRecursively(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+}
@@ -1,15 +1,35 @@
 package com.bizo.aws.dynamock.mongodb;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
 import java.net.UnknownHostException;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.After;
+import org.junit.Test;
 
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.Key;
+import com.amazonaws.services.dynamodb.model.KeySchema;
+import com.amazonaws.services.dynamodb.model.KeySchemaElement;
+import com.amazonaws.services.dynamodb.model.ScanRequest;
+import com.amazonaws.services.dynamodb.model.ScanResult;
 import com.bizo.aws.dynamock.DynamockDBClient;
 import com.bizo.aws.dynamock.DynamockDBClientTest;
 import com.bizo.aws.dynamock.DynamockDBTable;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
 import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
 
 public class DynamockDBClientMongoDBTest extends DynamockDBClientTest {
 
@@ -34,6 +54,115 @@ public class DynamockDBClientMongoDBTest extends DynamockDBClientTest {
     tableManager.close();
   }
 
+  /**
+   * Documents written before documents carried a segment hash are given one when the table is opened.
+   */
+  @Test
+  public void testSegmentedScanOfDocumentsWithoutSegmentHash() {
+    final DynamockDBTable table = tableManager.createTable("legacy", new KeySchema(new KeySchemaElement().withAttributeName("id")));
+    for (int i = 0; i < 50; i++) {
+      final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+      item.put("id", new AttributeValue().withS("id" + i));
+      table.createItem(item);
+    }
+    tableManager.mongoDB.getCollection("legacy").update(new BasicDBObject(),
+        new BasicDBObject("$unset", new BasicDBObject(DynamockDBTableMongoDBImpl.SEGMENT_HASH_FIELD, 1)), false, true);
+    tableManager.clearTableCache();
+
+    final ScanResult result = dynamockClient().parallelScan(new ScanRequest().withTableName("legacy"), 4);
+    assertEquals(Integer.valueOf(50), result.getCount());
+  }
+
+  /**
+   * Scans read in the order of the scan index, so that a segment is one index range and pages resume within it.
+   */
+  @Test
+  public void testScanIndex() {
+    final DynamockDBTable table = tableManager.createTable("indexed", new KeySchema(new KeySchemaElement().withAttributeName("id"))
+        .withRangeKeyElement(new KeySchemaElement().withAttributeName("seq")));
+    for (int i = 0; i < 60; i++) {
+      final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+      item.put("id", new AttributeValue().withS("id" + (i % 20)));
+      item.put("seq", new AttributeValue().withN(Integer.toString(i)));
+      table.createItem(item);
+    }
+
+    DBObject scanIndex = null;
+    for (DBObject index : tableManager.mongoDB.getCollection("indexed").getIndexInfo()) {
+      if ("scan".equals(index.get("name"))) {
+        scanIndex = index;
+      }
+    }
+    assertEquals(new BasicDBObject(DynamockDBTableMongoDBImpl.SEGMENT_HASH_FIELD, 1).append("id", 1).append("seq", 1),
+        scanIndex.get("key"));
+
+    final Set<String> seen = new HashSet<String>();
+    for (int segment = 0; segment < 3; segment++) {
+      Key startKey = null;
+      do {
+        final ScanResult page = dynamockClient().scan(new ScanRequest()
+          .withTableName("indexed")
+          .withLimit(7)
+          .withExclusiveStartKey(startKey), segment, 3);
+        for (Map<String, AttributeValue> item : page.getItems()) {
+          assertTrue(seen.add(item.get("id").getS() + "/" + item.get("seq").getN()));
+        }
+        startKey = page.getLastEvaluatedKey();
+      } while (startKey != null);
+    }
+    assertEquals(60, seen.size());
+  }
+
+  @Test
+  public void testTableCache() throws UnknownHostException {
+    final KeySchema hashOnly = new KeySchema(new KeySchemaElement().withAttributeName("id"));
+    final KeySchema hashAndRange = new KeySchema(new KeySchemaElement().withAttributeName("id"))
+        .withRangeKeyElement(new KeySchemaElement().withAttributeName("seq"));
+
+    final DynamockDBTable created = tableManager.createTable("cached", hashOnly);
+    assertSame(created, tableManager.getTable("cached"));
+    assertSame(created, tableManager.getTable("cached"));
+
+    tableManager.deleteTable("cached");
+    assertNull(tableManager.getTable("cached"));
+
+    final DynamockDBTable recreated = tableManager.createTable("cached", hashAndRange);
+    assertSame(recreated, tableManager.getTable("cached"));
+    assertEquals("seq", tableManager.getTable("cached").getRangeKeyName());
+
+    // another manager changes the schema behind this one's cache
+    final DynamockDBTableManagerMongoDBImpl other = new DynamockDBTableManagerMongoDBImpl("mongo-test");
+    try {
+      other.deleteTable("cached");
+      other.createTable("cached", hashOnly);
+    } finally {
+      other.close();
+    }
+    assertEquals("seq", tableManager.getTable("cached").getRangeKeyName());
+
+    tableManager.clearTableCache();
+    final DynamockDBTable reloaded = tableManager.getTable("cached");
+    assertNotSame(recreated, reloaded);
+    assertNull(reloaded.getRangeKeyName());
+    assertSame(reloaded, tableManager.getTable("cached"));
+  }
+
+  /**
+   * schema_info written before its unique index existed may hold several entries for one table.
+   */
+  @Test
+  public void testDuplicateSchemaInfo() throws UnknownHostException {
+    cleanupTables();
+    final DBCollection schemaInfo = tableManager.mongoDB.getCollection("schema_info");
+    schemaInfo.insert(new BasicDBObject("tableName", "duplicated").append("hashKeyName", "first"), WriteConcern.SAFE);
+    schemaInfo.insert(new BasicDBObject("tableName", "duplicated").append("hashKeyName", "second"), WriteConcern.SAFE);
+    tableManager.close();
+
+    tableManager = new DynamockDBTableManagerMongoDBImpl("mongo-test");
+    assertEquals(1, tableManager.schemaInfo.count(new BasicDBObject("tableName", "duplicated")));
+    assertEquals("first", tableManager.getTable("duplicated").getHashKeyName());
+  }
+
   private void cleanupTables() {
     final Collection<String> tableNames = tableManager.mongoDB.getCollectionNames();
     for(String tableName: tableNames) {
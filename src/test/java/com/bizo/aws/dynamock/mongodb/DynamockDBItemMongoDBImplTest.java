@@ -0,0 +1,57 @@
+package com.bizo.aws.dynamock.mongodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.bizo.aws.dynamock.DynamockDBItem;
+import com.mongodb.BasicDBObject;
+
+public class DynamockDBItemMongoDBImplTest {
+
+  /**
+   * A document as a cursor reads it back: encoded values, the numbers sub-document, and the fields Dynamock adds.
+   */
+  private static AttributeValueDBObject document() {
+    final AttributeValueDBObject document = new AttributeValueDBObject();
+    document.put("_id", new ObjectId());
+    document.put("id", "id1");
+    document.put("count", NumberCodec.encode("1.50"));
+    document.put("tags", Arrays.asList("a", "b"));
+    document.put(AttributeValueDBObject.NUMBERS_FIELD, new BasicDBObject("count", "1.50"));
+    document.put(DynamockDBTableMongoDBImpl.SEGMENT_HASH_FIELD, 42L);
+    return document;
+  }
+
+  @Test
+  public void testGetAttributeValue() {
+    final DynamockDBItem item = new DynamockDBItemMongoDBImpl(document());
+    assertEquals("1.50", item.getAttributeValue("count").getN());
+    assertSame(item.getAttributeValue("count"), item.getAttributeValue("count"));
+    assertNull(item.getAttributeValue("missing"));
+    assertNull(item.getAttributeValue(DynamockDBTableMongoDBImpl.SEGMENT_HASH_FIELD));
+    assertNull(item.getAttributeValue(AttributeValueDBObject.NUMBERS_FIELD));
+  }
+
+  @Test
+  public void testToMap() {
+    final Map<String, AttributeValue> expected = new HashMap<String, AttributeValue>();
+    expected.put("id", new AttributeValue().withS("id1"));
+    expected.put("count", new AttributeValue().withN("1.50"));
+    expected.put("tags", new AttributeValue().withSS("a", "b"));
+
+    final DynamockDBItem item = new DynamockDBItemMongoDBImpl(document());
+    assertEquals(expected, item.toMap());
+
+    item.setAttributeValue("count", new AttributeValue().withN("2"));
+    assertEquals("2", item.toMap().get("count").getN());
+  }
+}
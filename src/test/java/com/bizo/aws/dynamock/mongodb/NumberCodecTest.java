@@ -0,0 +1,88 @@
+package com.bizo.aws.dynamock.mongodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+
+public class NumberCodecTest {
+
+  private static final String MAX_DIGITS = "12345678901234567890123456789012345678";
+
+  /**
+   * Documents keep the text of each number beside its encoding, so numbers read back exactly as written.
+   */
+  @Test
+  public void testRoundTrip() {
+    for (String n : new String[] { "0", "1.50", "-15E-1", "1E+125", "-" + MAX_DIGITS, "0." + MAX_DIGITS, "9.9999E-130" }) {
+      final AttributeValueDBObject document = new AttributeValueDBObject();
+      document.put("n", new AttributeValue().withN(n));
+      assertEquals(n, ((AttributeValue)document.get("n")).getN());
+      assertEquals(NumberCodec.encode(n), NumberCodec.encode(new BigDecimal(n).toString()));
+      assertEquals(NumberCodec.encode(n), NumberCodec.encode(new BigDecimal(n).toPlainString()));
+    }
+  }
+
+  @Test
+  public void testEqualNumbersEncodeEqually() {
+    assertEquals(NumberCodec.encode("1.5"), NumberCodec.encode("1.50"));
+    assertEquals(NumberCodec.encode("1.5"), NumberCodec.encode("15E-1"));
+    assertEquals(NumberCodec.encode("1.5"), NumberCodec.encode("+001.500e0"));
+    assertEquals(NumberCodec.encode("-1.5"), NumberCodec.encode("-15E-1"));
+    assertEquals(NumberCodec.encode("0"), NumberCodec.encode("-0.00"));
+    assertEquals(NumberCodec.encode("0"), NumberCodec.encode("0E+10"));
+  }
+
+  @Test
+  public void testOrder() {
+    final List<BigDecimal> numbers = new ArrayList<BigDecimal>();
+    for (String n : new String[] { "0", "1", "-1", "0.1", "-0.1", "10", "-10", "1.5", "1.05", "-1.5", "-1.05", "9.99E125",
+        "-9.99E125", "1E-130", "-1E-130", MAX_DIGITS, "-" + MAX_DIGITS, "0." + MAX_DIGITS, "-0." + MAX_DIGITS,
+        MAX_DIGITS + "0", MAX_DIGITS.substring(0, 37) + "9", "-" + MAX_DIGITS.substring(0, 37) + "9" }) {
+      numbers.add(new BigDecimal(n));
+    }
+    final List<BigDecimal> chosen = new ArrayList<BigDecimal>(numbers);
+
+    final Random random = new Random(42);
+    for (int i = 0; i < 2000; i++) {
+      final BigInteger unscaled = new BigInteger(1 + random.nextInt(126), random);
+      final BigDecimal number = new BigDecimal(unscaled, random.nextInt(160) - 80).round(new MathContext(38));
+      numbers.add(random.nextBoolean() ? number : number.negate());
+    }
+
+    final List<BigDecimal> byEncoding = new ArrayList<BigDecimal>(numbers);
+    Collections.sort(byEncoding, new Comparator<BigDecimal>() {
+      @Override
+      public int compare(final BigDecimal a, final BigDecimal b) {
+        return NumberCodec.encode(a.toString()).compareTo(NumberCodec.encode(b.toString()));
+      }
+    });
+    for (int i = 1; i < byEncoding.size(); i++) {
+      assertTrue(byEncoding.get(i - 1) + " sorted before " + byEncoding.get(i),
+          byEncoding.get(i - 1).compareTo(byEncoding.get(i)) <= 0);
+    }
+
+    for (BigDecimal a : chosen) {
+      for (BigDecimal b : chosen) {
+        assertEquals(Integer.signum(a.compareTo(b)),
+            Integer.signum(NumberCodec.encode(a.toString()).compareTo(NumberCodec.encode(b.toString()))));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNotANumber() {
+    NumberCodec.encode("1.2.3");
+  }
+}
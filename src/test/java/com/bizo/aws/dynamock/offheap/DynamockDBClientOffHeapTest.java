@@ -0,0 +1,75 @@
+package com.bizo.aws.dynamock.offheap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.Key;
+import com.bizo.aws.dynamock.DynamockDBClient;
+import com.bizo.aws.dynamock.DynamockDBClientTest;
+import com.bizo.aws.dynamock.DynamockDBItem;
+
+public class DynamockDBClientOffHeapTest extends DynamockDBClientTest {
+
+  @Override
+  protected void initializeDB() {
+    db = new DynamockDBClient(new DynamockDBTableManagerOffHeapImpl());
+  }
+
+  /**
+   * Enough partitions to grow the directory, and enough rewrites to compact a small arena several times.
+   */
+  @Test
+  public void testRewriteGrowAndCompact() {
+    final DynamockDBTableOffHeapImpl table = new DynamockDBTableOffHeapImpl(4096);
+    table.setTableName("offheap");
+    table.setHashKeyName("id");
+    table.setRangeKeyName("seq");
+
+    final int partitions = 2000;
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < partitions; i++) {
+        for (int seq = 0; seq < 3; seq++) {
+          final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+          item.put("id", new AttributeValue().withS("id" + i));
+          item.put("seq", new AttributeValue().withN(Integer.toString(seq)));
+          item.put("round", new AttributeValue().withN(Integer.toString(round)));
+          table.createItem(item);
+        }
+      }
+    }
+
+    for (int i = 0; i < partitions; i += 2) {
+      for (int seq = 0; seq < 3; seq++) {
+        table.deleteItem(key(i, seq));
+      }
+    }
+
+    assertNull(table.getItem(key(0, 1)));
+    assertEquals("2", table.getItem(key(1, 1)).getAttributeValue("round").getN());
+
+    final Set<String> scanned = new HashSet<String>();
+    for (int segment = 0; segment < 3; segment++) {
+      final Iterator<DynamockDBItem> iterator = table.scan(null, segment, 3, null, null);
+      while (iterator.hasNext()) {
+        final Map<String, AttributeValue> item = iterator.next().toMap();
+        assertEquals("2", item.get("round").getN());
+        scanned.add(item.get("id").getS() + "/" + item.get("seq").getN());
+      }
+    }
+    assertEquals(partitions / 2 * 3, scanned.size());
+  }
+
+  private static Key key(final int id, final int seq) {
+    return new Key(new AttributeValue().withS("id" + id), new AttributeValue().withN(Integer.toString(seq)));
+  }
+
+}
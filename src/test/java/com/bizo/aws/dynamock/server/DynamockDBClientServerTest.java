@@ -0,0 +1,171 @@
+package com.bizo.aws.dynamock.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.services.dynamodb.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodb.model.AttributeValue;
+import com.amazonaws.services.dynamodb.model.GetItemRequest;
+import com.amazonaws.services.dynamodb.model.Key;
+import com.bizo.aws.dynamock.DynamockDBClient;
+import com.bizo.aws.dynamock.DynamockDBClientTest;
+import com.bizo.aws.dynamock.hashmap.DynamockDBTableManagerHashMapImpl;
+
+/**
+ * Run the client tests through the SDK's own AmazonDynamoDBClient, talking to a DynamockDBServer.
+ */
+public class DynamockDBClientServerTest extends DynamockDBClientTest {
+
+  private DynamockDBClient dynamockClient;
+  private DynamockDBServer server;
+
+  @Override
+  protected void initializeDB() {
+    dynamockClient = new DynamockDBClient(new DynamockDBTableManagerHashMapImpl());
+    server = new DynamockDBServer(dynamockClient, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), ForkJoinPool.commonPool());
+    try {
+      server.start();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+
+    final AmazonDynamoDBClient client = new AmazonDynamoDBClient(new BasicSessionCredentials("access key", "secret key", "token"));
+    client.setEndpoint("http://localhost:" + server.getPort());
+    db = client;
+  }
+
+  @Override
+  protected DynamockDBClient dynamockClient() {
+    return dynamockClient;
+  }
+
+  @After
+  public void shutdown() throws IOException {
+    db.shutdown();
+    server.close();
+  }
+
+  @Test
+  public void testResourceNotFound() {
+    try {
+      db.getItem(new GetItemRequest().withTableName("missing table").withKey(new Key(new AttributeValue().withS("id"))));
+      fail("table should not be found");
+    } catch (AmazonServiceException e) {
+      assertEquals("ResourceNotFoundException", e.getErrorCode());
+      assertEquals(400, e.getStatusCode());
+    }
+  }
+
+  @Test
+  public void testPipelining() throws IOException {
+    final Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    try {
+      final StringBuilder requests = new StringBuilder();
+      for (int i = 0; i < 10; i++) {
+        requests.append(request("ListTables", "{}", i == 9));
+      }
+      requests.append(request("ListTables", "{}", false));
+      final OutputStream out = socket.getOutputStream();
+      out.write(requests.toString().getBytes("UTF-8"));
+      out.flush();
+
+      final String responses = readAll(socket.getInputStream());
+      // the server stops reading after the request asking it to close the connection
+      assertEquals(10, count(responses, "HTTP/1.1 200 OK"));
+      assertEquals(1, count(responses, "Connection: close"));
+      assertEquals(10, count(responses, "{\"TableNames\":["));
+      assertTrue(responses.endsWith("]}"));
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testMalformedRequest() throws IOException {
+    final Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    try {
+      final OutputStream out = socket.getOutputStream();
+      out.write((request("GetItem", "{\"TableName\":", false) + request("NoSuchOperation", "{}", true)).getBytes("UTF-8"));
+      out.flush();
+
+      final String responses = readAll(socket.getInputStream());
+      assertEquals(2, count(responses, "HTTP/1.1 400 Bad Request"));
+      assertEquals(1, count(responses, "#SerializationException"));
+      assertEquals(1, count(responses, "#UnknownOperationException"));
+    } finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * A request failing with an Error, here a StackOverflowError skipping deeply nested JSON, is still answered.
+   */
+  @Test
+  public void testErrorAnswered() throws IOException {
+    final StringBuilder nested = new StringBuilder("{\"Unknown\":");
+    for (int i = 0; i < 1000000; i++) {
+      nested.append('[');
+    }
+    for (int i = 0; i < 1000000; i++) {
+      nested.append(']');
+    }
+    nested.append('}');
+
+    final Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    try {
+      final OutputStream out = socket.getOutputStream();
+      out.write((request("ListTables", nested.toString(), false) + request("ListTables", "{}", true)).getBytes("UTF-8"));
+      out.flush();
+
+      final String responses = readAll(socket.getInputStream());
+      assertEquals(1, count(responses, "HTTP/1.1 500 Internal Server Error"));
+      assertEquals(1, count(responses, "HTTP/1.1 200 OK"));
+    } finally {
+      socket.close();
+    }
+  }
+
+  private static String request(final String operation, final String body, final boolean close) {
+    return "POST / HTTP/1.1\r\n"
+        + "Host: localhost\r\n"
+        + "X-Amz-Target: DynamoDB_20111205." + operation + "\r\n"
+        + "Content-Type: application/x-amz-json-1.0\r\n"
+        + "Content-Length: " + body.length() + "\r\n"
+        + (close ? "Connection: close\r\n" : "")
+        + "\r\n"
+        + body;
+  }
+
+  private static String readAll(final InputStream in) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final byte[] buf = new byte[4096];
+    int read;
+    while ((read = in.read(buf)) >= 0) {
+      bytes.write(buf, 0, read);
+    }
+    return bytes.toString("UTF-8");
+  }
+
+  private static int count(final String s, final String substring) {
+    int count = 0;
+    for (int i = s.indexOf(substring); i >= 0; i = s.indexOf(substring, i + 1)) {
+      count++;
+    }
+    return count;
+  }
+}